@@ -0,0 +1,58 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.benchmarks;
+
+import akka.actor.ActorSystem;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.modelcoding.opensource.jsoncache.CacheObject;
+import com.modelcoding.opensource.jsoncache.JsonCacheModule;
+import com.modelcoding.opensource.jsoncache.ScalaJsonCacheModule;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Objects of a typical size and shape for the benchmarks to cache.
+ */
+final class BenchmarkObjects {
+
+    private static final String[] TYPES = { "Quote", "Trade", "Position", "Presence" };
+
+    private BenchmarkObjects() {
+    }
+
+    static JsonCacheModule module(final ActorSystem system) {
+
+        return new ScalaJsonCacheModule(system);
+    }
+
+    static String id(final int i) {
+
+        return "Id" + i;
+    }
+
+    /**
+     * @return the object with the given number, with content that differs for each {@code version}
+     */
+    static CacheObject cacheObject(final JsonCacheModule m, final int i, final long version) {
+
+        final ObjectNode content = JsonNodeFactory.instance.objectNode();
+        content.put("name", "Object " + i);
+        content.put("version", version);
+        content.put("price", 100.0 + i % 1000 / 100.0);
+        content.put("quantity", i % 10000);
+        content.putObject("owner").put("desk", "Desk" + i % 50).put("region", "EMEA");
+
+        return m.getCacheObject(id(i), TYPES[i % TYPES.length], content);
+    }
+
+    static Set<CacheObject> cacheObjects(final JsonCacheModule m, final int from, final int count, final long version) {
+
+        final Set<CacheObject> cacheObjects = new HashSet<>(count * 2);
+        for(int i = from; i < from + count; i++) {
+            cacheObjects.add(cacheObject(m, i, version));
+        }
+        return cacheObjects;
+    }
+}
@@ -0,0 +1,104 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.benchmarks;
+
+import akka.actor.ActorSystem;
+import com.modelcoding.opensource.jsoncache.Cache;
+import com.modelcoding.opensource.jsoncache.CacheChangeSet;
+import com.modelcoding.opensource.jsoncache.CacheObject;
+import com.modelcoding.opensource.jsoncache.CacheRemove;
+import com.modelcoding.opensource.jsoncache.JsonCacheModule;
+import com.modelcoding.opensource.jsoncache.ScalaMapCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.modelcoding.opensource.jsoncache.benchmarks.BenchmarkObjects.*;
+
+/**
+ * The operations of a {@link Cache} holding {@code size} objects.
+ * <p>
+ * Each operation is applied to the same {@link Cache}, as it is immutable - its cost being that of creating the
+ * changed {@link Cache}. Each backing of a {@link Cache} is measured, so that they can be compared.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class CacheBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int size;
+
+    // The hash trie of a Cache from the module, or the map it replaced
+    public enum Backing {
+        HASH_TRIE,
+        MAP
+    }
+
+    @Param({"HASH_TRIE", "MAP"})
+    public Backing backing;
+
+    private ActorSystem system;
+    private Cache cache;
+    private CacheObject newObject;
+    private CacheObject changedObject;
+    private CacheRemove remove;
+
+    @Setup
+    public void setup() {
+
+        system = ActorSystem.create("CacheBenchmark");
+        final JsonCacheModule m = module(system);
+        cache = backing == Backing.MAP
+            ? ScalaMapCache.apply(cacheObjects(m, 0, size, 0))
+            : m.getCache(cacheObjects(m, 0, size, 0));
+        newObject = cacheObject(m, size, 0);
+        changedObject = cacheObject(m, size / 2, 1);
+        remove = m.getCacheRemove(id(size / 2));
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        system.terminate();
+    }
+
+    @Benchmark
+    public Cache putNew() {
+
+        return cache.put(newObject).getCache();
+    }
+
+    @Benchmark
+    public Cache putChanged() {
+
+        return cache.put(changedObject).getCache();
+    }
+
+    @Benchmark
+    public Cache remove() {
+
+        return cache.remove(remove).getCache();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public int getImage() {
+
+        final CacheChangeSet image = cache.getImage();
+        // The image may be a view of the Cache - iterating it is part of the cost of sending it
+        int count = 0;
+        for(final CacheObject ignored : image.getPuts()) {
+            count++;
+        }
+        return count;
+    }
+}
@@ -0,0 +1,78 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.benchmarks;
+
+import akka.actor.ActorSystem;
+import com.modelcoding.opensource.jsoncache.Cache;
+import com.modelcoding.opensource.jsoncache.CacheFunction;
+import com.modelcoding.opensource.jsoncache.CacheObject;
+import com.modelcoding.opensource.jsoncache.CacheRemove;
+import com.modelcoding.opensource.jsoncache.JsonCacheModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static com.modelcoding.opensource.jsoncache.benchmarks.BenchmarkObjects.*;
+
+/**
+ * The function of a cache change calculator, applying change sets of {@code changeSetSize} changes to a {@link Cache}
+ * of 100,000 objects.
+ * <p>
+ * Each change set holds new objects, changed objects, objects put again unchanged, and removes in equal measure.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheChangeCalculatorBenchmark {
+
+    private static final int CACHE_SIZE = 100000;
+
+    @Param({"1", "100", "10000"})
+    public int changeSetSize;
+
+    private ActorSystem system;
+    private Cache cache;
+    private CacheFunction calculator;
+
+    @Setup
+    public void setup() {
+
+        system = ActorSystem.create("CacheChangeCalculatorBenchmark");
+        final JsonCacheModule m = module(system);
+        cache = m.getCache(cacheObjects(m, 0, CACHE_SIZE, 0));
+
+        final Set<CacheObject> puts = new HashSet<>();
+        final Set<CacheRemove> removes = new HashSet<>();
+        for(int i = 0; i < changeSetSize; i++) {
+            switch(i % 4) {
+                case 0: puts.add(cacheObject(m, CACHE_SIZE + i, 0)); break;
+                case 1: puts.add(cacheObject(m, i, 1)); break;
+                case 2: puts.add(cacheObject(m, i, 0)); break;
+                default: removes.add(m.getCacheRemove(id(i)));
+            }
+        }
+        calculator = m.getCacheChangeCalculator(m.getCacheChangeSet("changes", puts, removes, false)).getCode();
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        system.terminate();
+    }
+
+    @Benchmark
+    public CacheFunction.Result execute() {
+
+        return calculator.execute(cache);
+    }
+}
@@ -0,0 +1,166 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.benchmarks;
+
+import akka.actor.ActorSystem;
+import com.modelcoding.opensource.jsoncache.CacheChangeSet;
+import com.modelcoding.opensource.jsoncache.CacheObject;
+import com.modelcoding.opensource.jsoncache.CacheRemove;
+import com.modelcoding.opensource.jsoncache.JsonCache;
+import com.modelcoding.opensource.jsoncache.JsonCacheModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.modelcoding.opensource.jsoncache.benchmarks.BenchmarkObjects.*;
+
+/**
+ * A change passed to {@link JsonCache#onNext} of a {@link JsonCache} holding 10,000 objects, until it has been
+ * received by each of {@code subscriberCount} subscribers.
+ * <p>
+ * Sampled, the time of each operation is the latency of the {@link JsonCache}; run for throughput, the number of
+ * changes it can pass on per second, one at a time.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class JsonCacheBenchmark {
+
+    private static final int CACHE_SIZE = 10000;
+
+    @Param({"1", "100", "1000"})
+    public int subscriberCount;
+
+    @Param({"false", "true"})
+    public boolean sharedFanOut;
+
+    private ActorSystem system;
+    private JsonCacheModule m;
+    private JsonCache jsonCache;
+    private final List<CountingSubscriber> subscribers = new ArrayList<>();
+    private long version;
+
+    // Counted down by each subscriber as it receives the change set of the operation under way
+    private volatile CountDownLatch delivered;
+
+    // The first error received by a subscriber, failing the benchmark
+    private volatile Throwable error;
+
+    @Setup
+    public void setup() throws Exception {
+
+        system = ActorSystem.create("JsonCacheBenchmark");
+        m = module(system);
+        jsonCache = m.getJsonCache(
+            "benchmark", 1000, JsonCache.SubscriberBacklogPolicy.FAIL, 1, false, sharedFanOut,
+            m.getCache(cacheObjects(m, 0, CACHE_SIZE, 0))
+        );
+
+        final CountDownLatch images = new CountDownLatch(subscriberCount);
+        for(int i = 0; i < subscriberCount; i++) {
+            final CountingSubscriber subscriber = new CountingSubscriber(images);
+            subscribers.add(subscriber);
+            jsonCache.subscribe(subscriber);
+        }
+        await(images, "Subscribers were not sent the image of the JsonCache");
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        subscribers.forEach(CountingSubscriber::cancel);
+        jsonCache.onComplete();
+        system.terminate();
+    }
+
+    @Benchmark
+    public void onNextToSubscribers() throws Exception {
+
+        // A new version of an object each time, so that the change is not dropped as leaving the object unchanged
+        version++;
+        final CacheObject put = cacheObject(m, (int) (version % CACHE_SIZE), version);
+        final CacheChangeSet changeSet =
+            m.getCacheChangeSet("change" + version, Collections.singleton(put), Collections.<CacheRemove>emptySet(), false);
+
+        delivered = new CountDownLatch(subscriberCount);
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet));
+        await(delivered, "Subscribers were not sent the change set");
+    }
+
+    private void await(final CountDownLatch latch, final String timedOut) throws Exception {
+
+        if(!latch.await(1, TimeUnit.MINUTES))
+            throw new IllegalStateException(timedOut);
+        if(error instanceof Error) throw (Error) error;
+        if(error instanceof Exception) throw (Exception) error;
+        if(error != null) throw new Exception(error);
+    }
+
+    private static void release(final CountDownLatch latch) {
+
+        if(latch != null)
+            while(latch.getCount() > 0) latch.countDown();
+    }
+
+    /**
+     * Counts down a latch for each change set received. An error received is recorded, and releases the latches - to
+     * be rethrown, failing the benchmark.
+     */
+    private class CountingSubscriber implements Subscriber<CacheChangeSet> {
+
+        private final CountDownLatch image;
+        private volatile Subscription subscription;
+
+        CountingSubscriber(final CountDownLatch image) {
+
+            this.image = image;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription s) {
+
+            subscription = s;
+            s.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(final CacheChangeSet changeSet) {
+
+            if(changeSet.isCacheImage())
+                image.countDown();
+            else
+                delivered.countDown();
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+
+            if(error == null) error = t;
+            release(image);
+            release(delivered);
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        void cancel() {
+
+            if(subscription != null) subscription.cancel();
+        }
+    }
+}
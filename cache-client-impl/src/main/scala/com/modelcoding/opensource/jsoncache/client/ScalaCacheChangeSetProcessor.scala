@@ -2,19 +2,24 @@
 
 package com.modelcoding.opensource.jsoncache.client
 
+import java.util
 import java.util.function.Predicate
 
-import akka.actor.{Actor, ActorRef, ActorSystem, Props}
+import akka.actor.{Actor, ActorRef, ActorSystem, Props, Stash}
 import com.modelcoding.opensource.jsoncache._
 import org.reactivestreams.{Publisher, Subscriber, Subscription}
 
 import scala.collection.JavaConverters._
 
 import scala.collection.mutable
+import scala.util.{Failure, Success, Try}
 import ScalaJsonCacheClientModule._
 
 class ScalaCacheChangeSetProcessor(
-  cacheObjectSelectors: Publisher[Predicate[CacheObject]]
+  cacheObjectSelectors: Publisher[Predicate[CacheObject]],
+  metrics: Option[JsonCacheMetrics],
+  incremental: Boolean,
+  parallelSelection: Option[ScalaParallelSelection]
 )
   (implicit jsonCacheModule: JsonCacheModule, system: ActorSystem)
   extends CacheChangeSetProcessor {
@@ -92,8 +97,9 @@ class ScalaCacheChangeSetProcessor(
   private case class CancelOutput()
   private case class RequestOutputChangeSets(n: Long)
   private case class SendCacheImageToSubscriber()
+  private case class OnPutsSelected(changeSet: CacheChangeSet, puts: Array[CacheObject], selected: Try[Array[Boolean]], start: Long)
 
-  private class ProcessorActor extends Actor {
+  private class ProcessorActor extends Actor with Stash {
 
     import context._
 
@@ -104,6 +110,18 @@ class ScalaCacheChangeSetProcessor(
     private var selector             : Predicate[CacheObject]             = _
     private var pendingSelector      : Predicate[CacheObject]             = _
 
+    // Only if incremental - the objects last received from the input (complete once an image has been received), from
+    // which to output the changes made by a new selector; the ids of the objects output to the subscriber, and not
+    // since removed, so that only removes of those are output; and the demand for output, so that output not requested
+    // of the input is held until requested by the subscriber
+    private val inputView            : mutable.Map[String, CacheObject]   = mutable.HashMap()
+    private var inputViewComplete    : Boolean                            = false
+    private val delivered            : mutable.Set[String]                = mutable.HashSet() // Ids the subscriber holds
+    private var lastInputId          : String                             = _
+    private val heldOutput           : mutable.Queue[CacheChangeSet]      = mutable.Queue()
+    private var outputDemand         : Long                               = 0 // Requested by subscriber, not yet output
+    private var inputDemand          : Long                               = 0 // Requested of input, not yet received
+
     override def receive: Receive = {
 
       case SubscribeToSelectors() =>
@@ -162,11 +180,16 @@ class ScalaCacheChangeSetProcessor(
         case CancelOutput() => onCancelOutput()
         
         case RequestOutputChangeSets(n) =>
-          inputSubscription.request(n)
+          requestOutput(n)
 
         case OnNextChangeSetFromInput(changeSet) =>
           processChangeSet(changeSet)
 
+        case OnNextSelector(s) if inputViewComplete =>
+          selector = s
+          selectorsSubscription.request(1)
+          outputSelectorChange()
+
         case OnNextSelector(s) =>
           pendingSelector = s
           selectorsSubscription.request(1)
@@ -185,7 +208,7 @@ class ScalaCacheChangeSetProcessor(
         case CancelOutput() => onCancelOutput()
         
         case RequestOutputChangeSets(n) =>
-          inputSubscription.request(n)
+          requestOutput(n)
 
         case OnNextChangeSetFromInput(changeSet) =>
           if(changeSet.isCacheImage) {
@@ -194,7 +217,7 @@ class ScalaCacheChangeSetProcessor(
             become(running)
           }
           processChangeSet(changeSet)
-          inputSubscription.request(1)
+          requestInput(1)
 
         case OnNextSelector(s) =>
           pendingSelector = s
@@ -236,22 +259,163 @@ class ScalaCacheChangeSetProcessor(
 
     private def processChangeSet(changeSet: CacheChangeSet): Unit = {
 
-      val removes: mutable.Set[CacheRemove] = new mutable.HashSet[CacheRemove]()
-      removes ++= changeSet.getRemoves.asScala
+      if(incremental) {
+        if(inputDemand > 0) inputDemand -= 1
+        updateInputView(changeSet)
+      }
 
+      if(selector != null && parallelSelection.exists(_.appliesTo(changeSet))) {
+        selectInParallel(changeSet)
+        return
+      }
+
+      val removes: mutable.Set[CacheRemove] = removesFor(changeSet)
       val puts: mutable.Set[CacheObject] = new mutable.HashSet[CacheObject]()
+      val start: Long = System.nanoTime
       changeSet.getPuts.asScala.foreach { put: CacheObject =>
 
-        if(selector != null && selector.test(put))  
-          puts += put
+        if(selector != null && selector.test(put))
+          putSelected(put, puts)
         else
-          removes += put.asCacheRemove()
+          putRejected(put, removes)
+      }
+
+      outputProcessed(changeSet, puts, removes, start)
+    }
+
+    // Tests the puts of a large image on the pool of the parallelSelection, holding back all other messages until the
+    // results are back, so that the image is still output before any change set that follows it
+    private def selectInParallel(changeSet: CacheChangeSet): Unit = {
+
+      val puts: Array[CacheObject] = changeSet.getPuts.asScala.toArray
+      val start: Long = System.nanoTime
+      parallelSelection.get.select(puts, selector).onComplete { selected =>
+        processorActor ! OnPutsSelected(changeSet, puts, selected, start)
+      }(context.dispatcher)
+      become(selectingInParallel, discardOld = false)
+    }
+
+    private def selectingInParallel: PartialFunction[Any, Unit] = {
+
+      case OnPutsSelected(changeSet, puts, Success(selected), start) =>
+        unbecome()
+        unstashAll()
+        val removes: mutable.Set[CacheRemove] = removesFor(changeSet)
+        val selectedPuts: mutable.Set[CacheObject] = new mutable.HashSet[CacheObject]()
+        var i: Int = 0
+        while(i < puts.length) {
+          if(selected(i)) putSelected(puts(i), selectedPuts) else putRejected(puts(i), removes)
+          i += 1
+        }
+        outputProcessed(changeSet, selectedPuts, removes, start)
+
+      case OnPutsSelected(_, _, Failure(error), _) =>
+        subscriber.onError(error)
+        selectorsSubscription.cancel()
+        inputSubscription.cancel()
+        context.stop(self)
+
+      case _ =>
+        stash()
+    }
+
+    private def removesFor(changeSet: CacheChangeSet): mutable.Set[CacheRemove] = {
+
+      val removes: mutable.Set[CacheRemove] = new mutable.HashSet[CacheRemove]()
+      if(!incremental)
+        removes ++= changeSet.getRemoves.asScala
+      else {
+        // A cache image replaces all the subscriber holds, so needs no removes
+        if(changeSet.isCacheImage) delivered.clear()
+        changeSet.getRemoves.asScala.foreach { remove => if(delivered.remove(remove.getId)) removes += remove }
       }
+      removes
+    }
+
+    private def putSelected(put: CacheObject, puts: mutable.Set[CacheObject]): Unit = {
+
+      puts += put
+      if(incremental) delivered += put.getId
+    }
+
+    private def putRejected(put: CacheObject, removes: mutable.Set[CacheRemove]): Unit = {
+
+      if(!incremental || delivered.remove(put.getId)) removes += put.asCacheRemove()
+    }
+
+    private def outputProcessed(
+      changeSet: CacheChangeSet,
+      puts: mutable.Set[CacheObject],
+      removes: mutable.Set[CacheRemove],
+      start: Long
+    ): Unit = {
+
+      if(metrics.isDefined) metrics.get.recordSelectorEvaluated(changeSet.getPuts.size, System.nanoTime - start)
 
       val outputChangeSet: CacheChangeSet = 
         jsonCacheModule.getCacheChangeSet(changeSet.getId, puts.asJava, removes.asJava, changeSet.isCacheImage)
 
-      subscriber.onNext(outputChangeSet)
+      output(outputChangeSet)
+    }
+
+    private def updateInputView(changeSet: CacheChangeSet): Unit = {
+
+      if(changeSet.isCacheImage) {
+        inputView.clear()
+        inputViewComplete = true
+      }
+      lastInputId = changeSet.getId
+      changeSet.getRemoves.asScala.foreach { remove => inputView -= remove.getId }
+      changeSet.getPuts.asScala.foreach { put => inputView += (put.getId -> put) }
+    }
+
+    // Outputs the puts of the objects selected by the current selector that the subscriber does not hold, and the
+    // removes of those it holds that are not selected
+    private def outputSelectorChange(): Unit = {
+
+      val puts: util.Set[CacheObject] = new util.HashSet[CacheObject]()
+      val removes: util.Set[CacheRemove] = new util.HashSet[CacheRemove]()
+      inputView.valuesIterator.foreach { cacheObject =>
+        val isSelected: Boolean = selector.test(cacheObject)
+        if(isSelected && delivered.add(cacheObject.getId)) puts.add(cacheObject)
+        else if(!isSelected && delivered.remove(cacheObject.getId)) removes.add(cacheObject.asCacheRemove())
+      }
+
+      if(!puts.isEmpty || !removes.isEmpty)
+        output(jsonCacheModule.getCacheChangeSet(lastInputId, puts, removes, false))
+    }
+
+    private def output(changeSet: CacheChangeSet): Unit = {
+
+      if(!incremental)
+        subscriber.onNext(changeSet)
+      else if(outputDemand > 0) {
+        outputDemand -= 1
+        subscriber.onNext(changeSet)
+      }
+      else
+        heldOutput.enqueue(changeSet)
+    }
+
+    private def requestOutput(n: Long): Unit = {
+
+      if(!incremental) {
+        inputSubscription.request(n)
+        return
+      }
+
+      outputDemand = if(outputDemand + n < 0) Long.MaxValue else outputDemand + n
+      while(outputDemand > 0 && heldOutput.nonEmpty) {
+        outputDemand -= 1
+        subscriber.onNext(heldOutput.dequeue())
+      }
+      if(outputDemand > inputDemand) requestInput(outputDemand - inputDemand)
+    }
+
+    private def requestInput(n: Long): Unit = {
+
+      if(incremental) inputDemand = if(inputDemand + n < 0) Long.MaxValue else inputDemand + n
+      inputSubscription.request(n)
     }
 
     private def onInputFailed(error: Throwable): Unit = {
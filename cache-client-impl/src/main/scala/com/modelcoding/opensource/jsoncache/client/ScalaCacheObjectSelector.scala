@@ -0,0 +1,194 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.client
+
+import java.util
+
+import com.fasterxml.jackson.core.JsonPointer
+import com.fasterxml.jackson.databind.JsonNode
+import com.modelcoding.opensource.jsoncache.CacheObject
+import ScalaCacheObjectSelector._
+
+import scala.collection.JavaConverters._
+
+/**
+ * The CacheObjectSelectors of this module - case classes, so selectors made from equal conditions are equal.
+ */
+sealed trait ScalaCacheObjectSelector extends CacheObjectSelector {
+
+  // The types of object this selector can select, or None if of any type
+  private[client] def types: Option[Set[String]]
+
+  // Terms of which any object selected satisfies at least one, or None if there are no such terms to index on
+  private[client] def indexTerms: Option[Set[IndexTerm]]
+
+  // Relative cost of a test, so that the cheapest conditions of a combined selector are tested first
+  private[client] def cost: Int
+
+  override lazy val getTypes: util.Set[String] = types.map(_.asJava).orNull
+}
+
+private[client] case class ScalaTypesSelector(selectedTypes: Set[String]) extends ScalaCacheObjectSelector {
+
+  override private[client] val types      : Option[Set[String]]    = Some(selectedTypes)
+  override private[client] val indexTerms : Option[Set[IndexTerm]] = Some(selectedTypes.map(TypeTerm))
+  override private[client] val cost       : Int                    = 0
+
+  override def test(cacheObject: CacheObject): Boolean = selectedTypes.contains(cacheObject.getType)
+}
+
+private[client] case class ScalaEqualSelector(jsonPointer: String, key: AnyRef)(value: JsonNode)
+  extends ScalaCacheObjectSelector {
+
+  private val pointer: JsonPointer = JsonPointer.compile(jsonPointer)
+  private val number : Option[java.math.BigDecimal] = key match {
+    case n: java.math.BigDecimal => Some(n)
+    case _                       => None
+  }
+
+  override private[client] val types      : Option[Set[String]]    = None
+  override private[client] val indexTerms : Option[Set[IndexTerm]] = Some(Set(EqualTerm(jsonPointer, key)))
+  override private[client] val cost       : Int                    = 1
+
+  override def test(cacheObject: CacheObject): Boolean = {
+
+    val found: JsonNode = cacheObject.getContent.at(pointer)
+    if(number.isDefined)
+      isComparableNumber(found) && found.decimalValue.compareTo(number.get) == 0
+    else
+      found == value
+  }
+}
+
+private[client] case class ScalaNumberRangeSelector(
+  jsonPointer: String,
+  from: Option[java.math.BigDecimal],
+  to: Option[java.math.BigDecimal]
+) extends ScalaCacheObjectSelector {
+
+  private val pointer: JsonPointer = JsonPointer.compile(jsonPointer)
+
+  override private[client] val types      : Option[Set[String]]    = None
+  override private[client] val indexTerms : Option[Set[IndexTerm]] = None
+  override private[client] val cost       : Int                    = 1
+
+  override def test(cacheObject: CacheObject): Boolean = {
+
+    val found: JsonNode = cacheObject.getContent.at(pointer)
+    if(!isComparableNumber(found)) return false
+    val n: java.math.BigDecimal = found.decimalValue
+    (from.isEmpty || n.compareTo(from.get) >= 0) && (to.isEmpty || n.compareTo(to.get) < 0)
+  }
+}
+
+private[client] case class ScalaTextRangeSelector(
+  jsonPointer: String,
+  from: Option[String],
+  to: Option[String]
+) extends ScalaCacheObjectSelector {
+
+  private val pointer: JsonPointer = JsonPointer.compile(jsonPointer)
+
+  override private[client] val types      : Option[Set[String]]    = None
+  override private[client] val indexTerms : Option[Set[IndexTerm]] = None
+  override private[client] val cost       : Int                    = 1
+
+  override def test(cacheObject: CacheObject): Boolean = {
+
+    val found: JsonNode = cacheObject.getContent.at(pointer)
+    if(!found.isTextual) return false
+    val text: String = found.textValue
+    (from.isEmpty || text.compareTo(from.get) >= 0) && (to.isEmpty || text.compareTo(to.get) < 0)
+  }
+}
+
+private[client] case class ScalaStartsWithSelector(jsonPointer: String, prefix: String) extends ScalaCacheObjectSelector {
+
+  private val pointer: JsonPointer = JsonPointer.compile(jsonPointer)
+
+  override private[client] val types      : Option[Set[String]]    = None
+  override private[client] val indexTerms : Option[Set[IndexTerm]] = None
+  override private[client] val cost       : Int                    = 1
+
+  override def test(cacheObject: CacheObject): Boolean = {
+
+    val found: JsonNode = cacheObject.getContent.at(pointer)
+    found.isTextual && found.textValue.startsWith(prefix)
+  }
+}
+
+private[client] case class ScalaAllOfSelector(selectors: Set[ScalaCacheObjectSelector]) extends ScalaCacheObjectSelector {
+
+  private val ordered: Array[ScalaCacheObjectSelector] = selectors.toArray.sortBy(_.cost)
+
+  override private[client] val types: Option[Set[String]] = {
+    val constrained: Set[Set[String]] = selectors.flatMap(_.types)
+    if(constrained.isEmpty) None else Some(constrained.reduce(_ intersect _))
+  }
+
+  // The terms of one of the selectors suffice - preferring those on values, being the more selective, then the fewest
+  override private[client] val indexTerms: Option[Set[IndexTerm]] = {
+    val indexable: Set[Set[IndexTerm]] = selectors.flatMap(_.indexTerms)
+    if(indexable.isEmpty) None
+    else Some(indexable.minBy { terms => (if(terms.forall(_.isInstanceOf[EqualTerm])) 0 else 1, terms.size) })
+  }
+
+  override private[client] val cost: Int = selectors.toSeq.map(_.cost).sum
+
+  override def test(cacheObject: CacheObject): Boolean = {
+
+    var i: Int = 0
+    while(i < ordered.length) {
+      if(!ordered(i).test(cacheObject)) return false
+      i += 1
+    }
+    true
+  }
+}
+
+private[client] case class ScalaAnyOfSelector(selectors: Set[ScalaCacheObjectSelector]) extends ScalaCacheObjectSelector {
+
+  private val ordered: Array[ScalaCacheObjectSelector] = selectors.toArray.sortBy(_.cost)
+
+  override private[client] val types: Option[Set[String]] =
+    if(selectors.exists(_.types.isEmpty)) None else Some(selectors.flatMap(_.types.get))
+
+  override private[client] val indexTerms: Option[Set[IndexTerm]] =
+    if(selectors.exists(_.indexTerms.isEmpty)) None else Some(selectors.flatMap(_.indexTerms.get))
+
+  override private[client] val cost: Int = selectors.toSeq.map(_.cost).sum
+
+  override def test(cacheObject: CacheObject): Boolean = {
+
+    var i: Int = 0
+    while(i < ordered.length) {
+      if(ordered(i).test(cacheObject)) return true
+      i += 1
+    }
+    false
+  }
+}
+
+/**
+ * A condition indexed by a ScalaCacheObjectSelectorIndex.
+ */
+private[client] sealed trait IndexTerm
+
+private[client] case class TypeTerm(aType: String) extends IndexTerm
+
+private[client] case class EqualTerm(jsonPointer: String, key: AnyRef) extends IndexTerm
+
+object ScalaCacheObjectSelector {
+
+  /**
+   * @return true if the given value is a number that can be compared exactly with other numbers
+   */
+  private[client] def isComparableNumber(value: JsonNode): Boolean =
+    value.isNumber && !(value.isFloatingPointNumber && (value.doubleValue.isNaN || value.doubleValue.isInfinite))
+
+  /**
+   * @return a key that is equal for equal values - numbers being equal if numerically equal
+   */
+  private[client] def valueKey(value: JsonNode): AnyRef =
+    if(isComparableNumber(value)) value.decimalValue.stripTrailingZeros else value
+}
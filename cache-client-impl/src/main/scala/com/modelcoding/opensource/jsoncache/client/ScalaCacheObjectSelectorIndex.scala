@@ -0,0 +1,113 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.client
+
+import java.util
+
+import com.fasterxml.jackson.core.JsonPointer
+import com.fasterxml.jackson.databind.JsonNode
+import com.modelcoding.opensource.jsoncache.CacheObject
+import com.modelcoding.opensource.jsoncache.client.ScalaJsonCacheClientModule._
+import ScalaCacheObjectSelector._
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+/**
+ * Indexes selectors on their IndexTerms: a CacheObject is only tested against the selectors with a term it satisfies,
+ * and those with no terms.
+ * <p>
+ * The index is immutable, and replaced on each change, so that finding selectors takes no lock.
+ */
+class ScalaCacheObjectSelectorIndex[K] extends CacheObjectSelectorIndex[K] {
+
+  private case class Index(
+    selectors: Map[K, ScalaCacheObjectSelector],
+    byType: Map[String, Set[K]],
+    byValue: Map[String, (JsonPointer, Map[AnyRef, Set[K]])], // By JSON pointer, then by value key
+    unindexed: Set[K]
+  ) {
+
+    def +(entry: (K, ScalaCacheObjectSelector)): Index = {
+
+      val (key, selector) = entry
+      selector.indexTerms match {
+        case None        => copy(selectors = selectors + entry, unindexed = unindexed + key)
+        case Some(terms) => terms.foldLeft(copy(selectors = selectors + entry)) {
+          case (index, TypeTerm(aType))         =>
+            index.copy(byType = index.byType + (aType -> (index.byType.getOrElse(aType, Set()) + key)))
+          case (index, EqualTerm(pointer, value)) =>
+            val (compiled, byKey) = index.byValue.getOrElse(pointer, (JsonPointer.compile(pointer), Map[AnyRef, Set[K]]()))
+            val keys: Set[K] = byKey.getOrElse(value, Set()) + key
+            index.copy(byValue = index.byValue + (pointer -> (compiled, byKey + (value -> keys))))
+        }
+      }
+    }
+
+    def -(key: K): Index = selectors.get(key) match {
+
+      case None                                   => this
+      case Some(selector)                         => selector.indexTerms match {
+        case None        => copy(selectors = selectors - key, unindexed = unindexed - key)
+        case Some(terms) => terms.foldLeft(copy(selectors = selectors - key)) {
+          case (index, TypeTerm(aType))         =>
+            val keys: Set[K] = index.byType(aType) - key
+            index.copy(byType = if(keys.isEmpty) index.byType - aType else index.byType + (aType -> keys))
+          case (index, EqualTerm(pointer, value)) =>
+            val (compiled, byKey) = index.byValue(pointer)
+            val keys: Set[K] = byKey(value) - key
+            val remaining: Map[AnyRef, Set[K]] = if(keys.isEmpty) byKey - value else byKey + (value -> keys)
+            index.copy(byValue = if(remaining.isEmpty) index.byValue - pointer else index.byValue + (pointer -> (compiled, remaining)))
+        }
+      }
+    }
+  }
+
+  @volatile private var index: Index = Index(Map(), Map(), Map(), Set())
+
+  override def put(
+    key: K,
+    selector: CacheObjectSelector
+  ): Unit = {
+
+    requireNotNull(key, "Cannot index a selector with a null key")
+    requireNotNull(selector, "Cannot index a null selector")
+    require(selector.isInstanceOf[ScalaCacheObjectSelector], "Cannot index a selector from another module")
+
+    synchronized {
+      index = index - key + (key -> selector.asInstanceOf[ScalaCacheObjectSelector])
+    }
+  }
+
+  override def remove(
+    key: K
+  ): Unit = {
+
+    requireNotNull(key, "Cannot remove a selector with a null key")
+
+    synchronized {
+      index = index - key
+    }
+  }
+
+  override def getSelecting(
+    cacheObject: CacheObject
+  ): util.Set[K] = {
+
+    requireNotNull(cacheObject, "Cannot select a null CacheObject")
+
+    val current: Index = index
+    val candidates: mutable.Set[K] = mutable.HashSet()
+    current.byType.get(cacheObject.getType).foreach { keys => candidates ++= keys }
+    if(current.byValue.nonEmpty) {
+      val content: JsonNode = cacheObject.getContent
+      current.byValue.valuesIterator.foreach { case (pointer, byKey) =>
+        val found: JsonNode = content.at(pointer)
+        if(!found.isMissingNode) byKey.get(valueKey(found)).foreach { keys => candidates ++= keys }
+      }
+    }
+    candidates ++= current.unindexed
+
+    candidates.filter { key => current.selectors(key).test(cacheObject) }.toSet.asJava
+  }
+}
@@ -2,25 +2,150 @@
 
 package com.modelcoding.opensource.jsoncache.client
 
+import java.util
+import java.util.concurrent.ForkJoinPool
 import java.util.function.Predicate
 
 import akka.actor.ActorSystem
+import com.fasterxml.jackson.databind.JsonNode
 import com.modelcoding.opensource.jsoncache.client.ScalaJsonCacheClientModule._
-import com.modelcoding.opensource.jsoncache.{CacheImageSender, CacheObject, JsonCacheModule}
+import com.modelcoding.opensource.jsoncache.{CacheImageSender, CacheObject, JsonCacheMetrics, JsonCacheModule}
 import org.reactivestreams.Publisher
 
-class ScalaJsonCacheClientModule(implicit val jsonCacheModule: JsonCacheModule, val actorSystem: ActorSystem) 
+import scala.collection.JavaConverters._
+
+/**
+ * The processors of a module created without a parallelSelectionThreshold apply their selectors on one thread at a 
+ * time.
+ */
+class ScalaJsonCacheClientModule private (parallelSelection: Option[ScalaParallelSelection])
+  (implicit val jsonCacheModule: JsonCacheModule, val actorSystem: ActorSystem) 
   extends JsonCacheClientModule {
 
+  def this()(implicit jsonCacheModule: JsonCacheModule, actorSystem: ActorSystem) =
+    this(None)(jsonCacheModule, actorSystem)
+
+  /**
+   * @param parallelSelectionThreshold the number of puts from which the selector of a processor is applied to a 
+   *                                   cache image in parallel, on the {@code parallelSelectionPool} - so selectors
+   *                                   must be thread-safe
+   */
+  def this(parallelSelectionThreshold: Int, parallelSelectionPool: ForkJoinPool)
+    (implicit jsonCacheModule: JsonCacheModule, actorSystem: ActorSystem) =
+    this(Some(new ScalaParallelSelection(parallelSelectionThreshold, parallelSelectionPool)))(jsonCacheModule, actorSystem)
+
   override def getCacheChangeSetProcessor(
     cacheObjectSelectors: Publisher[Predicate[CacheObject]]
   ): CacheChangeSetProcessor = {
     
     requireNotNull(cacheObjectSelectors, "Cannot create CacheChangeSetProcessor with null cacheObjectSelectors")
     
-    new ScalaCacheChangeSetProcessor(cacheObjectSelectors)
+    new ScalaCacheChangeSetProcessor(cacheObjectSelectors, None, incremental = false, parallelSelection)
+  }
+
+  override def getCacheChangeSetProcessor(
+    cacheObjectSelectors: Publisher[Predicate[CacheObject]],
+    metrics: JsonCacheMetrics
+  ): CacheChangeSetProcessor = {
+    
+    requireNotNull(cacheObjectSelectors, "Cannot create CacheChangeSetProcessor with null cacheObjectSelectors")
+    requireNotNull(metrics, "Cannot create CacheChangeSetProcessor with null metrics")
+    
+    new ScalaCacheChangeSetProcessor(cacheObjectSelectors, Some(metrics), incremental = false, parallelSelection)
+  }
+
+  override def getIncrementalCacheChangeSetProcessor(
+    cacheObjectSelectors: Publisher[Predicate[CacheObject]]
+  ): CacheChangeSetProcessor = {
+    
+    requireNotNull(cacheObjectSelectors, "Cannot create CacheChangeSetProcessor with null cacheObjectSelectors")
+    
+    new ScalaCacheChangeSetProcessor(cacheObjectSelectors, None, incremental = true, parallelSelection)
+  }
+
+  override def getIncrementalCacheChangeSetProcessor(
+    cacheObjectSelectors: Publisher[Predicate[CacheObject]],
+    metrics: JsonCacheMetrics
+  ): CacheChangeSetProcessor = {
+    
+    requireNotNull(cacheObjectSelectors, "Cannot create CacheChangeSetProcessor with null cacheObjectSelectors")
+    requireNotNull(metrics, "Cannot create CacheChangeSetProcessor with null metrics")
+    
+    new ScalaCacheChangeSetProcessor(cacheObjectSelectors, Some(metrics), incremental = true, parallelSelection)
+  }
+
+  override def getCacheObjectSelector(
+    types: util.Set[String]
+  ): CacheObjectSelector = {
+
+    requireNotNull(types, "Cannot create CacheObjectSelector with null types")
+    types.asScala.foreach { t => requireNotNull(t, "Cannot create CacheObjectSelector with a null type") }
+
+    ScalaTypesSelector(types.asScala.toSet)
+  }
+
+  override def getCacheObjectSelectorWhereEqual(
+    jsonPointer: String,
+    value: JsonNode
+  ): CacheObjectSelector = {
+
+    requireNotNull(jsonPointer, "Cannot create CacheObjectSelector with null jsonPointer")
+    requireNotNull(value, "Cannot create CacheObjectSelector with null value")
+
+    ScalaEqualSelector(jsonPointer, ScalaCacheObjectSelector.valueKey(value))(value)
+  }
+
+  override def getCacheObjectSelectorWhereInRange(
+    jsonPointer: String,
+    from: JsonNode,
+    to: JsonNode
+  ): CacheObjectSelector = {
+
+    requireNotNull(jsonPointer, "Cannot create CacheObjectSelector with null jsonPointer")
+    require(from != null || to != null, "Cannot create CacheObjectSelector with neither from nor to")
+
+    val bounds: Seq[JsonNode] = Seq(from, to).filter(_ != null)
+    if(bounds.forall(ScalaCacheObjectSelector.isComparableNumber))
+      ScalaNumberRangeSelector(jsonPointer, Option(from).map(_.decimalValue), Option(to).map(_.decimalValue))
+    else if(bounds.forall(_.isTextual))
+      ScalaTextRangeSelector(jsonPointer, Option(from).map(_.textValue), Option(to).map(_.textValue))
+    else
+      throw new IllegalArgumentException("Cannot create CacheObjectSelector with from and to not both numbers, or both text")
+  }
+
+  override def getCacheObjectSelectorWhereStartsWith(
+    jsonPointer: String,
+    prefix: String
+  ): CacheObjectSelector = {
+
+    requireNotNull(jsonPointer, "Cannot create CacheObjectSelector with null jsonPointer")
+    requireNotNull(prefix, "Cannot create CacheObjectSelector with null prefix")
+
+    ScalaStartsWithSelector(jsonPointer, prefix)
+  }
+
+  override def getCacheObjectSelectorAllOf(
+    selectors: util.Set[CacheObjectSelector]
+  ): CacheObjectSelector = ScalaAllOfSelector(combined(selectors))
+
+  override def getCacheObjectSelectorAnyOf(
+    selectors: util.Set[CacheObjectSelector]
+  ): CacheObjectSelector = ScalaAnyOfSelector(combined(selectors))
+
+  private def combined(selectors: util.Set[CacheObjectSelector]): Set[ScalaCacheObjectSelector] = {
+
+    requireNotNull(selectors, "Cannot create CacheObjectSelector with null selectors")
+    require(!selectors.isEmpty, "Cannot create CacheObjectSelector with no selectors")
+    selectors.asScala.foreach { s =>
+      requireNotNull(s, "Cannot create CacheObjectSelector with a null selector")
+      require(s.isInstanceOf[ScalaCacheObjectSelector], "Cannot create CacheObjectSelector with a selector from another module")
+    }
+
+    selectors.asScala.map(_.asInstanceOf[ScalaCacheObjectSelector]).toSet
   }
 
+  override def getCacheObjectSelectorIndex[K](): CacheObjectSelectorIndex[K] = new ScalaCacheObjectSelectorIndex[K]
+
   override def getJsonCacheClient(
     id: String,
     input: CacheImageSender,
@@ -35,6 +160,28 @@ class ScalaJsonCacheClientModule(implicit val jsonCacheModule: JsonCacheModule,
     
     new ScalaJsonCacheClient(id)(input, cacheObjectSelector, cacheObjectAuthorisor)
   }
+
+  override def getJsonCacheClient(
+    id: String,
+    input: CacheImageSender,
+    cacheObjectSelector: CacheObjectSelector,
+    cacheObjectAuthorisor: CacheObjectSelector,
+    subscriberBacklogLimit: Int
+  ): JsonCacheClient = {
+
+    requireNotNull(id, "Cannot create JsonCacheClient with null id")
+    requireNotNull(input, "Cannot create JsonCacheClient with null input")
+    requireNotNull(cacheObjectSelector, "Cannot create JsonCacheClient with null cacheObjectSelector")
+    requireNotNull(cacheObjectAuthorisor, "Cannot create JsonCacheClient with null cacheObjectAuthorisor")
+    require(subscriberBacklogLimit > 0, "Cannot create JsonCacheClient with subscriberBacklogLimit < 1")
+
+    val selector: ScalaCacheObjectSelector =
+      getCacheObjectSelectorAllOf(Set(cacheObjectSelector, cacheObjectAuthorisor).asJava).asInstanceOf[ScalaCacheObjectSelector]
+
+    new ScalaSharedJsonCacheClient(id)(input, selector, subscriberBacklogLimit)(sharedFeeds)
+  }
+
+  private val sharedFeeds: ScalaSharedClientFeeds = new ScalaSharedClientFeeds()
 }
 
 object ScalaJsonCacheClientModule {
@@ -0,0 +1,72 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.client
+
+import java.util.concurrent.{ForkJoinPool, ForkJoinTask, RecursiveAction}
+import java.util.function.Predicate
+
+import com.modelcoding.opensource.jsoncache.{CacheChangeSet, CacheObject}
+import com.modelcoding.opensource.jsoncache.client.ScalaJsonCacheClientModule.requireNotNull
+
+import scala.concurrent.{ExecutionContext, Future}
+import ScalaParallelSelection._
+
+/**
+ * Applies a selector to the puts of a cache image of at least {@code threshold} puts in parallel, on the given pool -
+ * the puts being split into parts, each tested by a task of its own.
+ */
+class ScalaParallelSelection(val threshold: Int, pool: ForkJoinPool) {
+
+  require(threshold > 0, "Cannot select in parallel with a threshold < 1")
+  requireNotNull(pool, "Cannot select in parallel on a null pool")
+
+  private val executionContext: ExecutionContext = ExecutionContext.fromExecutor(pool)
+
+  // Small enough to spread the work over the pool, but large enough to be worth a task
+  private def partSize(numPuts: Int): Int = Math.max(MinPartSize, numPuts / (pool.getParallelism * 4))
+
+  def appliesTo(changeSet: CacheChangeSet): Boolean = changeSet.isCacheImage && changeSet.getPuts.size >= threshold
+
+  /**
+   * @return whether each of the given puts is selected, in the order of the puts
+   */
+  def select(puts: Array[CacheObject], selector: Predicate[CacheObject]): Future[Array[Boolean]] = Future {
+
+    val selected: Array[Boolean] = new Array[Boolean](puts.length)
+    new SelectTask(puts, selector, selected, 0, puts.length, partSize(puts.length)).invoke()
+    selected
+  }(executionContext)
+
+  private class SelectTask(
+    puts: Array[CacheObject],
+    selector: Predicate[CacheObject],
+    selected: Array[Boolean],
+    from: Int,
+    to: Int,
+    partSize: Int
+  ) extends RecursiveAction {
+
+    override def compute(): Unit = {
+
+      if(to - from <= partSize) {
+        var i: Int = from
+        while(i < to) {
+          selected(i) = selector.test(puts(i))
+          i += 1
+        }
+      }
+      else {
+        val middle: Int = (from + to) >>> 1
+        ForkJoinTask.invokeAll(
+          new SelectTask(puts, selector, selected, from, middle, partSize),
+          new SelectTask(puts, selector, selected, middle, to, partSize)
+        )
+      }
+    }
+  }
+}
+
+object ScalaParallelSelection {
+
+  private val MinPartSize: Int = 1024
+}
@@ -0,0 +1,177 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.client
+
+import java.util
+
+import akka.actor.{Actor, ActorRef, ActorSystem, Props, Status, Terminated}
+import akka.stream.scaladsl.{Keep, Sink, Source}
+import akka.stream.{ActorMaterializer, OverflowStrategy}
+import com.modelcoding.opensource.jsoncache._
+import org.reactivestreams.{Subscriber, Subscription}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+/**
+ * The feeds shared by the clients of a module - one for each input and selector (a selector and authorisor being
+ * combined into one selector of the objects selected by both).
+ * <p>
+ * A feed is created when the first of its clients subscribes, and stopped once none remains subscribed. The number
+ * of clients attached to each feed is kept under the lock of this object, so that a client is never attached to a
+ * feed that is stopping.
+ */
+class ScalaSharedClientFeeds(implicit jsonCacheModule: JsonCacheModule, system: ActorSystem) {
+
+  private val feeds: mutable.Map[(CacheImageSender, ScalaCacheObjectSelector), ScalaSharedClientFeed] = mutable.Map()
+
+  def attach(
+    input: CacheImageSender,
+    selector: ScalaCacheObjectSelector,
+    subscriberBacklogLimit: Int,
+    subscriber: Subscriber[_ >: CacheChangeSet]
+  ): Unit = synchronized {
+
+    val feed: ScalaSharedClientFeed =
+      feeds.getOrElseUpdate((input, selector), new ScalaSharedClientFeed(input, selector, this))
+    feed.attached += 1
+    feed.attach(subscriber, subscriberBacklogLimit)
+  }
+
+  private[client] def detached(feed: ScalaSharedClientFeed): Unit = synchronized {
+
+    feed.attached -= 1
+    if(feed.attached == 0) {
+      finished(feed)
+      feed.stop()
+    }
+  }
+
+  private[client] def finished(feed: ScalaSharedClientFeed): Unit = synchronized {
+
+    if(feeds.get((feed.input, feed.selector)).exists(_ eq feed)) feeds -= ((feed.input, feed.selector))
+  }
+}
+
+/**
+ * Subscribes once to its input, applies its selector once to each CacheChangeSet received, and sends the result to
+ * each of its clients - each from its own buffer, bounded by the backlog limit of that client, so that each takes
+ * change sets at its own pace.
+ * <p>
+ * A feed keeps a view of the objects it has selected, from which to send an image to each client attached once the
+ * feed has received an image from its input.
+ */
+class ScalaSharedClientFeed(
+  val input: CacheImageSender,
+  val selector: ScalaCacheObjectSelector,
+  feeds: ScalaSharedClientFeeds
+)(implicit jsonCacheModule: JsonCacheModule, system: ActorSystem) {
+
+  // The number of clients attached - guarded by the lock of the feeds
+  private[client] var attached: Int = 0
+
+  private case class Attach(subscriber: Subscriber[_ >: CacheChangeSet], subscriberBacklogLimit: Int)
+  private case class OnInputSubscribed(subscription: Subscription)
+  private case class OnNextChangeSetFromInput(changeSet: CacheChangeSet)
+  private case class OnInputFinished(finish: Status.Status)
+  private case class Stop()
+
+  private val feedActor: ActorRef = system.actorOf(Props(new FeedActor))
+
+  private[client] def attach(subscriber: Subscriber[_ >: CacheChangeSet], subscriberBacklogLimit: Int): Unit =
+    feedActor ! Attach(subscriber, subscriberBacklogLimit)
+
+  private[client] def stop(): Unit = feedActor ! Stop()
+
+  private class FeedActor extends Actor {
+
+    private implicit val materializer: ActorMaterializer = ActorMaterializer()(context)
+
+    private val clients          : mutable.Set[ActorRef]             = mutable.Set()
+    private val view             : mutable.Map[String, CacheObject]  = mutable.HashMap()
+    private var imageId          : String                            = _
+    private var subscribedToInput: Boolean                           = false
+    private var inputSubscription: Subscription                      = _
+    private var finish           : Option[Status.Status]             = None
+
+    override def receive: Receive = {
+
+      case Attach(subscriber, subscriberBacklogLimit) =>
+        val source: Source[CacheChangeSet, ActorRef] =
+          Source.actorRef[CacheChangeSet](subscriberBacklogLimit, OverflowStrategy.fail)
+        val (publisherActor, publisher) = source.toMat(Sink.asPublisher[CacheChangeSet](fanout = false))(Keep.both).run()
+        context.watch(publisherActor) // Get notified when the client cancels, or falls too far behind
+        clients += publisherActor
+        publisher.subscribe(subscriber)
+        if(imageId != null) publisherActor ! image()
+        finish match {
+          case Some(f) => publisherActor ! f
+          case None    =>
+            if(!subscribedToInput) {
+              subscribedToInput = true
+              input.subscribe(new InputSubscriber)
+            }
+        }
+
+      case OnInputSubscribed(subscription) =>
+        inputSubscription = subscription
+        inputSubscription.request(1)
+
+      case OnNextChangeSetFromInput(changeSet) =>
+        val output: CacheChangeSet = process(changeSet)
+        clients.foreach { client => client ! output }
+        inputSubscription.request(1)
+
+      case OnInputFinished(f) =>
+        finish = Some(f)
+        clients.foreach { client => client ! f }
+        feeds.finished(ScalaSharedClientFeed.this)
+
+      case Terminated(publisherActor) =>
+        clients -= publisherActor
+        feeds.detached(ScalaSharedClientFeed.this)
+
+      case Stop() =>
+        if(inputSubscription != null && finish.isEmpty) inputSubscription.cancel()
+        context.stop(self)
+    }
+
+    private def process(changeSet: CacheChangeSet): CacheChangeSet = {
+
+      val puts: util.Set[CacheObject] = new util.HashSet[CacheObject]()
+      val removes: util.Set[CacheRemove] = new util.HashSet[CacheRemove]()
+
+      // The view is what each client holds, so only removes of objects in the view need be output - and none in an
+      // image, which replaces all a client holds
+      if(changeSet.isCacheImage) {
+        view.clear()
+        imageId = changeSet.getId
+      }
+      changeSet.getRemoves.asScala.foreach { remove => if(view.remove(remove.getId).isDefined) removes.add(remove) }
+      changeSet.getPuts.asScala.foreach { put =>
+        if(selector.test(put)) {
+          puts.add(put)
+          view += (put.getId -> put)
+        }
+        else if(view.remove(put.getId).isDefined)
+          removes.add(put.asCacheRemove())
+      }
+
+      jsonCacheModule.getCacheChangeSet(changeSet.getId, puts, removes, changeSet.isCacheImage)
+    }
+
+    private def image(): CacheChangeSet =
+      jsonCacheModule.getCacheChangeSet(imageId, view.values.toSet.asJava, Set[CacheRemove]().asJava, true)
+
+    private class InputSubscriber extends Subscriber[CacheChangeSet] {
+
+      override def onError(t: Throwable): Unit = feedActor ! OnInputFinished(Status.Failure(t))
+
+      override def onComplete(): Unit = feedActor ! OnInputFinished(Status.Success("Input completed"))
+
+      override def onNext(t: CacheChangeSet): Unit = feedActor ! OnNextChangeSetFromInput(t)
+
+      override def onSubscribe(s: Subscription): Unit = feedActor ! OnInputSubscribed(s)
+    }
+  }
+}
@@ -0,0 +1,34 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.client
+
+import com.modelcoding.opensource.jsoncache.client.ScalaJsonCacheClientModule.requireNotNull
+import com.modelcoding.opensource.jsoncache.{CacheChangeSet, CacheImageSender}
+import org.reactivestreams.Subscriber
+
+class ScalaSharedJsonCacheClient
+(val getId: String)(input: CacheImageSender, selector: ScalaCacheObjectSelector, subscriberBacklogLimit: Int)
+(feeds: ScalaSharedClientFeeds)
+  extends JsonCacheClient {
+
+  private val setupSync: Object = new Object()
+
+  private var subscriber: Subscriber[_ >: CacheChangeSet] = _
+
+  override def subscribe(
+    subscriber: Subscriber[_ >: CacheChangeSet]
+  ): Unit = {
+
+    requireNotNull(subscriber, "Cannot subscribe to a JsonCacheClient with a null subscriber")
+
+    setupSync.synchronized {
+
+      if(this.subscriber != null)
+        throw new IllegalStateException("Cannot subscribe more than once to a JsonCacheClient")
+
+      this.subscriber = subscriber
+    }
+
+    feeds.attach(input, selector, subscriberBacklogLimit, subscriber)
+  }
+}
@@ -8,6 +8,8 @@ import com.modelcoding.opensource.jsoncache.ScalaJsonCacheModule;
 import org.junit.BeforeClass;
 import org.junit.rules.ExternalResource;
 
+import java.util.concurrent.ForkJoinPool;
+
 public class Tests extends TestSuite {
 
     private static class Setup extends ExternalResource {
@@ -21,7 +23,8 @@ public class Tests extends TestSuite {
             
             m = new ScalaJsonCacheModule(system);
             
-            c = new ScalaJsonCacheClientModule(m, system);
+            // Large cache images are selected in parallel, so that the specifications also cover parallel selection
+            c = new ScalaJsonCacheClientModule(10000, ForkJoinPool.commonPool(), m, system);
         }
 
         @Override
@@ -12,6 +12,9 @@ import org.junit.rules.ExternalResource
 import org.reactivestreams.*
 import spock.lang.Specification
 
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
 import java.util.function.Predicate
 
 import static com.modelcoding.opensource.jsoncache.client.TestSuite.*
@@ -39,6 +42,30 @@ class CacheChangeSetProcessorSpecification extends Specification {
         
         then:
         thrown(NullPointerException)
+
+        when:
+        c.getCacheChangeSetProcessor(Mock(Publisher), null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getCacheChangeSetProcessor(null, Mock(JsonCacheMetrics))
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getIncrementalCacheChangeSetProcessor(null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getIncrementalCacheChangeSetProcessor(Mock(Publisher), null)
+
+        then:
+        thrown(NullPointerException)
     }
     
     def "CacheChangeSetProcessor cannot be connected with bad parameters"() {
@@ -532,6 +559,176 @@ class CacheChangeSetProcessorSpecification extends Specification {
         }
     }
 
+    def "Incremental CacheChangeSetProcessor outputs the changes made by a new selector without requesting a cache image"() {
+
+        setup:
+        def selectors = new MockSelectorsPublisher()
+        def input = new MockCacheImageSender()
+        def subscriber = new MockSubscriber()
+        def selectorsSubscription = new MockSubscription()
+        def inputSubscription = new MockSubscription()
+        def processor = c.getIncrementalCacheChangeSetProcessor(selectors)
+        processor.connect(input)
+
+        when: "the CacheChangeSetProcessor is subscribed to, and given a selector and its input"
+        processor.subscribe(subscriber)
+        selectors.awaitSubscription()
+        selectors.subscriber.onSubscribe(selectorsSubscription)
+        selectorsSubscription.outputOnRequest {
+            selectors.subscriber.onNext({ CacheObject cacheObject -> cacheObject.id.startsWith("A") } as Predicate<CacheObject>)
+        }
+        input.awaitSubscription()
+        input.subscriber.onSubscribe(inputSubscription)
+
+        then:
+        subscriber.awaitSubscribed()
+
+        when: "the input sends a cache image"
+        subscriber.expectChangeSet()
+        subscriber.subscription.request(1)
+        inputSubscription.outputOnRequest {
+            input.subscriber.onNext(
+                m.getCacheChangeSet(
+                    "id",
+                    [
+                        m.getCacheObject("A1", "AType", asJsonNode([])),
+                        m.getCacheObject("A2", "AType", asJsonNode([])),
+                        m.getCacheObject("B1", "BType", asJsonNode([]))
+                    ] as Set,
+                    [] as Set,
+                    true
+                )
+            )
+        }
+
+        then: "the CacheChangeSetProcessor filters it using the selector - an image needing no removes"
+        with(subscriber) {
+            awaitChangeSet()
+            receivedChangeSet == m.getCacheChangeSet(
+                "id",
+                [
+                    m.getCacheObject("A1", "AType", asJsonNode([])),
+                    m.getCacheObject("A2", "AType", asJsonNode([]))
+                ] as Set,
+                [] as Set,
+                true
+            )
+        }
+
+        when: "the subscriber requests another CacheChangeSet, and the CacheChangeSetProcessor receives another selector"
+        subscriber.expectChangeSet()
+        subscriber.subscription.request(1)
+        selectorsSubscription.outputOnRequest {
+            selectors.subscriber.onNext({ CacheObject cacheObject -> cacheObject.id.startsWith("B") } as Predicate<CacheObject>)
+        }
+
+        then: "the CacheChangeSetProcessor outputs the change of selection from its view of the input, without requesting a cache image"
+        with(subscriber) {
+            awaitChangeSet()
+            !hasError
+            !hasCompleted
+            receivedChangeSet == m.getCacheChangeSet(
+                "id",
+                [
+                    m.getCacheObject("B1", "BType", asJsonNode([]))
+                ] as Set,
+                [
+                    m.getCacheRemove("A1"),
+                    m.getCacheRemove("A2")
+                ] as Set,
+                false
+            )
+        }
+        input.sendImageSubscriber == null
+
+        when: "the input sends a CacheChangeSet the subscriber has not yet requested"
+        subscriber.expectChangeSet()
+        inputSubscription.outputOnRequest {
+            input.subscriber.onNext(
+                m.getCacheChangeSet(
+                    "id",
+                    [
+                        m.getCacheObject("A3", "AType", asJsonNode([])),
+                        m.getCacheObject("B2", "BType", asJsonNode([]))
+                    ] as Set,
+                    [
+                        m.getCacheRemove("B1"),
+                        m.getCacheRemove("C1")
+                    ] as Set,
+                    false
+                )
+            )
+        }
+
+        then: "the CacheChangeSetProcessor filters it using the new selector, removing only objects the subscriber holds, and holds it"
+        !subscriber.awaitChangeSet(200)
+
+        when: "the subscriber requests another CacheChangeSet"
+        subscriber.subscription.request(1)
+
+        then: "the CacheChangeSetProcessor outputs the CacheChangeSet held"
+        with(subscriber) {
+            awaitChangeSet()
+            receivedChangeSet == m.getCacheChangeSet(
+                "id",
+                [
+                    m.getCacheObject("B2", "BType", asJsonNode([]))
+                ] as Set,
+                [
+                    m.getCacheRemove("B1")
+                ] as Set,
+                false
+            )
+        }
+    }
+
+    def "CacheChangeSetProcessor filters a large cache image, and outputs it before the CacheChangeSets that follow it"() {
+
+        setup:
+        def selectors = new MockSelectorsPublisher()
+        def input = new MockCacheImageSender()
+        def selectorsSubscription = new MockSubscription()
+        def inputSubscription = new MockSubscription(5000)
+        def received = new CopyOnWriteArrayList<CacheChangeSet>()
+        def receivedAll = new CountDownLatch(2)
+        def subscriber = [
+            onSubscribe: { Subscription s -> s.request(2) },
+            onNext     : { CacheChangeSet changeSet -> received << changeSet; receivedAll.countDown() },
+            onError    : { Throwable t -> },
+            onComplete : {}
+        ] as Subscriber<CacheChangeSet>
+        def objects = (0..<20000).collect { m.getCacheObject("Id" + it, it % 2 ? "Odd" : "Even", asJsonNode([])) }
+        def processor = c.getCacheChangeSetProcessor(selectors)
+        processor.connect(input)
+
+        when: "the CacheChangeSetProcessor is given a selector and its input"
+        processor.subscribe(subscriber)
+        selectors.awaitSubscription()
+        selectors.subscriber.onSubscribe(selectorsSubscription)
+        selectorsSubscription.outputOnRequest {
+            selectors.subscriber.onNext({ CacheObject cacheObject -> cacheObject.type == "Even" } as Predicate<CacheObject>)
+        }
+        input.awaitSubscription()
+        input.subscriber.onSubscribe(inputSubscription)
+
+        and: "the input sends a large cache image, and then another CacheChangeSet"
+        inputSubscription.outputOnRequest {
+            input.subscriber.onNext(m.getCacheChangeSet("image", objects as Set, [] as Set, true))
+            input.subscriber.onNext(m.getCacheChangeSet("changes", [objects[0], objects[1]] as Set, [] as Set, false))
+        }
+
+        then: "the cache image is filtered using the selector, and output first"
+        receivedAll.await(10, TimeUnit.SECONDS)
+        received*.id == ["image", "changes"]
+        received[0] == m.getCacheChangeSet(
+            "image",
+            objects.findAll { it.type == "Even" } as Set,
+            objects.findAll { it.type == "Odd" }.collect { it.asCacheRemove() } as Set,
+            true
+        )
+        received[1] == m.getCacheChangeSet("changes", [objects[0]] as Set, [objects[1].asCacheRemove()] as Set, false)
+    }
+
     def "CacheChangeSetProcessor handles receiving more selectors whilst waiting for input subscription to be established"() {
         
         setup:
@@ -0,0 +1,241 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.client
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.NullNode
+import com.modelcoding.opensource.jsoncache.CacheObject
+import org.junit.Rule
+import org.junit.rules.ExternalResource
+import spock.lang.Specification
+
+import static com.modelcoding.opensource.jsoncache.client.TestSuite.*
+
+class CacheObjectSelectorSpecification extends Specification {
+
+    @Rule
+    private ExternalResource setup = perTestMethodSetup
+
+    private static CacheObject quote(String id, Map content) {
+        m.getCacheObject(id, "Quote", asJsonNode(content))
+    }
+
+    def "CacheObjectSelectors select as expected"() {
+
+        setup:
+        def cheap = quote("Id1", [price: 10, name: "Alpha", owner: [desk: "FX"]])
+        def dear = quote("Id2", [price: 100.0, name: "Beta", owner: [desk: "Rates"]])
+        def unpriced = quote("Id3", [price: null, name: "Gamma"])
+        def trade = m.getCacheObject("Id4", "Trade", asJsonNode([price: 10, name: "Alpha"]))
+
+        def quotes = c.getCacheObjectSelector(["Quote"] as Set)
+        def priced10 = c.getCacheObjectSelectorWhereEqual("/price", asJsonNode(10.0))
+        def nullPriced = c.getCacheObjectSelectorWhereEqual("/price", NullNode.instance)
+        def onFX = c.getCacheObjectSelectorWhereEqual("/owner/desk", asJsonNode("FX"))
+        def pricedBelow100 = c.getCacheObjectSelectorWhereInRange("/price", null, asJsonNode(100))
+        def pricedFrom100 = c.getCacheObjectSelectorWhereInRange("/price", asJsonNode(100), null)
+        def namedAToC = c.getCacheObjectSelectorWhereInRange("/name", asJsonNode("A"), asJsonNode("C"))
+        def namedG = c.getCacheObjectSelectorWhereStartsWith("/name", "G")
+        def cheapQuotes = c.getCacheObjectSelectorAllOf([quotes, pricedBelow100] as Set)
+        def fxOrDear = c.getCacheObjectSelectorAnyOf([onFX, pricedFrom100] as Set)
+
+        expect:
+        [cheap, dear, unpriced, trade].findAll { quotes.test(it) } == [cheap, dear, unpriced]
+        [cheap, dear, unpriced, trade].findAll { priced10.test(it) } == [cheap, trade]
+        [cheap, dear, unpriced, trade].findAll { nullPriced.test(it) } == [unpriced]
+        [cheap, dear, unpriced, trade].findAll { onFX.test(it) } == [cheap]
+        [cheap, dear, unpriced, trade].findAll { pricedBelow100.test(it) } == [cheap, trade]
+        [cheap, dear, unpriced, trade].findAll { pricedFrom100.test(it) } == [dear]
+        [cheap, dear, unpriced, trade].findAll { namedAToC.test(it) } == [cheap, dear, trade]
+        [cheap, dear, unpriced, trade].findAll { namedG.test(it) } == [unpriced]
+        [cheap, dear, unpriced, trade].findAll { cheapQuotes.test(it) } == [cheap]
+        [cheap, dear, unpriced, trade].findAll { fxOrDear.test(it) } == [cheap, dear]
+        c.getCacheObjectSelector([] as Set).test(cheap) == false
+    }
+
+    def "CacheObjectSelectors report the types they can select"() {
+
+        setup:
+        def quotes = c.getCacheObjectSelector(["Quote", "Trade"] as Set)
+        def trades = c.getCacheObjectSelector(["Trade", "Order"] as Set)
+        def named = c.getCacheObjectSelectorWhereStartsWith("/name", "A")
+
+        expect:
+        quotes.types == ["Quote", "Trade"] as Set
+        named.types == null
+        c.getCacheObjectSelectorAllOf([quotes, trades, named] as Set).types == ["Trade"] as Set
+        c.getCacheObjectSelectorAnyOf([quotes, trades] as Set).types == ["Quote", "Trade", "Order"] as Set
+        c.getCacheObjectSelectorAnyOf([quotes, named] as Set).types == null
+    }
+
+    def "CacheObjectSelectors made from equal conditions are equal"() {
+
+        expect:
+        c.getCacheObjectSelector(["Quote"] as Set) == c.getCacheObjectSelector(["Quote"] as Set)
+        c.getCacheObjectSelectorWhereEqual("/price", asJsonNode(10)) ==
+            c.getCacheObjectSelectorWhereEqual("/price", asJsonNode(10.0))
+        c.getCacheObjectSelectorAllOf(
+            [c.getCacheObjectSelector(["Quote"] as Set), c.getCacheObjectSelectorWhereStartsWith("/name", "A")] as Set
+        ) ==
+            c.getCacheObjectSelectorAllOf(
+                [c.getCacheObjectSelectorWhereStartsWith("/name", "A"), c.getCacheObjectSelector(["Quote"] as Set)] as Set
+            )
+        c.getCacheObjectSelectorWhereEqual("/price", asJsonNode(10)) !=
+            c.getCacheObjectSelectorWhereEqual("/price", asJsonNode("10"))
+    }
+
+    def "CacheObjectSelectors cannot be created from bad parameters"() {
+
+        setup:
+        def selector = c.getCacheObjectSelector(["Quote"] as Set)
+
+        when:
+        c.getCacheObjectSelector(null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getCacheObjectSelector(["Quote", null] as Set)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getCacheObjectSelectorWhereEqual(null, asJsonNode(10))
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getCacheObjectSelectorWhereEqual("/price", null as JsonNode)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getCacheObjectSelectorWhereEqual("price", asJsonNode(10))
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        c.getCacheObjectSelectorWhereInRange("/price", null, null)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        c.getCacheObjectSelectorWhereInRange("/price", asJsonNode(10), asJsonNode("Z"))
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        c.getCacheObjectSelectorWhereInRange("/price", asJsonNode([10]), null)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        c.getCacheObjectSelectorWhereStartsWith("/name", null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getCacheObjectSelectorAllOf(null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getCacheObjectSelectorAllOf([] as Set)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        c.getCacheObjectSelectorAnyOf([selector, null] as Set)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getCacheObjectSelectorAnyOf([selector, Mock(CacheObjectSelector)] as Set)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "CacheObjectSelectorIndex finds the selectors selecting an object"() {
+
+        setup:
+        def fxQuote = quote("Id1", [price: 10, owner: [desk: "FX"]])
+        def ratesQuote = quote("Id2", [price: 200, owner: [desk: "Rates"]])
+        def trade = m.getCacheObject("Id3", "Trade", asJsonNode([price: 10, owner: [desk: "FX"]]))
+        def index = c.<String> getCacheObjectSelectorIndex()
+
+        when:
+        index.put("quotes", c.getCacheObjectSelector(["Quote"] as Set))
+        index.put("fx", c.getCacheObjectSelectorWhereEqual("/owner/desk", asJsonNode("FX")))
+        index.put("fxQuotes", c.getCacheObjectSelectorAllOf(
+            [c.getCacheObjectSelector(["Quote"] as Set), c.getCacheObjectSelectorWhereEqual("/owner/desk", asJsonNode("FX"))] as Set
+        ))
+        index.put("cheap", c.getCacheObjectSelectorWhereInRange("/price", null, asJsonNode(100)))
+        index.put("nothing", c.getCacheObjectSelector([] as Set))
+
+        then:
+        index.getSelecting(fxQuote) == ["quotes", "fx", "fxQuotes", "cheap"] as Set
+        index.getSelecting(ratesQuote) == ["quotes"] as Set
+        index.getSelecting(trade) == ["fx", "cheap"] as Set
+
+        when: "selectors are replaced and removed"
+        index.put("quotes", c.getCacheObjectSelector(["Trade"] as Set))
+        index.remove("fx")
+        index.remove("cheap")
+        index.remove("unknown")
+
+        then:
+        index.getSelecting(fxQuote) == ["fxQuotes"] as Set
+        index.getSelecting(ratesQuote) == [] as Set
+        index.getSelecting(trade) == ["quotes"] as Set
+    }
+
+    def "CacheObjectSelectorIndex cannot be used with bad parameters"() {
+
+        setup:
+        def index = c.<String> getCacheObjectSelectorIndex()
+        def selector = c.getCacheObjectSelector(["Quote"] as Set)
+
+        when:
+        index.put(null, selector)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        index.put("key", null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        index.put("key", Mock(CacheObjectSelector))
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        index.remove(null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        index.getSelecting(null)
+
+        then:
+        thrown(NullPointerException)
+    }
+}
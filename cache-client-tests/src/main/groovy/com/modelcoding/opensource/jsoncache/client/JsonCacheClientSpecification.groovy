@@ -83,6 +83,171 @@ class JsonCacheClientSpecification extends Specification {
         thrown(IllegalStateException)
     }
     
+    def "Cannot create a JsonCacheClient sharing its view from bad parameters"() {
+
+        setup:
+        def selector = c.getCacheObjectSelector(["AType"] as Set)
+
+        when:
+        c.getJsonCacheClient(null, Mock(CacheImageSender), selector, selector, 10)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getJsonCacheClient("id", null, selector, selector, 10)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getJsonCacheClient("id", Mock(CacheImageSender), null, selector, 10)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getJsonCacheClient("id", Mock(CacheImageSender), selector, null, 10)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        c.getJsonCacheClient("id", Mock(CacheImageSender), Mock(CacheObjectSelector), selector, 10)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        c.getJsonCacheClient("id", Mock(CacheImageSender), selector, selector, 0)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "JsonCacheClients with equal selectors and authorisors share the evaluation of their view"() {
+
+        setup:
+        def input = new MockCacheImageSender()
+        def inputSubscription = new MockSubscription()
+        def subscriber1 = new MockSubscriber()
+        def subscriber2 = new MockSubscriber()
+        def client1 = c.getJsonCacheClient(
+            "id1", input, c.getCacheObjectSelector(["AType"] as Set), c.getCacheObjectSelectorWhereEqual("/desk", asJsonNode("FX")), 10
+        )
+        def client2 = c.getJsonCacheClient(
+            "id2", input, c.getCacheObjectSelector(["AType"] as Set), c.getCacheObjectSelectorWhereEqual("/desk", asJsonNode("FX")), 10
+        )
+        def a1 = m.getCacheObject("A1", "AType", asJsonNode([desk: "FX"]))
+        def a2 = m.getCacheObject("A2", "AType", asJsonNode([desk: "Rates"]))
+        def a3 = m.getCacheObject("A3", "AType", asJsonNode([desk: "FX"]))
+        def b1 = m.getCacheObject("B1", "BType", asJsonNode([desk: "FX"]))
+
+        when: "the first client is subscribed to"
+        client1.subscribe(subscriber1)
+
+        then: "the input is subscribed to"
+        input.awaitSubscription()
+        subscriber1.awaitSubscribed()
+
+        when: "a cache image is received from the input"
+        def inputSubscriber = input.subscriber
+        inputSubscriber.onSubscribe(inputSubscription)
+        subscriber1.expectChangeSet()
+        subscriber1.subscription.request(10)
+        inputSubscription.outputOnRequest {
+            inputSubscriber.onNext(m.getCacheChangeSet("image", [a1, a2, b1] as Set, [] as Set, true))
+        }
+
+        then: "the client receives it re-written by the selector and authorisor - an image needing no removes"
+        subscriber1.awaitChangeSet()
+        subscriber1.receivedChangeSet == m.getCacheChangeSet("image", [a1] as Set, [] as Set, true)
+
+        when: "a second client, with an equal selector and authorisor, is subscribed to"
+        subscriber2.expectChangeSet()
+        client2.subscribe(subscriber2)
+        subscriber2.awaitSubscribed()
+        subscriber2.subscription.request(10)
+
+        then: "the second client is sent an image of the shared view, without the input being asked for one"
+        subscriber2.awaitChangeSet()
+        subscriber2.receivedChangeSet == m.getCacheChangeSet("image", [a1] as Set, [] as Set, true)
+        input.subscriber.is(inputSubscriber)
+        input.sendImageSubscriber == null
+
+        when: "a change set is received from the input"
+        subscriber1.expectChangeSet()
+        subscriber2.expectChangeSet()
+        inputSubscription.outputOnRequest {
+            inputSubscriber.onNext(
+                m.getCacheChangeSet("changes", [a3, b1] as Set, [m.getCacheRemove("A1"), m.getCacheRemove("A2")] as Set, false)
+            )
+        }
+
+        then: "it is re-written once, for both clients - removing only objects the clients hold"
+        subscriber1.awaitChangeSet()
+        subscriber2.awaitChangeSet()
+        subscriber1.receivedChangeSet == m.getCacheChangeSet("changes", [a3] as Set, [m.getCacheRemove("A1")] as Set, false)
+        subscriber2.receivedChangeSet.is(subscriber1.receivedChangeSet)
+
+        when: "both clients cancel their subscriptions"
+        subscriber1.subscription.cancel()
+        subscriber2.subscription.cancel()
+
+        then: "the subscription to the input is cancelled"
+        inputSubscription.cancelOnRequest {}
+    }
+
+    def "JsonCacheClients sharing the evaluation of their view each have their own backlog limit"() {
+
+        setup:
+        def input = new MockCacheImageSender()
+        def inputSubscription = new MockSubscription()
+        def slowSubscriber = new MockSubscriber()
+        def subscriber = new MockSubscriber()
+        def selector = c.getCacheObjectSelector(["AType"] as Set)
+        def authorisor = c.getCacheObjectSelectorWhereEqual("/desk", asJsonNode("FX"))
+        def a1 = m.getCacheObject("A1", "AType", asJsonNode([desk: "FX"]))
+        def a2 = m.getCacheObject("A2", "AType", asJsonNode([desk: "FX"]))
+        def image = m.getCacheChangeSet("image", [a1] as Set, [] as Set, true)
+        def changes = m.getCacheChangeSet("changes", [a2] as Set, [] as Set, false)
+
+        when: "a client with a backlog limit of 1, and then one with a backlog limit of 2, are subscribed to"
+        c.getJsonCacheClient("id1", input, selector, authorisor, 1).subscribe(slowSubscriber)
+        c.getJsonCacheClient("id2", input, selector, authorisor, 2).subscribe(subscriber)
+
+        then:
+        input.awaitSubscription()
+        slowSubscriber.awaitSubscribed()
+        subscriber.awaitSubscribed()
+
+        when: "two change sets are received from the input, and neither client has requested any"
+        input.subscriber.onSubscribe(inputSubscription)
+        inputSubscription.outputOnRequest { input.subscriber.onNext(image) }
+        inputSubscription.outputOnRequest { input.subscriber.onNext(changes) }
+
+        then: "only the client with the backlog limit of 1 has fallen too far behind"
+        slowSubscriber.awaitError()
+        slowSubscriber.hasError
+
+        when: "the other client requests the change sets"
+        subscriber.expectChangeSet()
+        subscriber.subscription.request(1)
+
+        then: "it receives them"
+        subscriber.awaitChangeSet()
+        subscriber.receivedChangeSet == image
+
+        when:
+        subscriber.expectChangeSet()
+        subscriber.subscription.request(1)
+
+        then:
+        subscriber.awaitChangeSet()
+        subscriber.receivedChangeSet == changes
+        !subscriber.hasError
+    }
+
     def "JsonCacheClient operates as expected given an object selector and an object authorisor"() {
         
         setup:
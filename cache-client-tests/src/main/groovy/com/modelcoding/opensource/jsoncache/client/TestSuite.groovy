@@ -51,6 +51,7 @@ import org.junit.runners.Suite
 @Suite.SuiteClasses(
     [
         CacheChangeSetProcessorSpecification.class,
+        CacheObjectSelectorSpecification.class,
         JsonCacheClientSpecification.class
     ]
 )
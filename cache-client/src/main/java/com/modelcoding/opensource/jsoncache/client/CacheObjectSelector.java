@@ -0,0 +1,29 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.client;
+
+import com.modelcoding.opensource.jsoncache.CacheObject;
+
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A {@link CacheObjectSelector} is a selector of {@link CacheObject}s built from declared conditions - on the type of
+ * a {@link CacheObject}, or on values within its content - rather than from arbitrary code.
+ * <p>
+ * A {@link CacheObjectSelector} can be used wherever a {@link Predicate} of {@link CacheObject}s is accepted.<br>
+ * Being declared, a {@link CacheObjectSelector} is compiled to a fast test on creation, and can be indexed along with
+ * the selectors of other clients - see {@link CacheObjectSelectorIndex}.
+ * <p>
+ * Two {@link CacheObjectSelector}s are equal if they are made from equal conditions.
+ *
+ * @see JsonCacheClientModule#getCacheObjectSelector(Set)
+ */
+public interface CacheObjectSelector extends Predicate<CacheObject> {
+
+    /**
+     * @return the types of {@link CacheObject} that this selector can select (see {@link CacheObject#getType()}),
+     *         or {@code null} if this selector can select {@link CacheObject}s of any type
+     */
+    Set<String> getTypes();
+}
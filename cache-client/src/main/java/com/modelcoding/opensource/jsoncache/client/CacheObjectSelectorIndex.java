@@ -0,0 +1,51 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.client;
+
+import com.modelcoding.opensource.jsoncache.CacheObject;
+
+import java.util.Set;
+
+/**
+ * A {@link CacheObjectSelectorIndex} holds the {@link CacheObjectSelector}s of many clients, each under a key, and
+ * finds the keys of those selecting a given {@link CacheObject} - without testing the selectors that cannot select it.
+ * <p>
+ * Selectors are indexed on the types they can select, and on any condition that a value in the content of a
+ * {@link CacheObject} must equal a given value. Selectors without such conditions are tested against every
+ * {@link CacheObject}.
+ * <p>
+ * A {@link CacheObjectSelectorIndex} may be used from several threads at once.
+ *
+ * @param <K> the type of key under which each selector is held
+ * @see JsonCacheClientModule#getCacheObjectSelectorIndex()
+ */
+public interface CacheObjectSelectorIndex<K> {
+
+    /**
+     * Holds the given {@code selector} under the given {@code key}, replacing any selector already held under the key.
+     *
+     * @param key the key under which to hold the selector - cannot be {@code null}
+     * @param selector a selector created by the {@link JsonCacheClientModule} that created this index - cannot be
+     *                 {@code null}
+     * @throws NullPointerException if {@code key} or {@code selector} is {@code null}
+     * @throws IllegalArgumentException if {@code selector} was not created by the {@link JsonCacheClientModule} that
+     *                                  created this index
+     */
+    void put(K key, CacheObjectSelector selector);
+
+    /**
+     * Stops holding any selector under the given {@code key}.
+     *
+     * @param key the key of the selector to remove - cannot be {@code null}
+     * @throws NullPointerException if {@code key} is {@code null}
+     */
+    void remove(K key);
+
+    /**
+     * @param cacheObject the object to be selected - cannot be {@code null}
+     * @return the keys of the selectors held that select the given {@code cacheObject}
+     *         (see {@link CacheObjectSelector#test(Object)})
+     * @throws NullPointerException if {@code cacheObject} is {@code null}
+     */
+    Set<K> getSelecting(CacheObject cacheObject);
+}
@@ -2,14 +2,17 @@
 
 package com.modelcoding.opensource.jsoncache.client;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.modelcoding.opensource.jsoncache.CacheChangeSet;
 import com.modelcoding.opensource.jsoncache.CacheImageSender;
 import com.modelcoding.opensource.jsoncache.CacheObject;
 import com.modelcoding.opensource.jsoncache.JsonCache;
+import com.modelcoding.opensource.jsoncache.JsonCacheMetrics;
 import com.modelcoding.opensource.jsoncache.JsonCacheModule;
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 
+import java.util.Set;
 import java.util.function.Predicate;
 
 public interface JsonCacheClientModule {
@@ -46,8 +49,13 @@ public interface JsonCacheClientModule {
      *     <li>if the subscription to this {@link CacheChangeSetProcessor} is cancelled, the internal subscriptions to 
      *     the {@link CacheImageSender} and {@code cacheObjectSelectors} are cancelled</li> 
      * </ul><br>
+     * An implementation may be configured, when it is created, to apply a selector to the puts of a large cache image 
+     * from several threads at once - in which case selectors must be thread-safe, and each {@link CacheChangeSet} is 
+     * still output in the order received. Otherwise a selector is only applied on one thread at a time. If a selector 
+     * throws, the subscriber to this {@link CacheChangeSetProcessor} receives the error.
      *
-     * @param cacheObjectSelectors stream of cache object selectors, used to re-write {@link CacheChangeSet}s.
+     * @param cacheObjectSelectors stream of cache object selectors, used to re-write {@link CacheChangeSet}s - which
+     *                             may be {@link CacheObjectSelector}s.
      * @return a processor which receives and processes a stream of {@link CacheChangeSet}s to its subscriber, 
      *         re-writing {@link CacheChangeSet}s according to the {@code cacheObjectSelectors} provided.
      * @throws NullPointerException if {@code cacheObjectSelectors} is {@code null}        
@@ -56,6 +64,133 @@ public interface JsonCacheClientModule {
         Publisher<Predicate<CacheObject>> cacheObjectSelectors
     );
 
+    /**
+     * As {@link #getCacheChangeSetProcessor(Publisher)}, but the returned {@link CacheChangeSetProcessor} also tells 
+     * the given {@code metrics} of the time taken to apply its selector to the puts of each {@link CacheChangeSet} - 
+     * see {@link JsonCacheMetrics#recordSelectorEvaluated(int, long)}.
+     *
+     * @param metrics told of the time taken to apply selectors - cannot be {@code null}
+     * @throws NullPointerException if {@code cacheObjectSelectors} is {@code null}, or {@code metrics} is 
+     *                              {@code null}
+     */
+    CacheChangeSetProcessor getCacheChangeSetProcessor(
+        Publisher<Predicate<CacheObject>> cacheObjectSelectors,
+        JsonCacheMetrics metrics
+    );
+
+    /**
+     * As {@link #getCacheChangeSetProcessor(Publisher)}, but the returned {@link CacheChangeSetProcessor} outputs only
+     * the changes to the objects its subscriber holds. It keeps a view of the objects last received from its input, 
+     * once it has received a cache image, so that a change of selector does not need a cache image from the input; 
+     * and the ids of the objects its subscriber holds (those output as puts, and not since removed):<br>
+     * <ul>
+     *     <li>a remove from the input, or a put not selected, is output as a remove only if the subscriber holds the
+     *     object</li>
+     *     <li>a cache image output holds no removes - it replaces all the subscriber holds</li>
+     *     <li>for each new selector received once a cache image has been received, a {@link CacheChangeSet} is 
+     *     output (unless it would be empty) with {@link CacheChangeSet#isCacheImage()} as {@code false}, holding a put 
+     *     for each object in the view selected by the new selector that the subscriber does not hold, and a remove for 
+     *     each object the subscriber holds not selected by the new selector - the new selector being made the current 
+     *     selector at once</li>
+     *     <li>a new selector received before any cache image has been received is handled as by a processor from 
+     *     {@link #getCacheChangeSetProcessor(Publisher)}, requesting a cache image from the input</li>
+     *     <li>{@link CacheChangeSet}s output without being requested of the input are held until requested by the 
+     *     subscriber, and fewer are then requested of the input</li>
+     * </ul>
+     * The view holds a reference to each object in the input, rather than a copy; and the ids held are those of the 
+     * objects.
+     *
+     * @param cacheObjectSelectors stream of cache object selectors, used to re-write {@link CacheChangeSet}s
+     * @return a processor which receives and processes a stream of {@link CacheChangeSet}s to its subscriber, 
+     *         re-writing {@link CacheChangeSet}s according to the {@code cacheObjectSelectors} provided.
+     * @throws NullPointerException if {@code cacheObjectSelectors} is {@code null}        
+     */
+    CacheChangeSetProcessor getIncrementalCacheChangeSetProcessor(
+        Publisher<Predicate<CacheObject>> cacheObjectSelectors
+    );
+
+    /**
+     * As {@link #getIncrementalCacheChangeSetProcessor(Publisher)}, but the returned {@link CacheChangeSetProcessor} 
+     * also tells the given {@code metrics} of the time taken to apply its selector to the puts of each 
+     * {@link CacheChangeSet} - see {@link JsonCacheMetrics#recordSelectorEvaluated(int, long)}.
+     *
+     * @param metrics told of the time taken to apply selectors - cannot be {@code null}
+     * @throws NullPointerException if {@code cacheObjectSelectors} is {@code null}, or {@code metrics} is 
+     *                              {@code null}
+     */
+    CacheChangeSetProcessor getIncrementalCacheChangeSetProcessor(
+        Publisher<Predicate<CacheObject>> cacheObjectSelectors,
+        JsonCacheMetrics metrics
+    );
+
+    /**
+     * @param types the types of {@link CacheObject} to be selected (see {@link CacheObject#getType()}) - cannot be 
+     *              {@code null}, nor contain {@code null}
+     * @return a selector of {@link CacheObject}s of any of the given {@code types} - of none, if {@code types} is 
+     *         empty
+     * @throws NullPointerException if {@code types} is {@code null}, or contains {@code null}
+     */
+    CacheObjectSelector getCacheObjectSelector(Set<String> types);
+
+    /**
+     * @param jsonPointer a JSON pointer (RFC 6901) to a value within the content of a {@link CacheObject} - cannot be
+     *                    {@code null}
+     * @param value the value to be matched - cannot be {@code null}, but may be a JSON {@code null}
+     * @return a selector of {@link CacheObject}s whose content has a value at the given {@code jsonPointer} equal to 
+     *         the given {@code value} - numbers being equal if numerically equal
+     * @throws NullPointerException if {@code jsonPointer} or {@code value} is {@code null}
+     * @throws IllegalArgumentException if {@code jsonPointer} is not a valid JSON pointer
+     */
+    CacheObjectSelector getCacheObjectSelectorWhereEqual(String jsonPointer, JsonNode value);
+
+    /**
+     * @param jsonPointer a JSON pointer (RFC 6901) to a value within the content of a {@link CacheObject} - cannot be
+     *                    {@code null}
+     * @param from the lowest value to be selected, or {@code null} for no lowest value
+     * @param to the value above the highest value to be selected, or {@code null} for no highest value
+     * @return a selector of {@link CacheObject}s whose content has a value at the given {@code jsonPointer} that is 
+     *         at least {@code from} and less than {@code to} - numbers being compared numerically, and text 
+     *         lexicographically
+     * @throws NullPointerException if {@code jsonPointer} is {@code null}
+     * @throws IllegalArgumentException if {@code jsonPointer} is not a valid JSON pointer;<br>
+     *                                  or if both {@code from} and {@code to} are {@code null};<br>
+     *                                  or if {@code from} and {@code to} are not both numbers, or both text
+     */
+    CacheObjectSelector getCacheObjectSelectorWhereInRange(String jsonPointer, JsonNode from, JsonNode to);
+
+    /**
+     * @param jsonPointer a JSON pointer (RFC 6901) to a value within the content of a {@link CacheObject} - cannot be
+     *                    {@code null}
+     * @param prefix the start of the text to be matched - cannot be {@code null}
+     * @return a selector of {@link CacheObject}s whose content has text at the given {@code jsonPointer} starting 
+     *         with the given {@code prefix}
+     * @throws NullPointerException if {@code jsonPointer} or {@code prefix} is {@code null}
+     * @throws IllegalArgumentException if {@code jsonPointer} is not a valid JSON pointer
+     */
+    CacheObjectSelector getCacheObjectSelectorWhereStartsWith(String jsonPointer, String prefix);
+
+    /**
+     * @param selectors selectors created by this module - cannot be {@code null}, nor empty, nor contain {@code null}
+     * @return a selector of {@link CacheObject}s selected by all of the given {@code selectors}
+     * @throws NullPointerException if {@code selectors} is {@code null}, or contains {@code null}
+     * @throws IllegalArgumentException if {@code selectors} is empty, or contains a selector not created by this module
+     */
+    CacheObjectSelector getCacheObjectSelectorAllOf(Set<CacheObjectSelector> selectors);
+
+    /**
+     * @param selectors selectors created by this module - cannot be {@code null}, nor empty, nor contain {@code null}
+     * @return a selector of {@link CacheObject}s selected by any of the given {@code selectors}
+     * @throws NullPointerException if {@code selectors} is {@code null}, or contains {@code null}
+     * @throws IllegalArgumentException if {@code selectors} is empty, or contains a selector not created by this module
+     */
+    CacheObjectSelector getCacheObjectSelectorAnyOf(Set<CacheObjectSelector> selectors);
+
+    /**
+     * @param <K> the type of key under which each selector is held
+     * @return a new, empty, {@link CacheObjectSelectorIndex} of selectors created by this module
+     */
+    <K> CacheObjectSelectorIndex<K> getCacheObjectSelectorIndex();
+
     /**
      * Creates a {@link JsonCacheClient} that provides a live "view" of a {@link JsonCache} (in the form of a
      * {@link CacheImageSender}).
@@ -81,4 +216,45 @@ public interface JsonCacheClientModule {
         CacheChangeSetProcessor cacheObjectSelector,
         CacheChangeSetProcessor cacheObjectAuthorisor
     );
+
+    /**
+     * Creates a {@link JsonCacheClient} that provides a live "view" of a {@link JsonCache} (in the form of a
+     * {@link CacheImageSender}), defined by a fixed {@code cacheObjectSelector}, and restricted by a fixed
+     * {@code cacheObjectAuthorisor}.
+     * <p>
+     * Clients created by this method with the same {@code input}, and equal selector and authorisor, share the 
+     * evaluation of their view:
+     * <ul>
+     *     <li>the {@code input} is subscribed to once, when the first of the clients is subscribed to, and the
+     *     subscription is cancelled once none of the clients remains subscribed</li>
+     *     <li>each {@link CacheChangeSet} from the {@code input} is re-written once, as by a 
+     *     {@link CacheChangeSetProcessor} with the selector followed by one with the authorisor, and the result 
+     *     published to each client subscribed - except that removes are output only for the objects the clients 
+     *     hold, and a cache image output holds no removes</li>
+     *     <li>a client subscribed once a cache image has been received from the {@code input} is first sent a cache 
+     *     image of the view, without one being requested from the {@code input}</li>
+     *     <li>each client takes {@link CacheChangeSet}s at its own pace - a client falling more than 
+     *     {@code subscriberBacklogLimit} {@link CacheChangeSet}s behind is finished by error</li>
+     *     <li>if the {@code input} is completed, or finished by error, so is each client</li>
+     * </ul>
+     *
+     * @param id an id for the {@link JsonCacheClient}
+     * @param input the underlying source of {@link CacheChangeSet}s
+     * @param cacheObjectSelector a selector, created by this module, defining a view of the given {@code input}
+     * @param cacheObjectAuthorisor a selector, created by this module, restricting the view of the given {@code input}
+     * @param subscriberBacklogLimit the number of {@link CacheChangeSet}s the client can fall behind the others
+     * @return a live "view" of the given {@code input}
+     * @throws NullPointerException if any of {@code id}, {@code input}, {@code cacheObjectSelector} or 
+     *                              {@code cacheObjectAuthorisor} are {@code null}
+     * @throws IllegalArgumentException if {@code cacheObjectSelector} or {@code cacheObjectAuthorisor} was not 
+     *                                  created by this module;<br>or if {@code subscriberBacklogLimit} is negative 
+     *                                  or 0
+     */
+    JsonCacheClient getJsonCacheClient(
+        String id,
+        CacheImageSender input,
+        CacheObjectSelector cacheObjectSelector,
+        CacheObjectSelector cacheObjectAuthorisor,
+        int subscriberBacklogLimit
+    );
 }
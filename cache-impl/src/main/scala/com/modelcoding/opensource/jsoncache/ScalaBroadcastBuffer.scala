@@ -0,0 +1,280 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import java.util.concurrent.atomic.{AtomicBoolean, AtomicInteger, AtomicLong, AtomicReferenceArray}
+import java.util.concurrent.{ConcurrentHashMap, ConcurrentLinkedQueue, Executor}
+
+import org.reactivestreams.{Subscriber, Subscription}
+
+import scala.collection.JavaConverters._
+import com.modelcoding.opensource.jsoncache.JsonCache.SubscriberBacklogPolicy
+
+/**
+ * Ring buffer of the change sets published by a JsonCache, written once by the JsonCache and read by each subscriber
+ * at its own pace using its own cursor.
+ * <p>
+ * The writer (the actor of the JsonCache) does a fixed amount of work per change set, however many subscribers: it
+ * stores the change set, moves the write sequence on, and schedules (at most one) wake-up of the subscribers on the
+ * given executor. The backlog of a subscriber is the lag of its cursor behind the write sequence.
+ * <p>
+ * The write sequence follows the sequence numbers of the change sets published, so the buffer also serves as the
+ * history of recent change sets from which a subscriber can resume.
+ * <p>
+ * The metrics of an instrumented JsonCache are told of the number of subscribers as it changes, and of the backlog of
+ * a subscriber as each entry is delivered to it.
+ * <p>
+ * All methods other than those of ScalaBroadcastBuffer.BroadcastSubscription must be called by the writer.
+ */
+private[jsoncache] final class ScalaBroadcastBuffer(
+  backlogLimit: Int,
+  backlogPolicy: SubscriberBacklogPolicy,
+  initialCache: Cache,
+  initialSequence: Long,
+  executor: Executor
+) {
+
+  import ScalaBroadcastBuffer._
+
+  // A power of 2 greater than backlogLimit, so that an entry within the backlogLimit is never overwritten
+  private val capacity: Int = Integer.highestOneBit(backlogLimit) << 1
+  private val mask    : Int = capacity - 1
+
+  private val entries: AtomicReferenceArray[Entry] = new AtomicReferenceArray[Entry](capacity)
+
+  // latest is moved on before writeSequence, so a reader never sees a writeSequence beyond latest
+  @volatile private var writeSequence: Long     = initialSequence
+  @volatile private var latest       : Position = Position(initialSequence, initialCache)
+
+  @volatile private var terminated: Boolean   = false
+  @volatile private var error     : Throwable = _
+
+  private val subscriptions  : ConcurrentHashMap[Subscriber[_ >: CacheChangeSet], BroadcastSubscription] =
+    new ConcurrentHashMap()
+  private val wakeUpScheduled: AtomicBoolean                                                             =
+    new AtomicBoolean()
+
+  @volatile private var metrics: JsonCacheMetrics = NoJsonCacheMetrics
+
+  def publish(previousCache: Cache, changeSet: CacheChangeSet, cache: Cache): Unit = {
+
+    val sequence: Long = writeSequence
+    entries.set((sequence & mask).toInt, Entry(sequence, previousCache, changeSet))
+    latest = Position(sequence + 1, cache)
+    writeSequence = sequence + 1
+    wakeUp()
+  }
+
+  /**
+   * @param fromSequence the sequence number of the change set to resume from, if any - the subscriber starts with an
+   *                     image unless the change sets from fromSequence on are all within the backlogLimit
+   */
+  def subscribe(subscriber: Subscriber[_ >: CacheChangeSet], types: Option[Set[String]], fromSequence: Option[Long]): Unit = {
+
+    val position: Position = latest
+    val subscription: BroadcastSubscription = fromSequence match {
+      case Some(from) if from >= initialSequence && from <= position.sequence && position.sequence - from <= backlogLimit =>
+        new BroadcastSubscription(new StatefulSubscriber(subscriber), types, from, None)
+      case _                                                                                                            =>
+        new BroadcastSubscription(new StatefulSubscriber(subscriber), types, position.sequence, Some(position))
+    }
+    subscriptions.put(subscriber, subscription)
+    metrics.recordSubscribers(subscriptions.size)
+    executor.execute { () =>
+      subscriber.onSubscribe(subscription)
+      subscription.subscribed = true
+      subscription.drain()
+    }
+  }
+
+  def sendImage(subscriber: Subscriber[_ >: CacheChangeSet]): Unit = {
+
+    val subscription: BroadcastSubscription = subscriptions.get(subscriber)
+    if(subscription != null) subscription.sendImage(latest)
+  }
+
+  def instrument(aMetrics: JsonCacheMetrics): Unit = {
+
+    metrics = aMetrics
+    metrics.recordSubscribers(subscriptions.size)
+  }
+
+  def complete(): Unit = terminate(null)
+
+  def fail(error: Throwable): Unit = terminate(error)
+
+  private def terminate(anError: Throwable): Unit = {
+
+    error = anError
+    terminated = true
+    subscriptions.values.forEach { subscription => subscription.drain() }
+  }
+
+  private def wakeUp(): Unit = {
+
+    if(wakeUpScheduled.compareAndSet(false, true))
+      executor.execute { () =>
+        wakeUpScheduled.set(false)
+        subscriptions.values.forEach { subscription => subscription.drain() }
+      }
+  }
+
+  /**
+   * Delivers to a subscriber the images requested for it and the entries of the buffer from its cursor on, as
+   * demanded. Delivery is serialised by drain(), which may be called from any thread.
+   */
+  private final class BroadcastSubscription(
+    subscriber: StatefulSubscriber,
+    types: Option[Set[String]],
+    initialCursor: Long,
+    initialImage: Option[Position]
+  ) extends Subscription {
+
+    private val wip          : AtomicInteger                   = new AtomicInteger()
+    private val demand       : AtomicLong                      = new AtomicLong()
+    private val pendingImages: ConcurrentLinkedQueue[Position] = new ConcurrentLinkedQueue(initialImage.toList.asJava)
+
+    // Nothing is delivered until the subscriber has been given this subscription
+    @volatile var subscribed: Boolean = false
+
+    @volatile private var cancelled     : Boolean   = false
+    @volatile private var invalidRequest: Throwable = _
+
+    // Only accessed within drain()
+    private var cursor: Long    = initialCursor
+    private var stale : Boolean = false
+    private var done  : Boolean = false
+
+    override def request(n: Long): Unit = {
+
+      if(n <= 0)
+        invalidRequest = new IllegalArgumentException(s"A subscriber must request a positive number of change sets, not $n")
+      else
+        demand.accumulateAndGet(n, (current, more) => if(current + more < 0) Long.MaxValue else current + more)
+      drain()
+    }
+
+    override def cancel(): Unit = {
+
+      cancelled = true
+      drain()
+    }
+
+    def sendImage(image: Position): Unit = {
+
+      pendingImages.offer(image)
+      drain()
+    }
+
+    def drain(): Unit = {
+
+      if(wip.getAndIncrement() == 0) {
+        var missed: Int = 1
+        while(missed != 0) {
+          deliver()
+          missed = wip.addAndGet(-missed)
+        }
+      }
+    }
+
+    private def deliver(): Unit = {
+
+      if(done || !subscribed) return
+
+      if(invalidRequest != null)
+        return finish(subscriber.onError(invalidRequest))
+      if(cancelled)
+        return finish(subscriber.onComplete())
+      if(terminated)
+        return finish(if(error == null) subscriber.onComplete() else subscriber.onError(error))
+
+      while(!done) {
+        if(!stale && writeSequence - cursor > backlogLimit)
+          overflow()
+        else if(demand.get == 0)
+          return
+        else if(stale) {
+          // Catch up with a fresh image, rather than the entries dropped
+          val image: Position = latest
+          stale = false
+          cursor = image.sequence
+          pendingImages.clear()
+          emit(imageOf(image))
+        }
+        else {
+          val image: Position = pendingImages.peek()
+          if(image != null && image.sequence <= cursor) {
+            pendingImages.poll()
+            emit(imageOf(image))
+          }
+          else if(cursor < writeSequence) {
+            val entry: Entry = entries.get((cursor & mask).toInt)
+            if(entry.sequence != cursor)
+              overflow() // The entry has been overwritten
+            else {
+              // The entry delivered is counted in the backlog
+              metrics.recordSubscriberBacklog((writeSequence - cursor).toInt)
+              cursor += 1
+              scoped(entry).foreach(emit)
+            }
+          }
+          else
+            return
+        }
+      }
+    }
+
+    private def overflow(): Unit = backlogPolicy match {
+
+      case SubscriberBacklogPolicy.FAIL   =>
+        finish(subscriber.onError(new IllegalStateException(s"Subscriber backlog exceeded limit of $backlogLimit")))
+
+      case SubscriberBacklogPolicy.RESYNC =>
+        stale = true
+    }
+
+    private def emit(changeSet: CacheChangeSet): Unit = {
+
+      demand.decrementAndGet()
+      subscriber.onNext(changeSet)
+    }
+
+    private def finish(signal: => Unit): Unit = {
+
+      done = true
+      if(subscriptions.remove(subscriber.delegate, this)) metrics.recordSubscribers(subscriptions.size)
+      signal
+    }
+
+    private def scoped(entry: Entry): Option[CacheChangeSet] = types match {
+      case None    => Some(entry.changeSet)
+      case Some(t) => entry.scoped(t)
+    }
+
+    private def imageOf(image: Position): CacheChangeSet = {
+
+      val cacheImage: CacheChangeSet = types match {
+        case None    => image.cache.getImage
+        case Some(t) => image.cache.getImage(t.asJava)
+      }
+      ScalaCacheChangeSet.sequenced(cacheImage, image.sequence - 1)
+    }
+  }
+}
+
+private[jsoncache] object ScalaBroadcastBuffer {
+
+  private case class Entry(sequence: Long, previousCache: Cache, changeSet: CacheChangeSet) {
+
+    // The change set scoped to each set of types subscribed to, built once by whichever subscriber gets there first
+    private lazy val scopedChangeSets: ConcurrentHashMap[Set[String], Option[CacheChangeSet]] = new ConcurrentHashMap()
+
+    def scoped(types: Set[String]): Option[CacheChangeSet] =
+      scopedChangeSets.computeIfAbsent(types, t => ScalaCacheChangeSet.scoped(previousCache, changeSet, t))
+  }
+
+  /**
+   * The cache as it was once the entries before sequence were applied.
+   */
+  private case class Position(sequence: Long, cache: Cache)
+}
@@ -1,32 +1,63 @@
 // Author: Richard Bradford
 
 package com.modelcoding.opensource.jsoncache
-import java.util.UUID
+import java.util
+import java.util.{Collections, UUID}
 
-import scala.collection.JavaConverters._
 import ScalaJsonCacheModule._
-import com.modelcoding.opensource.jsoncache.Cache.{PutAction, PutResult, RemoveAction, RemoveResult}
+import com.modelcoding.opensource.jsoncache.Cache._
+import com.modelcoding.opensource.jsoncache.ScalaCacheObjectTrie.Change
+
+import scala.collection.JavaConverters._
+
+class ScalaCache(content: ScalaCacheObjectTrie, contentByType: ScalaCacheTypeIndex) extends Cache {
+
+  // Computed at most once for this (immutable) version of the cache, and shared by all callers
+  private lazy val image: CacheChangeSet = 
+    ScalaCacheChangeSet.image(UUID.randomUUID.toString, new ScalaCacheObjectSetView(content))
+
+  override def getImage: CacheChangeSet = image
+
+  override def getImage(
+    cacheObjectTypes: util.Set[String]
+  ): CacheChangeSet = {
+
+    requireNotNull(cacheObjectTypes, "Cannot get image of cache for null set of types")
+
+    val tries: Seq[ScalaCacheObjectTrie] = cacheObjectTypes.asScala.toList.map { cacheObjectType =>
+      requireNotNull(cacheObjectType, "Cannot get image of cache for null type")
+      contentByType.get(cacheObjectType)
+    }
+
+    ScalaCacheChangeSet.image(UUID.randomUUID.toString, new ScalaCacheObjectSetView(tries))
+  }
+
+  override def getCacheObjectsByType(
+    cacheObjectType: String
+  ): util.Set[_ <: CacheObject] = {
 
-class ScalaCache(content: Map[String, _ <: CacheObject]) extends Cache {
+    requireNotNull(cacheObjectType, "Cannot get objects from cache with null type")
 
-  override def getImage: CacheChangeSet = 
-    ScalaCacheChangeSet(UUID.randomUUID.toString, content.values.toSet.asJava, ScalaCacheChangeSet.emptyRemoves, isCacheImage = true)
+    new ScalaCacheObjectSetView(contentByType.get(cacheObjectType))
+  }
 
   override def containsCacheObject(cacheObjectId: String): Boolean = {
-    
+
     requireNotNull(cacheObjectId, "Cannot check cache for object with null id")
-    
+
     content.contains(cacheObjectId)
   }
 
   override def getCacheObject(
     cacheObjectId: String
   ): CacheObject = {
-    
+
     requireNotNull(cacheObjectId, "Cannot get object from cache with null id")
-    require(containsCacheObject(cacheObjectId), "cacheObjectId not found in Cache")
-    
-    content(cacheObjectId)
+
+    val cacheObject: CacheObject = content.get(cacheObjectId)
+    require(cacheObject != null, "cacheObjectId not found in Cache")
+
+    cacheObject
   }
 
   override def put(
@@ -34,36 +65,108 @@ class ScalaCache(content: Map[String, _ <: CacheObject]) extends Cache {
   ): PutResult = {
 
     requireNotNull(cacheObject, "Cannot put null object into cache")
-    
-    val action: PutAction = if(content.contains(cacheObject.getId)) PutAction.REPLACED else PutAction.ADDED
-    
-    new PutResult {
-      
-      override def getCache: Cache = new ScalaCache(content + (cacheObject.getId -> cacheObject))
-
-      override val getAction: PutAction = action
-    }
+
+    val change: Change = new Change
+    val nextContent: ScalaCacheObjectTrie = content.updated(cacheObject, change)
+
+    ScalaPutResult(
+      new ScalaCache(nextContent, contentByType.updated(cacheObject, change.previous)), 
+      if(change.replaced) PutAction.REPLACED else PutAction.ADDED
+    )
   }
 
   override def remove(
     cacheRemove: CacheRemove
   ): RemoveResult = {
-    
+
     requireNotNull(cacheRemove, "Cannot remove from cache using null remove")
-    
-    if(!containsCacheObject(cacheRemove.getId))
-      new RemoveResult {
-        
-        override def getCache: Cache = ScalaCache.this
 
-        override def getAction: Cache.RemoveAction = RemoveAction.NO_CHANGE
-      }
+    val change: Change = new Change
+    val nextContent: ScalaCacheObjectTrie = content.removed(cacheRemove.getId, change)
+
+    if(!change.modified)
+      ScalaRemoveResult(this, RemoveAction.NO_CHANGE)
     else
-      new RemoveResult {
-        
-        override def getCache: Cache = new ScalaCache(content - cacheRemove.getId)
+      ScalaRemoveResult(new ScalaCache(nextContent, contentByType.removed(change.previous)), RemoveAction.REMOVED)
+  }
 
-        override def getAction: RemoveAction = RemoveAction.REMOVED
+  override def putAll(
+    cacheObjects: util.Set[_ <: CacheObject]
+  ): PutAllResult = {
+
+    requireNotNull(cacheObjects, "Cannot put null set of objects into cache")
+
+    if(cacheObjects.isEmpty)
+      return ScalaPutAllResult(this, Collections.emptyMap())
+
+    val builder: ScalaCacheObjectTrie.Builder = content.builder
+    val byTypeBuilder: ScalaCacheTypeIndex.Builder = contentByType.builder
+    val actions: util.Map[String, PutAction] = new util.HashMap[String, PutAction](capacityFor(cacheObjects.size))
+
+    cacheObjects.forEach { cacheObject =>
+      requireNotNull(cacheObject, "Cannot put null object into cache")
+      val previous: CacheObject = builder.put(cacheObject)
+      byTypeBuilder.put(cacheObject, previous)
+      actions.put(cacheObject.getId, if(previous != null) PutAction.REPLACED else PutAction.ADDED)
+    }
+
+    ScalaPutAllResult(new ScalaCache(builder.result(), byTypeBuilder.result()), Collections.unmodifiableMap(actions))
+  }
+
+  override def removeAll(
+    cacheRemoves: util.Set[_ <: CacheRemove]
+  ): RemoveAllResult = {
+
+    requireNotNull(cacheRemoves, "Cannot remove from cache using null set of removes")
+
+    val builder: ScalaCacheObjectTrie.Builder = content.builder
+    val byTypeBuilder: ScalaCacheTypeIndex.Builder = contentByType.builder
+    val actions: util.Map[String, RemoveAction] = new util.HashMap[String, RemoveAction](capacityFor(cacheRemoves.size))
+    var modified: Boolean = false
+
+    cacheRemoves.forEach { cacheRemove =>
+      requireNotNull(cacheRemove, "Cannot remove from cache using null remove")
+      val removed: CacheObject = builder.remove(cacheRemove.getId)
+      if(removed != null) {
+        byTypeBuilder.remove(removed)
+        modified = true
+        actions.put(cacheRemove.getId, RemoveAction.REMOVED)
       }
+      else
+        actions.put(cacheRemove.getId, RemoveAction.NO_CHANGE)
+    }
+
+    ScalaRemoveAllResult(
+      if(modified) new ScalaCache(builder.result(), byTypeBuilder.result()) else this, 
+      Collections.unmodifiableMap(actions)
+    )
   }
+
+  private def capacityFor(size: Int): Int = (size / 0.75f).toInt + 1
 }
+
+object ScalaCache {
+
+  val empty: ScalaCache = new ScalaCache(ScalaCacheObjectTrie.empty, ScalaCacheTypeIndex.empty)
+
+  /**
+   * @param cacheObjects objects with distinct ids
+   */
+  private[jsoncache] def apply(cacheObjects: Array[CacheObject]): ScalaCache = {
+
+    val builder: ScalaCacheObjectTrie.Builder = ScalaCacheObjectTrie.empty.builder
+    val byTypeBuilder: ScalaCacheTypeIndex.Builder = ScalaCacheTypeIndex.empty.builder
+
+    cacheObjects.foreach { cacheObject => byTypeBuilder.put(cacheObject, builder.put(cacheObject)) }
+
+    new ScalaCache(builder.result(), byTypeBuilder.result())
+  }
+}
+
+case class ScalaPutResult(getCache: Cache, getAction: PutAction) extends PutResult
+
+case class ScalaRemoveResult(getCache: Cache, getAction: RemoveAction) extends RemoveResult
+
+case class ScalaPutAllResult(getCache: Cache, getActions: util.Map[String, PutAction]) extends PutAllResult
+
+case class ScalaRemoveAllResult(getCache: Cache, getActions: util.Map[String, RemoveAction]) extends RemoveAllResult
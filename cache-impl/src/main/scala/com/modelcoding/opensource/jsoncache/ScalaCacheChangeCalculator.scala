@@ -2,7 +2,8 @@
 
 package com.modelcoding.opensource.jsoncache
 
-import scala.collection.JavaConverters._
+import java.util
+
 import ScalaJsonCacheModule._
 
 class ScalaCacheChangeCalculator(changeSet: CacheChangeSet) extends CacheFunctionInstance {
@@ -19,13 +20,24 @@ class ScalaCacheChangeCalculatorFunction(val getChangeSet: CacheChangeSet) exten
   ): CacheFunction.Result = {
     
     requireNotNull(cache, "Cannot calculate change against null cache")
+
+    // Puts of objects already in the cache with the same type and content change nothing, so are dropped - if nothing
+    // else changes, the cache is returned as it is
+    val puts: util.Set[_ <: CacheObject] = getChangeSet.getPuts
+    val changedPuts: util.Set[CacheObject] = new util.HashSet[CacheObject]()
+    puts.forEach { put => if(!isUnchanged(cache, put)) changedPuts.add(put) }
+
+    val changeSet: CacheChangeSet =
+      if(changedPuts.size == puts.size) getChangeSet
+      else ScalaCacheChangeSet(getChangeSet.getId, changedPuts, getChangeSet.getRemoves, isCacheImage = false)
     
-    var nextCache: Cache = cache
-    nextCache = getChangeSet.getPuts.iterator().asScala.foldLeft(nextCache) { (c, co) => c.put(co).getCache }
-    nextCache = getChangeSet.getRemoves.iterator().asScala.foldLeft(nextCache) { (c, cr) => c.remove(cr).getCache }
+    val nextCache: Cache = cache.putAll(changeSet.getPuts).getCache.removeAll(changeSet.getRemoves).getCache
     
-    new ChangeResult(nextCache, getChangeSet)
+    new ChangeResult(nextCache, changeSet)
   }
+
+  private def isUnchanged(cache: Cache, put: CacheObject): Boolean =
+    cache.containsCacheObject(put.getId) && ScalaCacheObject.hasSameContent(cache.getCacheObject(put.getId), put)
 }
 
 class ChangeResult(val getCache: Cache, val getChangeSet: CacheChangeSet) extends CacheFunction.Result
@@ -5,9 +5,12 @@ package com.modelcoding.opensource.jsoncache
 import java.util
 import java.util.Collections
 
+import com.fasterxml.jackson.core.JsonGenerator
 import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.node.{ArrayNode, JsonNodeFactory, ObjectNode}
 
+import scala.collection.mutable
+
 object ScalaCacheChangeSet {
 
   def apply(
@@ -23,6 +26,104 @@ object ScalaCacheChangeSet {
       isCacheImage
     ) {}
 
+  /**
+   * Creates a cache image from the given puts without copying them - the puts must be immutable, and not exposed to
+   * mutation.
+   */
+  private[jsoncache] def image(
+    id: String,
+    puts: util.Set[_ <: CacheObject]
+  ): CacheChangeSet =
+    new ScalaCacheChangeSet(id, puts, emptyRemoves, isCacheImage = true) {}
+
+  /**
+   * Stamps a change set with its sequence number without copying it.
+   */
+  private[jsoncache] def sequenced(
+    changeSet: CacheChangeSet,
+    sequence: Long
+  ): SequencedCacheChangeSet =
+    new ScalaCacheChangeSet(changeSet.getId, changeSet.getPuts, changeSet.getRemoves, changeSet.isCacheImage)
+      with SequencedCacheChangeSet {
+
+      override val getSequence: Long = sequence
+    }
+
+  /**
+   * Merges a sequence of (non-image) change sets, applied in turn, into a single change set with the id of the last -
+   * for each object id, only the last put or remove in the sequence is kept.
+   */
+  def merge(changeSets: Seq[CacheChangeSet]): CacheChangeSet = {
+
+    require(changeSets.nonEmpty, "Cannot merge an empty sequence of change sets")
+
+    if(changeSets.size == 1)
+      return changeSets.head
+
+    // Puts are applied before removes within each change set
+    val lastChanges: util.Map[String, AnyRef] = new util.HashMap[String, AnyRef]()
+    changeSets.foreach { changeSet =>
+      changeSet.getPuts.forEach { put => lastChanges.put(put.getId, put) }
+      changeSet.getRemoves.forEach { remove => lastChanges.put(remove.getId, remove) }
+    }
+
+    val puts: util.Set[CacheObject] = new util.HashSet[CacheObject]()
+    val removes: util.Set[CacheRemove] = new util.HashSet[CacheRemove]()
+    lastChanges.values.forEach { change =>
+      change match {
+        case put: CacheObject    => puts.add(put)
+        case remove: CacheRemove => removes.add(remove)
+      }
+    }
+
+    new ScalaCacheChangeSet(
+      changeSets.last.getId,
+      Collections.unmodifiableSet(puts),
+      Collections.unmodifiableSet(removes),
+      isCacheImage = false
+    ) {}
+  }
+
+  /**
+   * @return the part of changeSet (applied to previousCache) that concerns objects with any of the given types, 
+   *         or None if changeSet has no effect on such objects - the part has the sequence number of changeSet, if any
+   */
+  def scoped(
+    previousCache: Cache,
+    changeSet: CacheChangeSet,
+    types: Set[String]
+  ): Option[CacheChangeSet] = {
+
+    def wasInScope(cacheObjectId: String): Boolean =
+      previousCache.containsCacheObject(cacheObjectId) && types.contains(previousCache.getCacheObject(cacheObjectId).getType)
+
+    val puts: util.Set[CacheObject] = new util.HashSet[CacheObject]()
+    val removes: util.Set[CacheRemove] = new util.HashSet[CacheRemove]()
+    val putIds: mutable.Set[String] = mutable.Set()
+
+    changeSet.getPuts.forEach { put =>
+      if(types.contains(put.getType)) {
+        puts.add(put)
+        putIds += put.getId
+      }
+      else if(wasInScope(put.getId))
+        removes.add(put.asCacheRemove())
+    }
+    changeSet.getRemoves.forEach { remove =>
+      if(putIds.contains(remove.getId) || wasInScope(remove.getId))
+        removes.add(remove)
+    }
+
+    if(puts.isEmpty && removes.isEmpty)
+      None
+    else changeSet match {
+      case s: SequencedCacheChangeSet =>
+        Some(sequenced(ScalaCacheChangeSet(changeSet.getId, puts, removes, changeSet.isCacheImage), s.getSequence))
+      case _                          =>
+        Some(ScalaCacheChangeSet(changeSet.getId, puts, removes, changeSet.isCacheImage))
+    }
+  }
+
   def apply(json: JsonNode): CacheChangeSet = {
 
     if(json.isObject) {
@@ -54,6 +155,24 @@ object ScalaCacheChangeSet {
     throw new IllegalArgumentException(s"Unable to create CacheChangeSet from $json")
   }
 
+  /**
+   * Writes the given change set as JSON in the form given by CacheChangeSet.asJsonNode, without building a tree of
+   * it - the content of compact objects is copied from its serialized form.
+   */
+  private[jsoncache] def write(changeSet: CacheChangeSet, generator: JsonGenerator): Unit = {
+
+    generator.writeStartObject()
+    generator.writeStringField("id", changeSet.getId)
+    generator.writeBooleanField("isCacheImage", changeSet.isCacheImage)
+    generator.writeArrayFieldStart("puts")
+    changeSet.getPuts.forEach { p => ScalaCompactCacheObject.write(p, generator) }
+    generator.writeEndArray()
+    generator.writeArrayFieldStart("removes")
+    changeSet.getRemoves.forEach { r => generator.writeTree(r.asJsonNode()) }
+    generator.writeEndArray()
+    generator.writeEndObject()
+  }
+
   val emptyRemoves: util.Set[CacheRemove] = Collections.unmodifiableSet(new util.HashSet[CacheRemove]())
 }
 
@@ -92,7 +211,7 @@ abstract class ScalaCacheChangeSet private[ScalaCacheChangeSet](
     case _                    => false
   }
 
-  override val hashCode: Int = {
+  override lazy val hashCode: Int = {
     val state = Seq(getPuts, getRemoves, isCacheImage)
     state.map(_.hashCode()).foldLeft(0)((a, b) => 31 * a + b)
   }
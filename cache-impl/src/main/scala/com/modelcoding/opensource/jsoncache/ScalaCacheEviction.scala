@@ -0,0 +1,129 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import java.util
+import java.util.{Collections, UUID}
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.modelcoding.opensource.jsoncache.CacheFunction.Result
+
+/**
+ * Keeps the estimated size of the objects in the Cache of a JsonCache within a budget, by evicting the objects put
+ * least recently.
+ * <p>
+ * The objects are kept in order of when they were last put, with the estimated size of each: a put moves an object
+ * to the end, and eviction takes objects from the front - both at a fixed cost, however many objects there are.
+ * <p>
+ * Not thread-safe: used only by the JsonCache that owns it.
+ */
+private[jsoncache] class ScalaCacheEviction(budget: Long, aCache: Cache) {
+
+  import ScalaCacheEviction._
+
+  private val weights: util.LinkedHashMap[String, java.lang.Long] = new util.LinkedHashMap()
+  private var total  : Long                                       = 0
+
+  aCache.getImage.getPuts.forEach { cacheObject => put(cacheObject) }
+
+  def isOverBudget: Boolean = total > budget
+
+  /**
+   * Called by the JsonCache once it has applied a function.
+   */
+  def applied(cacheFunctionInstance: CacheFunctionInstance, result: Result): Unit = {
+
+    // Puts dropped by a cache change calculator as leaving an object unchanged still count as puts
+    val puts: util.Set[_ <: CacheObject] = cacheFunctionInstance.getCode match {
+      case calculator: ScalaCacheChangeCalculatorFunction => calculator.getChangeSet.getPuts
+      case _                                              => result.getChangeSet.getPuts
+    }
+    puts.forEach { cacheObject =>
+      if(result.getCache.containsCacheObject(cacheObject.getId))
+        put(result.getCache.getCacheObject(cacheObject.getId))
+    }
+    result.getChangeSet.getRemoves.forEach { cacheRemove => remove(cacheRemove.getId) }
+  }
+
+  /**
+   * @return a function which removes the objects put least recently, until what remains is within the budget
+   */
+  def evictionFunction: CacheFunctionInstance = new ScalaOwnFunctionInstance {
+
+    override val getId: String = UUID.randomUUID.toString
+
+    override val getCode: CacheFunction = { cache =>
+      val removes: util.Set[CacheRemove] = new util.HashSet[CacheRemove]()
+      val eldest: util.Iterator[util.Map.Entry[String, java.lang.Long]] = weights.entrySet.iterator
+      var remaining: Long = total
+      while(remaining > budget && eldest.hasNext) {
+        val entry: util.Map.Entry[String, java.lang.Long] = eldest.next()
+        removes.add(ScalaCacheRemove(entry.getKey))
+        remaining -= entry.getValue
+      }
+      new ChangeResult(cache.removeAll(removes).getCache, ScalaCacheChangeSet(getId, Collections.emptySet[CacheObject](), removes, false))
+    }
+  }
+
+  private def put(cacheObject: CacheObject): Unit = {
+
+    remove(cacheObject.getId)
+    val weight: Long = estimatedSize(cacheObject)
+    weights.put(cacheObject.getId, weight)
+    total += weight
+  }
+
+  private def remove(cacheObjectId: String): Unit = {
+
+    val weight: java.lang.Long = weights.remove(cacheObjectId)
+    if(weight != null) total -= weight
+  }
+}
+
+private[jsoncache] object ScalaCacheEviction {
+
+  def estimatedSize(cacheObject: CacheObject): Long = cacheObject match {
+    case scalaCacheObject: ScalaCacheObject => scalaCacheObject.estimatedSize
+    case compact: ScalaCompactCacheObject   => compact.estimatedSize
+    case _                                  => sizeOf(cacheObject)
+  }
+
+  def sizeOf(cacheObject: CacheObject): Long =
+    sizeOf(cacheObject.getId, cacheObject.getType) + estimatedSize(cacheObject.getContent)
+
+  /**
+   * @return the estimated size of an object, less its content
+   */
+  def sizeOf(id: String, aType: String): Long = ObjectSize + estimatedSize(id) + estimatedSize(aType)
+
+  /**
+   * Roughly the number of bytes held by a JSON value - enough to bound memory use, not to account for it exactly.
+   */
+  def estimatedSize(node: JsonNode): Long = {
+
+    if(node.isObject) {
+      var size: Long = ObjectNodeSize
+      node.fields.forEachRemaining { field => size += EntrySize + estimatedSize(field.getKey) + estimatedSize(field.getValue) }
+      size
+    }
+    else if(node.isArray) {
+      var size: Long = ArrayNodeSize
+      node.elements.forEachRemaining { element => size += ReferenceSize + estimatedSize(element) }
+      size
+    }
+    else if(node.isTextual)
+      ValueNodeSize + estimatedSize(node.textValue)
+    else
+      ValueNodeSize
+  }
+
+  def estimatedSize(string: String): Long = StringSize + 2L * string.length
+
+  private val ObjectSize    : Long = 32
+  private val ObjectNodeSize: Long = 64 // The node, and its map
+  private val ArrayNodeSize : Long = 40 // The node, and its list
+  private val ValueNodeSize : Long = 24
+  private val EntrySize     : Long = 40 // An entry in the map of an object node
+  private val ReferenceSize : Long = 8
+  private val StringSize    : Long = 40 // A String, and its array, when empty
+}
@@ -0,0 +1,237 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import java.io.Closeable
+import java.time.Duration
+import java.util
+import java.util.{Collections, UUID}
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicBoolean
+
+import akka.actor.{ActorSystem, Cancellable}
+import com.modelcoding.opensource.jsoncache.CacheFunction.Result
+
+import scala.concurrent.duration.FiniteDuration
+
+/**
+ * Hashed timer wheel of the times at which objects expire.
+ * <p>
+ * Time is divided into ticks, and the expiry of an object is linked into the slot of the wheel for the tick it falls
+ * in - an expiry more than a revolution of the wheel away shares the slot with those of earlier revolutions, and is
+ * passed over until its revolution comes round. Scheduling and cancelling an expiry take constant time; advancing
+ * the wheel visits just the slots for the ticks passed.
+ * <p>
+ * Not thread-safe: used only by the JsonCache it is attached to.
+ */
+private[jsoncache] final class ScalaExpiryWheel(tickNanos: Long, slotCount: Int, startNanos: Long) {
+
+  require(Integer.bitCount(slotCount) == 1, "The number of slots must be a power of 2")
+
+  private final class Timeout(val cacheObjectId: String, val deadlineTick: Long) {
+
+    var previous: Timeout = _
+    var next    : Timeout = _
+  }
+
+  private val mask    : Int                           = slotCount - 1
+  private val slots   : Array[Timeout]                = new Array(slotCount)
+  private val timeouts: util.HashMap[String, Timeout] = new util.HashMap()
+
+  // The next tick to be processed
+  private var currentTick: Long = 0
+
+  def size: Int = timeouts.size
+
+  /**
+   * Schedules the expiry of an object, replacing any scheduled before.
+   */
+  def schedule(cacheObjectId: String, timeToLive: Duration, nowNanos: Long): Unit = {
+
+    cancel(cacheObjectId)
+
+    val deadline: Long = nowNanos - startNanos + Math.max(timeToLive.toNanos, 0)
+    val timeout: Timeout = new Timeout(cacheObjectId, Math.max((deadline + tickNanos - 1) / tickNanos, currentTick))
+    val slot: Int = (timeout.deadlineTick & mask).toInt
+
+    timeout.next = slots(slot)
+    if(timeout.next != null) timeout.next.previous = timeout
+    slots(slot) = timeout
+    timeouts.put(cacheObjectId, timeout)
+  }
+
+  def cancel(cacheObjectId: String): Unit = {
+
+    val timeout: Timeout = timeouts.remove(cacheObjectId)
+    if(timeout != null) unlink(timeout)
+  }
+
+  /**
+   * Moves the wheel on to the given time.
+   *
+   * @return the ids of the objects whose expiry has been reached
+   */
+  def advance(nowNanos: Long): util.List[String] = {
+
+    val expired: util.List[String] = new util.ArrayList()
+    val targetTick: Long = (nowNanos - startNanos) / tickNanos
+
+    // However many ticks have passed, each slot need only be visited once
+    val lastTick: Long = Math.min(targetTick, currentTick + slotCount - 1)
+    var tick: Long = currentTick
+    while(tick <= lastTick) {
+      var timeout: Timeout = slots((tick & mask).toInt)
+      while(timeout != null) {
+        val next: Timeout = timeout.next
+        if(timeout.deadlineTick <= targetTick) {
+          unlink(timeout)
+          timeouts.remove(timeout.cacheObjectId)
+          expired.add(timeout.cacheObjectId)
+        }
+        timeout = next
+      }
+      tick += 1
+    }
+    currentTick = Math.max(currentTick, targetTick + 1)
+
+    expired
+  }
+
+  private def unlink(timeout: Timeout): Unit = {
+
+    if(timeout.previous != null)
+      timeout.previous.next = timeout.next
+    else
+      slots((timeout.deadlineTick & mask).toInt) = timeout.next
+    if(timeout.next != null) timeout.next.previous = timeout.previous
+
+    timeout.previous = null
+    timeout.next = null
+  }
+}
+
+/**
+ * Expires the objects of a JsonCache, as decided by a CacheObjectExpiry.
+ * <p>
+ * The wheel is kept up to date by the JsonCache as it applies each function, and is turned by functions passed to the
+ * JsonCache at each tick - so that the wheel is only ever used by the JsonCache, and the objects removed are those
+ * expired as of the Cache the removal is applied to.
+ */
+private[jsoncache] class ScalaCacheExpiry(
+  jsonCache: ScalaJsonCache,
+  expiry: CacheObjectExpiry
+)(implicit system: ActorSystem)
+  extends Closeable {
+
+  import ScalaCacheExpiry._
+
+  private val wheel: ScalaExpiryWheel = new ScalaExpiryWheel(TickDuration.toNanos, SlotCount, System.nanoTime)
+
+  // The number of objects in the wheel, as last seen by the JsonCache
+  @volatile private var scheduled: Int = 0
+
+  // Set from the tick which passes a function to the JsonCache until the function is applied
+  private val turning: AtomicBoolean = new AtomicBoolean()
+
+  @volatile private var closed: Boolean = false
+
+  private val ticks: Cancellable = {
+    val period: FiniteDuration = FiniteDuration(TickDuration.toNanos, TimeUnit.NANOSECONDS)
+    system.scheduler.schedule(period, period) { tick() }(system.dispatcher)
+  }
+
+  jsonCache.addExpiry(this)
+
+  override def close(): Unit = {
+
+    closed = true
+    ticks.cancel()
+    jsonCache.removeExpiry(this)
+  }
+
+  private def tick(): Unit = {
+
+    if(scheduled > 0 && !closed && turning.compareAndSet(false, true))
+      jsonCache.onNext(new ScalaCacheExpiryFunctionInstance(this))
+  }
+
+  /**
+   * Called by the JsonCache when the expiry is added to it.
+   */
+  private[jsoncache] def started(cache: Cache): Unit = {
+
+    val now: Long = System.nanoTime
+    cache.getImage.getPuts.forEach { put => schedule(put, now) }
+    scheduled = wheel.size
+  }
+
+  /**
+   * Called by the JsonCache once it has applied a function.
+   */
+  private[jsoncache] def applied(cacheFunctionInstance: CacheFunctionInstance, result: Result): Unit = {
+
+    val now: Long = System.nanoTime
+
+    // Puts dropped by a cache change calculator as leaving an object unchanged still restart its time to live
+    val puts: util.Set[_ <: CacheObject] = cacheFunctionInstance.getCode match {
+      case calculator: ScalaCacheChangeCalculatorFunction => calculator.getChangeSet.getPuts
+      case _                                              => result.getChangeSet.getPuts
+    }
+    puts.forEach { put => if(result.getCache.containsCacheObject(put.getId)) schedule(put, now) }
+    result.getChangeSet.getRemoves.forEach { remove => wheel.cancel(remove.getId) }
+
+    scheduled = wheel.size
+  }
+
+  /**
+   * Called by the JsonCache, applying a function passed to it by a tick.
+   */
+  private[jsoncache] def expire(cache: Cache, changeSetId: String): Result = {
+
+    turning.set(false)
+
+    val removes: util.Set[CacheRemove] = new util.HashSet[CacheRemove]()
+    wheel.advance(System.nanoTime).forEach { id =>
+      if(cache.containsCacheObject(id)) removes.add(ScalaCacheRemove(id))
+    }
+    scheduled = wheel.size
+
+    if(removes.isEmpty)
+      new ChangeResult(cache, ScalaCacheChangeSet(changeSetId, Collections.emptySet[CacheObject](), removes, false))
+    else
+      new ChangeResult(cache.removeAll(removes).getCache, ScalaCacheChangeSet(changeSetId, Collections.emptySet[CacheObject](), removes, false))
+  }
+
+  private def schedule(put: CacheObject, now: Long): Unit = {
+
+    val timeToLive: Duration = expiry.getTimeToLive(put)
+    if(timeToLive == null)
+      wheel.cancel(put.getId)
+    else
+      wheel.schedule(put.getId, timeToLive, now)
+  }
+}
+
+private[jsoncache] object ScalaCacheExpiry {
+
+  private val TickDuration: Duration = Duration.ofMillis(50)
+  private val SlotCount   : Int      = 1024
+}
+
+/**
+ * Removes the objects of the Cache it is applied to whose time to live has passed.
+ */
+private[jsoncache] class ScalaCacheExpiryFunctionInstance(expiry: ScalaCacheExpiry) extends ScalaOwnFunctionInstance {
+
+  override val getId: String = UUID.randomUUID.toString
+
+  override val getCode: CacheFunction = { cache => expiry.expire(cache, getId) }
+}
+
+/**
+ * Decides the time to live of an object by its type.
+ */
+private[jsoncache] class ScalaCacheObjectExpiryByType(timeToLiveByType: Map[String, Duration]) extends CacheObjectExpiry {
+
+  override def getTimeToLive(cacheObject: CacheObject): Duration = timeToLiveByType.getOrElse(cacheObject.getType, null)
+}
@@ -0,0 +1,366 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import java.io.ByteArrayOutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.channels.FileChannel.MapMode
+import java.nio.file.{Files, Path, StandardOpenOption}
+import java.util
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.stream.IntStream
+import java.util.zip.CRC32
+
+import akka.actor.ActorSystem
+import com.fasterxml.jackson.core.{JsonGenerator, JsonParser, JsonToken}
+import com.fasterxml.jackson.databind.{JsonNode, ObjectMapper}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+
+/**
+ * Append-only journal of the change sets output by a JsonCache.
+ * <p>
+ * The journal is a sequence of segment files, each named after the sequence number of its first record. A record is
+ * framed as:
+ * <pre>
+ * length of change set (int), CRC32 of change set (int), sequence number (long), change set (JSON)
+ * </pre>
+ * Change sets are appended by the JsonCache (which assigns their sequence numbers), and written by the journal's own
+ * thread: each batch of records waiting is written, then forced to disk once (group commit).
+ * <p>
+ * If the journal cannot be written, nothing further is journalled, and onFailure is called (on the journal's thread) 
+ * with the error.
+ */
+private[jsoncache] final class ScalaCacheJournal(directory: Path, onFailure: Throwable => Unit)
+  (implicit system: ActorSystem) {
+
+  import ScalaCacheJournal._
+
+  private sealed trait Command
+  private case class Append(sequence: Long, changeSet: CacheChangeSet) extends Command
+  private case class Truncate(sequence: Long) extends Command
+  private case class Close() extends Command
+
+  private val commands: LinkedBlockingQueue[Command] = new LinkedBlockingQueue()
+
+  // Only accessed by the writer thread
+  private val closedSegments: mutable.Queue[Segment] = mutable.Queue()
+  private var segment       : Segment               = _
+  private var segmentChannel: FileChannel           = _
+  private var segmentLength : Long                  = 0
+
+  // The sequence number of the next record appended
+  @volatile private var nextSequence: Long = open()
+
+  @volatile private var failed: Boolean = false
+
+  private val writing: Runnable = () => run()
+  private val writer : Thread   = new Thread(writing, s"journal-writer-${directory.getFileName}")
+  writer.setDaemon(true)
+  writer.start()
+
+  /**
+   * @return the sequence number the next change set appended will have
+   */
+  def sequence: Long = nextSequence
+
+  /**
+   * Must only be called by the JsonCache.
+   */
+  def append(changeSet: CacheChangeSet): Unit = {
+
+    if(!failed) commands.put(Append(nextSequence, changeSet))
+    nextSequence += 1
+  }
+
+  /**
+   * Deletes the segments holding only records before the given sequence number.
+   */
+  def truncate(sequence: Long): Unit = if(!failed) commands.put(Truncate(sequence))
+
+  /**
+   * Writes the change sets appended, then closes the journal.
+   */
+  def close(): Unit = if(!failed) commands.put(Close())
+
+  /**
+   * Drops any incomplete record at the end of the journal found in the directory, which is then appended to.
+   */
+  private def open(): Long = {
+
+    Files.createDirectories(directory)
+
+    val existing: Seq[Segment] = segments(directory)
+    existing.dropRight(1).foreach { s => require(readFrames(s).complete, s"Journal segment ${s.file} is incomplete") }
+    closedSegments ++= existing
+
+    existing.lastOption match {
+      case None       =>
+        0
+      case Some(last) =>
+        val frames: Frames = readFrames(last)
+        if(frames.length == 0) {
+          Files.delete(last.file)
+          closedSegments.dequeueFirst(_ == last)
+        }
+        else if(!frames.complete) {
+          val channel: FileChannel = FileChannel.open(last.file, StandardOpenOption.WRITE)
+          try {
+            channel.truncate(frames.length)
+            channel.force(true)
+          }
+          finally channel.close()
+        }
+        frames.nextSequence
+    }
+  }
+
+  private def run(): Unit = {
+
+    val batch: util.ArrayList[Command] = new util.ArrayList()
+    var closed: Boolean = false
+
+    try {
+      while(!closed) {
+        batch.add(commands.take())
+        commands.drainTo(batch, MaxBatchSize - 1)
+        batch.asScala.foreach {
+          case Append(sequence, changeSet) => write(sequence, changeSet)
+          case Truncate(sequence)          => deleteSegmentsBefore(sequence)
+          case Close()                     => closed = true
+        }
+        batch.clear()
+        // One force for the whole batch
+        if(segmentChannel != null) segmentChannel.force(false)
+      }
+    }
+    catch {
+      case e: Exception =>
+        failed = true
+        commands.clear()
+        system.log.error(e, "Journal in {} failed - no further change sets will be journalled", directory)
+        onFailure(e)
+    }
+    finally if(segmentChannel != null) segmentChannel.close()
+  }
+
+  private def write(sequence: Long, changeSet: CacheChangeSet): Unit = {
+
+    val payload: Array[Byte] = serialized(changeSet)
+    val frameSize: Long = FrameHeaderSize + payload.length
+
+    if(segmentChannel == null || segmentLength > 0 && segmentLength + frameSize > SegmentSize)
+      roll(sequence)
+
+    val checksum: CRC32 = new CRC32
+    checksum.update(payload)
+
+    val header: ByteBuffer = ByteBuffer.allocate(FrameHeaderSize)
+    header.putInt(payload.length).putInt(checksum.getValue.toInt).putLong(sequence)
+    header.flip()
+
+    val frame: Array[ByteBuffer] = Array(header, ByteBuffer.wrap(payload))
+    while(frame(1).hasRemaining) segmentChannel.write(frame)
+    segmentLength += frameSize
+  }
+
+  private def roll(sequence: Long): Unit = {
+
+    if(segmentChannel != null) {
+      segmentChannel.force(false)
+      segmentChannel.close()
+      closedSegments += segment
+    }
+
+    segment = Segment(sequence, directory.resolve(segmentFileName(sequence)))
+    segmentChannel = FileChannel.open(segment.file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE)
+    segmentLength = 0
+  }
+
+  private def deleteSegmentsBefore(sequence: Long): Unit = {
+
+    def firstSequenceAfter(index: Int): Long =
+      if(index + 1 < closedSegments.size) closedSegments(index + 1).firstSequence
+      else if(segment != null) segment.firstSequence
+      else Long.MaxValue
+
+    while(closedSegments.nonEmpty && firstSequenceAfter(0) <= sequence)
+      Files.deleteIfExists(closedSegments.dequeue().file)
+  }
+}
+
+private[jsoncache] object ScalaCacheJournal {
+
+  private val FrameHeaderSize: Int  = 16
+  private val SegmentSize    : Long = 64L << 20
+  private val MaxBatchSize   : Int  = 1024
+
+  private val SegmentFileName = """journal-(\d{20})\.segment""".r
+
+  private val mapper: ObjectMapper = new ObjectMapper()
+
+  private case class Segment(firstSequence: Long, file: Path)
+
+  /**
+   * @param payloads the change set of each complete record
+   * @param length the length of the complete records
+   * @param complete false if the complete records are followed by an incomplete (or corrupt) record
+   */
+  private case class Frames(payloads: Seq[ByteBuffer], nextSequence: Long, length: Long, complete: Boolean)
+
+  private def serialized(changeSet: CacheChangeSet): Array[Byte] = {
+
+    val bytes: ByteArrayOutputStream = new ByteArrayOutputStream()
+    val generator: JsonGenerator = mapper.getFactory.createGenerator(bytes)
+    try ScalaCacheChangeSet.write(changeSet, generator)
+    finally generator.close()
+    bytes.toByteArray
+  }
+
+  private def segmentFileName(firstSequence: Long): String = f"journal-$firstSequence%020d.segment"
+
+  private def segments(directory: Path): Seq[Segment] = {
+
+    val files: util.stream.Stream[Path] = Files.list(directory)
+    try {
+      files.iterator.asScala.flatMap { file =>
+        file.getFileName.toString match {
+          case SegmentFileName(firstSequence) => Some(Segment(firstSequence.toLong, file))
+          case _                              => None
+        }
+      }.toList.sortBy(_.firstSequence)
+    }
+    finally files.close()
+  }
+
+  private def readFrames(segment: Segment): Frames = {
+
+    val channel: FileChannel = FileChannel.open(segment.file, StandardOpenOption.READ)
+    try {
+      require(channel.size <= Int.MaxValue, s"Journal segment ${segment.file} is too large to be mapped")
+
+      val buffer: ByteBuffer = channel.map(MapMode.READ_ONLY, 0, channel.size)
+      val payloads: mutable.ArrayBuffer[ByteBuffer] = mutable.ArrayBuffer()
+      var sequence: Long = segment.firstSequence
+      var complete: Boolean = true
+
+      while(complete && buffer.hasRemaining) {
+        val start: Int = buffer.position
+        complete = buffer.remaining >= FrameHeaderSize && {
+          val length: Int = buffer.getInt
+          val checksum: Int = buffer.getInt
+          val frameSequence: Long = buffer.getLong
+          length >= 0 && length <= buffer.remaining && frameSequence == sequence && {
+            val payload: ByteBuffer = buffer.slice()
+            payload.limit(length)
+            val crc: CRC32 = new CRC32
+            crc.update(payload.duplicate())
+            crc.getValue.toInt == checksum && {
+              payloads += payload
+              buffer.position(start + FrameHeaderSize + length)
+              sequence += 1
+              true
+            }
+          }
+        }
+        if(!complete) buffer.position(start)
+      }
+
+      Frames(payloads, sequence, buffer.position, complete)
+    }
+    finally channel.close()
+  }
+
+  /**
+   * Applies the change sets in the journal in the directory to the cache. The change sets of each segment are decoded
+   * in parallel, merged, and applied as one.
+   */
+  def replay(cache: Cache, directory: Path): Cache = {
+
+    val all: Seq[Segment] = segments(directory)
+
+    all.zipWithIndex.foldLeft(cache) { case (replayed, (segment, index)) =>
+      val frames: Frames = readFrames(segment)
+      require(frames.complete || index == all.size - 1, s"Journal segment ${segment.file} is incomplete")
+
+      val changeSets: Array[CacheChangeSet] = new Array(frames.payloads.size)
+      IntStream.range(0, changeSets.length).parallel().forEach { i =>
+        changeSets(i) = readChangeSet(frames.payloads(i).duplicate())
+      }
+
+      if(changeSets.isEmpty)
+        replayed
+      else
+        new ScalaCacheChangeCalculatorFunction(ScalaCacheChangeSet.merge(changeSets)).execute(replayed).getCache
+    }
+  }
+
+  /**
+   * Reads a change set as written by ScalaCacheChangeSet.write, its puts being restored as compact objects holding
+   * their content as it was written.
+   */
+  private def readChangeSet(payload: ByteBuffer): CacheChangeSet = {
+
+    val bytes: Array[Byte] = new Array(payload.remaining)
+    payload.get(bytes)
+
+    val parser: JsonParser = mapper.getFactory.createParser(bytes)
+    try {
+      var id: String = null
+      var isCacheImage: Option[Boolean] = None
+      val puts: util.Set[CacheObject] = new util.HashSet[CacheObject]()
+      val removes: util.Set[CacheRemove] = new util.HashSet[CacheRemove]()
+
+      require(parser.nextToken() == JsonToken.START_OBJECT, "Journal has a corrupt change set")
+      while(parser.nextToken() == JsonToken.FIELD_NAME) {
+        val field: String = parser.getCurrentName
+        val token: JsonToken = parser.nextToken()
+        field match {
+          case "id"           => id = parser.getValueAsString
+          case "isCacheImage" => isCacheImage = Some(parser.getValueAsBoolean)
+          case "puts"         =>
+            require(token == JsonToken.START_ARRAY, "Journal has a corrupt change set")
+            while(parser.nextToken() == JsonToken.START_OBJECT) puts.add(readPut(parser, bytes))
+          case "removes"      =>
+            require(token == JsonToken.START_ARRAY, "Journal has a corrupt change set")
+            while(parser.nextToken() == JsonToken.START_OBJECT) removes.add(ScalaCacheRemove(mapper.readTree[JsonNode](parser)))
+          case _              =>
+            parser.skipChildren()
+        }
+      }
+      require(id != null && isCacheImage.isDefined, "Journal has a corrupt change set")
+
+      ScalaCacheChangeSet(id, puts, removes, isCacheImage.get)
+    }
+    finally parser.close()
+  }
+
+  private def readPut(parser: JsonParser, bytes: Array[Byte]): CacheObject = {
+
+    var id: String = null
+    var aType: String = null
+    var content: Array[Byte] = null
+
+    while(parser.nextToken() == JsonToken.FIELD_NAME) {
+      val field: String = parser.getCurrentName
+      parser.nextToken()
+      field match {
+        case "id"      => id = parser.getValueAsString
+        case "type"    => aType = parser.getValueAsString
+        case "content" =>
+          // The content is taken from the payload as it is, rather than parsed
+          val start: Long = parser.getTokenLocation.getByteOffset
+          // Finishing a scalar (a string being read lazily) puts the current location at its end
+          if(parser.currentToken.isStructStart) parser.skipChildren() else parser.getText
+          content = util.Arrays.copyOfRange(bytes, start.toInt, parser.getCurrentLocation.getByteOffset.toInt)
+        case _         =>
+          parser.skipChildren()
+      }
+    }
+    require(id != null && aType != null && content != null, "Journal has a corrupt change set")
+
+    ScalaCompactCacheObject.restored(id, aType, content)
+  }
+}
@@ -2,6 +2,8 @@
 
 package com.modelcoding.opensource.jsoncache
 
+import java.security.MessageDigest
+
 import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.node.{JsonNodeFactory, ObjectNode}
 
@@ -11,6 +13,9 @@ class ScalaCacheObject(val getId: String)(aType: String, someContent: JsonNode)
   override def getType: String = aType
   override def getContent: JsonNode = someContent
 
+  // Computed at most once, when first weighed against the memory budget of a JsonCache
+  private[jsoncache] lazy val estimatedSize: Long = ScalaCacheEviction.sizeOf(this)
+
   override def asUpdatedCacheObject(content: JsonNode): CacheObject = ScalaCacheObject(getId)(aType, content)
 
   override def asCacheRemove(): CacheRemove = ScalaCacheRemove(getId)
@@ -32,15 +37,27 @@ class ScalaCacheObject(val getId: String)(aType: String, someContent: JsonNode)
     case _ => false
   }
   
-  override val hashCode: Int = {
-    val state = Seq(getId)
-    state.map(_.hashCode()).foldLeft(0)((a, b) => 31 * a + b)
-  }
+  override val hashCode: Int = getId.hashCode
 }
 
 object ScalaCacheObject {
-  
+
   def apply(id: String)(aType: String, someContent: JsonNode): CacheObject = new ScalaCacheObject(id)(aType, someContent)
+
+  /**
+   * The content of two compact objects is compared by the digest of its serialized form, without parsing it - content
+   * serialized differently is treated as changed. Any other content is compared as trees of JsonNodes.
+   *
+   * @return true if the given objects have the same type and the same content - as when an object is put again 
+   *         unchanged
+   */
+  private[jsoncache] def hasSameContent(cacheObject: CacheObject, other: CacheObject): Boolean =
+    cacheObject.getType == other.getType && ((cacheObject, other) match {
+      case (compact: ScalaCompactCacheObject, otherCompact: ScalaCompactCacheObject) =>
+        MessageDigest.isEqual(compact.contentDigest, otherCompact.contentDigest)
+      case _                                                                         =>
+        cacheObject.getContent == other.getContent
+    })
   
   def apply(json: JsonNode): CacheObject = {
     
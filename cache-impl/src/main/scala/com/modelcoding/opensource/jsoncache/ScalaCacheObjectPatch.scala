@@ -0,0 +1,79 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.{JsonNodeFactory, ObjectNode}
+
+import ScalaJsonCacheModule._
+
+class ScalaCacheObjectPatch(val getId: String)(val getPatch: JsonNode) extends CacheObjectPatch {
+
+  override def applyTo(cacheObject: CacheObject): CacheObject = {
+
+    requireNotNull(cacheObject, "Cannot apply a patch to a null CacheObject")
+    require(cacheObject.getId == getId, s"Cannot apply a patch for $getId to ${cacheObject.getId}")
+
+    cacheObject.asUpdatedCacheObject(ScalaCacheObjectPatch.mergePatch(cacheObject.getContent, getPatch))
+  }
+
+  override def asJsonNode(): ObjectNode = {
+
+    val json: ObjectNode = JsonNodeFactory.instance.objectNode()
+
+    json.put("id", getId)
+    json.set("patch", getPatch)
+
+    json
+  }
+
+  override def equals(other: Any): Boolean = other match {
+    case that: CacheObjectPatch =>
+      getId == that.getId && getPatch == that.getPatch
+    case _ => false
+  }
+
+  override lazy val hashCode: Int = 31 * getId.hashCode + getPatch.hashCode
+}
+
+object ScalaCacheObjectPatch {
+
+  def apply(id: String)(patch: JsonNode): CacheObjectPatch = new ScalaCacheObjectPatch(id)(patch)
+
+  def apply(json: JsonNode): CacheObjectPatch = {
+
+    if(json.isObject) {
+      val id_json: JsonNode = json.get("id")
+      if(id_json != null && id_json.isTextual) {
+        val patch: JsonNode = json.get("patch")
+        if(patch != null)
+          return apply(id_json.asText())(patch)
+      }
+    }
+
+    throw new IllegalArgumentException(s"Cannot create a CacheObjectPatch from $json")
+  }
+
+  /**
+   * Merges patch into target as defined by RFC 7386, without changing target: the result shares the parts of target
+   * not patched, and the values of patch.
+   */
+  def mergePatch(target: JsonNode, patch: JsonNode): JsonNode = {
+
+    if(!patch.isObject)
+      return patch
+
+    val result: ObjectNode = JsonNodeFactory.instance.objectNode()
+    if(target != null && target.isObject)
+      target.fields.forEachRemaining { field => result.set(field.getKey, field.getValue) }
+
+    patch.fields.forEachRemaining { field =>
+      if(field.getValue.isNull)
+        result.remove(field.getKey)
+      else
+        result.set(field.getKey, mergePatch(result.get(field.getKey), field.getValue))
+    }
+
+    result
+  }
+}
@@ -0,0 +1,82 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import java.util
+
+/**
+ * Read-only java.util.Set view over the CacheObjects held in one or more tries, which must not share any ids.
+ * <p>
+ * As the tries are persistent, the view never changes - no copy of the objects is needed to hand them out.
+ */
+final class ScalaCacheObjectSetView(tries: Seq[ScalaCacheObjectTrie]) extends util.AbstractSet[CacheObject] {
+
+  def this(trie: ScalaCacheObjectTrie) = this(Seq(trie))
+
+  private val totalSize: Int = tries.foldLeft(0) { (s, trie) => s + trie.size }
+
+  override def size(): Int = totalSize
+
+  override def isEmpty: Boolean = totalSize == 0
+
+  override def contains(o: Any): Boolean = o match {
+    case cacheObject: CacheObject =>
+      tries.exists { trie =>
+        val found: CacheObject = trie.get(cacheObject.getId)
+        found != null && found == cacheObject
+      }
+    case _                        => false
+  }
+
+  override def iterator(): util.Iterator[CacheObject] = new util.Iterator[CacheObject] {
+
+    private val remaining: Iterator[ScalaCacheObjectTrie] = tries.iterator
+    private var current  : util.Iterator[CacheObject]      = util.Collections.emptyIterator()
+
+    override def hasNext: Boolean = {
+
+      while(!current.hasNext && remaining.hasNext) current = remaining.next().iterator
+      current.hasNext
+    }
+
+    override def next(): CacheObject = {
+
+      if(!hasNext) throw new util.NoSuchElementException()
+      current.next()
+    }
+  }
+}
+
+/**
+ * Read-only java.util.Set view over a number of sets of CacheObjects, which must not share any ids, and must not change
+ * - e.g. the puts of the images of the shards of a sharded JsonCache.
+ */
+private[jsoncache] final class ScalaCacheObjectSetUnion(sets: Seq[util.Set[_ <: CacheObject]])
+  extends util.AbstractSet[CacheObject] {
+
+  private val totalSize: Int = sets.foldLeft(0) { (s, set) => s + set.size }
+
+  override def size(): Int = totalSize
+
+  override def isEmpty: Boolean = totalSize == 0
+
+  override def contains(o: Any): Boolean = sets.exists { set => set.contains(o) }
+
+  override def iterator(): util.Iterator[CacheObject] = new util.Iterator[CacheObject] {
+
+    private val remaining: Iterator[util.Set[_ <: CacheObject]] = sets.iterator
+    private var current  : util.Iterator[_ <: CacheObject]      = util.Collections.emptyIterator()
+
+    override def hasNext: Boolean = {
+
+      while(!current.hasNext && remaining.hasNext) current = remaining.next().iterator
+      current.hasNext
+    }
+
+    override def next(): CacheObject = {
+
+      if(!hasNext) throw new util.NoSuchElementException()
+      current.next()
+    }
+  }
+}
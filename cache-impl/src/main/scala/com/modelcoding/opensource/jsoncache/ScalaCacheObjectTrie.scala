@@ -0,0 +1,574 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import java.util
+
+/**
+ * Persistent hash trie (CHAMP layout) of CacheObjects, keyed on CacheObject.getId.
+ *
+ * Each node holds its inlined objects followed by its sub-nodes in a single array, with the (improved) hash of each
+ * inlined id cached alongside - so lookups compare cached hashes before comparing ids, and no id is ever re-hashed
+ * when the trie is restructured.
+ */
+final class ScalaCacheObjectTrie private[jsoncache](private val root: ScalaCacheObjectTrie.Node, val size: Int) {
+
+  import ScalaCacheObjectTrie._
+
+  def isEmpty: Boolean = size == 0
+
+  def contains(id: String): Boolean = root.get(id, hash(id), 0) != null
+
+  /**
+   * @return the CacheObject with the given id, or null if there is none
+   */
+  def get(id: String): CacheObject = root.get(id, hash(id), 0)
+
+  def updated(cacheObject: CacheObject, change: Change): ScalaCacheObjectTrie = {
+
+    val newRoot: Node = root.updated(cacheObject, hash(cacheObject.getId), 0, change, null)
+
+    if(newRoot eq root) this else new ScalaCacheObjectTrie(newRoot, if(change.replaced) size else size + 1)
+  }
+
+  def removed(id: String, change: Change): ScalaCacheObjectTrie = {
+
+    val newRoot: Node = root.removed(id, hash(id), 0, change, null)
+
+    if(newRoot eq root) this else new ScalaCacheObjectTrie(newRoot, size - 1)
+  }
+
+  /**
+   * @return a transient builder, initially holding the content of this trie, that applies many changes at the cost
+   *         of a single structural copy - this trie is unaffected by changes made through the builder
+   */
+  def builder: Builder = new Builder(root, size)
+
+  def iterator: util.Iterator[CacheObject] = new TrieIterator(root)
+
+  def foreach(f: CacheObject => Unit): Unit = root.foreach(f)
+}
+
+object ScalaCacheObjectTrie {
+
+  val empty: ScalaCacheObjectTrie = new ScalaCacheObjectTrie(BitmapIndexedNode.empty, 0)
+
+  /**
+   * Records the effect of an update or removal on a trie.
+   */
+  final class Change {
+
+    var modified: Boolean     = false
+    var replaced: Boolean     = false
+    var previous: CacheObject = _
+
+    def reset(): Unit = {
+
+      modified = false
+      replaced = false
+      previous = null
+    }
+  }
+
+  /**
+   * Identifies the nodes created during a single Builder session - only these nodes are ever mutated in place.
+   */
+  private[jsoncache] final class Editor
+
+  /**
+   * Applies a sequence of changes to a trie, mutating in place the nodes it has already copied.
+   * <p>
+   * A Builder is not thread-safe.
+   */
+  final class Builder private[jsoncache](private var root: Node, private var size: Int) {
+
+    private var editor: Editor = new Editor
+    private val change: Change = new Change
+
+    /**
+     * @return the object replaced by the put; or null if the object was added
+     */
+    def put(cacheObject: CacheObject): CacheObject = {
+
+      change.reset()
+      root = root.updated(cacheObject, hash(cacheObject.getId), 0, change, editor)
+      if(!change.replaced) size += 1
+      change.previous
+    }
+
+    /**
+     * @return the object removed; or null if there was no object with the given id
+     */
+    def remove(id: String): CacheObject = {
+
+      change.reset()
+      root = root.removed(id, hash(id), 0, change, editor)
+      if(change.modified) size -= 1
+      change.previous
+    }
+
+    /**
+     * Freezes the content built so far - further changes through this builder copy nodes afresh.
+     */
+    def result(): ScalaCacheObjectTrie = {
+
+      editor = new Editor
+      new ScalaCacheObjectTrie(root, size)
+    }
+  }
+
+  private final val BitPartitionSize: Int = 5
+  private final val BitPartitionMask: Int = 0x1f
+  private final val HashCodeLength  : Int = 32
+  private final val MaxDepth        : Int = 7
+
+  private val emptyContent: Array[AnyRef] = Array()
+  private val emptyHashes : Array[Int]    = Array()
+
+  private def hash(id: String): Int = {
+
+    val h: Int = id.hashCode
+    h ^ (h >>> 16)
+  }
+
+  private def mask(hash: Int, shift: Int): Int = (hash >>> shift) & BitPartitionMask
+
+  private def bitpos(mask: Int): Int = 1 << mask
+
+  private def index(bitmap: Int, bit: Int): Int = Integer.bitCount(bitmap & (bit - 1))
+
+  /**
+   * Update and removal return a node with the change applied: with a null editor a node is never mutated;
+   * otherwise a node owned by the editor may be mutated and returned as is.
+   */
+  private[jsoncache] sealed abstract class Node {
+
+    def get(id: String, hash: Int, shift: Int): CacheObject
+
+    def updated(cacheObject: CacheObject, hash: Int, shift: Int, change: Change, editor: Editor): Node
+
+    def removed(id: String, hash: Int, shift: Int, change: Change, editor: Editor): Node
+
+    def hasSingleObject: Boolean
+
+    def objectArity: Int
+
+    def objectAt(i: Int): CacheObject
+
+    def hashAt(i: Int): Int
+
+    def nodeArity: Int
+
+    def nodeAt(i: Int): Node
+
+    def foreach(f: CacheObject => Unit): Unit
+  }
+
+  private object BitmapIndexedNode {
+
+    val empty: BitmapIndexedNode = new BitmapIndexedNode(null, 0, 0, emptyContent, emptyHashes)
+  }
+
+  /**
+   * content holds the inlined objects (in dataMap order) followed by the sub-nodes (in nodeMap order);
+   * hashes holds the hash of each inlined object's id.
+   */
+  private final class BitmapIndexedNode(
+    owner: Editor,
+    var dataMap: Int,
+    var nodeMap: Int,
+    var content: Array[AnyRef],
+    var hashes: Array[Int]
+  )
+    extends Node {
+
+    override def objectArity: Int = hashes.length
+
+    override def objectAt(i: Int): CacheObject = content(i).asInstanceOf[CacheObject]
+
+    override def hashAt(i: Int): Int = hashes(i)
+
+    override def nodeArity: Int = content.length - hashes.length
+
+    override def nodeAt(i: Int): Node = content(hashes.length + i).asInstanceOf[Node]
+
+    override def hasSingleObject: Boolean = nodeMap == 0 && hashes.length == 1
+
+    override def get(id: String, hash: Int, shift: Int): CacheObject = {
+
+      val bit: Int = bitpos(mask(hash, shift))
+
+      if((dataMap & bit) != 0) {
+        val i: Int = index(dataMap, bit)
+        if(hashes(i) == hash) {
+          val cacheObject: CacheObject = objectAt(i)
+          if(id == cacheObject.getId) cacheObject else null
+        }
+        else null
+      }
+      else if((nodeMap & bit) != 0)
+        nodeAt(index(nodeMap, bit)).get(id, hash, shift + BitPartitionSize)
+      else
+        null
+    }
+
+    override def updated(cacheObject: CacheObject, hash: Int, shift: Int, change: Change, editor: Editor): Node = {
+
+      val bit: Int = bitpos(mask(hash, shift))
+
+      if((dataMap & bit) != 0) {
+        val i: Int = index(dataMap, bit)
+        val existing: CacheObject = objectAt(i)
+        change.modified = true
+        if(hashes(i) == hash && existing.getId == cacheObject.getId) {
+          change.replaced = true
+          change.previous = existing
+          copyAndSetObject(i, cacheObject, editor)
+        }
+        else {
+          val subNode: Node = mergeTwo(existing, hashes(i), cacheObject, hash, shift + BitPartitionSize, editor)
+          copyAndMigrateFromInlineToNode(bit, subNode, editor)
+        }
+      }
+      else if((nodeMap & bit) != 0) {
+        val i: Int = index(nodeMap, bit)
+        val subNode: Node = nodeAt(i)
+        val newSubNode: Node = subNode.updated(cacheObject, hash, shift + BitPartitionSize, change, editor)
+        if(newSubNode eq subNode) this else copyAndSetNode(i, newSubNode, editor)
+      }
+      else {
+        change.modified = true
+        copyAndInsertObject(bit, cacheObject, hash, editor)
+      }
+    }
+
+    override def removed(id: String, hash: Int, shift: Int, change: Change, editor: Editor): Node = {
+
+      val bit: Int = bitpos(mask(hash, shift))
+
+      if((dataMap & bit) != 0) {
+        val i: Int = index(dataMap, bit)
+        if(hashes(i) == hash && objectAt(i).getId == id) {
+          change.modified = true
+          change.previous = objectAt(i)
+          if(hashes.length == 2 && nodeMap == 0) {
+            // Keep the remaining object in a node positioned as if at the root, so that a parent can inline it
+            val remaining: Int = 1 - i
+            val newDataMap: Int = if(shift == 0) dataMap ^ bit else bitpos(mask(hashes(remaining), 0))
+            new BitmapIndexedNode(editor, newDataMap, 0, Array[AnyRef](content(remaining)), Array(hashes(remaining)))
+          }
+          else
+            copyAndRemoveObject(bit, i, editor)
+        }
+        else this
+      }
+      else if((nodeMap & bit) != 0) {
+        val i: Int = index(nodeMap, bit)
+        val subNode: Node = nodeAt(i)
+        val newSubNode: Node = subNode.removed(id, hash, shift + BitPartitionSize, change, editor)
+        if(newSubNode eq subNode)
+          this
+        else if(newSubNode.hasSingleObject) {
+          if(hashes.isEmpty && Integer.bitCount(nodeMap) == 1)
+            newSubNode // Propagate upwards for the parent to inline
+          else
+            copyAndMigrateFromNodeToInline(bit, i, newSubNode, editor)
+        }
+        else
+          copyAndSetNode(i, newSubNode, editor)
+      }
+      else this
+    }
+
+    override def foreach(f: CacheObject => Unit): Unit = {
+
+      var i: Int = 0
+      while(i < hashes.length) {
+        f(objectAt(i))
+        i += 1
+      }
+      while(i < content.length) {
+        content(i).asInstanceOf[Node].foreach(f)
+        i += 1
+      }
+    }
+
+    private def isEditableBy(editor: Editor): Boolean = editor != null && (owner eq editor)
+
+    private def withContent(
+      editor: Editor,
+      newDataMap: Int,
+      newNodeMap: Int,
+      newContent: Array[AnyRef],
+      newHashes: Array[Int]
+    ): Node = {
+
+      if(isEditableBy(editor)) {
+        dataMap = newDataMap
+        nodeMap = newNodeMap
+        content = newContent
+        hashes = newHashes
+        this
+      }
+      else
+        new BitmapIndexedNode(editor, newDataMap, newNodeMap, newContent, newHashes)
+    }
+
+    private def copyAndSetObject(i: Int, cacheObject: CacheObject, editor: Editor): Node = {
+
+      if(isEditableBy(editor)) {
+        content(i) = cacheObject
+        return this
+      }
+
+      val newContent: Array[AnyRef] = content.clone()
+      newContent(i) = cacheObject
+
+      new BitmapIndexedNode(editor, dataMap, nodeMap, newContent, hashes)
+    }
+
+    private def copyAndSetNode(i: Int, node: Node, editor: Editor): Node = {
+
+      if(isEditableBy(editor)) {
+        content(hashes.length + i) = node
+        return this
+      }
+
+      val newContent: Array[AnyRef] = content.clone()
+      newContent(hashes.length + i) = node
+
+      new BitmapIndexedNode(editor, dataMap, nodeMap, newContent, hashes)
+    }
+
+    private def copyAndInsertObject(bit: Int, cacheObject: CacheObject, hash: Int, editor: Editor): Node = {
+
+      val i: Int = index(dataMap, bit)
+
+      val newContent: Array[AnyRef] = new Array[AnyRef](content.length + 1)
+      System.arraycopy(content, 0, newContent, 0, i)
+      newContent(i) = cacheObject
+      System.arraycopy(content, i, newContent, i + 1, content.length - i)
+
+      val newHashes: Array[Int] = new Array[Int](hashes.length + 1)
+      System.arraycopy(hashes, 0, newHashes, 0, i)
+      newHashes(i) = hash
+      System.arraycopy(hashes, i, newHashes, i + 1, hashes.length - i)
+
+      withContent(editor, dataMap | bit, nodeMap, newContent, newHashes)
+    }
+
+    private def copyAndRemoveObject(bit: Int, i: Int, editor: Editor): Node = {
+
+      val newContent: Array[AnyRef] = new Array[AnyRef](content.length - 1)
+      System.arraycopy(content, 0, newContent, 0, i)
+      System.arraycopy(content, i + 1, newContent, i, content.length - i - 1)
+
+      val newHashes: Array[Int] = new Array[Int](hashes.length - 1)
+      System.arraycopy(hashes, 0, newHashes, 0, i)
+      System.arraycopy(hashes, i + 1, newHashes, i, hashes.length - i - 1)
+
+      withContent(editor, dataMap ^ bit, nodeMap, newContent, newHashes)
+    }
+
+    private def copyAndMigrateFromInlineToNode(bit: Int, node: Node, editor: Editor): Node = {
+
+      val dataIndex: Int = index(dataMap, bit)
+      val nodeIndex: Int = hashes.length - 1 + index(nodeMap, bit)
+
+      // Object at dataIndex is dropped, node is inserted at nodeIndex (positions after the object shift down by one)
+      val newContent: Array[AnyRef] = new Array[AnyRef](content.length)
+      System.arraycopy(content, 0, newContent, 0, dataIndex)
+      System.arraycopy(content, dataIndex + 1, newContent, dataIndex, nodeIndex - dataIndex)
+      newContent(nodeIndex) = node
+      System.arraycopy(content, nodeIndex + 1, newContent, nodeIndex + 1, content.length - nodeIndex - 1)
+
+      val newHashes: Array[Int] = new Array[Int](hashes.length - 1)
+      System.arraycopy(hashes, 0, newHashes, 0, dataIndex)
+      System.arraycopy(hashes, dataIndex + 1, newHashes, dataIndex, hashes.length - dataIndex - 1)
+
+      withContent(editor, dataMap ^ bit, nodeMap | bit, newContent, newHashes)
+    }
+
+    private def copyAndMigrateFromNodeToInline(bit: Int, nodeIndex: Int, node: Node, editor: Editor): Node = {
+
+      val oldNodeIndex: Int = hashes.length + nodeIndex
+      val dataIndex: Int = index(dataMap, bit)
+
+      // Node at oldNodeIndex is dropped, the node's single object is inserted at dataIndex
+      val newContent: Array[AnyRef] = new Array[AnyRef](content.length)
+      System.arraycopy(content, 0, newContent, 0, dataIndex)
+      newContent(dataIndex) = node.objectAt(0)
+      System.arraycopy(content, dataIndex, newContent, dataIndex + 1, oldNodeIndex - dataIndex)
+      System.arraycopy(content, oldNodeIndex + 1, newContent, oldNodeIndex + 1, content.length - oldNodeIndex - 1)
+
+      val newHashes: Array[Int] = new Array[Int](hashes.length + 1)
+      System.arraycopy(hashes, 0, newHashes, 0, dataIndex)
+      newHashes(dataIndex) = node.hashAt(0)
+      System.arraycopy(hashes, dataIndex, newHashes, dataIndex + 1, hashes.length - dataIndex)
+
+      withContent(editor, dataMap | bit, nodeMap ^ bit, newContent, newHashes)
+    }
+  }
+
+  /**
+   * Holds objects whose ids have fully colliding hashes - only ever found below the last level of bitmap nodes.
+   * <p>
+   * Collisions are rare, so a HashCollisionNode is always copied - even by a Builder.
+   */
+  private final class HashCollisionNode(val hash: Int, val cacheObjects: Array[CacheObject]) extends Node {
+
+    override def objectArity: Int = cacheObjects.length
+
+    override def objectAt(i: Int): CacheObject = cacheObjects(i)
+
+    override def hashAt(i: Int): Int = hash
+
+    override def nodeArity: Int = 0
+
+    override def nodeAt(i: Int): Node = throw new IndexOutOfBoundsException(s"No node at $i in a HashCollisionNode")
+
+    override def hasSingleObject: Boolean = false
+
+    private def indexOf(id: String): Int = {
+
+      var i: Int = 0
+      while(i < cacheObjects.length) {
+        if(cacheObjects(i).getId == id) return i
+        i += 1
+      }
+      -1
+    }
+
+    override def get(id: String, hash: Int, shift: Int): CacheObject = {
+
+      if(this.hash != hash) return null
+
+      val i: Int = indexOf(id)
+      if(i < 0) null else cacheObjects(i)
+    }
+
+    override def updated(cacheObject: CacheObject, hash: Int, shift: Int, change: Change, editor: Editor): Node = {
+
+      change.modified = true
+
+      val i: Int = indexOf(cacheObject.getId)
+      if(i >= 0) {
+        change.replaced = true
+        change.previous = cacheObjects(i)
+        val newCacheObjects: Array[CacheObject] = cacheObjects.clone()
+        newCacheObjects(i) = cacheObject
+        new HashCollisionNode(hash, newCacheObjects)
+      }
+      else {
+        val newCacheObjects: Array[CacheObject] = util.Arrays.copyOf(cacheObjects, cacheObjects.length + 1)
+        newCacheObjects(cacheObjects.length) = cacheObject
+        new HashCollisionNode(hash, newCacheObjects)
+      }
+    }
+
+    override def removed(id: String, hash: Int, shift: Int, change: Change, editor: Editor): Node = {
+
+      if(this.hash != hash) return this
+
+      val i: Int = indexOf(id)
+      if(i < 0) return this
+
+      change.modified = true
+      change.previous = cacheObjects(i)
+
+      if(cacheObjects.length == 2) {
+        // Positioned as if at the root, so that a parent can inline it
+        val remaining: CacheObject = cacheObjects(1 - i)
+        new BitmapIndexedNode(editor, bitpos(mask(hash, 0)), 0, Array[AnyRef](remaining), Array(hash))
+      }
+      else {
+        val newCacheObjects: Array[CacheObject] = new Array[CacheObject](cacheObjects.length - 1)
+        System.arraycopy(cacheObjects, 0, newCacheObjects, 0, i)
+        System.arraycopy(cacheObjects, i + 1, newCacheObjects, i, cacheObjects.length - i - 1)
+        new HashCollisionNode(hash, newCacheObjects)
+      }
+    }
+
+    override def foreach(f: CacheObject => Unit): Unit = cacheObjects.foreach(f)
+  }
+
+  private def mergeTwo(
+    cacheObject0: CacheObject,
+    hash0: Int,
+    cacheObject1: CacheObject,
+    hash1: Int,
+    shift: Int,
+    editor: Editor
+  ): Node = {
+
+    if(shift >= HashCodeLength)
+      return new HashCollisionNode(hash0, Array(cacheObject0, cacheObject1))
+
+    val mask0: Int = mask(hash0, shift)
+    val mask1: Int = mask(hash1, shift)
+
+    if(mask0 != mask1) {
+      val dataMap: Int = bitpos(mask0) | bitpos(mask1)
+      if(mask0 < mask1)
+        new BitmapIndexedNode(editor, dataMap, 0, Array[AnyRef](cacheObject0, cacheObject1), Array(hash0, hash1))
+      else
+        new BitmapIndexedNode(editor, dataMap, 0, Array[AnyRef](cacheObject1, cacheObject0), Array(hash1, hash0))
+    }
+    else {
+      val node: Node = mergeTwo(cacheObject0, hash0, cacheObject1, hash1, shift + BitPartitionSize, editor)
+      new BitmapIndexedNode(editor, 0, bitpos(mask0), Array[AnyRef](node), emptyHashes)
+    }
+  }
+
+  /**
+   * Depth-first iteration over a trie, using a fixed stack of (node, next sub-node position) pairs - one per level.
+   */
+  private final class TrieIterator(root: Node) extends util.Iterator[CacheObject] {
+
+    private val nodes    : Array[Node] = new Array[Node](MaxDepth + 1)
+    private val positions: Array[Int]  = new Array[Int](MaxDepth + 1)
+    private var depth    : Int         = 0
+
+    private var current     : Node = root
+    private var currentIndex: Int  = 0
+
+    nodes(0) = root
+    advance()
+
+    private def advance(): Unit = {
+
+      while(currentIndex >= current.objectArity) {
+        // Current node's objects are exhausted - descend into the next sub-node, or climb back up
+        if(positions(depth) < nodes(depth).nodeArity) {
+          val next: Node = nodes(depth).nodeAt(positions(depth))
+          positions(depth) += 1
+          depth += 1
+          nodes(depth) = next
+          positions(depth) = 0
+          current = next
+          currentIndex = 0
+        }
+        else if(depth > 0) {
+          nodes(depth) = null
+          depth -= 1
+        }
+        else {
+          current = null
+          return
+        }
+      }
+    }
+
+    override def hasNext: Boolean = current != null
+
+    override def next(): CacheObject = {
+
+      if(current == null) throw new util.NoSuchElementException()
+
+      val cacheObject: CacheObject = current.objectAt(currentIndex)
+      currentIndex += 1
+      advance()
+      cacheObject
+    }
+  }
+}
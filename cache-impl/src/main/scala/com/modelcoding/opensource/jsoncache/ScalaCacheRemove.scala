@@ -13,10 +13,7 @@ class ScalaCacheRemove(val getId: String)
     case _ => false
   }
 
-  override val hashCode: Int = {
-    val state = Seq(getId)
-    state.map(_.hashCode()).foldLeft(0)((a, b) => 31 * a + b)
-  }
+  override val hashCode: Int = getId.hashCode
 
   override def asJsonNode(): ObjectNode = {
     
@@ -0,0 +1,293 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import java.io.{BufferedOutputStream, Closeable, DataOutputStream, FileOutputStream}
+import java.nio.channels.FileChannel
+import java.nio.channels.FileChannel.MapMode
+import java.nio.charset.StandardCharsets.UTF_8
+import java.nio.file.{Files, Path, StandardCopyOption, StandardOpenOption}
+import java.nio.{ByteBuffer, MappedByteBuffer}
+import java.time.Duration
+import java.util
+import java.util.concurrent.atomic.AtomicBoolean
+import java.util.concurrent.{ExecutorService, Executors, RejectedExecutionException, TimeUnit}
+import java.util.{Collections, UUID}
+import java.util.stream.IntStream
+
+import akka.actor.{ActorSystem, Cancellable}
+
+import scala.collection.mutable
+import scala.concurrent.duration.FiniteDuration
+
+/**
+ * Writes and reads snapshots of a Cache.
+ * <p>
+ * A snapshot file is laid out as:
+ * <pre>
+ * header  : magic (int), version (int)
+ * records : for each object - type number (int), id length (int), id (UTF-8), content (JSON)
+ * types   : number of types (int), then for each type - length (int), type (UTF-8)
+ * index   : for each object - offset of its record (long)
+ * trailer : offset of types (long), offset of index (long), number of objects (int), magic (int)
+ * </pre>
+ * The content of a record runs up to the next record (or to the types, for the last record), so the index is all
+ * that is needed to locate any record: the records are decoded in parallel, straight from the mapped file.
+ */
+private[jsoncache] object ScalaCacheSnapshot {
+
+  private val Magic      : Int = 0x4A43534E // "JCSN"
+  private val Version    : Int = 1
+  private val HeaderSize : Int = 8
+  private val TrailerSize: Int = 24
+  private val RecordSize : Int = 8 // Excluding the id and content
+  private val BufferSize : Int = 1 << 16
+
+  // A mapped region of the file cannot be larger than this
+  private val MaxRegionSize: Long = Int.MaxValue
+
+  private case class Region(start: Long, buffer: MappedByteBuffer)
+
+  def write(cache: Cache, file: Path): Unit = {
+
+    val temporaryFile: Path = Files.createTempFile(file.toAbsolutePath.getParent, file.getFileName.toString, ".tmp")
+    try {
+      val stream: FileOutputStream = new FileOutputStream(temporaryFile.toFile)
+      try {
+        val out: DataOutputStream = new DataOutputStream(new BufferedOutputStream(stream, BufferSize))
+        val puts: util.Set[_ <: CacheObject] = cache.getImage.getPuts
+        val offsets: Array[Long] = new Array(puts.size)
+        val types: mutable.LinkedHashMap[String, Int] = mutable.LinkedHashMap()
+        var count: Int = 0
+        var position: Long = HeaderSize
+
+        out.writeInt(Magic)
+        out.writeInt(Version)
+
+        puts.forEach { cacheObject =>
+          val typeNumber: Int = types.getOrElseUpdate(cacheObject.getType, types.size)
+          val id: Array[Byte] = cacheObject.getId.getBytes(UTF_8)
+          val content: Array[Byte] = ScalaCompactCacheObject.serializedContent(cacheObject)
+          out.writeInt(typeNumber)
+          out.writeInt(id.length)
+          out.write(id)
+          out.write(content)
+          offsets(count) = position
+          position += RecordSize + id.length + content.length
+          count += 1
+        }
+
+        val typesOffset: Long = position
+        out.writeInt(types.size)
+        position += 4
+        types.keys.foreach { aType =>
+          val bytes: Array[Byte] = aType.getBytes(UTF_8)
+          out.writeInt(bytes.length)
+          out.write(bytes)
+          position += 4 + bytes.length
+        }
+
+        val indexOffset: Long = position
+        offsets.foreach { offset => out.writeLong(offset) }
+
+        out.writeLong(typesOffset)
+        out.writeLong(indexOffset)
+        out.writeInt(count)
+        out.writeInt(Magic)
+        out.flush()
+        stream.getFD.sync()
+      }
+      finally stream.close()
+
+      Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+    }
+    finally Files.deleteIfExists(temporaryFile)
+  }
+
+  def read(file: Path): Cache = {
+
+    val channel: FileChannel = FileChannel.open(file, StandardOpenOption.READ)
+    try {
+      val size: Long = channel.size
+      require(size >= HeaderSize + 4 + TrailerSize, s"$file is not a Cache snapshot")
+
+      val header: MappedByteBuffer = channel.map(MapMode.READ_ONLY, 0, HeaderSize)
+      val trailer: MappedByteBuffer = channel.map(MapMode.READ_ONLY, size - TrailerSize, TrailerSize)
+      val typesOffset: Long = trailer.getLong
+      val indexOffset: Long = trailer.getLong
+      val count: Int = trailer.getInt
+      require(header.getInt == Magic && trailer.getInt == Magic, s"$file is not a Cache snapshot")
+      require(header.getInt == Version, s"$file is a Cache snapshot of an unsupported version")
+      require(
+        HeaderSize <= typesOffset && typesOffset < indexOffset && count >= 0 &&
+          indexOffset + 8L * count == size - TrailerSize,
+        s"$file is not a complete Cache snapshot"
+      )
+
+      val types: Array[String] = readTypes(channel.map(MapMode.READ_ONLY, typesOffset, indexOffset - typesOffset))
+
+      // offsets(count) marks the end of the last record
+      val offsets: Array[Long] = new Array(count + 1)
+      channel.map(MapMode.READ_ONLY, indexOffset, 8L * count).asLongBuffer.get(offsets, 0, count)
+      offsets(count) = typesOffset
+      require(count == 0 || offsets(0) == HeaderSize, "Cache snapshot has a corrupt index")
+
+      val (regions, regionOf) = mapRecords(channel, offsets)
+
+      val cacheObjects: Array[CacheObject] = new Array(count)
+      IntStream.range(0, count).parallel().forEach { i =>
+        val region: Region = regions(regionOf(i))
+        val record: ByteBuffer = region.buffer.duplicate()
+        record.limit((offsets(i + 1) - region.start).toInt)
+        record.position((offsets(i) - region.start).toInt)
+        cacheObjects(i) = readRecord(record, types)
+      }
+
+      ScalaCache(cacheObjects)
+    }
+    finally channel.close()
+  }
+
+  private def readTypes(buffer: ByteBuffer): Array[String] = {
+
+    val types: Array[String] = new Array(buffer.getInt)
+    for(i <- types.indices) {
+      val bytes: Array[Byte] = new Array(buffer.getInt)
+      buffer.get(bytes)
+      types(i) = new String(bytes, UTF_8)
+    }
+
+    types
+  }
+
+  /**
+   * Maps the records in as few regions as possible.
+   *
+   * @return the regions, and the number of the region holding each record
+   */
+  private def mapRecords(channel: FileChannel, offsets: Array[Long]): (Seq[Region], Array[Int]) = {
+
+    val count: Int = offsets.length - 1
+    val regions: mutable.ArrayBuffer[Region] = mutable.ArrayBuffer()
+    val regionOf: Array[Int] = new Array(count)
+
+    var i: Int = 0
+    while(i < count) {
+      val start: Long = offsets(i)
+      var j: Int = i
+      while(j < count && offsets(j + 1) - start <= MaxRegionSize) {
+        require(offsets(j + 1) - offsets(j) >= RecordSize, "Cache snapshot has a corrupt index")
+        regionOf(j) = regions.size
+        j += 1
+      }
+      require(j > i, "Cache snapshot has a record too large to be mapped")
+      regions += Region(start, channel.map(MapMode.READ_ONLY, start, offsets(j) - start))
+      i = j
+    }
+
+    (regions, regionOf)
+  }
+
+  private def readRecord(record: ByteBuffer, types: Array[String]): CacheObject = {
+
+    val typeNumber: Int = record.getInt
+    val idLength: Int = record.getInt
+    require(typeNumber >= 0 && typeNumber < types.length, "Cache snapshot has a record of unknown type")
+    require(idLength >= 0 && idLength <= record.remaining, "Cache snapshot has a corrupt record")
+
+    val id: ByteBuffer = record.slice()
+    id.limit(idLength)
+    record.position(record.position + idLength)
+
+    // Restored as compact objects, the content being kept as it was written
+    val content: Array[Byte] = new Array(record.remaining)
+    record.get(content)
+    require(ScalaCompactCacheObject.isSingleValue(content), "Cache snapshot has a record without content")
+
+    ScalaCompactCacheObject.restored(UTF_8.decode(id).toString, types(typeNumber), content)
+  }
+}
+
+/**
+ * Periodically writes a snapshot of the Cache held by a JsonCache.
+ * <p>
+ * The Cache is captured by a function applied by the JsonCache (in turn with any other changes), and written on a
+ * thread of the writer's own, so that the JsonCache is only held up for as long as it takes to capture the Cache.
+ */
+private[jsoncache] class ScalaCacheSnapshotWriter(
+  jsonCache: JsonCache,
+  file: Path,
+  interval: Duration
+)(implicit system: ActorSystem)
+  extends Closeable {
+
+  // Once a snapshot is written, the journal of the JsonCache (if any) need only hold the changes that followed it
+  private val journal: Option[ScalaCacheJournal] = jsonCache match {
+    case journalling: ScalaJsonCache => journalling.journal
+    case _                           => None
+  }
+
+  // Set while a snapshot is being taken, from the tick which requests it until it has been written
+  private val taking: AtomicBoolean = new AtomicBoolean()
+
+  private val writer: ExecutorService = Executors.newSingleThreadExecutor { runnable =>
+    val thread: Thread = new Thread(runnable, s"${jsonCache.getId}-snapshot-writer")
+    thread.setDaemon(true)
+    thread
+  }
+
+  private val ticks: Cancellable = {
+    val period: FiniteDuration = FiniteDuration(interval.toNanos, TimeUnit.NANOSECONDS)
+    system.scheduler.schedule(period, period) { tick() }(system.dispatcher)
+  }
+
+  override def close(): Unit = {
+
+    ticks.cancel()
+    writer.shutdown()
+  }
+
+  private def tick(): Unit = {
+
+    if(taking.compareAndSet(false, true))
+      jsonCache.onNext(new ScalaCacheSnapshotFunctionInstance(this))
+  }
+
+  /**
+   * Called by the JsonCache, so that the cache captured holds the changes appended to the journal before the call.
+   */
+  private[jsoncache] def capture(cache: Cache): Unit = {
+
+    val journalSequence: Option[Long] = journal.map { j => j.sequence }
+
+    try {
+      writer.execute { () =>
+        try {
+          ScalaCacheSnapshot.write(cache, file)
+          for(j <- journal; sequence <- journalSequence) j.truncate(sequence)
+        }
+        catch {
+          case e: Exception => system.log.error(e, "Failed to write snapshot of JsonCache {} to {}", jsonCache.getId, file)
+        }
+        finally taking.set(false)
+      }
+    }
+    catch {
+      case _: RejectedExecutionException => // Closed
+    }
+  }
+}
+
+/**
+ * Captures the Cache it is applied to for a ScalaCacheSnapshotWriter, leaving the Cache unchanged.
+ */
+private[jsoncache] class ScalaCacheSnapshotFunctionInstance(snapshotWriter: ScalaCacheSnapshotWriter)
+  extends ScalaOwnFunctionInstance {
+
+  override val getId: String = UUID.randomUUID.toString
+
+  override val getCode: CacheFunction = { cache =>
+    snapshotWriter.capture(cache)
+    new ChangeResult(cache, ScalaCacheChangeSet(getId, Collections.emptySet[CacheObject](), Collections.emptySet[CacheRemove](), false))
+  }
+}
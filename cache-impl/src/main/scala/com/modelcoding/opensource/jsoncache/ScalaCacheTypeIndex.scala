@@ -0,0 +1,93 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import scala.collection.mutable
+
+/**
+ * Persistent secondary index of CacheObjects by CacheObject.getType - a trie of the objects of each type present.
+ */
+final class ScalaCacheTypeIndex private[jsoncache](byType: Map[String, ScalaCacheObjectTrie]) {
+
+  def types: Set[String] = byType.keySet
+
+  /**
+   * @return the objects of the given type, or an empty trie if there are none
+   */
+  def get(aType: String): ScalaCacheObjectTrie = byType.getOrElse(aType, ScalaCacheObjectTrie.empty)
+
+  /**
+   * @param previous the object replaced by cacheObject, or null if cacheObject was added
+   */
+  def updated(cacheObject: CacheObject, previous: CacheObject): ScalaCacheTypeIndex = {
+
+    val index: Map[String, ScalaCacheObjectTrie] =
+      if(previous != null && previous.getType != cacheObject.getType) withoutObject(byType, previous) else byType
+
+    new ScalaCacheTypeIndex(
+      index.updated(cacheObject.getType, get(index, cacheObject.getType).updated(cacheObject, new ScalaCacheObjectTrie.Change))
+    )
+  }
+
+  /**
+   * @param removed an object removed from the cache
+   */
+  def removed(removed: CacheObject): ScalaCacheTypeIndex = new ScalaCacheTypeIndex(withoutObject(byType, removed))
+
+  def builder: ScalaCacheTypeIndex.Builder = new ScalaCacheTypeIndex.Builder(byType)
+
+  private def get(index: Map[String, ScalaCacheObjectTrie], aType: String): ScalaCacheObjectTrie =
+    index.getOrElse(aType, ScalaCacheObjectTrie.empty)
+
+  private def withoutObject(index: Map[String, ScalaCacheObjectTrie], cacheObject: CacheObject): Map[String, ScalaCacheObjectTrie] = {
+
+    val objects: ScalaCacheObjectTrie = get(index, cacheObject.getType).removed(cacheObject.getId, new ScalaCacheObjectTrie.Change)
+
+    if(objects.isEmpty) index - cacheObject.getType else index.updated(cacheObject.getType, objects)
+  }
+}
+
+object ScalaCacheTypeIndex {
+
+  val empty: ScalaCacheTypeIndex = new ScalaCacheTypeIndex(Map())
+
+  /**
+   * Applies a sequence of changes to an index, using a trie builder for each type touched.
+   * <p>
+   * A Builder is not thread-safe.
+   */
+  final class Builder private[jsoncache](byType: Map[String, ScalaCacheObjectTrie]) {
+
+    private val builders: mutable.Map[String, ScalaCacheObjectTrie.Builder] = mutable.Map()
+
+    private def builderFor(aType: String): ScalaCacheObjectTrie.Builder =
+      builders.getOrElseUpdate(aType, byType.getOrElse(aType, ScalaCacheObjectTrie.empty).builder)
+
+    /**
+     * @param previous the object replaced by cacheObject, or null if cacheObject was added
+     */
+    def put(cacheObject: CacheObject, previous: CacheObject): Unit = {
+
+      if(previous != null && previous.getType != cacheObject.getType)
+        builderFor(previous.getType).remove(previous.getId)
+
+      builderFor(cacheObject.getType).put(cacheObject)
+    }
+
+    /**
+     * @param removed an object removed from the cache
+     */
+    def remove(removed: CacheObject): Unit = builderFor(removed.getType).remove(removed.getId)
+
+    def result(): ScalaCacheTypeIndex = {
+
+      val index: Map[String, ScalaCacheObjectTrie] = builders.foldLeft(byType) { case (i, (aType, builder)) =>
+        val objects: ScalaCacheObjectTrie = builder.result()
+        if(objects.isEmpty) i - aType else i.updated(aType, objects)
+      }
+      builders.clear()
+
+      new ScalaCacheTypeIndex(index)
+    }
+  }
+}
@@ -0,0 +1,130 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import java.security.MessageDigest
+
+import com.fasterxml.jackson.core.{JsonGenerator, JsonParser, JsonProcessingException}
+import com.fasterxml.jackson.databind.{JsonNode, ObjectMapper}
+import com.fasterxml.jackson.databind.node.{JsonNodeFactory, ObjectNode}
+
+/**
+ * A CacheObject holding its content serialized, rather than as a tree of JsonNodes - a fraction of the size.
+ * <p>
+ * The content is parsed each time it is asked for - by getContent, and by asJsonNode - the tree not being kept. Only
+ * the journal and snapshots of a JsonCache copy the serialized content as it is, without a tree being built, and
+ * objects are restored from them as compact objects.
+ */
+class ScalaCompactCacheObject(val getId: String)(aType: String, serializedContent: Array[Byte])
+  extends CacheObject {
+
+  import ScalaCompactCacheObject._
+
+  override def getType: String = aType
+
+  // A new tree each time, so the content held cannot be mutated
+  override def getContent: JsonNode = mapper.readTree(serializedContent)
+
+  // Computed at most once, when first needed to compare this object's content with that of another version of it
+  private[jsoncache] lazy val contentDigest: Array[Byte] = MessageDigest.getInstance("SHA-256").digest(serializedContent)
+
+  private[jsoncache] def estimatedSize: Long = ScalaCacheEviction.sizeOf(getId, aType) + ArraySize + serializedContent.length
+
+  override def asUpdatedCacheObject(content: JsonNode): CacheObject = ScalaCompactCacheObject(getId)(aType, content)
+
+  override def asCacheRemove(): CacheRemove = ScalaCacheRemove(getId)
+
+  override def asJsonNode(): ObjectNode = {
+
+    val json: ObjectNode = JsonNodeFactory.instance.objectNode()
+
+    json.put("id", getId)
+    json.put("type", aType)
+    json.set("content", getContent)
+
+    json
+  }
+
+  private[jsoncache] def writeContent(generator: JsonGenerator): Unit = {
+
+    val parser: JsonParser = mapper.getFactory.createParser(serializedContent)
+    try {
+      parser.nextToken()
+      generator.copyCurrentStructure(parser)
+    }
+    finally parser.close()
+  }
+
+  private[jsoncache] def getSerializedContent: Array[Byte] = serializedContent
+
+  override def equals(other: Any): Boolean = other match {
+    case that: CacheObject =>
+      getId == that.getId
+    case _ => false
+  }
+
+  override val hashCode: Int = getId.hashCode
+}
+
+object ScalaCompactCacheObject {
+
+  private val mapper: ObjectMapper = new ObjectMapper()
+
+  private val ArraySize: Long = 16
+
+  def apply(id: String)(aType: String, someContent: JsonNode): CacheObject =
+    new ScalaCompactCacheObject(id)(aType, mapper.writeValueAsBytes(someContent))
+
+  /**
+   * @throws IllegalArgumentException if serializedContent is not a single JSON value
+   */
+  def apply(id: String)(aType: String, serializedContent: Array[Byte]): CacheObject = {
+
+    require(isSingleValue(serializedContent), s"Cannot create a CacheObject for $id from content that is not a JSON value")
+
+    new ScalaCompactCacheObject(id)(aType, serializedContent.clone())
+  }
+
+  /**
+   * For content read back from a journal or snapshot - taken as it is, without being copied or checked.
+   */
+  private[jsoncache] def restored(id: String, aType: String, serializedContent: Array[Byte]): CacheObject =
+    new ScalaCompactCacheObject(id)(aType, serializedContent)
+
+  /**
+   * @return the content of the given object serialized - as held, if a compact object
+   */
+  private[jsoncache] def serializedContent(cacheObject: CacheObject): Array[Byte] = cacheObject match {
+    case compact: ScalaCompactCacheObject => compact.getSerializedContent
+    case _                                => mapper.writeValueAsBytes(cacheObject.getContent)
+  }
+
+  /**
+   * Writes the given object as JSON in the form given by CacheObject.asJsonNode - the content of a compact object
+   * being copied from its serialized form, without a tree being built.
+   */
+  private[jsoncache] def write(cacheObject: CacheObject, generator: JsonGenerator): Unit = {
+
+    generator.writeStartObject()
+    generator.writeStringField("id", cacheObject.getId)
+    generator.writeStringField("type", cacheObject.getType)
+    generator.writeFieldName("content")
+    cacheObject match {
+      case compact: ScalaCompactCacheObject => compact.writeContent(generator)
+      case _                                => generator.writeTree(cacheObject.getContent)
+    }
+    generator.writeEndObject()
+  }
+
+  private[jsoncache] def isSingleValue(serializedContent: Array[Byte]): Boolean = {
+
+    val parser: JsonParser = mapper.getFactory.createParser(serializedContent)
+    try {
+      parser.nextToken() != null && { parser.skipChildren(); parser.nextToken() == null }
+    }
+    catch {
+      case _: JsonProcessingException => false
+    }
+    finally parser.close()
+  }
+}
@@ -2,24 +2,63 @@
 
 package com.modelcoding.opensource.jsoncache
 
+import java.util
+import java.util.concurrent.ConcurrentLinkedQueue
+import java.util.concurrent.atomic.AtomicInteger
+
 import akka.actor.{Actor, ActorRef, ActorSystem, Props, Terminated}
 import akka.stream.scaladsl.{Keep, Sink, Source}
 import akka.stream.{ActorMaterializer, OverflowStrategy}
-import org.reactivestreams.{Subscriber, Subscription}
+import org.reactivestreams.{Publisher, Subscriber, Subscription}
 
+import scala.collection.JavaConverters._
 import scala.collection.mutable
 import ScalaJsonCacheModule._
 import com.modelcoding.opensource.jsoncache.CacheFunction.Result
-
-class ScalaJsonCache(id: String, backlogLimit: Int, aCache: Cache)(implicit system: ActorSystem)
+import com.modelcoding.opensource.jsoncache.JsonCache.SubscriberBacklogPolicy
+
+class ScalaJsonCache(
+  id: String,
+  backlogLimit: Int,
+  backlogPolicy: SubscriberBacklogPolicy,
+  ingestionBatchSize: Int,
+  mergeBatchChangeSets: Boolean,
+  sharedFanOut: Boolean,
+  options: JsonCacheOptions,
+  aCache: Cache
+)(implicit system: ActorSystem)
   extends JsonCache {
 
   private case class RegisterCacheChangeSupplier(subscription: Subscription)
-  private case class PublishToSubscriber(subscriber: Subscriber[_ >: CacheChangeSet])
-  private case class ChangeCache(cacheChangeCalculator: CacheFunctionInstance)
+  private case class PublishToSubscriber(
+    subscriber: Subscriber[_ >: CacheChangeSet],
+    types: Option[Set[String]],
+    fromSequence: Option[Long]
+  )
+  private case class ApplyPendingChanges()
   private case class SendCacheImageToSubscriber(subscriber: Subscriber[_ >: CacheChangeSet])
   private case class CompleteAllSubscribers()
   private case class FailAllSubscribers(error: Throwable)
+  private case class JournalFailed(error: Throwable)
+  private case class ResyncSubscriber(resync: ResyncState)
+  private case class AddExpiry(expiry: ScalaCacheExpiry)
+  private case class RemoveExpiry(expiry: ScalaCacheExpiry)
+  private case class AddMetrics(metrics: JsonCacheMetrics)
+  private case class RemoveMetrics(metrics: JsonCacheMetrics)
+  private case class Delivery(generation: Int, changeSet: Option[CacheChangeSet]) // None requests a resync
+
+  // Functions received are queued here, and applied in batches by the cacheActor. pendingCount is incremented after 
+  // each function is queued, and decremented as each is taken: the cacheActor is only sent ApplyPendingChanges when the 
+  // count rises from 0, and it applies functions until the count is back down to 0.
+  private val pendingFunctions: ConcurrentLinkedQueue[CacheFunctionInstance] = new ConcurrentLinkedQueue()
+  private val pendingCount    : AtomicInteger                                = new AtomicInteger()
+
+  // Opened before the cacheActor is started, so that a journal which cannot be opened fails the creation of the JsonCache
+  private[jsoncache] val journal: Option[ScalaCacheJournal] = 
+    if(options.getJournalDirectory.isPresent)
+      Some(new ScalaCacheJournal(options.getJournalDirectory.get, error => cacheActor ! JournalFailed(error)))
+    else
+      None
 
   private val cacheActor: ActorRef = system.actorOf(Props(new CacheActor(backlogLimit, aCache)))
 
@@ -27,11 +66,22 @@ class ScalaJsonCache(id: String, backlogLimit: Int, aCache: Cache)(implicit syst
 
   override def getSubscriberBacklogLimit: Int = backlogLimit
 
+  override def getSubscriberBacklogPolicy: SubscriberBacklogPolicy = backlogPolicy
+
+  override def getIngestionBatchSize: Int = ingestionBatchSize
+
+  override def isMergingBatchChangeSets: Boolean = mergeBatchChangeSets
+
+  override def isUsingSharedFanOut: Boolean = sharedFanOut
+
+  override def getOptions: JsonCacheOptions = options
+
   override def onNext(c: CacheFunctionInstance): Unit = {
 
     requireNotNull(c, "Cannot apply null changes to a JsonCache")
 
-    cacheActor ! ChangeCache(c)
+    pendingFunctions.offer(c)
+    if(pendingCount.getAndIncrement() == 0) cacheActor ! ApplyPendingChanges()
   }
 
   override def onSubscribe(s: Subscription): Unit = {
@@ -57,7 +107,22 @@ class ScalaJsonCache(id: String, backlogLimit: Int, aCache: Cache)(implicit syst
 
     requireNotNull(s, "Cannot subscribe to a JsonCache with a null subscriber")
 
-    cacheActor ! PublishToSubscriber(s)
+    cacheActor ! PublishToSubscriber(s, None, None)
+  }
+
+  override def subscribe(s: Subscriber[_ >: CacheChangeSet], cacheObjectTypes: util.Set[String]): Unit = {
+
+    requireNotNull(s, "Cannot subscribe to a JsonCache with a null subscriber")
+    requireNotNull(cacheObjectTypes, "Cannot subscribe to a JsonCache with a null set of types")
+
+    cacheActor ! PublishToSubscriber(s, Some(cacheObjectTypes.asScala.toSet), None)
+  }
+
+  override def subscribe(s: Subscriber[_ >: CacheChangeSet], fromSequence: Long): Unit = {
+
+    requireNotNull(s, "Cannot subscribe to a JsonCache with a null subscriber")
+
+    cacheActor ! PublishToSubscriber(s, None, Some(fromSequence))
   }
 
   override def sendImageToSubscriber(s: Subscriber[_ >: CacheChangeSet]): Unit = {
@@ -67,24 +132,28 @@ class ScalaJsonCache(id: String, backlogLimit: Int, aCache: Cache)(implicit syst
     cacheActor ! SendCacheImageToSubscriber(s)
   }
 
-  private class StatefulSubscriber(val delegate: Subscriber[_ >: CacheChangeSet]) extends Subscriber[CacheChangeSet] {
+  private[jsoncache] def addExpiry(expiry: ScalaCacheExpiry): Unit = cacheActor ! AddExpiry(expiry)
 
-    private var errorOccurred: Boolean = false
+  private[jsoncache] def removeExpiry(expiry: ScalaCacheExpiry): Unit = cacheActor ! RemoveExpiry(expiry)
 
-    override def onError(t: Throwable): Unit = {
+  private[jsoncache] def addMetrics(metrics: JsonCacheMetrics): Unit = cacheActor ! AddMetrics(metrics)
 
-      errorOccurred = true
-      delegate.onError(t)
-    }
+  private[jsoncache] def removeMetrics(metrics: JsonCacheMetrics): Unit = cacheActor ! RemoveMetrics(metrics)
 
-    override def onComplete(): Unit = {
-
-      if(!errorOccurred) delegate.onComplete()
-    }
+  /**
+   * Tracks a subscriber under SubscriberBacklogPolicy.RESYNC.
+   * <p>
+   * pending counts the deliveries sent to the publisherActor not yet taken by the subscriber - it is shared with the 
+   * publication stream. A new generation is started when the subscriber is made stale: deliveries of older 
+   * generations still queued are then dropped by the stream.
+   */
+  private class ResyncState {
 
-    override def onNext(t: CacheChangeSet): Unit = delegate.onNext(t)
+    val pending   : AtomicInteger = new AtomicInteger()
+    val generation: AtomicInteger = new AtomicInteger()
 
-    override def onSubscribe(s: Subscription): Unit = delegate.onSubscribe(s)
+    var publisherActor: ActorRef = _
+    var stale         : Boolean  = false
   }
 
   private class CacheActor(backlogLimit: Int, aCache: Cache) extends Actor {
@@ -93,60 +162,292 @@ class ScalaJsonCache(id: String, backlogLimit: Int, aCache: Cache)(implicit syst
 
     private val publishers         : mutable.Map[ActorRef, StatefulSubscriber]              = mutable.Map()
     private val subscribers        : mutable.Map[Subscriber[_ >: CacheChangeSet], ActorRef] = mutable.Map()
+    private val publisherTypes     : mutable.Map[ActorRef, Set[String]]                     = mutable.Map()
+    private val resyncStates       : mutable.Map[ActorRef, ResyncState]                     = mutable.Map()
+    private val backlogs           : mutable.Map[ActorRef, AtomicInteger]                   = mutable.Map()
     private var cache              : Cache                                                  = aCache
     private var cacheChangeSupplier: Subscription                                           = _
 
+    // The sequence number of the next change set published - that of the journal (if any), so that the two agree
+    private val initialSequence: Long = journal.map { j => j.sequence }.getOrElse(0L)
+    private var nextSequence   : Long = initialSequence
+
+    // Used instead of a stream per subscriber when sharedFanOut
+    private val broadcast: Option[ScalaBroadcastBuffer] =
+      if(sharedFanOut) Some(new ScalaBroadcastBuffer(backlogLimit, backlogPolicy, aCache, initialSequence, context.dispatcher))
+      else None
+
+    // The most recent change sets published, from which a subscriber can resume (held by the broadcast, if used) - no 
+    // more than backlogLimit are retained, as a subscriber sent more would exceed its backlog 
+    private val history: mutable.Queue[SequencedCacheChangeSet] = mutable.Queue()
+
+    // Kept up to date with each function applied
+    private val expiries: mutable.Set[ScalaCacheExpiry] = mutable.Set()
+
+    // Kept up to date with each function applied, when memory-bounded
+    private val eviction: Option[ScalaCacheEviction] =
+      if(options.getMemoryBudget.isPresent) Some(new ScalaCacheEviction(options.getMemoryBudget.getAsLong, aCache))
+      else None
+
+    private var metrics: JsonCacheMetrics = NoJsonCacheMetrics
+
     override def receive: Receive = {
 
-      case ChangeCache(cacheFunctionInstance) =>
-        val result: Result = cacheFunctionInstance.getCode.execute(cache)
-        if(cache ne result.getCache) {
-          cache = result.getCache
-          publishers.keys.foreach { publisher => publisher ! result.getChangeSet }
+      case ApplyPendingChanges() =>
+        val batchCache: Cache = cache
+        val batchChangeSets: mutable.ArrayBuffer[CacheChangeSet] = mutable.ArrayBuffer()
+        var applied: Int = 0
+        def apply(cacheFunctionInstance: CacheFunctionInstance): Unit = {
+          val start: Long = System.nanoTime
+          val result: Result = cacheFunctionInstance.getCode.execute(cache)
+          metrics.recordFunctionApplied(System.nanoTime - start)
+          expiries.foreach { e => e.applied(cacheFunctionInstance, result) }
+          eviction.foreach { e => e.applied(cacheFunctionInstance, result) }
+          if(cache ne result.getCache) {
+            val previousCache: Cache = cache
+            cache = result.getCache
+            if(mergeBatchChangeSets) batchChangeSets += result.getChangeSet else publish(previousCache, result.getChangeSet)
+          }
+        }
+        while(pendingCount.get > 0) {
+          val cacheFunctionInstance: CacheFunctionInstance = pendingFunctions.poll()
+          pendingCount.decrementAndGet()
+          if(!cacheFunctionInstance.isInstanceOf[ScalaOwnFunctionInstance]) applied += 1
+          apply(cacheFunctionInstance)
+          eviction.filter { e => e.isOverBudget }.foreach { e => apply(e.evictionFunction) }
         }
-        if(cacheChangeSupplier != null) cacheChangeSupplier.request(1)
+        if(batchChangeSets.nonEmpty) publish(batchCache, ScalaCacheChangeSet.merge(batchChangeSets))
+        if(cacheChangeSupplier != null && applied > 0) cacheChangeSupplier.request(applied)
+
+      case SendCacheImageToSubscriber(subscriber) if broadcast.isDefined =>
+        broadcast.get.sendImage(subscriber)
 
       case SendCacheImageToSubscriber(subscriber) =>
-        if(subscribers.contains(subscriber)) {subscribers(subscriber) ! cache.getImage}
+        if(subscribers.contains(subscriber)) {
+          val publisherActor: ActorRef = subscribers(subscriber)
+          send(publisherActor, imageFor(publisherTypes.get(publisherActor)))
+        }
 
-      case PublishToSubscriber(subscriber) =>
-        val source: Source[CacheChangeSet, ActorRef] = Source.actorRef[CacheChangeSet](backlogLimit, OverflowStrategy.fail)
-        val (publisherActor, publisher) = source.toMat(Sink.asPublisher[CacheChangeSet](fanout = false))(Keep.both).run()
+      case ResyncSubscriber(resync) =>
+        if(resync.stale && resyncStates.contains(resync.publisherActor)) {
+          resync.stale = false
+          send(resync.publisherActor, imageFor(publisherTypes.get(resync.publisherActor)))
+        }
+
+      case PublishToSubscriber(subscriber, types, fromSequence) if broadcast.isDefined =>
+        broadcast.get.subscribe(subscriber, types, fromSequence)
+
+      case PublishToSubscriber(subscriber, types, fromSequence) =>
+        val (publisherActor, publisher) = publication()
         val statefulSubscriber = new StatefulSubscriber(subscriber)
         publishers += (publisherActor -> statefulSubscriber)
         subscribers += (subscriber -> publisherActor)
+        types.foreach { t => publisherTypes += (publisherActor -> t) }
         context.watch(publisherActor) // Get notified when the publication is cancelled by subscriber: the publisherActor is terminated
-        publisherActor ! cache.getImage // Send initial change set
+        metrics.recordSubscribers(publishers.size)
+        fromSequence.flatMap(retainedFrom) match {
+          case Some(missed) => missed.foreach { changeSet => send(publisherActor, changeSet) }
+          case None         => send(publisherActor, imageFor(types)) // Send initial change set
+        }
         publisher.subscribe(statefulSubscriber)
 
       case Terminated(publisherActor) =>
         val subscriber = publishers(publisherActor)
         publishers -= publisherActor
+        publisherTypes -= publisherActor
+        resyncStates -= publisherActor
+        backlogs -= publisherActor
         subscribers -= subscriber.delegate
+        metrics.recordSubscribers(publishers.size)
         subscriber.onComplete() // explicit call to onComplete() - otherwise, no indication that publishing has finished
 
+      case AddExpiry(expiry) =>
+        expiries += expiry
+        expiry.started(cache)
+
+      case RemoveExpiry(expiry) =>
+        expiries -= expiry
+
+      case AddMetrics(m) =>
+        metrics = m
+        broadcast match {
+          case Some(b) => b.instrument(m)
+          case None    => metrics.recordSubscribers(publishers.size)
+        }
+
+      case RemoveMetrics(m) =>
+        if(metrics eq m) {
+          metrics = NoJsonCacheMetrics
+          broadcast.foreach { b => b.instrument(NoJsonCacheMetrics) }
+        }
+
       case RegisterCacheChangeSupplier(s) =>
         cacheChangeSupplier = s
-        cacheChangeSupplier.request(1)
+        cacheChangeSupplier.request(ingestionBatchSize)
 
       case FailAllSubscribers(error) =>
-        publishers.values.foreach { s => s.onError(error) }
-        stopAndClearUp()
+        failAllSubscribers(error)
+
+      case JournalFailed(error) =>
+        // Changes which cannot be journalled are not accepted
+        if(cacheChangeSupplier != null) cacheChangeSupplier.cancel()
+        failAllSubscribers(error)
 
       case CompleteAllSubscribers =>
+        broadcast.foreach { b => b.complete() }
         publishers.values.foreach { s => s.onComplete() }
+        journal.foreach { j => j.close() }
         stopAndClearUp()
     }
 
+    private def failAllSubscribers(error: Throwable): Unit = {
+
+      broadcast.foreach { b => b.fail(error) }
+      publishers.values.foreach { s => s.onError(error) }
+      journal.foreach { j => j.close() }
+      stopAndClearUp()
+    }
+
     private def stopAndClearUp(): Unit = {
 
       publishers.keys.foreach { p => context.stop(p) }
       context.stop(self)
       publishers.clear()
+      publisherTypes.clear()
+      resyncStates.clear()
+      backlogs.clear()
       subscribers.clear()
       cacheChangeSupplier = null
     }
+
+    private def publish(previousCache: Cache, unsequencedChangeSet: CacheChangeSet): Unit = {
+
+      val changeSet: SequencedCacheChangeSet = ScalaCacheChangeSet.sequenced(unsequencedChangeSet, nextSequence)
+      nextSequence += 1
+      metrics.recordChangeSetPublished(changeSet.getPuts.size, changeSet.getRemoves.size)
+
+      if(broadcast.isEmpty) {
+        history.enqueue(changeSet)
+        if(history.size > backlogLimit) history.dequeue()
+      }
+
+      journal.foreach { j => j.append(changeSet) }
+      broadcast.foreach { b => b.publish(previousCache, changeSet, cache) }
+
+      val scopedChangeSets: mutable.Map[Set[String], Option[CacheChangeSet]] = mutable.Map()
+      publishers.keys.foreach { publisher =>
+        publisherTypes.get(publisher) match {
+          case None        =>
+            send(publisher, changeSet)
+          case Some(types) =>
+            scopedChangeSets.getOrElseUpdate(types, ScalaCacheChangeSet.scoped(previousCache, changeSet, types))
+              .foreach { scoped => send(publisher, scoped) }
+        }
+      }
+    }
+
+    private def publication(): (ActorRef, Publisher[CacheChangeSet]) = backlogPolicy match {
+
+      case SubscriberBacklogPolicy.FAIL   =>
+        // backlog counts the change sets sent to the publisherActor not yet taken by the subscriber
+        val backlog: AtomicInteger = new AtomicInteger()
+        val source: Source[CacheChangeSet, ActorRef] =
+          Source.actorRef[CacheChangeSet](backlogLimit, OverflowStrategy.fail).map { changeSet =>
+            backlog.decrementAndGet()
+            changeSet
+          }
+        val (publisherActor, publisher) = source.toMat(Sink.asPublisher[CacheChangeSet](fanout = false))(Keep.both).run()
+        backlogs += (publisherActor -> backlog)
+        (publisherActor, publisher)
+
+      case SubscriberBacklogPolicy.RESYNC =>
+        // The buffer cannot overflow: send() never lets pending exceed backlogLimit + 1
+        val resync: ResyncState = new ResyncState
+        val cacheActor: ActorRef = self
+        val source: Source[CacheChangeSet, ActorRef] =
+          Source.actorRef[Delivery](backlogLimit + 1, OverflowStrategy.fail).mapConcat { delivery =>
+            resync.pending.decrementAndGet()
+            if(delivery.generation != resync.generation.get)
+              Nil
+            else delivery.changeSet match {
+              case Some(changeSet) => List(changeSet)
+              case None            => cacheActor ! ResyncSubscriber(resync); Nil
+            }
+          }
+        val (publisherActor, publisher) = source.toMat(Sink.asPublisher[CacheChangeSet](fanout = false))(Keep.both).run()
+        resync.publisherActor = publisherActor
+        resyncStates += (publisherActor -> resync)
+        (publisherActor, publisher)
+    }
+
+    private def send(publisherActor: ActorRef, changeSet: CacheChangeSet): Unit = resyncStates.get(publisherActor) match {
+
+      case None                                                 =>
+        backlogs.get(publisherActor) match {
+          case Some(backlog) => metrics.recordSubscriberBacklog(backlog.incrementAndGet())
+          case None          =>
+        }
+        publisherActor ! changeSet
+
+      case Some(resync) if resync.stale                         =>
+        // Nothing more is sent until the subscriber has caught up, and is then sent a fresh image
+
+      case Some(resync) if resync.pending.get() >= backlogLimit =>
+        resync.stale = true
+        resync.pending.incrementAndGet()
+        publisherActor ! Delivery(resync.generation.incrementAndGet(), None)
+
+      case Some(resync)                                         =>
+        metrics.recordSubscriberBacklog(resync.pending.incrementAndGet())
+        publisherActor ! Delivery(resync.generation.get(), Some(changeSet))
+    }
+
+    private def imageFor(types: Option[Set[String]]): CacheChangeSet = {
+
+      val start: Long = System.nanoTime
+      val image: CacheChangeSet = types match {
+        case None    => cache.getImage
+        case Some(t) => cache.getImage(t.asJava)
+      }
+      metrics.recordImageBuilt(image.getPuts.size, System.nanoTime - start)
+      ScalaCacheChangeSet.sequenced(image, nextSequence - 1)
+    }
+
+    /**
+     * @return the change sets from fromSequence on, or None if they are not all retained
+     */
+    private def retainedFrom(fromSequence: Long): Option[Seq[CacheChangeSet]] = {
+
+      val oldestRetained: Long = history.headOption.map { c => c.getSequence }.getOrElse(nextSequence)
+      if(fromSequence < oldestRetained || fromSequence > nextSequence)
+        None
+      else
+        Some(history.filter { c => c.getSequence >= fromSequence })
+    }
   }
 }
 
+/**
+ * A CacheFunctionInstance a JsonCache is given by a component attached to it, rather than by its supplier.
+ * <p>
+ * A JsonCache does not request a further CacheFunctionInstance from its supplier on applying one of these.
+ */
+private[jsoncache] trait ScalaOwnFunctionInstance extends CacheFunctionInstance
+
+/**
+ * The JsonCacheMetrics of a JsonCache not instrumented - told of the work done, but recording none of it.
+ */
+private[jsoncache] object NoJsonCacheMetrics extends JsonCacheMetrics {
+
+  override def recordFunctionApplied(nanos: Long): Unit = ()
+
+  override def recordChangeSetPublished(numPuts: Int, numRemoves: Int): Unit = ()
 
+  override def recordImageBuilt(numPuts: Int, nanos: Long): Unit = ()
+
+  override def recordSubscriberBacklog(backlog: Int): Unit = ()
+
+  override def recordSubscribers(subscribers: Int): Unit = ()
+
+  override def recordSelectorEvaluated(numPuts: Int, nanos: Long): Unit = ()
+}
@@ -2,10 +2,14 @@
 
 package com.modelcoding.opensource.jsoncache
 
+import java.io.Closeable
+import java.nio.file.Path
+import java.time.Duration
 import java.util
 
 import akka.actor.ActorSystem
 import com.fasterxml.jackson.databind.JsonNode
+import com.modelcoding.opensource.jsoncache.JsonCache.SubscriberBacklogPolicy
 
 import scala.collection.JavaConverters._
 
@@ -35,6 +39,32 @@ class ScalaJsonCacheModule(implicit val actorSystem: ActorSystem) extends JsonCa
     ScalaCacheObject(json)
   }
 
+  override def getCompactCacheObject(
+    cacheObjectId: String,
+    cacheObjectType: String,
+    cacheObjectContent: JsonNode
+  ): CacheObject = {
+
+    requireNotNull(cacheObjectId, "A CacheObject cannot have a null id")
+    requireNotNull(cacheObjectType, "A CacheObject cannot have a null type")
+    requireNotNull(cacheObjectContent, "A CacheObject cannot have null content")
+
+    ScalaCompactCacheObject(cacheObjectId)(cacheObjectType, cacheObjectContent)
+  }
+
+  override def getCompactCacheObject(
+    cacheObjectId: String,
+    cacheObjectType: String,
+    serializedContent: Array[Byte]
+  ): CacheObject = {
+
+    requireNotNull(cacheObjectId, "A CacheObject cannot have a null id")
+    requireNotNull(cacheObjectType, "A CacheObject cannot have a null type")
+    requireNotNull(serializedContent, "A CacheObject cannot have null content")
+
+    ScalaCompactCacheObject(cacheObjectId)(cacheObjectType, serializedContent)
+  }
+
   override def getCacheRemove(
     cacheObjectId: String
   ): CacheRemove = {
@@ -53,6 +83,26 @@ class ScalaJsonCacheModule(implicit val actorSystem: ActorSystem) extends JsonCa
     ScalaCacheRemove(json)
   }
 
+  override def getCacheObjectPatch(
+    cacheObjectId: String,
+    patch: JsonNode
+  ): CacheObjectPatch = {
+
+    requireNotNull(cacheObjectId, "A CacheObjectPatch cannot have a null id")
+    requireNotNull(patch, "A CacheObjectPatch cannot have a null patch")
+
+    ScalaCacheObjectPatch(cacheObjectId)(patch)
+  }
+
+  override def getCacheObjectPatch(
+    json: JsonNode
+  ): CacheObjectPatch = {
+
+    requireNotNull(json, "A CacheObjectPatch cannot be created from null json")
+
+    ScalaCacheObjectPatch(json)
+  }
+
   override def getCacheChangeSet(
     id: String,
     puts: util.Set[_ <: CacheObject],
@@ -82,10 +132,82 @@ class ScalaJsonCacheModule(implicit val actorSystem: ActorSystem) extends JsonCa
 
     requireNotNull(cacheObjects, "A Cache cannot have null content")
 
-    new ScalaCache(
-      cacheObjects.asScala.foldLeft(Map[String, CacheObject]()) { (m, cacheObject) =>
-        m + (cacheObject.getId -> cacheObject)
-      })
+    ScalaCache.empty.putAll(cacheObjects).getCache
+  }
+
+  override def getCacheFromSnapshot(
+    snapshotFile: Path
+  ): Cache = {
+
+    requireNotNull(snapshotFile, "A Cache cannot be restored from a null snapshot file")
+
+    ScalaCacheSnapshot.read(snapshotFile)
+  }
+
+  override def writeCacheSnapshot(
+    cache: Cache,
+    snapshotFile: Path
+  ): Unit = {
+
+    requireNotNull(cache, "Cannot write a snapshot of a null Cache")
+    requireNotNull(snapshotFile, "Cannot write a snapshot to a null snapshot file")
+
+    ScalaCacheSnapshot.write(cache, snapshotFile)
+  }
+
+  override def writeCacheSnapshots(
+    jsonCache: JsonCache,
+    snapshotFile: Path,
+    interval: Duration
+  ): Closeable = {
+
+    requireNotNull(jsonCache, "Cannot write snapshots of a null JsonCache")
+    requireNotNull(snapshotFile, "Cannot write snapshots to a null snapshot file")
+    requireNotNull(interval, "Cannot write snapshots at a null interval")
+    require(!jsonCache.isInstanceOf[ScalaShardedJsonCache], "Cannot write snapshots of a sharded JsonCache")
+    require(!interval.isNegative && !interval.isZero, "Snapshot interval must be > 0")
+
+    new ScalaCacheSnapshotWriter(jsonCache, snapshotFile, interval)
+  }
+
+  override def getCacheObjectExpiry(
+    timeToLiveByType: util.Map[String, Duration]
+  ): CacheObjectExpiry = {
+
+    requireNotNull(timeToLiveByType, "Cannot create an expiry from a null map of times to live")
+    timeToLiveByType.forEach { (cacheObjectType, timeToLive) =>
+      requireNotNull(cacheObjectType, "Cannot create an expiry for a null type")
+      requireNotNull(timeToLive, "Cannot create an expiry with a null time to live")
+      require(!timeToLive.isNegative && !timeToLive.isZero, "Time to live must be > 0")
+    }
+
+    new ScalaCacheObjectExpiryByType(timeToLiveByType.asScala.toMap)
+  }
+
+  override def expireCacheObjects(
+    jsonCache: JsonCache,
+    expiry: CacheObjectExpiry
+  ): Closeable = {
+
+    requireNotNull(jsonCache, "Cannot expire the objects of a null JsonCache")
+    requireNotNull(expiry, "Cannot expire objects with a null expiry")
+    require(jsonCache.isInstanceOf[ScalaJsonCache], "Cannot expire the objects of a sharded JsonCache")
+
+    new ScalaCacheExpiry(jsonCache.asInstanceOf[ScalaJsonCache], expiry)
+  }
+
+  override def instrumentJsonCache(
+    jsonCache: JsonCache,
+    metrics: JsonCacheMetrics
+  ): Closeable = {
+
+    requireNotNull(jsonCache, "Cannot instrument a null JsonCache")
+    requireNotNull(metrics, "Cannot instrument a JsonCache with null metrics")
+    require(jsonCache.isInstanceOf[ScalaJsonCache], "Cannot instrument a sharded JsonCache")
+
+    val instrumented: ScalaJsonCache = jsonCache.asInstanceOf[ScalaJsonCache]
+    instrumented.addMetrics(metrics)
+    () => instrumented.removeMetrics(metrics)
   }
 
   override def getCacheChangeCalculator(
@@ -102,13 +224,101 @@ class ScalaJsonCacheModule(implicit val actorSystem: ActorSystem) extends JsonCa
     cacheId: String,
     subscriberBacklogLimit: Int,
     cache: Cache
+  ): JsonCache = 
+    getJsonCache(cacheId, subscriberBacklogLimit, SubscriberBacklogPolicy.FAIL, cache)
+
+  override def getJsonCache(
+    cacheId: String,
+    subscriberBacklogLimit: Int,
+    subscriberBacklogPolicy: SubscriberBacklogPolicy,
+    cache: Cache
+  ): JsonCache = 
+    getJsonCache(cacheId, subscriberBacklogLimit, subscriberBacklogPolicy, 1, false, cache)
+
+  override def getJsonCache(
+    cacheId: String,
+    subscriberBacklogLimit: Int,
+    subscriberBacklogPolicy: SubscriberBacklogPolicy,
+    ingestionBatchSize: Int,
+    mergeBatchChangeSets: Boolean,
+    cache: Cache
+  ): JsonCache = 
+    getJsonCache(cacheId, subscriberBacklogLimit, subscriberBacklogPolicy, ingestionBatchSize, mergeBatchChangeSets, false, cache)
+
+  override def getJsonCache(
+    cacheId: String,
+    subscriberBacklogLimit: Int,
+    subscriberBacklogPolicy: SubscriberBacklogPolicy,
+    ingestionBatchSize: Int,
+    mergeBatchChangeSets: Boolean,
+    sharedFanOut: Boolean,
+    cache: Cache
+  ): JsonCache = {
+
+    requireNotNull(cacheId, "A JsonCache cannot have a null id")
+    require(subscriberBacklogLimit > 0, "A JsonCache subscriberBacklogLimit must be > 0")
+    requireNotNull(subscriberBacklogPolicy, "A JsonCache cannot have a null subscriberBacklogPolicy")
+    require(ingestionBatchSize > 0, "A JsonCache ingestionBatchSize must be > 0")
+    requireNotNull(cache, "A JsonCache cannot be created with a null Cache")
+
+    new ScalaJsonCache(
+      cacheId, subscriberBacklogLimit, subscriberBacklogPolicy, ingestionBatchSize, mergeBatchChangeSets, sharedFanOut,
+      ScalaJsonCacheOptions.none, cache
+    )
+  }
+
+  override def getJsonCacheOptions: JsonCacheOptions = ScalaJsonCacheOptions.none
+
+  override def getJsonCache(
+    cacheId: String,
+    subscriberBacklogLimit: Int,
+    subscriberBacklogPolicy: SubscriberBacklogPolicy,
+    ingestionBatchSize: Int,
+    mergeBatchChangeSets: Boolean,
+    sharedFanOut: Boolean,
+    options: JsonCacheOptions,
+    cache: Cache
+  ): JsonCache = {
+
+    requireNotNull(cacheId, "A JsonCache cannot have a null id")
+    require(subscriberBacklogLimit > 0, "A JsonCache subscriberBacklogLimit must be > 0")
+    requireNotNull(subscriberBacklogPolicy, "A JsonCache cannot have a null subscriberBacklogPolicy")
+    require(ingestionBatchSize > 0, "A JsonCache ingestionBatchSize must be > 0")
+    requireNotNull(options, "A JsonCache cannot have null options")
+    requireNotNull(cache, "A JsonCache cannot be created with a null Cache")
+
+    new ScalaJsonCache(
+      cacheId, subscriberBacklogLimit, subscriberBacklogPolicy, ingestionBatchSize, mergeBatchChangeSets, sharedFanOut,
+      options, cache
+    )
+  }
+
+  override def replayJournal(
+    cache: Cache,
+    journalDirectory: Path
+  ): Cache = {
+
+    requireNotNull(cache, "Cannot replay a journal onto a null Cache")
+    requireNotNull(journalDirectory, "Cannot replay a journal from a null directory")
+
+    ScalaCacheJournal.replay(cache, journalDirectory)
+  }
+
+  override def getShardedJsonCache(
+    cacheId: String,
+    subscriberBacklogLimit: Int,
+    ingestionBatchSize: Int,
+    shardCount: Int,
+    cache: Cache
   ): JsonCache = {
 
     requireNotNull(cacheId, "A JsonCache cannot have a null id")
     require(subscriberBacklogLimit > 0, "A JsonCache subscriberBacklogLimit must be > 0")
+    require(ingestionBatchSize > 0, "A JsonCache ingestionBatchSize must be > 0")
+    require(shardCount > 0, "A sharded JsonCache shardCount must be > 0")
     requireNotNull(cache, "A JsonCache cannot be created with a null Cache")
 
-    new ScalaJsonCache(cacheId, subscriberBacklogLimit, cache)
+    new ScalaShardedJsonCache(cacheId, subscriberBacklogLimit, ingestionBatchSize, shardCount, cache)
   }
 }
 
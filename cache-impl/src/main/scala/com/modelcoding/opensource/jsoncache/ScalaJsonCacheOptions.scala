@@ -0,0 +1,41 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import java.nio.file.Path
+import java.util.{Optional, OptionalLong}
+
+import ScalaJsonCacheModule._
+
+/**
+ * The optional features of a JsonCache - immutable, each feature added giving new options.
+ */
+private[jsoncache] class ScalaJsonCacheOptions(
+  journalDirectory: Option[Path],
+  memoryBudget: Option[Long]
+)
+  extends JsonCacheOptions {
+
+  override def getJournalDirectory: Optional[Path] = Optional.ofNullable(journalDirectory.orNull)
+
+  override def withJournal(journalDirectory: Path): JsonCacheOptions = {
+
+    requireNotNull(journalDirectory, "A JsonCache cannot have a null journal directory")
+
+    new ScalaJsonCacheOptions(Some(journalDirectory), memoryBudget)
+  }
+
+  override def getMemoryBudget: OptionalLong = memoryBudget.fold(OptionalLong.empty()) { b => OptionalLong.of(b) }
+
+  override def withMemoryBudget(memoryBudget: Long): JsonCacheOptions = {
+
+    require(memoryBudget > 0, "A JsonCache memoryBudget must be > 0")
+
+    new ScalaJsonCacheOptions(journalDirectory, Some(memoryBudget))
+  }
+}
+
+private[jsoncache] object ScalaJsonCacheOptions {
+
+  val none: JsonCacheOptions = new ScalaJsonCacheOptions(None, None)
+}
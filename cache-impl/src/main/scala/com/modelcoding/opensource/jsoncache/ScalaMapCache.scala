@@ -0,0 +1,133 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+import java.util
+import java.util.{Collections, UUID}
+
+import scala.collection.JavaConverters._
+import ScalaJsonCacheModule._
+import com.modelcoding.opensource.jsoncache.Cache._
+
+/**
+ * A Cache backed by a persistent Scala Map of its objects keyed on their ids - the backing ScalaCache had before its
+ * hash trie, kept so that the benchmarks can compare the two.
+ * <p>
+ * Objects are found by type by scanning all the objects.
+ */
+class ScalaMapCache(content: Map[String, CacheObject]) extends Cache {
+
+  // Computed at most once for this (immutable) version of the cache, and shared by all callers
+  private lazy val image: CacheChangeSet =
+    ScalaCacheChangeSet.image(UUID.randomUUID.toString, content.values.toSet.asJava)
+
+  override def getImage: CacheChangeSet = image
+
+  override def getImage(
+    cacheObjectTypes: util.Set[String]
+  ): CacheChangeSet = {
+
+    requireNotNull(cacheObjectTypes, "Cannot get image of cache for null set of types")
+    cacheObjectTypes.forEach { cacheObjectType => requireNotNull(cacheObjectType, "Cannot get image of cache for null type") }
+
+    ScalaCacheChangeSet.image(
+      UUID.randomUUID.toString, content.values.filter { o => cacheObjectTypes.contains(o.getType) }.toSet.asJava
+    )
+  }
+
+  override def getCacheObjectsByType(
+    cacheObjectType: String
+  ): util.Set[_ <: CacheObject] = {
+
+    requireNotNull(cacheObjectType, "Cannot get objects from cache with null type")
+
+    content.values.filter { o => o.getType == cacheObjectType }.toSet.asJava
+  }
+
+  override def containsCacheObject(cacheObjectId: String): Boolean = {
+
+    requireNotNull(cacheObjectId, "Cannot check cache for object with null id")
+
+    content.contains(cacheObjectId)
+  }
+
+  override def getCacheObject(
+    cacheObjectId: String
+  ): CacheObject = {
+
+    requireNotNull(cacheObjectId, "Cannot get object from cache with null id")
+    require(containsCacheObject(cacheObjectId), "cacheObjectId not found in Cache")
+
+    content(cacheObjectId)
+  }
+
+  override def put(
+    cacheObject: CacheObject
+  ): PutResult = {
+
+    requireNotNull(cacheObject, "Cannot put null object into cache")
+
+    val action: PutAction = if(content.contains(cacheObject.getId)) PutAction.REPLACED else PutAction.ADDED
+
+    ScalaPutResult(new ScalaMapCache(content + (cacheObject.getId -> cacheObject)), action)
+  }
+
+  override def remove(
+    cacheRemove: CacheRemove
+  ): RemoveResult = {
+
+    requireNotNull(cacheRemove, "Cannot remove from cache using null remove")
+
+    if(!containsCacheObject(cacheRemove.getId))
+      ScalaRemoveResult(this, RemoveAction.NO_CHANGE)
+    else
+      ScalaRemoveResult(new ScalaMapCache(content - cacheRemove.getId), RemoveAction.REMOVED)
+  }
+
+  override def putAll(
+    cacheObjects: util.Set[_ <: CacheObject]
+  ): PutAllResult = {
+
+    requireNotNull(cacheObjects, "Cannot put null set of objects into cache")
+
+    if(cacheObjects.isEmpty)
+      return ScalaPutAllResult(this, Collections.emptyMap())
+
+    val actions: util.Map[String, PutAction] = new util.HashMap[String, PutAction]()
+    val nextContent: Map[String, CacheObject] = cacheObjects.asScala.foldLeft(content) { (c, cacheObject) =>
+      requireNotNull(cacheObject, "Cannot put null object into cache")
+      actions.put(cacheObject.getId, if(c.contains(cacheObject.getId)) PutAction.REPLACED else PutAction.ADDED)
+      c + (cacheObject.getId -> cacheObject)
+    }
+
+    ScalaPutAllResult(new ScalaMapCache(nextContent), Collections.unmodifiableMap(actions))
+  }
+
+  override def removeAll(
+    cacheRemoves: util.Set[_ <: CacheRemove]
+  ): RemoveAllResult = {
+
+    requireNotNull(cacheRemoves, "Cannot remove from cache using null set of removes")
+
+    val actions: util.Map[String, RemoveAction] = new util.HashMap[String, RemoveAction]()
+    val nextContent: Map[String, CacheObject] = cacheRemoves.asScala.foldLeft(content) { (c, cacheRemove) =>
+      requireNotNull(cacheRemove, "Cannot remove from cache using null remove")
+      actions.put(cacheRemove.getId, if(c.contains(cacheRemove.getId)) RemoveAction.REMOVED else RemoveAction.NO_CHANGE)
+      c - cacheRemove.getId
+    }
+
+    ScalaRemoveAllResult(
+      if(nextContent.size < content.size) new ScalaMapCache(nextContent) else this,
+      Collections.unmodifiableMap(actions)
+    )
+  }
+}
+
+object ScalaMapCache {
+
+  def apply(cacheObjects: util.Set[_ <: CacheObject]): Cache = {
+
+    requireNotNull(cacheObjects, "A Cache cannot have null content")
+
+    new ScalaMapCache(Map()).putAll(cacheObjects).getCache
+  }
+}
@@ -0,0 +1,372 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import java.util
+import java.util.Collections
+import java.util.concurrent.atomic.AtomicInteger
+
+import akka.actor.{Actor, ActorRef, ActorSystem, Props, Terminated}
+import akka.stream.scaladsl.{Keep, Sink, Source}
+import akka.stream.{ActorMaterializer, OverflowStrategy}
+import org.reactivestreams.{Subscriber, Subscription}
+
+import scala.collection.JavaConverters._
+import scala.collection.mutable
+import ScalaJsonCacheModule._
+import com.modelcoding.opensource.jsoncache.JsonCache.SubscriberBacklogPolicy
+
+/**
+ * A JsonCache whose objects are partitioned by id hash across a number of shards - each shard owns the Cache of its
+ * objects, and applies its part of each change in parallel with the other shards.
+ * <p>
+ * Only cache change calculators can be applied, as the puts and removes they make can be split by shard up front: 
+ * given any other function, the JsonCache cancels its supplier and fails its subscribers.
+ * <p>
+ * Each shard publishes its changes directly to the stream of each subscriber. A subscriber's stream assembles the
+ * parts of an image from every shard into a single image, holding back any changes from shards that have supplied
+ * their part until the image is complete. Only one image is assembled at a time for a subscriber.
+ * <p>
+ * As the shards change independently, there is no one sequence of changes: change sets are not sequenced, and a
+ * subscriber resuming from a sequence number always starts with an image.
+ */
+class ScalaShardedJsonCache(
+  id: String,
+  backlogLimit: Int,
+  ingestionBatchSize: Int,
+  shardCount: Int,
+  aCache: Cache
+)(implicit system: ActorSystem)
+  extends JsonCache {
+
+  private case class RegisterCacheChangeSupplier(subscription: Subscription)
+  private case class FunctionApplied()
+  private case class PublishToSubscriber(subscriber: Subscriber[_ >: CacheChangeSet], types: Option[Set[String]])
+  private case class SendCacheImageToSubscriber(subscriber: Subscriber[_ >: CacheChangeSet])
+  private case class ImageAssembled(publisherActor: ActorRef)
+  private case class CompleteAllSubscribers()
+  private case class FailAllSubscribers(error: Throwable)
+  private case class RejectFunction(error: Throwable)
+  private case class ShardFinished()
+
+  private case class ChangeShard(changeSet: CacheChangeSet, remainingShards: AtomicInteger)
+  private case class AddPublisher(publisherActor: ActorRef, types: Option[Set[String]])
+  private case class SendShardImage(publisherActor: ActorRef)
+  private case class RemovePublisher(publisherActor: ActorRef)
+  private case class FinishShard()
+
+  private sealed trait ShardOutput
+  private case class ShardImage(shard: Int, image: CacheChangeSet) extends ShardOutput
+  private case class ShardChange(shard: Int, changeSet: CacheChangeSet) extends ShardOutput
+
+  private val coordinator: ActorRef = system.actorOf(Props(new CoordinatorActor))
+
+  private val shards: IndexedSeq[ActorRef] = {
+
+    val contents: IndexedSeq[util.Set[CacheObject]] = IndexedSeq.fill(shardCount)(new util.HashSet[CacheObject]())
+    aCache.getImage.getPuts.forEach { cacheObject => contents(shardFor(cacheObject.getId)).add(cacheObject) }
+
+    contents.indices.map { shard =>
+      system.actorOf(Props(new ShardActor(shard, ScalaCache.empty.putAll(contents(shard)).getCache)))
+    }
+  }
+
+  override def getId: String = id
+
+  override def getSubscriberBacklogLimit: Int = backlogLimit
+
+  override def getSubscriberBacklogPolicy: SubscriberBacklogPolicy = SubscriberBacklogPolicy.FAIL
+
+  override def getIngestionBatchSize: Int = ingestionBatchSize
+
+  override def isMergingBatchChangeSets: Boolean = false
+
+  override def isUsingSharedFanOut: Boolean = false
+
+  override def getOptions: JsonCacheOptions = ScalaJsonCacheOptions.none
+
+  def getShardCount: Int = shardCount
+
+  override def onNext(c: CacheFunctionInstance): Unit = {
+
+    requireNotNull(c, "Cannot apply null changes to a JsonCache")
+
+    c.getCode match {
+      case calculator: ScalaCacheChangeCalculatorFunction =>
+        val parts: Map[Int, CacheChangeSet] = split(calculator.getChangeSet)
+        if(parts.isEmpty)
+          coordinator ! FunctionApplied()
+        else {
+          val remainingShards: AtomicInteger = new AtomicInteger(parts.size)
+          parts.foreach { case (shard, part) => shards(shard) ! ChangeShard(part, remainingShards) }
+        }
+      case _                                              =>
+        // Not thrown, as a Subscriber must return normally from onNext
+        coordinator ! RejectFunction(new IllegalArgumentException("A sharded JsonCache can only apply cache change calculators"))
+    }
+  }
+
+  override def onSubscribe(s: Subscription): Unit = {
+
+    requireNotNull(s, "A JsonCache cannot receive a null Subscription")
+
+    coordinator ! RegisterCacheChangeSupplier(s)
+  }
+
+  override def onError(error: Throwable): Unit = {
+
+    requireNotNull(error, "A JsonCache cannot receive a null error")
+
+    coordinator ! FailAllSubscribers(error)
+  }
+
+  override def onComplete(): Unit = {
+
+    coordinator ! CompleteAllSubscribers()
+  }
+
+  override def subscribe(s: Subscriber[_ >: CacheChangeSet]): Unit = {
+
+    requireNotNull(s, "Cannot subscribe to a JsonCache with a null subscriber")
+
+    coordinator ! PublishToSubscriber(s, None)
+  }
+
+  override def subscribe(s: Subscriber[_ >: CacheChangeSet], cacheObjectTypes: util.Set[String]): Unit = {
+
+    requireNotNull(s, "Cannot subscribe to a JsonCache with a null subscriber")
+    requireNotNull(cacheObjectTypes, "Cannot subscribe to a JsonCache with a null set of types")
+
+    coordinator ! PublishToSubscriber(s, Some(cacheObjectTypes.asScala.toSet))
+  }
+
+  override def subscribe(s: Subscriber[_ >: CacheChangeSet], fromSequence: Long): Unit = subscribe(s)
+
+  override def sendImageToSubscriber(s: Subscriber[_ >: CacheChangeSet]): Unit = {
+
+    requireNotNull(s, "Cannot send images of a JsonCache to a null subscriber")
+
+    coordinator ! SendCacheImageToSubscriber(s)
+  }
+
+  private def shardFor(cacheObjectId: String): Int = {
+
+    val h: Int = cacheObjectId.hashCode
+    Math.floorMod(h ^ (h >>> 16), shardCount)
+  }
+
+  private def split(changeSet: CacheChangeSet): Map[Int, CacheChangeSet] = {
+
+    val puts: mutable.Map[Int, util.Set[CacheObject]] = mutable.Map()
+    val removes: mutable.Map[Int, util.Set[CacheRemove]] = mutable.Map()
+
+    changeSet.getPuts.forEach { put =>
+      puts.getOrElseUpdate(shardFor(put.getId), new util.HashSet[CacheObject]()).add(put)
+    }
+    changeSet.getRemoves.forEach { remove =>
+      removes.getOrElseUpdate(shardFor(remove.getId), new util.HashSet[CacheRemove]()).add(remove)
+    }
+
+    (puts.keySet ++ removes.keySet).map { shard =>
+      shard -> ScalaCacheChangeSet(
+        changeSet.getId,
+        puts.getOrElse(shard, Collections.emptySet[CacheObject]()),
+        removes.getOrElse(shard, ScalaCacheChangeSet.emptyRemoves),
+        isCacheImage = false
+      )
+    }.toMap
+  }
+
+  /**
+   * Assembles the parts of an image from every shard into a single image - see ScalaShardedJsonCache.
+   */
+  private class ImageAssembler {
+
+    @volatile var publisherActor: ActorRef = _
+
+    // The puts of the image of each shard received, viewed together (rather than copied) once all are received
+    private val puts    : Array[util.Set[_ <: CacheObject]]   = new Array(shardCount)
+    private val received: mutable.BitSet                      = mutable.BitSet()
+    private val heldBack: mutable.ArrayBuffer[CacheChangeSet] = mutable.ArrayBuffer()
+
+    def accept(output: ShardOutput): List[CacheChangeSet] = output match {
+
+      case ShardImage(shard, image) =>
+        puts(shard) = image.getPuts
+        received += shard
+        if(received.size < shardCount)
+          Nil
+        else {
+          val assembled: List[CacheChangeSet] =
+            ScalaCacheChangeSet.image(image.getId, new ScalaCacheObjectSetUnion(puts.toList)) :: heldBack.toList
+          puts.indices.foreach { i => puts(i) = null }
+          received.clear()
+          heldBack.clear()
+          coordinator ! ImageAssembled(publisherActor)
+          assembled
+        }
+
+      case ShardChange(shard, changeSet) =>
+        if(received.contains(shard)) {
+          heldBack += changeSet
+          Nil
+        }
+        else
+          List(changeSet)
+    }
+  }
+
+  private class ShardActor(shard: Int, aCache: Cache) extends Actor {
+
+    private val publishers: mutable.Map[ActorRef, Option[Set[String]]] = mutable.Map()
+    private var cache     : Cache                                      = aCache
+
+    override def receive: Receive = {
+
+      case ChangeShard(changeSet, remainingShards) =>
+        val result: CacheFunction.Result = new ScalaCacheChangeCalculatorFunction(changeSet).execute(cache)
+        if(cache ne result.getCache) {
+          val previousCache: Cache = cache
+          cache = result.getCache
+          publish(previousCache, result.getChangeSet)
+        }
+        if(remainingShards.decrementAndGet() == 0) coordinator ! FunctionApplied()
+
+      case AddPublisher(publisherActor, types) =>
+        publishers += (publisherActor -> types)
+        publisherActor ! ShardImage(shard, imageFor(types))
+
+      case SendShardImage(publisherActor) =>
+        publishers.get(publisherActor).foreach { types => publisherActor ! ShardImage(shard, imageFor(types)) }
+
+      case RemovePublisher(publisherActor) =>
+        publishers -= publisherActor
+
+      case FinishShard() =>
+        sender() ! ShardFinished()
+        context.stop(self)
+    }
+
+    private def publish(previousCache: Cache, changeSet: CacheChangeSet): Unit = {
+
+      val scopedChangeSets: mutable.Map[Set[String], Option[CacheChangeSet]] = mutable.Map()
+      publishers.foreach {
+        case (publisher, None)        =>
+          publisher ! ShardChange(shard, changeSet)
+        case (publisher, Some(types)) =>
+          scopedChangeSets.getOrElseUpdate(types, ScalaCacheChangeSet.scoped(previousCache, changeSet, types))
+            .foreach { scoped => publisher ! ShardChange(shard, scoped) }
+      }
+    }
+
+    private def imageFor(types: Option[Set[String]]): CacheChangeSet = types match {
+      case None    => cache.getImage
+      case Some(t) => cache.getImage(t.asJava)
+    }
+  }
+
+  private class CoordinatorActor extends Actor {
+
+    private implicit val materializer: ActorMaterializer = ActorMaterializer()(context)
+
+    private val publishers         : mutable.Map[ActorRef, StatefulSubscriber]              = mutable.Map()
+    private val subscribers        : mutable.Map[Subscriber[_ >: CacheChangeSet], ActorRef] = mutable.Map()
+    // Publishers with an image being assembled, mapped to whether another image has been requested meanwhile
+    private val imagesInProgress   : mutable.Map[ActorRef, Boolean]                         = mutable.Map()
+    private var cacheChangeSupplier: Subscription                                           = _
+    private var finishedShards     : Int                                                    = 0
+
+    override def receive: Receive = {
+
+      case FunctionApplied() =>
+        if(cacheChangeSupplier != null) cacheChangeSupplier.request(1)
+
+      case SendCacheImageToSubscriber(subscriber) =>
+        subscribers.get(subscriber).foreach { publisherActor =>
+          if(imagesInProgress.contains(publisherActor))
+            imagesInProgress += (publisherActor -> true)
+          else {
+            imagesInProgress += (publisherActor -> false)
+            shards.foreach { shard => shard ! SendShardImage(publisherActor) }
+          }
+        }
+
+      case ImageAssembled(publisherActor) =>
+        imagesInProgress.get(publisherActor).foreach { anotherRequested =>
+          if(anotherRequested) {
+            imagesInProgress += (publisherActor -> false)
+            shards.foreach { shard => shard ! SendShardImage(publisherActor) }
+          }
+          else
+            imagesInProgress -= publisherActor
+        }
+
+      case PublishToSubscriber(subscriber, types) =>
+        val assembler: ImageAssembler = new ImageAssembler
+        // Each shard image is one element, so allow a full image on top of backlogLimit change sets
+        val source: Source[CacheChangeSet, ActorRef] =
+          Source.actorRef[ShardOutput](backlogLimit + shardCount - 1, OverflowStrategy.fail).mapConcat(assembler.accept)
+        val (publisherActor, publisher) = source.toMat(Sink.asPublisher[CacheChangeSet](fanout = false))(Keep.both).run()
+        assembler.publisherActor = publisherActor
+        val statefulSubscriber = new StatefulSubscriber(subscriber)
+        publishers += (publisherActor -> statefulSubscriber)
+        subscribers += (subscriber -> publisherActor)
+        imagesInProgress += (publisherActor -> false)
+        context.watch(publisherActor) // Get notified when the publication is cancelled by subscriber: the publisherActor is terminated
+        shards.foreach { shard => shard ! AddPublisher(publisherActor, types) } // Each shard sends its part of the initial image
+        publisher.subscribe(statefulSubscriber)
+
+      case Terminated(publisherActor) =>
+        val subscriber = publishers(publisherActor)
+        publishers -= publisherActor
+        subscribers -= subscriber.delegate
+        imagesInProgress -= publisherActor
+        shards.foreach { shard => shard ! RemovePublisher(publisherActor) }
+        subscriber.onComplete() // explicit call to onComplete() - otherwise, no indication that publishing has finished
+
+      case RegisterCacheChangeSupplier(s) =>
+        cacheChangeSupplier = s
+        cacheChangeSupplier.request(ingestionBatchSize)
+
+      case FailAllSubscribers(error) =>
+        finishShards { s => s.onError(error) }
+
+      case RejectFunction(error) =>
+        if(cacheChangeSupplier != null) cacheChangeSupplier.cancel()
+        finishShards { s => s.onError(error) }
+
+      case CompleteAllSubscribers() =>
+        finishShards { s => s.onComplete() }
+    }
+
+    /**
+     * Lets every shard finish applying the changes already sent to it, before finishing all subscribers.
+     */
+    private def finishShards(finish: StatefulSubscriber => Unit): Unit = {
+
+      shards.foreach { shard => shard ! FinishShard() }
+      context.become {
+
+        case ShardFinished() =>
+          finishedShards += 1
+          if(finishedShards == shardCount) {
+            publishers.values.foreach(finish)
+            stopAndClearUp()
+          }
+
+        case Terminated(publisherActor) =>
+          publishers.remove(publisherActor).foreach { subscriber => subscriber.onComplete() }
+      }
+    }
+
+    private def stopAndClearUp(): Unit = {
+
+      publishers.keys.foreach { p => context.stop(p) }
+      context.stop(self)
+      publishers.clear()
+      subscribers.clear()
+      imagesInProgress.clear()
+      cacheChangeSupplier = null
+    }
+  }
+}
@@ -0,0 +1,28 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import org.reactivestreams.{Subscriber, Subscription}
+
+/**
+ * Wraps a subscriber to a JsonCache, so that it is not completed by the JsonCache after an error.
+ */
+private[jsoncache] class StatefulSubscriber(val delegate: Subscriber[_ >: CacheChangeSet]) extends Subscriber[CacheChangeSet] {
+
+  private var errorOccurred: Boolean = false
+
+  override def onError(t: Throwable): Unit = {
+
+    errorOccurred = true
+    delegate.onError(t)
+  }
+
+  override def onComplete(): Unit = {
+
+    if(!errorOccurred) delegate.onComplete()
+  }
+
+  override def onNext(t: CacheChangeSet): Unit = delegate.onNext(t)
+
+  override def onSubscribe(s: Subscription): Unit = delegate.onSubscribe(s)
+}
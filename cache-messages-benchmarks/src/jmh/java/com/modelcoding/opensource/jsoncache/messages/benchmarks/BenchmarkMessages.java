@@ -0,0 +1,157 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.messages.benchmarks;
+
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.modelcoding.opensource.jsoncache.CacheChangeSet;
+import com.modelcoding.opensource.jsoncache.CacheObject;
+import com.modelcoding.opensource.jsoncache.CacheRemove;
+import com.modelcoding.opensource.jsoncache.JsonCacheModule;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Change sets of a typical shape for the benchmarks to pass along the message path, and the ends of the reactive
+ * streams they are passed between.
+ */
+final class BenchmarkMessages {
+
+    private BenchmarkMessages() {
+    }
+
+    /**
+     * @return a change set of {@code size} changes - nine puts to each remove
+     */
+    static CacheChangeSet changeSet(final JsonCacheModule m, final String id, final int size) {
+
+        final Set<CacheObject> puts = new HashSet<>();
+        final Set<CacheRemove> removes = new HashSet<>();
+        for(int i = 0; i < size; i++) {
+            if(i % 10 == 9) {
+                removes.add(m.getCacheRemove("Id" + i));
+            }
+            else {
+                final ObjectNode content = JsonNodeFactory.instance.objectNode();
+                content.put("name", "Object " + i);
+                content.put("price", 100.0 + i % 1000 / 100.0);
+                content.put("quantity", i % 10000);
+                content.putObject("owner").put("desk", "Desk" + i % 50).put("region", "EMEA");
+                puts.add(m.getCacheObject("Id" + i, "Quote", content));
+            }
+        }
+        return m.getCacheChangeSet(id, puts, removes, false);
+    }
+
+    /**
+     * Publishes the given items, as requested, then nothing more - it does not complete, so that nothing still
+     * buffered downstream is cut short.
+     */
+    static final class ListPublisher<T> implements Publisher<T> {
+
+        private final List<T> items;
+
+        ListPublisher(final List<T> items) {
+
+            this.items = items;
+        }
+
+        @Override
+        public void subscribe(final Subscriber<? super T> subscriber) {
+
+            subscriber.onSubscribe(new Subscription() {
+
+                private int next = 0;
+                private long demand = 0;
+                private boolean emitting = false;
+                private volatile boolean cancelled = false;
+
+                @Override
+                public synchronized void request(final long n) {
+
+                    demand = demand + n < 0 ? Long.MAX_VALUE : demand + n;
+                    if(emitting) return; // Called from onNext - the loop below takes up the demand
+                    emitting = true;
+                    while(demand > 0 && next < items.size() && !cancelled) {
+                        demand--;
+                        subscriber.onNext(items.get(next++));
+                    }
+                    emitting = false;
+                }
+
+                @Override
+                public void cancel() {
+
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    /**
+     * Requests {@code batch} items at a time, counting down a latch for each item received. An error received releases
+     * the latch, and is rethrown by {@link #awaitReceived()}, failing the benchmark.
+     */
+    static final class CountingSubscriber<T> implements Subscriber<T> {
+
+        private final long batch;
+        private final CountDownLatch received;
+        private Subscription subscription;
+        private long outstanding;
+        private volatile Throwable error;
+
+        CountingSubscriber(final long batch, final CountDownLatch received) {
+
+            this.batch = batch;
+            this.received = received;
+        }
+
+        @Override
+        public void onSubscribe(final Subscription s) {
+
+            subscription = s;
+            outstanding = batch;
+            s.request(batch);
+        }
+
+        @Override
+        public void onNext(final T item) {
+
+            received.countDown();
+            if(--outstanding == 0) {
+                outstanding = batch;
+                subscription.request(batch);
+            }
+        }
+
+        @Override
+        public void onError(final Throwable t) {
+
+            error = t;
+            while(received.getCount() > 0) received.countDown();
+        }
+
+        @Override
+        public void onComplete() {
+        }
+
+        void awaitReceived() throws Exception {
+
+            received.await();
+            if(error instanceof Error) throw (Error) error;
+            if(error instanceof Exception) throw (Exception) error;
+            if(error != null) throw new Exception(error);
+        }
+
+        void cancel() {
+
+            subscription.cancel();
+        }
+    }
+}
@@ -0,0 +1,101 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.messages.benchmarks;
+
+import akka.actor.ActorSystem;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.modelcoding.opensource.jsoncache.CacheChangeSet;
+import com.modelcoding.opensource.jsoncache.CacheMessage;
+import com.modelcoding.opensource.jsoncache.JsonCacheModule;
+import com.modelcoding.opensource.jsoncache.ScalaJsonCacheModule;
+import com.modelcoding.opensource.jsoncache.messages.CacheChangeSetFrame;
+import com.modelcoding.opensource.jsoncache.messages.CacheChangeSetFrameAssembler;
+import com.modelcoding.opensource.jsoncache.messages.JsonCacheMessagesModule;
+import com.modelcoding.opensource.jsoncache.messages.ScalaJsonCacheMessagesModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static com.modelcoding.opensource.jsoncache.messages.benchmarks.BenchmarkMessages.*;
+
+/**
+ * A change set of {@code frameSize} changes, framed as messages and written as JSON text; and the JSON text read back,
+ * and reassembled into a change set - as on each side of a connection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class CacheMessageCodecBenchmark {
+
+    @Param({"10", "1000", "10000"})
+    public int frameSize;
+
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private ActorSystem system;
+    private JsonCacheMessagesModule g;
+    private CacheChangeSet changeSet;
+    private List<String> encoded;
+    private CacheChangeSetFrameAssembler assembler;
+    private CacheChangeSetFrame assembled;
+
+    @Setup
+    public void setup() throws IOException {
+
+        system = ActorSystem.create("CacheMessageCodecBenchmark");
+        final JsonCacheModule m = new ScalaJsonCacheModule(system);
+        g = new ScalaJsonCacheMessagesModule(m, system);
+        changeSet = changeSet(m, "frame", frameSize);
+        encoded = encode();
+        assembler = g.getCacheChangeSetFrameAssembler();
+        assembler.connect(frame -> assembled = frame);
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        system.terminate();
+    }
+
+    @Benchmark
+    public List<String> encode() throws IOException {
+
+        final List<CacheMessage> messages = g.getCacheChangeSetFrame(changeSet).getMessages();
+        final List<String> json = new ArrayList<>(messages.size());
+        for(final CacheMessage message : messages) {
+            json.add(mapper.writeValueAsString(message.asJsonNode()));
+        }
+        return json;
+    }
+
+    @Benchmark
+    public CacheChangeSet decode() throws IOException {
+
+        return decode(encoded);
+    }
+
+    @Benchmark
+    public CacheChangeSet roundTrip() throws IOException {
+
+        return decode(encode());
+    }
+
+    private CacheChangeSet decode(final List<String> json) throws IOException {
+
+        for(final String message : json) {
+            assembler.onCacheMessage(assembler.getCacheMessage(mapper.readTree(message)));
+        }
+        return assembled.getCacheChangeSet();
+    }
+}
@@ -0,0 +1,151 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.messages.benchmarks;
+
+import akka.actor.ActorSystem;
+import com.modelcoding.opensource.jsoncache.CacheChangeSet;
+import com.modelcoding.opensource.jsoncache.CacheMessage;
+import com.modelcoding.opensource.jsoncache.JsonCacheModule;
+import com.modelcoding.opensource.jsoncache.ScalaJsonCacheModule;
+import com.modelcoding.opensource.jsoncache.messages.CacheChangeSetInputStream;
+import com.modelcoding.opensource.jsoncache.messages.CacheChangeSetOutputStream;
+import com.modelcoding.opensource.jsoncache.messages.JsonCacheMessagesModule;
+import com.modelcoding.opensource.jsoncache.messages.ScalaJsonCacheMessagesModule;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static com.modelcoding.opensource.jsoncache.messages.benchmarks.BenchmarkMessages.*;
+
+/**
+ * Messages per second through the reactive output and input streams, with their subscribers requesting
+ * {@code demand} items at a time.
+ * <p>
+ * Each operation passes {@value #CHANGE_SETS} change sets of {@value #CHANGE_SET_SIZE} changes - each framed as
+ * {@value #MESSAGES_PER_CHANGE_SET} messages - through a new pipeline.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class CacheMessageStreamBenchmark {
+
+    private static final int CHANGE_SETS             = 1000;
+    private static final int CHANGE_SET_SIZE         = 10;
+    private static final int MESSAGES_PER_CHANGE_SET = CHANGE_SET_SIZE + 2; // With start and end of frame
+    private static final int MESSAGES                = CHANGE_SETS * MESSAGES_PER_CHANGE_SET;
+
+    @Param({"1", "16", "1024"})
+    public long demand;
+
+    private ActorSystem system;
+    private JsonCacheMessagesModule g;
+    private List<CacheChangeSet> changeSets;
+    private List<CacheMessage> messages;
+
+    @Setup
+    public void setup() {
+
+        system = ActorSystem.create("CacheMessageStreamBenchmark");
+        final JsonCacheModule m = new ScalaJsonCacheModule(system);
+        g = new ScalaJsonCacheMessagesModule(m, system);
+        changeSets = new ArrayList<>(CHANGE_SETS);
+        messages = new ArrayList<>(MESSAGES);
+        for(int i = 0; i < CHANGE_SETS; i++) {
+            final CacheChangeSet changeSet = changeSet(m, "changeSet" + i, CHANGE_SET_SIZE);
+            changeSets.add(changeSet);
+            messages.addAll(g.getCacheChangeSetFrame(changeSet).getMessages());
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+
+        system.terminate();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void outputStream() throws Exception {
+
+        final CountDownLatch received = new CountDownLatch(MESSAGES);
+        final CountingSubscriber<CacheMessage> subscriber = new CountingSubscriber<>(demand, received);
+        output(new ListPublisher<>(changeSets)).subscribe(subscriber);
+        subscriber.awaitReceived();
+        subscriber.cancel();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void inputStream() throws Exception {
+
+        final CountDownLatch received = new CountDownLatch(CHANGE_SETS);
+        final CountingSubscriber<CacheChangeSet> subscriber = new CountingSubscriber<>(demand, received);
+        input(new ListPublisher<>(messages)).subscribe(subscriber);
+        subscriber.awaitReceived();
+        subscriber.cancel();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MESSAGES)
+    public void outputToInputStream() throws Exception {
+
+        final CountDownLatch received = new CountDownLatch(CHANGE_SETS);
+        final CountingSubscriber<CacheChangeSet> subscriber = new CountingSubscriber<>(demand, received);
+        input(output(new ListPublisher<>(changeSets))).subscribe(subscriber);
+        subscriber.awaitReceived();
+        subscriber.cancel();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Publisher<CacheMessage> output(final Publisher<CacheChangeSet> changeSets) throws InterruptedException {
+
+        final PublisherHolder<CacheMessage> holder = new PublisherHolder<>();
+        final CacheChangeSetOutputStream stream = g.getCacheChangeSetOutputStream();
+        changeSets.subscribe((Subscriber<CacheChangeSet>) stream.getCacheChangeSetSubscriber(holder::set));
+        return holder.get();
+    }
+
+    @SuppressWarnings("unchecked")
+    private Publisher<CacheChangeSet> input(final Publisher<CacheMessage> messages) throws InterruptedException {
+
+        final PublisherHolder<CacheChangeSet> holder = new PublisherHolder<>();
+        final CacheChangeSetInputStream stream = g.getCacheChangeSetInputStream(g.getCacheChangeSetFrameAssembler());
+        messages.subscribe((Subscriber<CacheMessage>) stream.getCacheMessageSubscriber(holder::set));
+        return holder.get();
+    }
+
+    /**
+     * Holds the publisher handed to the observer of a stream, once the stream has been subscribed to its source.
+     */
+    private static final class PublisherHolder<T> {
+
+        private final CountDownLatch set = new CountDownLatch(1);
+        private volatile Publisher<T> publisher;
+
+        void set(final Publisher<T> publisher) {
+
+            this.publisher = publisher;
+            set.countDown();
+        }
+
+        Publisher<T> get() throws InterruptedException {
+
+            set.await();
+            return publisher;
+        }
+    }
+}
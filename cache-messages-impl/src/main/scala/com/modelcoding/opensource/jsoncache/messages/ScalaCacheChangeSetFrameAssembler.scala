@@ -4,13 +4,14 @@ package com.modelcoding.opensource.jsoncache.messages
 import java.util
 
 import com.fasterxml.jackson.databind.JsonNode
-import com.modelcoding.opensource.jsoncache.{CacheMessage, CacheObject, CacheRemove, JsonCacheModule}
+import com.modelcoding.opensource.jsoncache.{CacheChangeSet, CacheMessage, CacheObject, CacheObjectPatch, CacheRemove, JsonCacheModule}
 import com.modelcoding.opensource.jsoncache.messages.CacheChangeSetFrameAssembler.Receiver
 
 import scala.collection.mutable
 import scala.collection.JavaConverters._
 
-class ScalaCacheChangeSetFrameAssembler(implicit cacheModule: JsonCacheModule) extends CacheChangeSetFrameAssembler {
+class ScalaCacheChangeSetFrameAssembler(patchUpdates: Boolean)(implicit cacheModule: JsonCacheModule) 
+  extends CacheChangeSetFrameAssembler {
 
   private var receiver: Receiver = _
   
@@ -26,6 +27,13 @@ class ScalaCacheChangeSetFrameAssembler(implicit cacheModule: JsonCacheModule) e
   
   private val buffer: mutable.MutableList[CacheMessage] = mutable.MutableList()
 
+  // The puts and removes of a chunked frame, gathered as they are received rather than buffered
+  private var chunkedPuts   : util.Set[CacheObject] = new util.HashSet[CacheObject]()
+  private var chunkedRemoves: util.Set[CacheRemove] = new util.HashSet[CacheRemove]()
+
+  // When patchUpdates, the objects as of the last frame assembled, against which a CacheObjectPatch is applied
+  private val current: mutable.Map[String, CacheObject] = mutable.Map()
+
   private trait State {
     def onCacheMessage(cacheMessage: CacheMessage): Unit
   }
@@ -47,6 +55,20 @@ class ScalaCacheChangeSetFrameAssembler(implicit cacheModule: JsonCacheModule) e
     buffer.head.asInstanceOf[StartOfCacheChangeSet].getId
   }
   
+  /**
+   * Brings current up to date with the frame in the buffer.
+   */
+  private def update(isCacheImage: Boolean): Unit = {
+
+    if(isCacheImage) current.clear()
+
+    buffer.foreach {
+      case put: CacheObject    => current.put(put.getId, put)
+      case remove: CacheRemove => current.remove(remove.getId)
+      case _                   =>
+    }
+  }
+
   private case class ExpectingStart() extends State {
 
     override def onCacheMessage(cacheMessage: CacheMessage): Unit = {
@@ -56,7 +78,9 @@ class ScalaCacheChangeSetFrameAssembler(implicit cacheModule: JsonCacheModule) e
       else
         throw new IllegalArgumentException(s"Expecting ${classOf[StartOfCacheChangeSet].getSimpleName}, but received $cacheMessage")
     
-      if(numPuts() > 0)
+      if(cacheMessage.asInstanceOf[StartOfCacheChangeSet].isChunked)
+        state = ExpectingChunkedPuts()
+      else if(numPuts() > 0)
         state = ExpectingPuts(1+numPuts())
       else if(numRemoves() > 0)
         state = ExpectingRemoves(1+numRemoves())
@@ -69,10 +93,7 @@ class ScalaCacheChangeSetFrameAssembler(implicit cacheModule: JsonCacheModule) e
 
     override def onCacheMessage(cacheMessage: CacheMessage): Unit = {
       
-      if(cacheMessage.isInstanceOf[CacheObject])
-        buffer += cacheMessage
-      else
-        throw new IllegalArgumentException(s"Expecting ${classOf[CacheObject].getSimpleName}, but received $cacheMessage")
+      buffer += put(cacheMessage)
       
       if(buffer.size == transitionSize) {
         if(numRemoves() > 0)
@@ -107,14 +128,11 @@ class ScalaCacheChangeSetFrameAssembler(implicit cacheModule: JsonCacheModule) e
       else
         throw new IllegalArgumentException(s"Expecting ${classOf[EndOfCacheChangeSet].getSimpleName}, but received $cacheMessage")
 
-      val receivedId: String = cacheMessage.asInstanceOf[EndOfCacheChangeSet].getId
-      val expectedId: String = id()
-      
-      if(expectedId != receivedId)    
-        throw new IllegalArgumentException(s"Expecting ${classOf[EndOfCacheChangeSet].getSimpleName} with id of $expectedId, but found $receivedId in received $cacheMessage")
+      checkEnd(cacheMessage.asInstanceOf[EndOfCacheChangeSet])
       
       val messages: util.List[CacheMessage] = buffer.toList.asJava
       
+      if(patchUpdates) update(buffer.head.asInstanceOf[StartOfCacheChangeSet].isCacheImage)
       receiver.onCacheChangeSetFrame(new ScalaCacheChangeSetFrameWrappingMessages(messages))
       buffer.clear()
       
@@ -122,6 +140,84 @@ class ScalaCacheChangeSetFrameAssembler(implicit cacheModule: JsonCacheModule) e
     }
   }
 
+  private case class ExpectingChunkedPuts() extends State {
+
+    override def onCacheMessage(cacheMessage: CacheMessage): Unit = cacheMessage match {
+
+      case end: EndOfCacheChangeSet =>
+        endChunked(end)
+      case remove: CacheRemove      =>
+        chunkedRemoves.add(remove)
+        state = ExpectingChunkedRemoves()
+      case _                        =>
+        chunkedPuts.add(put(cacheMessage))
+    }
+  }
+
+  private case class ExpectingChunkedRemoves() extends State {
+
+    override def onCacheMessage(cacheMessage: CacheMessage): Unit = cacheMessage match {
+
+      case end: EndOfCacheChangeSet =>
+        endChunked(end)
+      case remove: CacheRemove      =>
+        chunkedRemoves.add(remove)
+      case _                        =>
+        throw new IllegalArgumentException(
+          s"Expecting ${classOf[CacheRemove].getSimpleName} or ${classOf[EndOfCacheChangeSet].getSimpleName}, but received $cacheMessage"
+        )
+    }
+  }
+
+  /**
+   * @return the object put by the given message - a CacheObject, or a CacheObjectPatch of an object in current
+   */
+  private def put(cacheMessage: CacheMessage): CacheObject = cacheMessage match {
+    
+    case put: CacheObject                         =>
+      put
+    case patch: CacheObjectPatch if !patchUpdates =>
+      throw new IllegalArgumentException(s"Received $patch, but not expecting patches")
+    case patch: CacheObjectPatch                  =>
+      val previous: CacheObject = current.getOrElse(
+        patch.getId,
+        throw new IllegalArgumentException(s"Received $cacheMessage for an object not previously received")
+      )
+      patch.applyTo(previous)
+    case _                                        =>
+      throw new IllegalArgumentException(
+        s"Expecting ${classOf[CacheObject].getSimpleName} or ${classOf[CacheObjectPatch].getSimpleName}, but received $cacheMessage"
+      )
+  }
+
+  private def checkEnd(end: EndOfCacheChangeSet): Unit = {
+
+    val receivedId: String = end.getId
+    val expectedId: String = id()
+
+    if(expectedId != receivedId)    
+      throw new IllegalArgumentException(s"Expecting ${classOf[EndOfCacheChangeSet].getSimpleName} with id of $expectedId, but found $receivedId in received $end")
+  }
+
+  private def endChunked(end: EndOfCacheChangeSet): Unit = {
+
+    checkEnd(end)
+
+    val image: CacheChangeSet = cacheModule.getCacheChangeSet(id(), chunkedPuts, chunkedRemoves, true)
+
+    // Without patchUpdates nothing but the image holds its objects
+    if(patchUpdates) {
+      current.clear()
+      chunkedPuts.forEach { cacheObject => current.put(cacheObject.getId, cacheObject) }
+    }
+    receiver.onCacheChangeSetFrame(new ScalaCacheChangeSetFrameWrappingChangeSet(image))
+    buffer.clear()
+    chunkedPuts = new util.HashSet[CacheObject]()
+    chunkedRemoves = new util.HashSet[CacheRemove]()
+
+    state = ExpectingStart()
+  }
+
   override def onCacheMessage(cacheMessage: CacheMessage): Unit = {
     
     if(receiver == null)
@@ -152,6 +248,10 @@ class ScalaCacheChangeSetFrameAssembler(implicit cacheModule: JsonCacheModule) e
       val isCacheImage_json: JsonNode = json.get("isCacheImage")
       if(isCacheImage_json != null)
         return cacheModule.getCacheChangeSet(json)
+
+      val patch_json: JsonNode = json.get("patch")
+      if(patch_json != null)
+        return cacheModule.getCacheObjectPatch(json)
       
       return cacheModule.getCacheRemove(json)
     }
@@ -4,14 +4,15 @@ package com.modelcoding.opensource.jsoncache.messages
 
 import akka.actor.{Actor, ActorRef, ActorSystem, Props}
 import com.modelcoding.opensource.jsoncache.messages.ScalaJsonCacheMessagesModule.requireNotNull
-import com.modelcoding.opensource.jsoncache.{CacheChangeSet, CacheMessage}
+import com.modelcoding.opensource.jsoncache.{CacheChangeSet, CacheMessage, CacheObject, CacheRemove, JsonCacheModule}
 import org.reactivestreams.{Publisher, Subscriber, Subscription}
 
 import scala.collection.mutable
 
 import scala.collection.JavaConverters._
 
-class ScalaCacheChangeSetOutputStream(implicit system: ActorSystem)
+class ScalaCacheChangeSetOutputStream(patchUpdates: Boolean, imageChunkSize: Option[Int])
+  (implicit system: ActorSystem, cacheModule: JsonCacheModule)
 extends CacheChangeSetOutputStream {
 
   private val setupSync: Object = new Object()
@@ -100,6 +101,12 @@ extends CacheChangeSetOutputStream {
     private val cacheMessages: mutable.Buffer[CacheMessage] = mutable.Buffer() 
     private var cacheMessageDemand: Long = 0
 
+    // When imageChunkSize is defined, the messages of the cache image being output not yet taken into cacheMessages
+    private var imageMessages: Iterator[CacheMessage] = Iterator.empty
+
+    // When patchUpdates, the last version of each object output - the version the subscriber has
+    private val delivered: mutable.Map[String, CacheObject] = mutable.Map()
+
     override def receive: Receive = {
 
       case OnSubscribedToCacheChangeSets(subscription) =>
@@ -145,24 +152,34 @@ extends CacheChangeSetOutputStream {
       withHandlingOfFinishedStreams({
 
         case OnCacheMessagesRequested(numRequested) =>
-          if(cacheMessages.isEmpty && cacheMessageDemand == 0) {
+          if(!hasMessages && cacheMessageDemand == 0) {
             inputSubscription.request(1)
           }
           cacheMessageDemand += numRequested
-          if(cacheMessages.nonEmpty) {
+          if(hasMessages) {
             self ! OutputCacheMessages()
           }
 
         case OnInput(cacheChangeSet) =>
-          cacheMessages.appendAll(new ScalaCacheChangeSetFrameWrappingChangeSet(cacheChangeSet).getMessages.asScala)
+          if(imageChunkSize.isDefined && cacheChangeSet.isCacheImage)
+            imageMessages = chunkedMessagesFor(cacheChangeSet)
+          else
+            cacheMessages.appendAll(messagesFor(cacheChangeSet))
           self ! OutputCacheMessages()
 
         case OutputCacheMessages() =>
+          if(cacheMessages.isEmpty && cacheMessageDemand > 0 && imageMessages.hasNext) {
+            takeImageChunk()
+          }
           while(cacheMessageDemand > 0 && cacheMessages.nonEmpty) {
             outputSubscriber.onNext(cacheMessages.remove(0))
             cacheMessageDemand -= 1
           }
-          if(cacheMessages.isEmpty && cacheMessageDemand > 0) {
+          if(imageMessages.hasNext && cacheMessageDemand > 0) {
+            // Output the next chunk on a later turn, so that a cancel is not held up behind a whole image
+            self ! OutputCacheMessages()
+          }
+          else if(!hasMessages && cacheMessageDemand > 0) {
             inputSubscription.request(1)
           }
 
@@ -171,6 +188,60 @@ extends CacheChangeSetOutputStream {
       })
     }
 
+    private def hasMessages: Boolean = cacheMessages.nonEmpty || imageMessages.hasNext
+
+    private def takeImageChunk(): Unit = {
+
+      var taken: Int = 0
+      while(taken < imageChunkSize.getOrElse(Int.MaxValue) && imageMessages.hasNext) {
+        cacheMessages += imageMessages.next()
+        taken += 1
+      }
+    }
+
+    // The messages of a chunked frame of the image, produced only as they are taken
+    private def chunkedMessagesFor(image: CacheChangeSet): Iterator[CacheMessage] = {
+
+      // An image replaces all the subscriber has, so is always sent in full
+      if(patchUpdates) delivered.clear()
+
+      val puts: Iterator[CacheMessage] = image.getPuts.iterator.asScala.map { put =>
+        if(patchUpdates) delivered.put(put.getId, put)
+        put
+      }
+
+      Iterator[CacheMessage](ScalaStartOfCacheChangeSet(image, chunked = true)) ++
+        puts ++
+        image.getRemoves.iterator.asScala ++
+        Iterator[CacheMessage](ScalaEndOfCacheChangeSet(image))
+    }
+
+    private def messagesFor(cacheChangeSet: CacheChangeSet): Seq[CacheMessage] = {
+
+      val messages: Seq[CacheMessage] = new ScalaCacheChangeSetFrameWrappingChangeSet(cacheChangeSet).getMessages.asScala
+
+      if(!patchUpdates)
+        messages
+      else if(cacheChangeSet.isCacheImage) {
+        // An image replaces all the subscriber has, so is always sent in full
+        delivered.clear()
+        cacheChangeSet.getPuts.forEach { put => delivered.put(put.getId, put) }
+        messages
+      }
+      else messages.map {
+        case put: CacheObject    =>
+          delivered.put(put.getId, put) match {
+            case Some(previous) => ScalaCacheObjectPatches.patchOrPut(previous, put)
+            case None           => put
+          }
+        case remove: CacheRemove =>
+          delivered.remove(remove.getId)
+          remove
+        case message             =>
+          message
+      }
+    }
+
     private def withHandlingOfFinishedStreams(rules: PartialFunction[Any, Unit]): PartialFunction[Any, Unit] =
       rules orElse handleFinishedStreams
 
@@ -0,0 +1,70 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.messages
+
+import com.fasterxml.jackson.databind.JsonNode
+import com.fasterxml.jackson.databind.node.{JsonNodeFactory, ObjectNode}
+import com.modelcoding.opensource.jsoncache.{CacheMessage, CacheObject, JsonCacheModule}
+
+import scala.collection.JavaConverters._
+
+/**
+ * Creates JSON merge patches (RFC 7386) turning the content of one version of a CacheObject into the next.
+ */
+object ScalaCacheObjectPatches {
+
+  /**
+   * @return a CacheObjectPatch for updated, if previous has the same type and the change in content can be expressed
+   *         as a merge patch; otherwise, updated itself
+   */
+  def patchOrPut(previous: CacheObject, updated: CacheObject)(implicit cacheModule: JsonCacheModule): CacheMessage = {
+
+    if(previous.getType != updated.getType)
+      return updated
+
+    diff(previous.getContent, updated.getContent) match {
+      case Some(patch) => cacheModule.getCacheObjectPatch(updated.getId, patch)
+      case None        => updated
+    }
+  }
+
+  /**
+   * @return a merge patch turning source into target, or None if there is no such patch - a merge patch can only
+   *         patch an object, and cannot set a value of null in an object
+   */
+  def diff(source: JsonNode, target: JsonNode): Option[ObjectNode] = {
+
+    if(!source.isObject || !target.isObject)
+      return None
+
+    val patch: ObjectNode = JsonNodeFactory.instance.objectNode()
+
+    for(field <- target.fields.asScala) {
+      val name: String = field.getKey
+      val targetValue: JsonNode = field.getValue
+      val sourceValue: JsonNode = source.get(name)
+      if(sourceValue == null || sourceValue != targetValue) {
+        if(sourceValue != null && sourceValue.isObject && targetValue.isObject)
+          diff(sourceValue, targetValue) match {
+            case Some(nested) => patch.set(name, nested)
+            case None         => return None
+          }
+        else if(isPatchable(targetValue))
+          patch.set(name, targetValue)
+        else
+          return None
+      }
+    }
+
+    for(name <- source.fieldNames.asScala)
+      if(!target.has(name)) patch.putNull(name)
+
+    Some(patch)
+  }
+
+  /**
+   * @return true if value is reproduced by merging it into a value that is not an object
+   */
+  private def isPatchable(value: JsonNode): Boolean =
+    !value.isNull && (!value.isObject || value.elements.asScala.forall(isPatchable))
+}
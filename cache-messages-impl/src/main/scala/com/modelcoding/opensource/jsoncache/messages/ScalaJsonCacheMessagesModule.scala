@@ -19,6 +19,16 @@ class ScalaJsonCacheMessagesModule(implicit val jsonCacheModule: JsonCacheModule
     ScalaStartOfCacheChangeSet(cacheChangeSet)
   }
 
+  override def getStartOfCacheChangeSet(
+    cacheChangeSet: CacheChangeSet,
+    chunked: Boolean
+  ): StartOfCacheChangeSet = {
+    
+    requireNotNull(cacheChangeSet, "Cannot create StartOfCacheChangeSet from null cacheChangeSet")
+    
+    ScalaStartOfCacheChangeSet(cacheChangeSet, chunked)
+  }
+
   override def getStartOfCacheChangeSet(
     json: JsonNode
   ): StartOfCacheChangeSet = {
@@ -55,9 +65,27 @@ class ScalaJsonCacheMessagesModule(implicit val jsonCacheModule: JsonCacheModule
     new ScalaCacheChangeSetFrameWrappingChangeSet(cacheChangeSet)
   }
 
-  override def getCacheChangeSetOutputStream: CacheChangeSetOutputStream = new ScalaCacheChangeSetOutputStream()
+  override def getCacheChangeSetOutputStream: CacheChangeSetOutputStream = new ScalaCacheChangeSetOutputStream(false, None)
+
+  override def getCacheChangeSetOutputStream(
+    patchUpdates: Boolean
+  ): CacheChangeSetOutputStream = new ScalaCacheChangeSetOutputStream(patchUpdates, None)
+
+  override def getCacheChangeSetOutputStream(
+    patchUpdates: Boolean,
+    imageChunkSize: Int
+  ): CacheChangeSetOutputStream = {
+    
+    require(imageChunkSize > 0, "Cannot create CacheChangeSetOutputStream with an imageChunkSize < 1")
+    
+    new ScalaCacheChangeSetOutputStream(patchUpdates, Some(imageChunkSize))
+  }
+
+  override def getCacheChangeSetFrameAssembler: CacheChangeSetFrameAssembler = new ScalaCacheChangeSetFrameAssembler(false)
 
-  override def getCacheChangeSetFrameAssembler: CacheChangeSetFrameAssembler = new ScalaCacheChangeSetFrameAssembler()
+  override def getCacheChangeSetFrameAssembler(
+    patchUpdates: Boolean
+  ): CacheChangeSetFrameAssembler = new ScalaCacheChangeSetFrameAssembler(patchUpdates)
   
   override def getCacheChangeSetInputStream(
     frameAssembler: CacheChangeSetFrameAssembler
@@ -6,7 +6,13 @@ import com.fasterxml.jackson.databind.JsonNode
 import com.fasterxml.jackson.databind.node.{JsonNodeFactory, ObjectNode}
 import com.modelcoding.opensource.jsoncache.CacheChangeSet
 
-class ScalaStartOfCacheChangeSet(val getId: String, val isCacheImage: Boolean, val getNumPuts: Int, val getNumRemoves: Int) extends StartOfCacheChangeSet {
+class ScalaStartOfCacheChangeSet(
+  val getId: String, 
+  val isCacheImage: Boolean, 
+  val getNumPuts: Int, 
+  val getNumRemoves: Int, 
+  val isChunked: Boolean
+) extends StartOfCacheChangeSet {
 
   override def asJsonNode(): ObjectNode = {
 
@@ -15,8 +21,12 @@ class ScalaStartOfCacheChangeSet(val getId: String, val isCacheImage: Boolean, v
     json.put("frame", "start")
     json.put("id", getId)
     json.put("isCacheImage", isCacheImage)
-    json.put("numPuts", getNumPuts)
-    json.put("numRemoves", getNumRemoves)
+    if(isChunked)
+      json.put("chunked", true)
+    else {
+      json.put("numPuts", getNumPuts)
+      json.put("numRemoves", getNumRemoves)
+    }
 
     json
   }
@@ -26,12 +36,13 @@ class ScalaStartOfCacheChangeSet(val getId: String, val isCacheImage: Boolean, v
       getId == that.getId &&
       getNumPuts == that.getNumPuts &&
       getNumRemoves == that.getNumRemoves &&
-      isCacheImage == that.isCacheImage
+      isCacheImage == that.isCacheImage &&
+      isChunked == that.isChunked
     case _                    => false
   }
 
   override val hashCode: Int = {
-    val state = Seq(getNumPuts, getNumRemoves, isCacheImage, getId)
+    val state = Seq(getNumPuts, getNumRemoves, isCacheImage, isChunked, getId)
     state.map(_.hashCode()).foldLeft(0)((a, b) => 31 * a + b)
   }
 }
@@ -43,9 +54,20 @@ object ScalaStartOfCacheChangeSet {
       cacheChangeSet.getId, 
       cacheChangeSet.isCacheImage, 
       cacheChangeSet.getPuts.size(), 
-      cacheChangeSet.getRemoves.size()
+      cacheChangeSet.getRemoves.size(),
+      false
     )
   
+  def apply(cacheChangeSet: CacheChangeSet, chunked: Boolean): StartOfCacheChangeSet = {
+
+    if(!chunked)
+      return apply(cacheChangeSet)
+    
+    require(cacheChangeSet.isCacheImage, "Only a cache image can be framed in chunks")
+    
+    new ScalaStartOfCacheChangeSet(cacheChangeSet.getId, true, -1, -1, true)
+  }
+  
   def apply(json: JsonNode): StartOfCacheChangeSet = {
     
     if(json.isObject) {
@@ -59,19 +81,29 @@ object ScalaStartOfCacheChangeSet {
           val isCacheImage_json: JsonNode = json.get("isCacheImage")
           if(isCacheImage_json != null && isCacheImage_json.isBoolean) {
             
-            val puts_json: JsonNode = json.get("numPuts")
-            if(puts_json != null && puts_json.isNumber) {
+            val chunked_json: JsonNode = json.get("chunked")
+            if(chunked_json != null && chunked_json.isBoolean && chunked_json.asBoolean()) {
               
-              val removes_json: JsonNode = json.get("numRemoves")
-              if(removes_json != null && removes_json.isNumber) {
-          
-                return new ScalaStartOfCacheChangeSet(
-                  id_json.asText(),
-                  isCacheImage_json.asBoolean(),
-                  puts_json.asInt(),
-                  removes_json.asInt()
-                )
-              }              
+              if(isCacheImage_json.asBoolean())
+                return new ScalaStartOfCacheChangeSet(id_json.asText(), true, -1, -1, true)
+            }
+            else if(chunked_json == null || chunked_json.isBoolean) {
+
+              val puts_json: JsonNode = json.get("numPuts")
+              if(puts_json != null && puts_json.isNumber) {
+
+                val removes_json: JsonNode = json.get("numRemoves")
+                if(removes_json != null && removes_json.isNumber) {
+
+                  return new ScalaStartOfCacheChangeSet(
+                    id_json.asText(),
+                    isCacheImage_json.asBoolean(),
+                    puts_json.asInt(),
+                    removes_json.asInt(),
+                    false
+                  )
+                }              
+              }
             }
           }
         }
@@ -378,4 +378,154 @@ class CacheChangeSetFrameAssemblerSpecification extends Specification {
         then:
         thrown(IllegalArgumentException)
     }
+
+    @SuppressWarnings("GroovyAssignabilityCheck")
+    def "CacheChangeSetFrameAssembler assembles frames holding patches of objects received before"() {
+
+        setup:
+        def cacheChangeSetFrameAssembler = g.getCacheChangeSetFrameAssembler(true)
+        def changeSet1 = m.getCacheChangeSet(
+            "id1",
+            [
+                m.getCacheObject("A1", "AType", asJsonNode([price: 1, name: "A", detail: [size: 10, colour: "red"]])),
+                m.getCacheObject("B1", "BType", asJsonNode([name: "B"]))
+            ] as Set,
+            [
+            ] as Set,
+            true
+        )
+        def cacheChangeSetFrame1 = g.getCacheChangeSetFrame(changeSet1)
+        def patched = m.getCacheObject("A1", "AType", asJsonNode([price: 2, name: "A", detail: [size: 10]]))
+        def changeSet2 = m.getCacheChangeSet(
+            "id2",
+            [
+                patched
+            ] as Set,
+            [
+                m.getCacheRemove("B1")
+            ] as Set,
+            false
+        )
+        def patch = m.getCacheObjectPatch("A1", asJsonNode([price: 2, detail: [colour: null]]))
+        def changeSet3 = m.getCacheChangeSet(
+            "id3",
+            [
+                m.getCacheObject("B1", "BType", asJsonNode([name: "B2"]))
+            ] as Set,
+            [
+            ] as Set,
+            false
+        )
+        def receiver = Mock(Receiver)
+        cacheChangeSetFrameAssembler.connect(receiver)
+
+        expect: "a patch is decoded from JSON"
+        cacheChangeSetFrameAssembler.getCacheMessage(patch.asJsonNode()) == patch
+
+        when: "a frame holding the objects is received"
+        cacheChangeSetFrame1.messages.each { cacheChangeSetFrameAssembler.onCacheMessage(it) }
+
+        then:
+        1 * receiver.onCacheChangeSetFrame({ CacheChangeSetFrame frame -> messagesMatch(changeSet1, frame) })
+
+        when: "a frame holding a patch of one of the objects is received"
+        [
+            g.getStartOfCacheChangeSet(changeSet2),
+            cacheChangeSetFrameAssembler.getCacheMessage(patch.asJsonNode()),
+            m.getCacheRemove("B1"),
+            g.getEndOfCacheChangeSet(changeSet2)
+        ].each { cacheChangeSetFrameAssembler.onCacheMessage(it) }
+
+        then: "the frame holds the object patched"
+        1 * receiver.onCacheChangeSetFrame({ CacheChangeSetFrame frame ->
+
+            messagesMatch(changeSet2, frame) &&
+            frame.cacheChangeSet.puts.first().type == patched.type &&
+            frame.cacheChangeSet.puts.first().content == patched.content
+        })
+
+        when: "a patch is received by an assembler not expecting patches"
+        def unpatchedAssembler = g.cacheChangeSetFrameAssembler
+        unpatchedAssembler.connect(Mock(Receiver))
+        cacheChangeSetFrame1.messages.each { unpatchedAssembler.onCacheMessage(it) }
+        unpatchedAssembler.onCacheMessage(g.getStartOfCacheChangeSet(changeSet2))
+        unpatchedAssembler.onCacheMessage(patch)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when: "a patch of an object since removed is received"
+        cacheChangeSetFrameAssembler.onCacheMessage(g.getStartOfCacheChangeSet(changeSet3))
+        cacheChangeSetFrameAssembler.onCacheMessage(m.getCacheObjectPatch("B1", asJsonNode([name: "B2"])))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "CacheChangeSetFrameAssembler assembles chunked frames of cache images"() {
+
+        setup:
+        def cacheChangeSetFrameAssembler = g.getCacheChangeSetFrameAssembler(true)
+        def image = m.getCacheChangeSet(
+            "id1",
+            [
+                m.getCacheObject("A1", "AType", asJsonNode([price: 1])),
+                m.getCacheObject("B1", "BType", asJsonNode([name: "B"])),
+                m.getCacheObject("C1", "CType", asJsonNode([name: "C"]))
+            ] as Set,
+            [
+                m.getCacheRemove("D1")
+            ] as Set,
+            true
+        )
+        def changeSet = m.getCacheChangeSet(
+            "id2",
+            [
+                m.getCacheObject("A1", "AType", asJsonNode([price: 2]))
+            ] as Set,
+            [
+            ] as Set,
+            false
+        )
+        def chunkedMessages = 
+            [g.getStartOfCacheChangeSet(image, true)] + (image.puts as List) + (image.removes as List) + [g.getEndOfCacheChangeSet(image)]
+        def receiver = Mock(Receiver)
+        cacheChangeSetFrameAssembler.connect(receiver)
+
+        when: "all but the end of a chunked frame is received"
+        chunkedMessages.init().each { cacheChangeSetFrameAssembler.onCacheMessage(cacheChangeSetFrameAssembler.getCacheMessage(it.asJsonNode())) }
+
+        then: "receiver does not receive a frame"
+        0 * receiver.onCacheChangeSetFrame(_)
+
+        when: "the end of the frame is received"
+        cacheChangeSetFrameAssembler.onCacheMessage(chunkedMessages.last())
+
+        then: "the cache image is assembled"
+        1 * receiver.onCacheChangeSetFrame({ CacheChangeSetFrame frame ->
+            
+            frame.cacheChangeSet == image && frame.cacheChangeSet.cacheImage && messagesMatch(image, frame) 
+        })
+
+        when: "a patch of an object in the image is received"
+        [
+            g.getStartOfCacheChangeSet(changeSet),
+            m.getCacheObjectPatch("A1", asJsonNode([price: 2])),
+            g.getEndOfCacheChangeSet(changeSet)
+        ].each { cacheChangeSetFrameAssembler.onCacheMessage(it) }
+
+        then: "the frame holds the object patched"
+        1 * receiver.onCacheChangeSetFrame({ CacheChangeSetFrame frame ->
+
+            frame.cacheChangeSet.puts.first().content == asJsonNode([price: 2])
+        })
+
+        when: "a put follows a remove in a chunked frame"
+        cacheChangeSetFrameAssembler.onCacheMessage(g.getStartOfCacheChangeSet(image, true))
+        cacheChangeSetFrameAssembler.onCacheMessage(m.getCacheRemove("D1"))
+        cacheChangeSetFrameAssembler.onCacheMessage(m.getCacheObject("A1", "AType", asJsonNode([price: 1])))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
 }
@@ -231,6 +231,51 @@ class CacheChangeSetInputStreamSpecification extends Specification {
         }
     }
 
+    def "CacheChangeSetInputStream outputs a cache image assembled from a chunked frame"() {
+        
+        setup:
+        Components c = new Components()
+        def image = m.getCacheChangeSet(
+            "id1", 
+            (1..5).collect { m.getCacheObject("A" + it, "AType", asJsonNode([])) } as Set, 
+            [
+            ] as Set, 
+            true
+        )
+        def cacheMessages = 
+            [g.getStartOfCacheChangeSet(image, true)] + (image.puts as List) + [g.getEndOfCacheChangeSet(image)]
+
+        when: "Subscription is started with source of CacheMessages"
+        c.cacheMessageSubscriber.onSubscribe(c.cacheMessageSubscription)
+        
+        then: "CacheChangeSet subscriber is started"
+        c.cacheChangeSetSubscriber.awaitSubscribed()
+        
+        when: "CacheChangeSet subscriber requests a CacheChangeSet"
+        c.cacheChangeSetSubscriber.expectObjects(1)
+        c.cacheMessageSubscription.expectRequests(cacheMessages.size())
+        c.cacheMessageSubscription.outputOnRequest { int request ->
+            if(request < cacheMessages.size()) {
+                c.cacheMessageSubscriber.onNext(cacheMessages[request])
+            } else {
+                throw new IllegalStateException("Should not request more CacheMessages once demand for CacheChangeSet is fulfilled")   
+            }
+        }
+        c.cacheChangeSetSubscriber.subscription.request(1)
+        
+        then: "Requests for CacheMessages are made until the end of the frame, and the cache image is output"
+        c.cacheMessageSubscription.awaitRequests()
+        with(c.cacheChangeSetSubscriber) {
+            awaitObjects()
+            receivedObjects.size() == 1
+            receivedObjects.head() == image
+            receivedObjects.head().id == image.id
+            receivedObjects.head().cacheImage
+            !hasCompleted
+            !hasError
+        }
+    }
+
     def "CacheChangeSetInputStream completes CacheChangeSet subscription if source of CacheMessages completes"() {
         
         setup:
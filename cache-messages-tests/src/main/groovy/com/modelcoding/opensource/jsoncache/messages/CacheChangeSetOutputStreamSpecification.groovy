@@ -230,6 +230,62 @@ class CacheChangeSetOutputStreamSpecification extends Specification {
         c.cacheChangeSetSubscription.requestCount == 2
     }
 
+    def "CacheChangeSetOutputStream outputs CacheMessages as requested in increments, while CacheMessages are still held"() {
+
+        setup:
+        Components c = new Components()
+        def changeSet1 = m.getCacheChangeSet(
+            "id1",
+            (1..4).collect { m.getCacheObject("A" + it, "AType", asJsonNode([])) } as Set,
+            [
+            ] as Set,
+            false
+        )
+        def cacheMessages1 = g.getCacheChangeSetFrame(changeSet1).messages
+        def changeSet2 = m.getCacheChangeSet(
+            "id2",
+            [
+            ] as Set,
+            [
+                m.getCacheRemove("A1")
+            ] as Set,
+            false
+        )
+        def cacheMessages2 = g.getCacheChangeSetFrame(changeSet2).messages
+
+        when:
+        c.cacheChangeSetSubscriber.onSubscribe(c.cacheChangeSetSubscription)
+
+        then:
+        c.cacheMessageSubscriber.awaitSubscribed()
+
+        when: "CacheMessages subscriber requests a CacheMessage"
+        c.cacheMessageSubscriber.expectObjects(1)
+        c.cacheChangeSetSubscription.outputOnRequest { int request ->
+            if(request < 1) {
+                c.cacheChangeSetSubscriber.onNext(changeSet1)
+            } else if(request < 2) {
+                c.cacheChangeSetSubscriber.onNext(changeSet2)
+            }
+        }
+        c.cacheMessageSubscriber.subscription.request(1)
+
+        then:
+        c.cacheMessageSubscriber.awaitObjects()
+
+        when: "CacheMessages subscriber requests in two increments, together more than the CacheMessages held"
+        def received = c.cacheMessageSubscriber.receivedObjects
+        c.cacheMessageSubscriber.expectObjects(cacheMessages1.size() - 1 + cacheMessages2.size())
+        c.cacheMessageSubscriber.subscription.request(2)
+        c.cacheMessageSubscriber.subscription.request(cacheMessages1.size() - 3 + cacheMessages2.size())
+
+        then: "the CacheMessages held are output, followed by those of the next CacheChangeSet"
+        c.cacheMessageSubscriber.awaitObjects()
+        received + c.cacheMessageSubscriber.receivedObjects == cacheMessages1 + cacheMessages2
+        !c.cacheMessageSubscriber.hasCompleted
+        !c.cacheMessageSubscriber.hasError
+    }
+
     def "CacheChangeSetOutputStream completes CacheMessage subscription if source of CacheChangeSets completes"() {
 
         setup:
@@ -545,4 +601,179 @@ class CacheChangeSetOutputStreamSpecification extends Specification {
             !hasError
         }
     }
+
+    def "CacheChangeSetOutputStream outputs updates to CacheObjects already output as patches, if asked to"() {
+
+        setup:
+        CacheChangeSetOutputStream stream = g.getCacheChangeSetOutputStream(true)
+        def cacheMessageSubscriber = new MockSubscriber<CacheMessage>()
+        def cacheChangeSetSubscription = new MockSubscription()
+        def cacheChangeSetSubscriber = stream.getCacheChangeSetSubscriber(
+            new Observer() {
+
+                @Override
+                void onSubscribed(final Publisher<CacheMessage> cacheMessagePublisher) {
+
+                    cacheMessagePublisher.subscribe(cacheMessageSubscriber)
+                }
+            }
+        )
+        def changeSet1 = m.getCacheChangeSet(
+            "id1",
+            [
+                m.getCacheObject("A1", "AType", asJsonNode([price: 1, name: "A", detail: [size: 10, colour: "red"]])),
+                m.getCacheObject("B1", "BType", asJsonNode([name: "B"])),
+                m.getCacheObject("D1", "DType", asJsonNode([name: "D"]))
+            ] as Set,
+            [
+            ] as Set,
+            true
+        )
+        def cacheMessages1 = g.getCacheChangeSetFrame(changeSet1).messages
+        def changeSet2 = m.getCacheChangeSet(
+            "id2",
+            [
+                m.getCacheObject("A1", "AType", asJsonNode([price: 2, name: "A", detail: [size: 10]])),
+                m.getCacheObject("B1", "OtherBType", asJsonNode([name: "B"])),
+                m.getCacheObject("C1", "CType", asJsonNode([name: "C"]))
+            ] as Set,
+            [
+                m.getCacheRemove("D1")
+            ] as Set,
+            false
+        )
+        def cacheMessages2 = g.getCacheChangeSetFrame(changeSet2).messages
+        def changeSet3 = m.getCacheChangeSet(
+            "id3",
+            [
+                m.getCacheObject("D1", "DType", asJsonNode([name: "D2"]))
+            ] as Set,
+            [
+            ] as Set,
+            false
+        )
+        def cacheMessages3 = g.getCacheChangeSetFrame(changeSet3).messages
+
+        when:
+        cacheChangeSetSubscriber.onSubscribe(cacheChangeSetSubscription)
+
+        then:
+        cacheMessageSubscriber.awaitSubscribed()
+
+        when: "CacheMessages subscriber requests the CacheMessages for all the CacheChangeSets"
+        cacheMessageSubscriber.expectObjects(cacheMessages1.size() + cacheMessages2.size() + cacheMessages3.size())
+        cacheChangeSetSubscription.outputOnRequest { int request ->
+            if(request < 1) {
+                cacheChangeSetSubscriber.onNext(changeSet1)
+            } else if(request < 2) {
+                cacheChangeSetSubscriber.onNext(changeSet2)
+            } else if(request < 3) {
+                cacheChangeSetSubscriber.onNext(changeSet3)
+            }
+        }
+        cacheMessageSubscriber.subscription.request(cacheMessages1.size() + cacheMessages2.size() + cacheMessages3.size())
+
+        then: "The cache image is output in full, as are puts of CacheObjects not output before or output with another type, or removed since"
+        with(cacheMessageSubscriber) {
+            awaitObjects()
+            receivedObjects.subList(0, cacheMessages1.size()) == cacheMessages1
+            receivedObjects.subList(cacheMessages1.size(), cacheMessages1.size() + cacheMessages2.size()) as Set == [
+                cacheMessages2.head(),
+                m.getCacheObjectPatch("A1", asJsonNode([price: 2, detail: [colour: null]])),
+                m.getCacheObject("B1", "OtherBType", asJsonNode([name: "B"])),
+                m.getCacheObject("C1", "CType", asJsonNode([name: "C"])),
+                m.getCacheRemove("D1"),
+                cacheMessages2.last()
+            ] as Set
+            receivedObjects.subList(cacheMessages1.size() + cacheMessages2.size(), receivedObjects.size()) == cacheMessages3
+            !hasCompleted
+            !hasError
+        }
+    }
+
+    def "CacheChangeSetOutputStream outputs cache images in chunked frames, as CacheMessages are demanded, if asked to"() {
+
+        setup:
+        CacheChangeSetOutputStream stream = g.getCacheChangeSetOutputStream(false, 2)
+        def cacheMessageSubscriber = new MockSubscriber<CacheMessage>()
+        def cacheChangeSetSubscription = new MockSubscription()
+        def cacheChangeSetSubscriber = stream.getCacheChangeSetSubscriber(
+            new Observer() {
+
+                @Override
+                void onSubscribed(final Publisher<CacheMessage> cacheMessagePublisher) {
+
+                    cacheMessagePublisher.subscribe(cacheMessageSubscriber)
+                }
+            }
+        )
+        def image = m.getCacheChangeSet(
+            "id1",
+            (1..5).collect { m.getCacheObject("A" + it, "AType", asJsonNode([])) } as Set,
+            [
+            ] as Set,
+            true
+        )
+        def changeSet = m.getCacheChangeSet(
+            "id2",
+            [
+                m.getCacheObject("A1", "AType", asJsonNode([price: 1]))
+            ] as Set,
+            [
+            ] as Set,
+            false
+        )
+        def cacheMessages = g.getCacheChangeSetFrame(changeSet).messages
+
+        when:
+        cacheChangeSetSubscriber.onSubscribe(cacheChangeSetSubscription)
+
+        then:
+        cacheMessageSubscriber.awaitSubscribed()
+
+        when: "CacheMessages subscriber requests some of the CacheMessages for the cache image"
+        cacheMessageSubscriber.expectObjects(4)
+        cacheChangeSetSubscription.outputOnRequest { int request ->
+            if(request < 1) {
+                cacheChangeSetSubscriber.onNext(image)
+            } else if(request < 2) {
+                cacheChangeSetSubscriber.onNext(changeSet)
+            }
+        }
+        cacheMessageSubscriber.subscription.request(4)
+
+        then: "a chunked frame is started, and no more is output than was requested"
+        with(cacheMessageSubscriber) {
+            awaitObjects()
+            receivedObjects.size() == 4
+            receivedObjects.head() == g.getStartOfCacheChangeSet(image, true)
+            !hasCompleted
+            !hasError
+        }
+        cacheChangeSetSubscription.requestCount == 1
+
+        when: "CacheMessages subscriber requests the rest of the cache image, and the next CacheChangeSet"
+        def received = cacheMessageSubscriber.receivedObjects
+        cacheMessageSubscriber.expectObjects(3 + cacheMessages.size())
+        cacheMessageSubscriber.subscription.request(3 + cacheMessages.size())
+
+        then: "the frame is ended once all the puts are output, and the next CacheChangeSet output as before"
+        cacheMessageSubscriber.awaitObjects()
+        def all = received + cacheMessageSubscriber.receivedObjects
+        all.subList(1, 6) as Set == image.puts
+        all[6] == g.getEndOfCacheChangeSet(image)
+        all.subList(7, all.size()) == cacheMessages
+        !cacheMessageSubscriber.hasCompleted
+        !cacheMessageSubscriber.hasError
+        cacheChangeSetSubscription.requestCount == 2
+    }
+
+    def "CacheChangeSetOutputStream cannot be created with a bad image chunk size"() {
+
+        when:
+        g.getCacheChangeSetOutputStream(false, 0)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
 }
@@ -63,6 +63,72 @@ class StartOfCacheChangeSetSpecification extends Specification {
         startOfCacheChangeSet.numRemoves == 1
     }
     
+    def "StartOfCacheChangeSet of a chunked frame is created as expected"() {
+        
+        setup:
+        def image = m.getCacheChangeSet(
+            "id", 
+            [
+                m.getCacheObject("A1", "AType", asJsonNode([])),
+                m.getCacheObject("A2", "AType", asJsonNode([]))
+            ] as Set, 
+            [
+            ] as Set, 
+            true
+        )
+        def json = asJsonNode(
+            [
+                "frame": "start",
+                "id": "id",
+                "isCacheImage": true,
+                "chunked" : true
+            ]
+        )
+        
+        when:
+        def startOfCacheChangeSet = g.getStartOfCacheChangeSet(image, true)
+        
+        then:
+        startOfCacheChangeSet.id == "id"
+        startOfCacheChangeSet.cacheImage
+        startOfCacheChangeSet.chunked
+        startOfCacheChangeSet.numPuts == -1
+        startOfCacheChangeSet.numRemoves == -1
+        startOfCacheChangeSet.asJsonNode() == json
+        startOfCacheChangeSet != g.getStartOfCacheChangeSet(image)
+        !g.getStartOfCacheChangeSet(image, false).chunked
+        
+        when:
+        startOfCacheChangeSet = g.getStartOfCacheChangeSet(json)
+        
+        then:
+        startOfCacheChangeSet == g.getStartOfCacheChangeSet(image, true)
+    }
+    
+    def "StartOfCacheChangeSet of a chunked frame cannot be created for other than a cache image"() {
+        
+        setup:
+        def changeSet = m.getCacheChangeSet("id", [m.getCacheObject("A1", "AType", asJsonNode([]))] as Set, [] as Set, false)
+        
+        when:
+        g.getStartOfCacheChangeSet(changeSet, true)
+        
+        then:
+        thrown(IllegalArgumentException)
+        
+        when:
+        g.getStartOfCacheChangeSet(null as CacheChangeSet, true)
+        
+        then:
+        thrown(NullPointerException)
+        
+        when:
+        g.getStartOfCacheChangeSet(asJsonNode(["frame": "start", "id": "id", "isCacheImage": false, "chunked": true]))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+    
     def "StartOfCacheChangeSet cannot be created from bad parameters"() {
         
         when:
@@ -145,6 +211,11 @@ class StartOfCacheChangeSetSpecification extends Specification {
                 c.cacheImage
             }
 
+            @Override
+            boolean isChunked() {
+                false
+            }
+
             @Override
             String getId() {
                 c.id
@@ -5,6 +5,7 @@ package com.modelcoding.opensource.jsoncache.messages;
 import com.modelcoding.opensource.jsoncache.CacheChangeSet;
 import com.modelcoding.opensource.jsoncache.CacheMessage;
 import com.modelcoding.opensource.jsoncache.CacheObject;
+import com.modelcoding.opensource.jsoncache.CacheObjectPatch;
 import com.modelcoding.opensource.jsoncache.CacheRemove;
 
 import java.util.List;
@@ -17,7 +18,7 @@ public interface CacheChangeSetFrame {
      * @return a sequence of {@link CacheMessage}s representing {@link #getCacheChangeSet()} as follows:
      * <ul>
      *     <li>a {@link StartOfCacheChangeSet}</li>
-     *     <li>one or more {@link CacheObject}s for the puts</li>
+     *     <li>one or more {@link CacheObject}s (or {@link CacheObjectPatch}es) for the puts</li>
      *     <li>one or more {@link CacheRemove}s for the removes</li>
      *     <li>an {@link EndOfCacheChangeSet}</li>
      * </ul>    
@@ -3,7 +3,9 @@
 package com.modelcoding.opensource.jsoncache.messages;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.modelcoding.opensource.jsoncache.CacheChangeSet;
 import com.modelcoding.opensource.jsoncache.CacheMessage;
+import com.modelcoding.opensource.jsoncache.CacheObjectPatch;
 
 /**
  * A {@link CacheChangeSetFrameAssembler} is a stateful assembler of {@link CacheMessage}s, outputting 
@@ -29,10 +31,20 @@ public interface CacheChangeSetFrameAssembler {
     /**
      * Handles the next message from a source.<br>
      * Outputs a {@link CacheChangeSetFrame} to an {@link Receiver} as each frame is completed.    
+     * <p>
+     * If this {@link CacheChangeSetFrameAssembler} accepts patches (see 
+     * {@link JsonCacheMessagesModule#getCacheChangeSetFrameAssembler(boolean)}), a {@link CacheObjectPatch} received 
+     * for a put is applied to the version of the object in the frames already assembled, so that the frame output 
+     * holds the whole {@link CacheObject}.
+     * <p>
+     * The puts and removes of a chunked frame (see {@link StartOfCacheChangeSet#isChunked()}) are gathered into its
+     * {@link CacheChangeSet} as they are received, rather than held as messages, until its {@link EndOfCacheChangeSet}.
      * 
      * @param cacheMessage next message from a source
      * @throws IllegalStateException if {@link #connect(Receiver)} has not yet been called                    
-     * @throws IllegalArgumentException if the sequence of {@link CacheMessage}s is incorrect                    
+     * @throws IllegalArgumentException if the sequence of {@link CacheMessage}s is incorrect, or a 
+     *                                  {@link CacheObjectPatch} is received when patches are not accepted, or for an
+     *                                  object not in the frames already assembled
      */
     void onCacheMessage(CacheMessage cacheMessage);
 
@@ -5,6 +5,7 @@ package com.modelcoding.opensource.jsoncache.messages;
 import com.modelcoding.opensource.jsoncache.CacheChangeSet;
 import com.modelcoding.opensource.jsoncache.CacheMessage;
 import com.modelcoding.opensource.jsoncache.CacheObject;
+import com.modelcoding.opensource.jsoncache.CacheObjectPatch;
 import com.modelcoding.opensource.jsoncache.CacheRemove;
 import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
@@ -23,10 +24,12 @@ import org.reactivestreams.Subscription;
  * Each {@link CacheChangeSet} is converted into a stream of {@link CacheMessage}s:
  * <ul>
  *     <li>a {@link StartOfCacheChangeSet}</li>
- *     <li>one or more {@link CacheObject}s for the puts</li>
+ *     <li>one or more {@link CacheObject}s (or {@link CacheObjectPatch}es) for the puts</li>
  *     <li>one or more {@link CacheRemove}s for the removes</li>
  *     <li>an {@link EndOfCacheChangeSet}</li>
  * </ul>    
+ * A cache image may instead be converted into a chunked frame - see 
+ * {@link JsonCacheMessagesModule#getCacheChangeSetOutputStream(boolean, int)}.
  */
 public interface CacheChangeSetOutputStream {
 
@@ -60,7 +63,7 @@ public interface CacheChangeSetOutputStream {
      * Each {@link CacheChangeSet} is converted into a stream of {@link CacheMessage}s:
      * <ul>
      *     <li>a {@link StartOfCacheChangeSet}</li>
-     *     <li>one or more {@link CacheObject}s for the puts</li>
+     *     <li>one or more {@link CacheObject}s (or {@link CacheObjectPatch}es) for the puts</li>
      *     <li>one or more {@link CacheRemove}s for the removes</li>
      *     <li>an {@link EndOfCacheChangeSet}</li>
      * </ul>    
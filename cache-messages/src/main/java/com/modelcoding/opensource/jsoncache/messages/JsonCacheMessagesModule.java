@@ -3,8 +3,10 @@
 package com.modelcoding.opensource.jsoncache.messages;
 
 import com.fasterxml.jackson.databind.JsonNode;
+import com.modelcoding.opensource.jsoncache.Cache;
 import com.modelcoding.opensource.jsoncache.CacheChangeSet;
 import com.modelcoding.opensource.jsoncache.CacheMessage;
+import com.modelcoding.opensource.jsoncache.CacheObjectPatch;
 
 public interface JsonCacheMessagesModule {
 
@@ -15,6 +17,15 @@ public interface JsonCacheMessagesModule {
      */
     StartOfCacheChangeSet getStartOfCacheChangeSet(CacheChangeSet cacheChangeSet);
 
+    /**
+     * @param cacheChangeSet the {@link CacheChangeSet} being framed
+     * @param chunked {@code true} for the start of a chunked frame - see {@link StartOfCacheChangeSet#isChunked()}
+     * @return the {@link CacheMessage} for the start of a sequence of messages representing the given {@code cacheChangeSet}
+     * @throws NullPointerException if {@code cacheChangeSet} is {@code null}        
+     * @throws IllegalArgumentException if {@code chunked}, and {@code cacheChangeSet} is not a cache image
+     */
+    StartOfCacheChangeSet getStartOfCacheChangeSet(CacheChangeSet cacheChangeSet, boolean chunked);
+
     /**
      * @param json JSON representation of a {@link StartOfCacheChangeSet} in the form given by {@link StartOfCacheChangeSet#asJsonNode()}
      * @return an instance of a {@link StartOfCacheChangeSet} as defined by the given {@code json}
@@ -52,12 +63,59 @@ public interface JsonCacheMessagesModule {
      */
     CacheChangeSetOutputStream getCacheChangeSetOutputStream();
 
+    /**
+     * As {@link #getCacheChangeSetOutputStream()}, but if {@code patchUpdates} then a put of an object already
+     * output is output as a {@link CacheObjectPatch} - a JSON merge patch against the version of the object last output 
+     * - where the change can be expressed as a merge patch, and the type of the object is unchanged.
+     * <p>
+     * Objects are always output in full in a cache image, and when first output. The {@link CacheChangeSetOutputStream}
+     * keeps the last version of each object output, to patch against.
+     * 
+     * @param patchUpdates {@code true} to output updates of objects as {@link CacheObjectPatch}es
+     * @return a {@link CacheChangeSetOutputStream} to provide a means of subscribing to {@link CacheChangeSet}s and
+     *         re-publishing them as {@link CacheMessage}s
+     * @see CacheChangeSetFrameAssembler#onCacheMessage(CacheMessage)
+     */
+    CacheChangeSetOutputStream getCacheChangeSetOutputStream(boolean patchUpdates);
+
+    /**
+     * As {@link #getCacheChangeSetOutputStream(boolean)}, but each cache image is output as a chunked frame (see
+     * {@link StartOfCacheChangeSet#isChunked()}), its messages being taken from the image a chunk of at most 
+     * {@code imageChunkSize} at a time, and only as {@link CacheMessage}s are demanded.
+     * <p>
+     * The puts of an image are iterated as they are output, rather than copied - so an image held in a {@link Cache}
+     * is never copied to be output.
+     * 
+     * @param patchUpdates {@code true} to output updates of objects as {@link CacheObjectPatch}es
+     * @param imageChunkSize the most messages of a cache image taken from it at a time
+     * @return a {@link CacheChangeSetOutputStream} to provide a means of subscribing to {@link CacheChangeSet}s and
+     *         re-publishing them as {@link CacheMessage}s
+     * @throws IllegalArgumentException if {@code imageChunkSize} is less than 1
+     */
+    CacheChangeSetOutputStream getCacheChangeSetOutputStream(boolean patchUpdates, int imageChunkSize);
+
     /**
      * Note: A {@link CacheChangeSetFrameAssembler} is not expected to be thread-safe.
+     * <p>
+     * The {@link CacheChangeSetFrameAssembler} returned does not accept {@link CacheObjectPatch}es - see
+     * {@link #getCacheChangeSetFrameAssembler(boolean)}.
      * 
      * @return a stateful entity that can assemble {@link CacheChangeSetFrame}s from {@link CacheMessage}s 
      */
     CacheChangeSetFrameAssembler getCacheChangeSetFrameAssembler();
+
+    /**
+     * As {@link #getCacheChangeSetFrameAssembler()}, but if {@code patchUpdates} then the 
+     * {@link CacheChangeSetFrameAssembler} accepts {@link CacheObjectPatch}es, as output by a
+     * {@link CacheChangeSetOutputStream} from {@link #getCacheChangeSetOutputStream(boolean)}.
+     * <p>
+     * To apply patches, the {@link CacheChangeSetFrameAssembler} keeps the last version of each object assembled - 
+     * so only ask for patchUpdates when the source of {@link CacheMessage}s sends patches.
+     * 
+     * @param patchUpdates {@code true} to accept {@link CacheObjectPatch}es
+     * @return a stateful entity that can assemble {@link CacheChangeSetFrame}s from {@link CacheMessage}s 
+     */
+    CacheChangeSetFrameAssembler getCacheChangeSetFrameAssembler(boolean patchUpdates);
     
     /**
      * @param frameAssembler a {@link CacheChangeSetFrameAssembler} to assemble {@link CacheMessage}s into
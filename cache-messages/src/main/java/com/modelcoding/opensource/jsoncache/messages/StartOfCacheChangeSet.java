@@ -20,12 +20,20 @@ public interface StartOfCacheChangeSet extends CacheMessage {
     boolean isCacheImage();
 
     /**
-     * @return size of {@link CacheChangeSet#getPuts()}
+     * A chunked frame is one of a cache image whose puts and removes are not counted up front - its messages are
+     * produced as they are needed, and the frame is complete only at its {@link EndOfCacheChangeSet}.
+     * 
+     * @return {@code true} if the frame started is chunked - in which case {@link #isCacheImage()} is {@code true}
+     */
+    boolean isChunked();
+
+    /**
+     * @return size of {@link CacheChangeSet#getPuts()}, or -1 if {@link #isChunked()}
      */
     int getNumPuts();
 
     /**
-     * @return size of {@link CacheChangeSet#getRemoves()}
+     * @return size of {@link CacheChangeSet#getRemoves()}, or -1 if {@link #isChunked()}
      */
     int getNumRemoves();
     
@@ -40,17 +48,26 @@ public interface StartOfCacheChangeSet extends CacheMessage {
      *     "numRemoves" : size of {@link #getNumRemoves()}<br>
      * }    
      * </pre>    
+     * or, if {@link #isChunked()}:
+     * <pre>
+     * {<br>
+     *     "frame": "start",
+     *     "id": {@link #getId()} 
+     *     "isCacheImage" : true,<br>
+     *     "chunked" : true<br>
+     * }    
+     * </pre>    
      */
     @Override
     ObjectNode asJsonNode();
     
     /**
      * {@link StartOfCacheChangeSet} are considered equal if they have the same {@link #getNumPuts()} and {@link #getNumRemoves()}, 
-     * and the same {@link #getId()} and {@link #isCacheImage()}. 
+     * and the same {@link #getId()}, {@link #isCacheImage()} and {@link #isChunked()}. 
      * 
      * @param   obj   the reference object with which to compare.
      * @return  {@code true} if the obj is also a {@link CacheChangeSet} with the same {@link #getNumPuts()} and {@link #getNumRemoves()}
-     *          and the same {@link #getId()} and {@link #isCacheImage()}; 
+     *          and the same {@link #getId()}, {@link #isCacheImage()} and {@link #isChunked()}; 
      *          {@code false} otherwise.
      * @see     #hashCode()
      */
@@ -58,7 +75,7 @@ public interface StartOfCacheChangeSet extends CacheMessage {
    
    /** 
     * @return  a hash code value for this {@link StartOfCacheChangeSet} which must be based on {@link #getNumPuts()}, {@link #getNumRemoves()},
-    *          {@link #getId()} and {@link #isCacheImage()}.
+    *          {@link #getId()}, {@link #isCacheImage()} and {@link #isChunked()}.
     * @see     #equals(java.lang.Object)
     */
    int hashCode();
@@ -76,4 +76,52 @@ class CacheFunctionInstanceSpecification extends Specification {
         results.cache.getImage().puts == postContent
         results.changeSet == cacheChangeSet
     }
+
+    def "A cache change calculator drops puts that do not change a Cache"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", someOtherContent)
+        def unchangedObject1 =
+            m.getCacheObject("Id1", "Type", asJsonNode(content))
+        def retypedObject2 =
+            m.getCacheObject("Id2", "OtherType", someOtherContent)
+        def object3 =
+            m.getCacheObject("Id3", "Type", someContent)
+        def cache = m.getCache([object1, object2] as Set)
+
+        when:
+        def results = m.getCacheChangeCalculator(
+            m.getCacheChangeSet("id", [unchangedObject1, retypedObject2, object3] as Set, [] as Set, false)
+        ).code.execute(cache)
+
+        then:
+        !results.cache.is(cache)
+        results.cache.getImage().puts == [object1, retypedObject2, object3] as Set
+        results.cache.getCacheObjectsByType("OtherType") == [retypedObject2] as Set
+        results.changeSet == m.getCacheChangeSet("id", [retypedObject2, object3] as Set, [] as Set, false)
+        results.changeSet.id == "id"
+
+        when:
+        results = m.getCacheChangeCalculator(
+            m.getCacheChangeSet("id", [unchangedObject1] as Set, [m.getCacheRemove("NotInCache")] as Set, false)
+        ).code.execute(cache)
+
+        then:
+        results.cache.is(cache)
+        results.changeSet == m.getCacheChangeSet("id", [] as Set, [m.getCacheRemove("NotInCache")] as Set, false)
+
+        when: "an object is put again with the same content, its fields in a different order"
+        def reorderedObject1 =
+            m.getCacheObject("Id1", "Type", asJsonNode([anotherThing: 12, aThing: "stuff"]))
+        results = m.getCacheChangeCalculator(
+            m.getCacheChangeSet("id", [reorderedObject1] as Set, [] as Set, false)
+        ).code.execute(cache)
+
+        then:
+        results.cache.is(cache)
+        results.changeSet.puts.empty
+    }
 }
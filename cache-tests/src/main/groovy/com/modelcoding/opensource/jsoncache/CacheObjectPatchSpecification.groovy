@@ -0,0 +1,136 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache
+
+import com.fasterxml.jackson.databind.JsonNode
+import org.junit.Rule
+import org.junit.rules.ExternalResource
+import spock.lang.Specification
+
+import static TestSuite.*
+
+class CacheObjectPatchSpecification extends Specification {
+
+    @Rule
+    private ExternalResource setup = perTestMethodSetup
+
+    def "CacheObjectPatch is created as expected"() {
+
+        setup:
+        def anId = "Id"
+        def aPatch = asJsonNode([price: 2, detail: [colour: null]])
+        def json = asJsonNode(
+            [
+                "id"   : anId,
+                "patch": aPatch
+            ]
+        )
+
+        when:
+        def cacheObjectPatch = m.getCacheObjectPatch(anId, aPatch)
+
+        then:
+        cacheObjectPatch.id == anId
+        cacheObjectPatch.patch == aPatch
+        cacheObjectPatch.asJsonNode() == json
+
+        when:
+        cacheObjectPatch = m.getCacheObjectPatch(json)
+
+        then:
+        cacheObjectPatch.id == anId
+        cacheObjectPatch.patch == aPatch
+        cacheObjectPatch.asJsonNode() == json
+    }
+
+    def "CacheObjectPatch cannot be created from bad parameters"() {
+
+        when:
+        m.getCacheObjectPatch(null, asJsonNode([price: 2]))
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCacheObjectPatch("Id", null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCacheObjectPatch((JsonNode)null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCacheObjectPatch(asJsonNode([id: "Id"]))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "CacheObjectPatch is merged into the content of a CacheObject as expected"() {
+
+        setup:
+        def cacheObject = m.getCacheObject("Id", "Type", asJsonNode(content))
+
+        when:
+        def patched = m.getCacheObjectPatch("Id", asJsonNode(patch)).applyTo(cacheObject)
+
+        then:
+        patched.id == cacheObject.id
+        patched.type == cacheObject.type
+        patched.content == asJsonNode(expected)
+        cacheObject.content == asJsonNode(content)
+
+        where:
+        content                                  | patch                                  | expected
+        [a: 1, b: 2]                             | [a: 3]                                 | [a: 3, b: 2]
+        [a: 1, b: 2]                             | [b: null]                              | [a: 1]
+        [a: 1, b: [c: 2, d: 3]]                  | [b: [d: null, e: 4]]                   | [a: 1, b: [c: 2, e: 4]]
+        [a: [1, 2]]                              | [a: [3]]                               | [a: [3]]
+        [a: "x"]                                 | [a: [b: "y", c: null]]                 | [a: [b: "y"]]
+        [a: 1]                                   | [:]                                    | [a: 1]
+    }
+
+    def "CacheObjectPatch cannot be applied to bad parameters"() {
+
+        setup:
+        def cacheObjectPatch = m.getCacheObjectPatch("Id", asJsonNode([a: 1]))
+
+        when:
+        cacheObjectPatch.applyTo(null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        cacheObjectPatch.applyTo(m.getCacheObject("OtherId", "Type", asJsonNode([a: 2])))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "Equal CacheObjectPatches are equal"() {
+
+        expect:
+        a == b
+        a.hashCode() == b.hashCode()
+
+        where:
+        a                                                   | b
+        m.getCacheObjectPatch("id", asJsonNode([a: 1]))     | m.getCacheObjectPatch("id", asJsonNode([a: 1]))
+    }
+
+    def "Unequal CacheObjectPatches are not equal"() {
+
+        expect:
+        a != b
+
+        where:
+        a                                                   | b
+        m.getCacheObjectPatch("id", asJsonNode([a: 1]))     | m.getCacheObjectPatch("otherId", asJsonNode([a: 1]))
+        m.getCacheObjectPatch("id", asJsonNode([a: 1]))     | m.getCacheObjectPatch("id", asJsonNode([a: 2]))
+    }
+}
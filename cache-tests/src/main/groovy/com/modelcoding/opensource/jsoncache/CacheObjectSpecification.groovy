@@ -106,6 +106,82 @@ class CacheObjectSpecification extends Specification {
         thrown(IllegalArgumentException)
     }
 
+    def "Compact CacheObject is created as expected"() {
+
+        setup:
+        def anId = "Id"
+        def aType = "Type"
+        def json = asJsonNode(
+            [
+                "id" : anId,
+                "type" : aType,
+                "content" : someContent
+            ]
+        )
+
+        when:
+        def cacheObject = m.getCompactCacheObject(anId, aType, someContent)
+
+        then:
+        cacheObject.id == anId
+        cacheObject.type == aType
+        cacheObject.content == someContent
+        cacheObject.asJsonNode() == json
+        cacheObject == m.getCacheObject(anId, aType, someContent)
+
+        when: "the content returned is changed"
+        ((ObjectNode)cacheObject.content).put("aThing", "changed")
+
+        then: "the content held is not"
+        cacheObject.content == someContent
+
+        when:
+        cacheObject = m.getCompactCacheObject(anId, aType, '{ "aThing" : "stuff", "anotherThing" : 12 }'.getBytes("UTF-8"))
+
+        then:
+        cacheObject.content == someContent
+        cacheObject.asUpdatedCacheObject(someOtherContent).content == someOtherContent
+    }
+
+    def "Compact CacheObject cannot be created from bad parameters"() {
+
+        when:
+        m.getCompactCacheObject("Id", "Type", null as JsonNode)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCompactCacheObject("Id", "Type", null as byte[])
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCompactCacheObject("Id", null, someContent)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCompactCacheObject(null, "Type", someContent)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCompactCacheObject("Id", "Type", '{ "aThing" : '.getBytes("UTF-8"))
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        m.getCompactCacheObject("Id", "Type", '{} {}'.getBytes("UTF-8"))
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
     def "Equal CacheObjects are equal"() {
 
         expect:
@@ -9,6 +9,8 @@ import org.junit.rules.ExternalResource
 import spock.lang.Shared
 import spock.lang.Specification
 
+import java.nio.file.Files
+
 import static TestSuite.*
 
 class CacheSpecification extends Specification {
@@ -100,6 +102,35 @@ class CacheSpecification extends Specification {
         cache.image == image
     }
 
+    def "Cache image is shared until the Cache is changed"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", someOtherContent)
+        def cache = m.getCache([object1] as Set)
+
+        when:
+        def image = cache.image
+
+        then: "the same image is returned for each request"
+        cache.image.is(image)
+        image == cacheImage([object1] as Set)
+        image.puts.contains(object1)
+        !image.puts.contains(m.getCacheObject("Id1", "Type", someOtherContent))
+
+        when: "the Cache is changed"
+        def changed = cache.put(object2).cache
+
+        then: "the changed Cache has its own image, the image of the old Cache remains unaffected"
+        !changed.image.is(image)
+        changed.image.id != image.id
+        changed.image == cacheImage([object1, object2] as Set)
+        image == cacheImage([object1] as Set)
+        image.puts.size() == 1
+    }
+
     def "Cache throws exception if bad parameters passed into methods"() {
 
         setup:
@@ -276,4 +307,283 @@ class CacheSpecification extends Specification {
         cache.getCacheObject("Id2") == object2
         result.action == RemoveAction.NO_CHANGE
     }
+
+    def "Cache holds many objects, including objects whose ids have colliding hashes"() {
+
+        setup:
+        def ids = (0..<2000).collect { "Id$it" } + ["Aa", "BB", "AaAa", "BBBB", "AaBB", "BBAa"] // "Aa" and "BB" have the same hashCode
+        def objects = ids.collect { m.getCacheObject(it, "Type", someContent) }
+        def cache = m.getCache([] as Set)
+
+        when: "objects are put one at a time"
+        objects.each { cache = cache.put(it).cache }
+
+        then: "every object can be found"
+        ids.every { cache.containsCacheObject(it) }
+        ids.every { cache.getCacheObject(it).is(objects[ids.indexOf(it)]) }
+        cache.image == cacheImage(objects as Set)
+
+        when: "objects are replaced"
+        def replaced = objects.collect { it.asUpdatedCacheObject(someOtherContent) }
+        def actions = replaced.collect { 
+            def result = cache.put(it)
+            cache = result.cache
+            result.action
+        }
+
+        then:
+        actions.every { it == PutAction.REPLACED }
+        ids.every { cache.getCacheObject(it).content == someOtherContent }
+
+        when: "every other object is removed"
+        def removedIds = ids.findAll { ids.indexOf(it) % 2 == 0 }
+        def keptIds = ids - removedIds
+        removedIds.each { cache = cache.remove(m.getCacheRemove(it)).cache }
+
+        then: "only the removed objects are missing"
+        removedIds.every { !cache.containsCacheObject(it) }
+        keptIds.every { cache.containsCacheObject(it) }
+        cache.image.puts == keptIds.collect { cache.getCacheObject(it) } as Set
+
+        when: "the remaining objects are removed"
+        keptIds.each { cache = cache.remove(m.getCacheRemove(it)).cache }
+
+        then: "the cache is empty"
+        cache.image == cacheImage([] as Set)
+        !cache.containsCacheObject("Aa")
+        !cache.containsCacheObject("BB")
+    }
+
+    def "Cache processes bulk puts and removes as a single change"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def object1_changed =
+            m.getCacheObject("Id1", "Type", someOtherContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", someOtherContent)
+        def object3 =
+            m.getCacheObject("Id3", "Type", someOtherContent)
+        def content = [object1, object2] as Set
+        def image = cacheImage(content) 
+        def cache = m.getCache(content)
+
+        when: "Cache processes puts of a new object and a replacement object"
+        def result = cache.putAll([object1_changed, object3] as Set)
+
+        then: "a new Cache is returned containing the expected objects, the old Cache remains unaffected"
+        !result.cache.is(cache)
+        cache.image == image
+        result.cache.image == cacheImage([object1_changed, object2, object3] as Set)
+        result.cache.getCacheObject("Id1").content == someOtherContent
+        result.actions == [Id1: PutAction.REPLACED, Id3: PutAction.ADDED]
+
+        when: "Cache processes no puts"
+        result = cache.putAll([] as Set)
+
+        then: "the same Cache is returned as is"
+        result.cache.is(cache)
+        result.actions.isEmpty()
+
+        when: "Cache processes removes of objects in and not in the Cache"
+        def removeResult = cache.removeAll([m.getCacheRemove("Id2"), m.getCacheRemove("NotInCache")] as Set)
+
+        then: "a new Cache is returned, with the old objects minus the removed instance, the old Cache remains unaffected"
+        !removeResult.cache.is(cache)
+        cache.image == image
+        removeResult.cache.image == cacheImage([object1] as Set)
+        removeResult.actions == [Id2: RemoveAction.REMOVED, NotInCache: RemoveAction.NO_CHANGE]
+
+        when: "Cache processes removes of objects not in the Cache"
+        removeResult = cache.removeAll([m.getCacheRemove("NotInCache")] as Set)
+
+        then: "the same Cache is returned as is"
+        removeResult.cache.is(cache)
+        removeResult.actions == [NotInCache: RemoveAction.NO_CHANGE]
+
+        when: "a Cache built by bulk puts is changed further"
+        def built = cache.putAll([object3] as Set).cache
+        def changed = built.put(object1_changed).cache
+        
+        then: "the built Cache remains unaffected"
+        built.image == cacheImage([object1, object2, object3] as Set)
+        built.getCacheObject("Id1").content == someContent
+        changed.getCacheObject("Id1").content == someOtherContent
+    }
+
+    def "Cache throws exception if bad parameters passed into bulk methods"() {
+
+        setup:
+        def cache = m.getCache([m.getCacheObject("Id1", "Type", someContent)] as Set)
+
+        when:
+        cache.putAll(null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        cache.putAll([null] as Set)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        cache.removeAll(null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        cache.removeAll([null] as Set)
+
+        then:
+        thrown(NullPointerException)
+    }
+
+    def "Cache provides access to its objects by type"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type1", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type2", someOtherContent)
+        def object3 =
+            m.getCacheObject("Id3", "Type2", someContent)
+        def object1_retyped =
+            m.getCacheObject("Id1", "Type2", someOtherContent)
+        def cache = m.getCache([object1, object2, object3] as Set)
+
+        expect: "objects and images are available by type"
+        cache.getCacheObjectsByType("Type1") == [object1] as Set
+        cache.getCacheObjectsByType("Type2") == [object2, object3] as Set
+        cache.getCacheObjectsByType("NotAType").isEmpty()
+        cache.getImage(["Type2"] as Set) == cacheImage([object2, object3] as Set)
+        cache.getImage(["Type1", "Type2"] as Set) == cacheImage([object1, object2, object3] as Set)
+        cache.getImage([] as Set) == cacheImage([] as Set)
+
+        when: "a put changes the type of an object"
+        def changed = cache.put(object1_retyped).cache
+
+        then: "the object is only available under its new type, the old Cache remains unaffected"
+        changed.getCacheObjectsByType("Type1").isEmpty()
+        changed.getCacheObjectsByType("Type2") == [object1_retyped, object2, object3] as Set
+        cache.getCacheObjectsByType("Type1") == [object1] as Set
+
+        when: "objects are removed"
+        changed = changed.remove(m.getCacheRemove("Id2")).cache.removeAll([m.getCacheRemove("Id3")] as Set).cache
+
+        then: "the objects are no longer available by type"
+        changed.getCacheObjectsByType("Type2") == [object1_retyped] as Set
+        changed.getImage(["Type1", "Type2"] as Set) == cacheImage([object1_retyped] as Set)
+
+        when: "objects are put in bulk, including a change of type"
+        changed = changed.putAll([object1, object2] as Set).cache
+
+        then: "the objects are available by their types"
+        changed.getCacheObjectsByType("Type1") == [object1] as Set
+        changed.getCacheObjectsByType("Type2") == [object2] as Set
+
+        when:
+        cache.getCacheObjectsByType("Type2").clear()
+
+        then: "the Cache cannot be changed through the objects returned"
+        thrown(UnsupportedOperationException)
+    }
+
+    def "Cache throws exception if bad parameters passed into type methods"() {
+
+        setup:
+        def cache = m.getCache([m.getCacheObject("Id1", "Type", someContent)] as Set)
+
+        when:
+        cache.getCacheObjectsByType(null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        cache.getImage((Set<String>) null)
+
+        then:
+        thrown(NullPointerException)
+    }
+
+    def "Cache is restored from a snapshot as it was written"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type1", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type2", someOtherContent)
+        def object3 =
+            m.getCacheObject("Id\u00e9", "Type\u00e9", asJsonNode([1, "two", [three: 3.0]]))
+        def directory = Files.createTempDirectory("snapshots")
+        def snapshotFile = directory.resolve("cache.snapshot")
+
+        when: "a snapshot is written and read back"
+        def cache = m.getCache([object1, object2, object3] as Set)
+        m.writeCacheSnapshot(cache, snapshotFile)
+        def restored = m.getCacheFromSnapshot(snapshotFile)
+
+        then: "the restored Cache holds the same objects, with the same types and content"
+        restored.image == cache.image
+        [object1, object2, object3].every { 
+            restored.getCacheObject(it.id).type == it.type && restored.getCacheObject(it.id).content == it.content 
+        }
+        restored.getCacheObjectsByType("Type2") == [object2] as Set
+        
+        when: "a snapshot of a changed Cache replaces the snapshot"
+        m.writeCacheSnapshot(cache.remove(m.getCacheRemove("Id1")).cache, snapshotFile)
+
+        then: 
+        m.getCacheFromSnapshot(snapshotFile).image == cacheImage([object2, object3] as Set)
+        Files.list(directory).count() == 1
+
+        when: "a snapshot of an empty Cache is written and read back"
+        m.writeCacheSnapshot(m.getCache([] as Set), snapshotFile)
+        
+        then:
+        m.getCacheFromSnapshot(snapshotFile).image == cacheImage([] as Set)
+
+        cleanup:
+        Files.deleteIfExists(snapshotFile)
+        Files.deleteIfExists(directory)
+    }
+
+    def "Cache throws exception if bad parameters passed into snapshot methods"() {
+
+        setup:
+        def cache = m.getCache([m.getCacheObject("Id1", "Type", someContent)] as Set)
+        def notASnapshotFile = Files.createTempFile("cache", ".snapshot")
+        Files.write(notASnapshotFile, "Not a snapshot of a Cache, honestly".bytes)
+
+        when:
+        m.getCacheFromSnapshot(null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.writeCacheSnapshot(null, notASnapshotFile)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.writeCacheSnapshot(cache, null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCacheFromSnapshot(notASnapshotFile)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        cleanup:
+        Files.deleteIfExists(notASnapshotFile)
+    }
 }
@@ -10,6 +10,15 @@ import org.reactivestreams.Subscription
 import spock.lang.Shared
 import spock.lang.Specification
 
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.time.Duration
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
 import static com.modelcoding.opensource.jsoncache.TestSuite.*
 
 class JsonCacheSpecification extends Specification {
@@ -58,6 +67,25 @@ class JsonCacheSpecification extends Specification {
         then:
         jsonCache.id == "id"
         jsonCache.subscriberBacklogLimit == 12
+        jsonCache.subscriberBacklogPolicy == JsonCache.SubscriberBacklogPolicy.FAIL
+        !jsonCache.options.journalDirectory.present
+
+        when:
+        jsonCache = m.getJsonCache("id", 12, JsonCache.SubscriberBacklogPolicy.RESYNC, cache)
+
+        then:
+        jsonCache.id == "id"
+        jsonCache.subscriberBacklogLimit == 12
+        jsonCache.subscriberBacklogPolicy == JsonCache.SubscriberBacklogPolicy.RESYNC
+        jsonCache.ingestionBatchSize == 1
+        !jsonCache.mergingBatchChangeSets
+
+        when:
+        jsonCache = m.getJsonCache("id", 12, JsonCache.SubscriberBacklogPolicy.FAIL, 100, true, cache)
+
+        then:
+        jsonCache.ingestionBatchSize == 100
+        jsonCache.mergingBatchChangeSets
     }
 
     def "JsonCache cannot be created from bad parameters"() {
@@ -88,6 +116,30 @@ class JsonCacheSpecification extends Specification {
 
         then:
         thrown(NullPointerException)
+
+        when: "subscriberBacklogPolicy is null"
+        m.getJsonCache("id", 10, null, cache)
+
+        then:
+        thrown(NullPointerException)
+
+        when: "ingestionBatchSize is 0"
+        m.getJsonCache("id", 10, JsonCache.SubscriberBacklogPolicy.FAIL, 0, false, cache)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when: "options is null"
+        m.getJsonCache("id", 10, JsonCache.SubscriberBacklogPolicy.FAIL, 1, false, false, null as JsonCacheOptions, cache)
+
+        then:
+        thrown(NullPointerException)
+
+        when: "journalDirectory is null"
+        m.jsonCacheOptions.withJournal(null)
+
+        then:
+        thrown(NullPointerException)
     }
 
     def "JsonCache throws exception when methods called with bad parameters"() {
@@ -108,6 +160,24 @@ class JsonCacheSpecification extends Specification {
         then:
         thrown(NullPointerException)
 
+        when: 
+        jsonCache.subscribe(null, ["Type"] as Set)
+
+        then:
+        thrown(NullPointerException)
+
+        when: 
+        jsonCache.subscribe(new MockSubscriber(), null)
+
+        then:
+        thrown(NullPointerException)
+
+        when: 
+        jsonCache.subscribe(null, 0L)
+
+        then:
+        thrown(NullPointerException)
+
         when: 
         jsonCache.sendImageToSubscriber(null)
 
@@ -489,6 +559,917 @@ class JsonCacheSpecification extends Specification {
         }
     }
     
+    def "Subscriber receives only notifications for the types it subscribed to from JsonCache"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "TypeA", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "TypeB", someContent)
+        def object1_retyped =
+            m.getCacheObject("Id1", "TypeB", someOtherContent)
+        def object3 =
+            m.getCacheObject("Id3", "TypeA", someOtherContent)
+        def object4 =
+            m.getCacheObject("Id4", "TypeB", someOtherContent)
+        def jsonCache = m.getJsonCache("id", 2, m.getCache([object1, object2] as Set))
+        def subscriber = new MockSubscriber()
+
+        when: "A new subscription is made for a type"
+        subscriber.expectChangeSets(1)
+        jsonCache.subscribe(subscriber, ["TypeA"] as Set)
+
+        then: "the subscriber first receives a change set with a put for every object of that type in the cache"
+        with(subscriber) {
+            awaitSubscription()
+            awaitChangeSets()
+            changeSets == [cacheImage([object1] as Set)]
+            !hasCompleted
+            !hasError
+        }
+
+        when: "Changes are made to objects of the type, and to objects of other types, followed by a request for a cache image"
+        subscriber.expectChangeSets(2)
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object1_retyped, object3, m.getCacheRemove("Id2"))))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object4)))
+        jsonCache.sendImageToSubscriber(subscriber)
+
+        then: "the subscriber receives only the changes to objects of the type - a change of type being a remove - followed by an image of objects of the type"
+        with(subscriber) {
+            awaitChangeSets()
+            changeSets == [changeSet(object3, m.getCacheRemove("Id1")), cacheImage([object3] as Set)]
+            !hasCompleted
+            !hasError
+        }
+
+        when: "The subscription is cancelled"
+        subscriber.cancel()
+
+        then: "the subscriber is completed"
+        with(subscriber) {
+            awaitComplete()
+            hasCompleted
+            !hasError
+        }
+    }
+
+    def "JsonCache resyncs slow subscribers if configured to do so"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", someOtherContent)
+        def object3 =
+            m.getCacheObject("Id3", "Type", someContent)
+        def jsonCache = m.getJsonCache("id", 1, JsonCache.SubscriberBacklogPolicy.RESYNC, m.getCache([object1] as Set))
+        def slowSubscriber = new MockSubscriber() {
+
+            volatile boolean slow = true
+            volatile Subscription heldSubscription
+
+            @Override
+            protected void makeRequest(final Subscription s) {
+                heldSubscription = s
+                if(!slow) s.request(1)
+            }
+        }
+        def subscriber = new MockSubscriber()
+        
+        when: "Subscriptions are made, and changes made to the cache, but one subscriber is 'slow'" 
+        subscriber.expectChangeSets(3)
+        jsonCache.subscribe(slowSubscriber)
+        jsonCache.subscribe(subscriber)
+        slowSubscriber.awaitSubscription()
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object2)))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object3)))
+        
+        then: "the other subscriber receives all the change sets"
+        with(subscriber) {
+            awaitChangeSets()
+            changeSets == [cacheImage([object1] as Set), changeSet(object2), changeSet(object3)]
+        }
+        
+        when: "the slow subscriber catches up"
+        slowSubscriber.expectChangeSets(1)
+        slowSubscriber.slow = false
+        slowSubscriber.heldSubscription.request(1)
+        
+        then: "the slow subscriber's backlog is dropped, and it receives a single fresh image without error"
+        with(slowSubscriber) {
+            awaitChangeSets()
+            changeSets == [cacheImage([object1, object2, object3] as Set)]
+            !hasCompleted
+            !hasError
+        }
+        
+        when: "a further change is made to the cache"
+        slowSubscriber.expectChangeSets(1)
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(m.getCacheRemove("Id1"))))
+        
+        then: "the slow subscriber receives the change as normal"
+        with(slowSubscriber) {
+            awaitChangeSets()
+            changeSets == [changeSet(m.getCacheRemove("Id1"))]
+            !hasCompleted
+            !hasError
+        }
+
+    }
+    
+    def "JsonCache applies pending functions as a batch, merging their change sets if configured to do so"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", someOtherContent)
+        def object1_changed =
+            m.getCacheObject("Id1", "Type", someOtherContent)
+        def object3 =
+            m.getCacheObject("Id3", "Type", someContent)
+        def object3_changed =
+            m.getCacheObject("Id3", "Type", someOtherContent)
+        def jsonCache = m.getJsonCache("id", 10, JsonCache.SubscriberBacklogPolicy.FAIL, 10, true, m.getCache([object1, object2] as Set))
+        def subscriber = new MockSubscriber()
+        def release = new CountDownLatch(1)
+        def blockingChange = m.getCacheChangeCalculator(changeSet(object1_changed))
+        def blockingFunction = Stub(CacheFunction) {
+            execute(_) >> { Cache c ->
+                release.await(1000, TimeUnit.MILLISECONDS)
+                blockingChange.code.execute(c)
+            }
+        }
+        def blockingFunctionInstance = Stub(CacheFunctionInstance) {
+            getCode() >> blockingFunction
+        }
+
+        when: "A new subscription is made"
+        subscriber.expectChangeSets(1)
+        jsonCache.subscribe(subscriber)
+
+        then:
+        subscriber.awaitChangeSets()
+
+        when: "Several functions are pending while the cache is busy applying a function, followed by a request for a cache image"
+        subscriber.expectChangeSets(2)
+        jsonCache.onNext(blockingFunctionInstance)
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object3)))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(m.getCacheRemove("Id2"))))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object3_changed)))
+        jsonCache.sendImageToSubscriber(subscriber)
+        release.countDown()
+
+        then: "the subscriber receives a single change set with the last change made to each object, followed by the cache image"
+        with(subscriber) {
+            awaitChangeSets()
+            changeSets == [
+                changeSet(object1_changed, m.getCacheRemove("Id2"), object3_changed),
+                cacheImage([object1_changed, object3_changed] as Set)
+            ]
+            !hasCompleted
+            !hasError
+        }
+    }
+
+    def "JsonCache writes snapshots of its Cache periodically"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", someOtherContent)
+        def jsonCache = m.getJsonCache("id", 10, m.getCache([object1] as Set))
+        def subscription = Mock(Subscription)
+        def snapshotFile = Files.createTempDirectory("snapshots").resolve("cache.snapshot")
+
+        when: "snapshots are written while the cache is changed"
+        jsonCache.onSubscribe(subscription)
+        def snapshots = m.writeCacheSnapshots(jsonCache, snapshotFile, Duration.ofMillis(20))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object2)))
+        def deadline = System.currentTimeMillis() + 5000
+        def restored = null
+        while(System.currentTimeMillis() < deadline) {
+            Thread.sleep(20)
+            if(Files.exists(snapshotFile)) {
+                restored = m.getCacheFromSnapshot(snapshotFile)
+                if(restored.containsCacheObject("Id2")) break
+            }
+        }
+        snapshots.close()
+
+        then: "a snapshot holds the changed cache, and only the functions supplied are requested again"
+        restored.image == cacheImage([object1, object2] as Set)
+        2 * subscription.request(1)
+
+        cleanup:
+        Files.deleteIfExists(snapshotFile)
+        Files.deleteIfExists(snapshotFile.parent)
+    }
+
+    def "JsonCache snapshots cannot be written with bad parameters"() {
+
+        setup:
+        def jsonCache = m.getJsonCache("id", 10, m.getCache([] as Set))
+        def snapshotFile = Files.createTempDirectory("snapshots").resolve("cache.snapshot")
+
+        when:
+        m.writeCacheSnapshots(null, snapshotFile, Duration.ofSeconds(1))
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.writeCacheSnapshots(jsonCache, null, Duration.ofSeconds(1))
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.writeCacheSnapshots(jsonCache, snapshotFile, null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.writeCacheSnapshots(jsonCache, snapshotFile, Duration.ZERO)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        m.writeCacheSnapshots(m.getShardedJsonCache("id", 10, 1, 2, m.getCache([] as Set)), snapshotFile, Duration.ofSeconds(1))
+
+        then:
+        thrown(IllegalArgumentException)
+
+        cleanup:
+        Files.deleteIfExists(snapshotFile.parent)
+    }
+
+    def "JsonCache removes objects once their time to live has passed"() {
+
+        setup:
+        def quote =
+            m.getCacheObject("Id1", "Quote", someContent)
+        def presence =
+            m.getCacheObject("Id2", "Presence", asJsonNode([timeToLive: 100]))
+        def lingeringPresence =
+            m.getCacheObject("Id3", "Presence", asJsonNode([timeToLive: 60000]))
+        def lasting =
+            m.getCacheObject("Id4", "Type", someContent)
+        def jsonCache = m.getJsonCache("id", 10, m.getCache([quote] as Set))
+        def subscriber = new MockSubscriber()
+        def byType = m.getCacheObjectExpiry(["Quote": Duration.ofMillis(100)])
+        def byContent = { CacheObject cacheObject ->
+            cacheObject.content.has("timeToLive") ? Duration.ofMillis(cacheObject.content.get("timeToLive").asLong()) : null
+        } as CacheObjectExpiry
+
+        when: "objects already in the cache, and objects put, expire as decided by their type or content"
+        subscriber.expectChangeSets(2)
+        jsonCache.subscribe(subscriber)
+        def expiries = [m.expireCacheObjects(jsonCache, byType), m.expireCacheObjects(jsonCache, byContent)]
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(presence, lingeringPresence, lasting)))
+
+        then: "they are removed once their time to live has passed"
+        awaitImage(jsonCache, [lingeringPresence, lasting] as Set)
+        subscriber.awaitChangeSets()
+        subscriber.changeSets.take(2) == [cacheImage([quote] as Set), changeSet(presence, lingeringPresence, lasting)]
+        subscriber.changeSets.drop(2).every { it.puts.empty }
+        subscriber.changeSets.drop(2).collectMany { it.removes as List } as Set == 
+            [m.getCacheRemove("Id1"), m.getCacheRemove("Id2")] as Set
+
+        when: "the expiry of objects is stopped"
+        expiries.each { it.close() }
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(quote)))
+        Thread.sleep(300)
+
+        then: "objects no longer expire"
+        awaitImage(jsonCache, [quote, lingeringPresence, lasting] as Set)
+    }
+
+    private static boolean awaitImage(JsonCache jsonCache, Set<CacheObject> expected) {
+        
+        def deadline = System.currentTimeMillis() + 5000
+        while(System.currentTimeMillis() < deadline) {
+            def subscriber = new MockSubscriber()
+            subscriber.expectChangeSets(1)
+            jsonCache.subscribe(subscriber)
+            subscriber.awaitChangeSets()
+            subscriber.cancel()
+            if(subscriber.changeSets == [cacheImage(expected)]) return true
+            Thread.sleep(20)
+        }
+        false
+    }
+
+    def "JsonCache objects cannot be expired with bad parameters"() {
+
+        setup:
+        def jsonCache = m.getJsonCache("id", 10, m.getCache([] as Set))
+        def expiry = m.getCacheObjectExpiry(["Type": Duration.ofSeconds(1)])
+
+        when:
+        m.getCacheObjectExpiry(null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCacheObjectExpiry(["Type": null])
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCacheObjectExpiry([(null): Duration.ofSeconds(1)])
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.getCacheObjectExpiry(["Type": Duration.ZERO])
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        m.expireCacheObjects(null, expiry)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.expireCacheObjects(jsonCache, null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.expireCacheObjects(m.getShardedJsonCache("id", 10, 1, 2, m.getCache([] as Set)), expiry)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "JsonCache kept within a memory budget removes the objects put least recently"() {
+
+        setup: "objects of about the same size, of which two fit within the budget"
+        def largeContent = asJsonNode([text: "x" * 1000])
+        def object1 =
+            m.getCacheObject("Id1", "Type", largeContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", largeContent)
+        def object3 =
+            m.getCacheObject("Id3", "Type", largeContent)
+        def jsonCache = m.getJsonCache(
+            "id", 10, JsonCache.SubscriberBacklogPolicy.FAIL, 1, false, false, m.jsonCacheOptions.withMemoryBudget(5000L), 
+            m.getCache([object1] as Set)
+        )
+        def subscriber = new MockSubscriber()
+
+        expect:
+        jsonCache.options.memoryBudget == OptionalLong.of(5000L)
+        !m.getJsonCache("id", 10, m.getCache([] as Set)).options.memoryBudget.present
+
+        when: "objects are put, the oldest being put again unchanged, until the cache is over budget"
+        subscriber.expectChangeSets(4)
+        jsonCache.subscribe(subscriber)
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object2)))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object1)))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object3)))
+
+        then: "the object put least recently is removed, and the removal published"
+        with(subscriber) {
+            awaitChangeSets()
+            changeSets == [
+                cacheImage([object1] as Set),
+                changeSet(object2),
+                changeSet(object3),
+                changeSet(m.getCacheRemove("Id2"))
+            ]
+            !hasCompleted
+            !hasError
+        }
+        awaitImage(jsonCache, [object1, object3] as Set)
+    }
+
+    def "JsonCache kept within a memory budget cannot be created from bad parameters"() {
+
+        when:
+        m.jsonCacheOptions.withMemoryBudget(0L)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when:
+        m.jsonCacheOptions.withMemoryBudget(-1L)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when: "memoryBudget is 0 for a journalling JsonCache"
+        m.jsonCacheOptions.withJournal(Paths.get("journal")).withMemoryBudget(0L)
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    def "JsonCache can be both journalling and kept within a memory budget"() {
+
+        setup:
+        def largeContent = asJsonNode([text: "x" * 1000])
+        def object1 =
+            m.getCacheObject("Id1", "Type", largeContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", largeContent)
+        def object3 =
+            m.getCacheObject("Id3", "Type", largeContent)
+        def initialCache = m.getCache([] as Set)
+        def journalDirectory = Files.createTempDirectory("journal")
+        def subscriber = new MockSubscriber()
+
+        when: "objects are put until the cache is over budget"
+        def jsonCache = m.getJsonCache(
+            "id", 10, JsonCache.SubscriberBacklogPolicy.FAIL, 1, false, false, 
+            m.jsonCacheOptions.withJournal(journalDirectory).withMemoryBudget(5000L), initialCache
+        )
+        subscriber.expectChangeSets(5)
+        jsonCache.subscribe(subscriber)
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object1)))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object2)))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object3)))
+        subscriber.awaitChangeSets()
+        jsonCache.onComplete()
+        subscriber.awaitComplete()
+
+        then: "the removal made to stay within budget is journalled"
+        jsonCache.options.journalDirectory == Optional.of(journalDirectory)
+        jsonCache.options.memoryBudget == OptionalLong.of(5000L)
+        awaitReplay(initialCache, journalDirectory, [object2, object3] as Set)
+
+        cleanup:
+        Files.list(journalDirectory).each { Files.deleteIfExists(it) }
+        Files.deleteIfExists(journalDirectory)
+    }
+
+    def "JsonCache tells its metrics of the work it does"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", someOtherContent)
+        def jsonCache = m.getJsonCache("id", 10, m.getCache([object1] as Set))
+        def metrics = new RecordingMetrics()
+        def subscriber = new MockSubscriber()
+
+        when: "a subscriber subscribes to the instrumented cache, and a change is made"
+        def instrumentation = m.instrumentJsonCache(jsonCache, metrics)
+        subscriber.expectChangeSets(2)
+        jsonCache.subscribe(subscriber)
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object2, m.getCacheRemove("Id1"))))
+
+        then: "the image built, the function applied, the change set output and the backlog of the subscriber are recorded"
+        subscriber.awaitChangeSets()
+        subscriber.changeSets == [cacheImage([object1] as Set), changeSet(object2, m.getCacheRemove("Id1"))]
+        metrics.subscribers.last() == 1
+        metrics.imagesBuilt == [1]
+        metrics.functionsApplied.get() == 1
+        metrics.changeSetsPublished == [[1, 1]]
+        metrics.subscriberBacklogs.size() == 2
+        metrics.subscriberBacklogs.every { it >= 1 }
+
+        when: "the subscriber cancels"
+        subscriber.cancel()
+
+        then: "the subscribers are recorded"
+        awaitCondition { metrics.subscribers.last() == 0 }
+
+        when: "the instrumentation is closed, and another change is made"
+        instrumentation.close()
+        awaitImage(jsonCache, [object2] as Set)
+        def recorded = metrics.functionsApplied.get()
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object1)))
+        awaitImage(jsonCache, [object1, object2] as Set)
+
+        then: "nothing more is recorded"
+        metrics.functionsApplied.get() == recorded
+        metrics.changeSetsPublished.size() == 1
+    }
+
+    def "JsonCache with shared fan-out tells its metrics of its subscribers and their backlogs"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", someOtherContent)
+        def jsonCache = m.getJsonCache("id", 10, JsonCache.SubscriberBacklogPolicy.FAIL, 1, false, true, m.getCache([object1] as Set))
+        def metrics = new RecordingMetrics()
+        def subscriber = new MockSubscriber()
+
+        when: "a subscriber subscribes to the instrumented cache, and changes are made"
+        m.instrumentJsonCache(jsonCache, metrics)
+        subscriber.expectChangeSets(3)
+        jsonCache.subscribe(subscriber)
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object2)))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(m.getCacheRemove("Id1"))))
+
+        then: "the subscribers and the backlog of the subscriber as each change set is delivered are recorded"
+        subscriber.awaitChangeSets()
+        metrics.subscribers.last() == 1
+        metrics.subscriberBacklogs.size() == 2
+        metrics.subscriberBacklogs.every { it >= 1 }
+
+        when: "the subscriber cancels"
+        subscriber.cancel()
+
+        then: "the subscribers are recorded"
+        awaitCondition { metrics.subscribers.last() == 0 }
+    }
+
+    def "JsonCache cannot be instrumented with bad parameters"() {
+
+        setup:
+        def jsonCache = m.getJsonCache("id", 10, m.getCache([] as Set))
+
+        when:
+        m.instrumentJsonCache(null, new RecordingMetrics())
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.instrumentJsonCache(jsonCache, null)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.instrumentJsonCache(m.getShardedJsonCache("id", 10, 1, 2, m.getCache([] as Set)), new RecordingMetrics())
+
+        then:
+        thrown(IllegalArgumentException)
+    }
+
+    private static boolean awaitCondition(Closure<Boolean> condition) {
+
+        def deadline = System.currentTimeMillis() + 5000
+        while(System.currentTimeMillis() < deadline) {
+            if(condition()) return true
+            Thread.sleep(20)
+        }
+        false
+    }
+
+    private static class RecordingMetrics implements JsonCacheMetrics {
+
+        final AtomicInteger functionsApplied = new AtomicInteger()
+        final List<List<Integer>> changeSetsPublished = new CopyOnWriteArrayList<>()
+        final List<Integer> imagesBuilt = new CopyOnWriteArrayList<>()
+        final List<Integer> subscriberBacklogs = new CopyOnWriteArrayList<>()
+        final List<Integer> subscribers = new CopyOnWriteArrayList<>()
+
+        @Override
+        void recordFunctionApplied(long nanos) {
+            functionsApplied.incrementAndGet()
+        }
+
+        @Override
+        void recordChangeSetPublished(int numPuts, int numRemoves) {
+            changeSetsPublished << [numPuts, numRemoves]
+        }
+
+        @Override
+        void recordImageBuilt(int numPuts, long nanos) {
+            imagesBuilt << numPuts
+        }
+
+        @Override
+        void recordSubscriberBacklog(int backlog) {
+            subscriberBacklogs << backlog
+        }
+
+        @Override
+        void recordSubscribers(int subscribers) {
+            this.subscribers << subscribers
+        }
+
+        @Override
+        void recordSelectorEvaluated(int numPuts, long nanos) {
+        }
+    }
+
+    def "JsonCache journals its change sets, from which its Cache can be rebuilt"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", someOtherContent)
+        def object1_changed =
+            m.getCacheObject("Id1", "Type", someOtherContent)
+        def object3 =
+            m.getCompactCacheObject("Id3", "Type", someContent)
+        def initialCache = m.getCache([object1] as Set)
+        def journalDirectory = Files.createTempDirectory("journal")
+        def subscriber = new MockSubscriber()
+
+        when: "changes are made to a journalling JsonCache, which is then completed"
+        def jsonCache = m.getJsonCache(
+            "id", 10, JsonCache.SubscriberBacklogPolicy.FAIL, 1, false, false, m.jsonCacheOptions.withJournal(journalDirectory), initialCache
+        )
+        subscriber.expectChangeSets(3)
+        jsonCache.subscribe(subscriber)
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object2)))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object1_changed, m.getCacheRemove("Id2"))))
+        subscriber.awaitChangeSets()
+        jsonCache.onComplete()
+        subscriber.awaitComplete()
+
+        then: "the journal rebuilds the Cache from its initial objects"
+        jsonCache.options.journalDirectory == Optional.of(journalDirectory)
+        awaitReplay(initialCache, journalDirectory, [object1_changed] as Set)
+
+        when: "a journalling JsonCache is created on the same journal, and changed"
+        subscriber = new MockSubscriber()
+        jsonCache = m.getJsonCache(
+            "id", 10, JsonCache.SubscriberBacklogPolicy.FAIL, 1, false, false, m.jsonCacheOptions.withJournal(journalDirectory), initialCache
+        )
+        subscriber.expectChangeSets(2)
+        jsonCache.subscribe(subscriber)
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object3)))
+        subscriber.awaitChangeSets()
+        jsonCache.onComplete()
+        subscriber.awaitComplete()
+
+        then: "the journal is appended to"
+        awaitReplay(initialCache, journalDirectory, [object1_changed, object3] as Set)
+
+        cleanup:
+        Files.list(journalDirectory).each { Files.deleteIfExists(it) }
+        Files.deleteIfExists(journalDirectory)
+    }
+
+    def "JsonCache whose journal cannot be written stops taking changes, and fails its subscribers"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def journalDirectory = Files.createTempDirectory("journal")
+        def jsonCache = m.getJsonCache(
+            "id", 10, JsonCache.SubscriberBacklogPolicy.FAIL, 1, false, false, m.jsonCacheOptions.withJournal(journalDirectory), 
+            m.getCache([] as Set)
+        )
+        def supplier = new MockSubscription()
+        def subscriber = new MockSubscriber()
+        supplier.expectRequest()
+        jsonCache.onSubscribe(supplier)
+        supplier.awaitRequest()
+        subscriber.expectChangeSets(1)
+        jsonCache.subscribe(subscriber)
+        subscriber.awaitChangeSets()
+
+        when: "the journal directory is removed, and a change is made"
+        Files.delete(journalDirectory)
+        supplier.expectCancel()
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object1)))
+
+        then: "the supplier of changes is cancelled, and the subscriber is sent the error"
+        supplier.awaitCancel()
+        subscriber.awaitError()
+
+        cleanup:
+        Files.deleteIfExists(journalDirectory)
+    }
+
+    private static boolean awaitReplay(Cache cache, Path journalDirectory, Set<CacheObject> expected) {
+        // The journal is written in the background
+        def deadline = System.currentTimeMillis() + 5000
+        while(!hasObjects(m.replayJournal(cache, journalDirectory), expected)) {
+            if(System.currentTimeMillis() > deadline) return false
+            Thread.sleep(20)
+        }
+        true
+    }
+
+    private static boolean hasObjects(Cache cache, Set<CacheObject> expected) {
+        cache.image == cacheImage(expected) && expected.every { cache.getCacheObject(it.id).content == it.content }
+    }
+
+    def "JsonCache journal cannot be replayed with bad parameters"() {
+
+        setup:
+        def journalDirectory = Files.createTempDirectory("journal")
+
+        when:
+        m.replayJournal(null, journalDirectory)
+
+        then:
+        thrown(NullPointerException)
+
+        when:
+        m.replayJournal(m.getCache([] as Set), null)
+
+        then:
+        thrown(NullPointerException)
+
+        cleanup:
+        Files.deleteIfExists(journalDirectory)
+    }
+
+    def "JsonCache with shared fan-out publishes to each subscriber at its own pace"() {
+
+        setup:
+        def object1 =
+            m.getCacheObject("Id1", "Type", someContent)
+        def object2 =
+            m.getCacheObject("Id2", "Type", someOtherContent)
+        def object3 =
+            m.getCacheObject("Id3", "Type", someContent)
+        def jsonCache = m.getJsonCache("id", 2, JsonCache.SubscriberBacklogPolicy.FAIL, 1, false, true, m.getCache([object1] as Set))
+        def subscribers = (1..3).collect { new MockSubscriber() }
+        def slowSubscriber = new MockSubscriber() {
+
+            @Override
+            protected void makeRequest(final Subscription s) {
+                // Do nothing - the subscriber falls behind in the shared buffer
+            }
+        }
+
+        expect:
+        jsonCache.usingSharedFanOut
+
+        when: "Subscriptions are made, and changes made to the cache, followed by a request for a cache image"
+        subscribers.eachWithIndex { subscriber, i -> subscriber.expectChangeSets(i == 0 ? 5 : 4) }
+        subscribers.each { jsonCache.subscribe(it) }
+        jsonCache.subscribe(slowSubscriber)
+        subscribers.each { it.awaitSubscription() }
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object2)))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(object3)))
+        jsonCache.onNext(m.getCacheChangeCalculator(changeSet(m.getCacheRemove("Id1"))))
+        jsonCache.sendImageToSubscriber(subscribers[0])
+
+        then: "each subscriber receives the initial image followed by every change set, and the requested image"
+        def expectedChangeSets = 
+            [cacheImage([object1] as Set), changeSet(object2), changeSet(object3), changeSet(m.getCacheRemove("Id1"))]
+        subscribers.every { it.awaitChangeSets() }
+        subscribers[0].changeSets == expectedChangeSets + [cacheImage([object2, object3] as Set)]
+        subscribers[1].changeSets == expectedChangeSets
+        subscribers[2].changeSets == expectedChangeSets
+
+        and: "the slow subscriber falls too far behind, and gets an error"
+        slowSubscriber.awaitError()
+        slowSubscriber.hasError
+
+        when: "The subscriptions are cancelled"
+        subscribers.each { it.cancel() }
+
+        then: "the subscribers are completed"
+        subscribers.every { it.awaitComplete() && it.hasCompleted && !it.hasError }
+    }
+
+    def "JsonCache subscribers can resume from the sequence number of the last change set received"() {
+
+        setup:
+        def jsonCache = m.getJsonCache("id", 3, JsonCache.SubscriberBacklogPolicy.FAIL, 1, false, sharedFanOut, m.getCache([] as Set))
+        def subscriber = new MockSubscriber()
+        def resumingSubscriber = new MockSubscriber()
+        def lateSubscriber = new MockSubscriber()
+        def upToDateSubscriber = new MockSubscriber()
+        def unknownSubscriber = new MockSubscriber()
+
+        when: "changes are made to the cache"
+        subscriber.expectChangeSets(5)
+        jsonCache.subscribe(subscriber)
+        (0..3).each { jsonCache.onNext(m.getCacheChangeCalculator(cacheChangeSet(it))) }
+
+        then: "each change set published has the next sequence number, and an image has that of the last change it reflects"
+        subscriber.awaitChangeSets()
+        subscriber.changeSets == [cacheImage([] as Set)] + (0..3).collect { cacheChangeSet(it) }
+        subscriber.changeSets.collect { (it as SequencedCacheChangeSet).sequence } == [-1L, 0L, 1L, 2L, 3L]
+
+        when: "a subscriber resumes from a change set still retained"
+        resumingSubscriber.expectChangeSets(2)
+        jsonCache.subscribe(resumingSubscriber, 2L)
+
+        then: "it is sent the change sets it missed, and no image"
+        resumingSubscriber.awaitChangeSets()
+        resumingSubscriber.changeSets == [cacheChangeSet(2), cacheChangeSet(3)]
+        resumingSubscriber.changeSets.collect { (it as SequencedCacheChangeSet).sequence } == [2L, 3L]
+
+        when: "subscribers resume from change sets no longer retained, or never published"
+        lateSubscriber.expectChangeSets(1)
+        unknownSubscriber.expectChangeSets(1)
+        jsonCache.subscribe(lateSubscriber, 0L)
+        jsonCache.subscribe(unknownSubscriber, 10L)
+
+        then: "they are sent an image"
+        lateSubscriber.awaitChangeSets()
+        lateSubscriber.changeSets == [cacheContent(3)]
+        (lateSubscriber.changeSets.head() as SequencedCacheChangeSet).sequence == 3L
+        unknownSubscriber.awaitChangeSets()
+        unknownSubscriber.changeSets == [cacheContent(3)]
+
+        when: "a subscriber resumes from the next change set, which is then published"
+        upToDateSubscriber.expectChangeSets(1)
+        jsonCache.subscribe(upToDateSubscriber, 4L)
+        jsonCache.onNext(m.getCacheChangeCalculator(cacheChangeSet(4)))
+
+        then: "it is sent just that change set"
+        upToDateSubscriber.awaitChangeSets()
+        upToDateSubscriber.changeSets == [cacheChangeSet(4)]
+        (upToDateSubscriber.changeSets.head() as SequencedCacheChangeSet).sequence == 4L
+
+        where:
+        sharedFanOut << [false, true]
+    }
+
+    def "Sharded JsonCache publishes an assembled image followed by the changes made in each shard"() {
+
+        setup:
+        def preContent = (1..20).collect { m.getCacheObject("Id$it", "Type", someContent) } as Set
+        def puts = (11..30).collect { m.getCacheObject("Id$it", "Type", someOtherContent) } as Set
+        def removes = (1..5).collect { m.getCacheRemove("Id$it") } as Set
+        def postContent = (6..10).collect { m.getCacheObject("Id$it", "Type", someContent) } as Set
+        postContent.addAll(puts)
+        def jsonCache = m.getShardedJsonCache("id", 10, 10, 4, m.getCache(preContent))
+        def subscriber = new MockSubscriber()
+
+        when: "A new subscription is made"
+        subscriber.expectChangeSets(1)
+        jsonCache.subscribe(subscriber)
+
+        then: "the subscriber first receives a single image of the objects held across all shards"
+        with(subscriber) {
+            awaitSubscription()
+            awaitChangeSets()
+            changeSets == [cacheImage(preContent)]
+        }
+
+        when: "A change is made to the cache, followed by a request for a cache image"
+        subscriber.expectChangeSets(Integer.MAX_VALUE)
+        subscriber.expectChangeSet(cacheImage(postContent))
+        jsonCache.onNext(m.getCacheChangeCalculator(cacheChangeSet(puts, removes)))
+        jsonCache.sendImageToSubscriber(subscriber)
+
+        then: "the subscriber receives the change split by shard, followed by the cache image"
+        subscriber.awaitChangeSet()
+        with(subscriber) {
+            changeSets.last() == cacheImage(postContent)
+            changeSets.size() > 1
+            changeSets.init().every { !it.cacheImage }
+            changeSets.init().collectMany { it.puts } as Set == puts
+            changeSets.init().collectMany { it.removes } as Set == removes
+            !hasCompleted
+            !hasError
+        }
+
+        when: "A function that is not a cache change calculator is applied"
+        def supplier = new MockSubscription()
+        supplier.expectRequest()
+        jsonCache.onSubscribe(supplier)
+        supplier.awaitRequest()
+        supplier.expectCancel()
+        jsonCache.onNext(Stub(CacheFunctionInstance))
+
+        then: "the supplier is cancelled, and the subscriber is sent the error"
+        notThrown(IllegalArgumentException)
+        supplier.awaitCancel()
+        subscriber.awaitError()
+    }
+
+    def "Sharded JsonCache cannot be created from bad parameters"() {
+
+        setup:
+        def cache = m.getCache([] as Set)
+
+        when: "cacheId is null"
+        m.getShardedJsonCache(null, 12, 1, 4, cache)
+
+        then:
+        thrown(NullPointerException)
+
+        when: "shardCount is 0"
+        m.getShardedJsonCache("id", 12, 1, 0, cache)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when: "ingestionBatchSize is 0"
+        m.getShardedJsonCache("id", 12, 0, 4, cache)
+
+        then:
+        thrown(IllegalArgumentException)
+
+        when: "cache is null"
+        m.getShardedJsonCache("id", 12, 1, 4, null)
+
+        then:
+        thrown(NullPointerException)
+    }
+
     private static CacheChangeSet changeSet(Object... entries) {
         
         def puts = [] as Set
@@ -47,6 +47,7 @@ import org.junit.runners.Suite
     [
         CacheObjectSpecification.class,
         CacheRemoveSpecification.class,
+        CacheObjectPatchSpecification.class,
         CacheChangeSetSpecification.class,
         CacheSpecification.class,
         CacheFunctionInstanceSpecification.class,
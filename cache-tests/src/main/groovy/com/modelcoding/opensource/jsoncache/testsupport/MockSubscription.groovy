@@ -24,18 +24,18 @@ class MockSubscription implements Subscription {
         requested.countDown()
     }
 
-//        private CountDownLatch cancelled
-//    
-//        void expectCancel() {
-//            cancelled = new CountDownLatch(1)
-//        }
-//        
-//        boolean awaitCancel(long milliSeconds = 1000) {
-//            cancelled.await(milliSeconds, TimeUnit.MILLISECONDS)
-//        }
+    private CountDownLatch cancelled
+
+    void expectCancel() {
+        cancelled = new CountDownLatch(1)
+    }
+
+    boolean awaitCancel(long milliSeconds = 1000) {
+        cancelled.await(milliSeconds, TimeUnit.MILLISECONDS)
+    }
 
     @Override
     void cancel() {
-//            cancelled.countDown()
+        cancelled?.countDown()
     }
 }
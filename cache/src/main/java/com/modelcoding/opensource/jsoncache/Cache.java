@@ -2,6 +2,9 @@
 
 package com.modelcoding.opensource.jsoncache;
 
+import java.util.Map;
+import java.util.Set;
+
 /**
  * A {@link Cache} is contained inside a {@link JsonCache}.
  * <p>
@@ -27,6 +30,15 @@ public interface Cache {
      */
     CacheObject getCacheObject(String cacheObjectId);
 
+    /**
+     * @param cacheObjectType a {@link CacheObject#getType()} of objects that may be contained in this {@link Cache}.
+     * @return the {@link CacheObject}s contained in this {@link Cache} with the given {@code cacheObjectType}
+     *         - empty if there are none.<br>
+     *         <em>The return must not expose this {@link Cache} to mutation.</em>
+     * @throws NullPointerException if {@code cacheObjectType} is {@code null}                  
+     */
+    Set<? extends CacheObject> getCacheObjectsByType(String cacheObjectType);
+
     enum PutAction {
         ADDED,
         REPLACED
@@ -74,12 +86,76 @@ public interface Cache {
      */
     RemoveResult remove(CacheRemove cacheRemove);
 
+    interface PutAllResult {
+        
+        Cache getCache();
+
+        /**
+         * @return the {@link PutAction} for each put, keyed by {@link CacheObject#getId()}.<br>
+         *         <em>The return must not expose this {@link PutAllResult} to mutation.</em>
+         */
+        Map<String, PutAction> getActions();
+    }
+    
     /**
-     * The {@link CacheChangeSet} created should return a unique {@link CacheChangeSet#getId()}.
+     * Puts all of the given {@code cacheObjects} as a single operation - equivalent to applying {@link #put(CacheObject)} 
+     * for each object in turn, but creating only one new {@link Cache}.
+     * 
+     * @param cacheObjects new {@link CacheObject}s to be contained in a {@link Cache}.
+     * @return {@link PutAllResult#getCache()} contains a new {@link Cache} with the same content as this {@link Cache} 
+     *         except it is guaranteed to contain each of the given {@code cacheObjects}.<br>
+     *         If {@code cacheObjects} is empty, then this {@link Cache} is simply returned as is.<br>
+     *         {@link PutAllResult#getActions()} indicates for each put whether it replaced an existing entry, or created a 
+     *         new entry.    
+     * @throws NullPointerException if {@code cacheObjects} is {@code null}, or contains {@code null}                  
+     */
+    PutAllResult putAll(Set<? extends CacheObject> cacheObjects);
+
+    interface RemoveAllResult {
+        
+        Cache getCache();
+
+        /**
+         * @return the {@link RemoveAction} for each remove, keyed by {@link CacheRemove#getId()}.<br>
+         *         <em>The return must not expose this {@link RemoveAllResult} to mutation.</em>
+         */
+        Map<String, RemoveAction> getActions();
+    }
+    
+    /**
+     * Removes all of the given {@code cacheRemoves} as a single operation - equivalent to applying 
+     * {@link #remove(CacheRemove)} for each remove in turn, but creating at most one new {@link Cache}.
+     * 
+     * @param cacheRemoves provide the identities of {@link CacheObject}s that may be contained in this {@link Cache}.
+     * @return {@link RemoveAllResult#getCache()} contains a new {@link Cache} with the same content as this {@link Cache} 
+     *         except it is guaranteed to contain no {@link CacheObject} with an identity given by {@code cacheRemoves}.<br>
+     *         If no object with an identity given by {@code cacheRemoves} is in this {@link Cache}, then this 
+     *         {@link Cache} is simply returned as is.<br>
+     *         {@link RemoveAllResult#getActions()} indicates for each remove whether it removed an existing entry, or 
+     *         no matching entry was found and no change was made.    
+     * @throws NullPointerException if {@code cacheRemoves} is {@code null}, or contains {@code null}                  
+     */
+    RemoveAllResult removeAll(Set<? extends CacheRemove> cacheRemoves);
+
+    /**
+     * As a {@link Cache} is immutable, its image may be created once and shared by all callers - the 
+     * {@link CacheChangeSet} returned should have a {@link CacheChangeSet#getId()} unique to this {@link Cache}.
      * 
      * @return the contents of this {@link Cache} as a {@link CacheChangeSet} with each object in the {@link Cache} as a "put",
      *         and where {@link CacheChangeSet#isCacheImage()} is {@code true}.<br>
      *         <em>The return must not expose this {@link Cache} to mutation.</em>
      */
     CacheChangeSet getImage();
+
+    /**
+     * The {@link CacheChangeSet} created should return a unique {@link CacheChangeSet#getId()}.
+     * 
+     * @param cacheObjectTypes the {@link CacheObject#getType()}s of the objects to be included in the image.
+     * @return the contents of this {@link Cache} with any of the given {@code cacheObjectTypes} as a 
+     *         {@link CacheChangeSet} with each such object as a "put", and where {@link CacheChangeSet#isCacheImage()} 
+     *         is {@code true}.<br>
+     *         <em>The return must not expose this {@link Cache} to mutation.</em>
+     * @throws NullPointerException if {@code cacheObjectTypes} is {@code null}                  
+     */
+    CacheChangeSet getImage(Set<String> cacheObjectTypes);
 }
@@ -0,0 +1,25 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache;
+
+import java.time.Duration;
+
+/**
+ * A {@link CacheObjectExpiry} decides how long a {@link CacheObject} put into a {@link JsonCache} remains valid - 
+ * see {@link JsonCacheModule#expireCacheObjects(JsonCache, CacheObjectExpiry)}.
+ * <p>
+ * The time to live may be decided by the {@link CacheObject#getType()} of an object (see 
+ * {@link JsonCacheModule#getCacheObjectExpiry(java.util.Map)}), or by the object itself - e.g. from its 
+ * {@link CacheObject#getContent()}.
+ */
+public interface CacheObjectExpiry {
+
+    /**
+     * Called each time a {@link CacheObject} is put into a {@link JsonCache}, so must be quick.
+     * 
+     * @param cacheObject the {@link CacheObject} put
+     * @return how long after being put the {@link CacheObject} is removed (unless put again, or removed, before then), 
+     *         or {@code null} if the {@link CacheObject} does not expire
+     */
+    Duration getTimeToLive(CacheObject cacheObject);
+}
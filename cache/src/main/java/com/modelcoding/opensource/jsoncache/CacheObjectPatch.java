@@ -0,0 +1,65 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * A {@link CacheObjectPatch} represents an update of a {@link CacheObject} as a JSON merge patch
+ * (<a href="https://tools.ietf.org/html/rfc7386">RFC 7386</a>) of its content - carrying only the parts of the content
+ * that changed.
+ * <p>
+ * A {@link CacheObjectPatch} is <em>immutable</em>.
+ */
+public interface CacheObjectPatch extends CacheMessage {
+
+    /**
+     * @return the identity of the {@link CacheObject} patched by this {@link CacheObjectPatch}.
+     */
+    String getId();
+
+    /**
+     * @return the merge patch to be applied to the content of the {@link CacheObject}.<br>
+     *         <em>The return must not expose this {@link CacheObjectPatch} to mutation.</em>
+     */
+    JsonNode getPatch();
+
+    /**
+     * @param cacheObject the {@link CacheObject} to be patched - cannot be {@code null}
+     * @return a new {@link CacheObject} with the same {@link CacheObject#getId()} and {@link CacheObject#getType()} as
+     *         the given {@code cacheObject}, but with {@link #getPatch()} merged into its content
+     * @throws NullPointerException if {@code cacheObject} is {@code null}
+     * @throws IllegalArgumentException if {@code cacheObject} does not have the same {@link CacheObject#getId()} as
+     *                                  this {@link CacheObjectPatch}
+     */
+    CacheObject applyTo(CacheObject cacheObject);
+
+    /**
+     * @return this {@link CacheObjectPatch} as JSON of the form:
+     * <pre>
+     * {<br>
+     *     "id" : {@link #getId()},<br>
+     *     "patch" : {@link #getPatch()}<br>
+     * }
+     * </pre>
+     */
+    ObjectNode asJsonNode();
+
+    /**
+     * {@link CacheObjectPatch}es are considered equal if they have the same {@link #getId()} and {@link #getPatch()}.
+     *
+     * @param   obj   the reference object with which to compare.
+     * @return  {@code true} if the obj is also a {@link CacheObjectPatch} with the same {@link #getId()} and
+     *          {@link #getPatch()}; {@code false} otherwise.
+     * @see     #hashCode()
+     */
+    boolean equals(Object obj);
+
+   /**
+    * @return  a hash code value for this {@link CacheObjectPatch} which must be based on {@link #getId()} and
+    *          {@link #getPatch()}.
+    * @see     #equals(java.lang.Object)
+    */
+   int hashCode();
+}
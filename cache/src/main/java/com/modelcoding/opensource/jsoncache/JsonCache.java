@@ -6,6 +6,8 @@ import org.reactivestreams.Publisher;
 import org.reactivestreams.Subscriber;
 import org.reactivestreams.Subscription;
 
+import java.util.Set;
+
 /**
  * A {@link JsonCache} is a "live" cache of entities in the form of "JSON objects".
  * A "JSON object" represents an instance of an entity that has a fixed identity and type, but whose content changes 
@@ -25,8 +27,8 @@ import org.reactivestreams.Subscription;
  * The initial {@link CacheChangeSet} is followed by {@link CacheChangeSet}s detailing subsequent changes made to the 
  * {@link JsonCache} thereafter. These {@link CacheChangeSet}s have {@link CacheChangeSet#isCacheImage()} as {@code false}.<br>
  * A {@link JsonCache} calls {@link Subscriber#onComplete()} if a subscription is cancelled via {@link Subscription#cancel()}.<br>
- * A {@link JsonCache} stops publishing to a subscriber and calls {@link Subscriber#onError(Throwable)} if the backlog of 
- * change sets published to a subscriber exceeds {@link #getSubscriberBacklogLimit()}.
+ * If the backlog of change sets published to a subscriber exceeds {@link #getSubscriberBacklogLimit()}, a 
+ * {@link JsonCache} acts according to its {@link #getSubscriberBacklogPolicy()}.
  * <p>
  * A {@link JsonCache} can be used as a {@link Subscriber} to a {@link Publisher} of {@link CacheFunctionInstance}s.<br>
  * Used in this way, the termination of the subscription to {@link CacheFunctionInstance}s also terminates any
@@ -36,6 +38,24 @@ import org.reactivestreams.Subscription;
  */
 public interface JsonCache extends CacheImageSender, Subscriber<CacheFunctionInstance> {
 
+    /**
+     * Defines what a {@link JsonCache} does with a {@link Subscriber} whose backlog of published {@link CacheChangeSet}s
+     * exceeds {@link #getSubscriberBacklogLimit()}.
+     */
+    enum SubscriberBacklogPolicy {
+        /**
+         * The {@link JsonCache} stops publishing to the subscriber and calls {@link Subscriber#onError(Throwable)}.
+         */
+        FAIL,
+        /**
+         * The {@link JsonCache} drops the backlog of change sets, and marks the subscriber as stale - no further 
+         * change sets are published to the subscriber while it is stale.<br>
+         * Once the subscriber requests more, it is sent a single cache image {@link CacheChangeSet} of the 
+         * then-current contents of the {@link JsonCache}, and change sets are published as normal thereafter.
+         */
+        RESYNC
+    }
+
     /**
      * @return the identity of this {@link JsonCache}
      */
@@ -46,6 +66,42 @@ public interface JsonCache extends CacheImageSender, Subscriber<CacheFunctionIns
      *         after which the subscriber is dropped by the {@link JsonCache} and sent {@link Subscriber#onError(Throwable)}
      */
     int getSubscriberBacklogLimit();
+
+    /**
+     * @return what this {@link JsonCache} does with a {@link Subscriber} whose backlog of published 
+     *         {@link CacheChangeSet}s exceeds {@link #getSubscriberBacklogLimit()}
+     */
+    SubscriberBacklogPolicy getSubscriberBacklogPolicy();
+
+    /**
+     * @return the number of {@link CacheFunctionInstance}s this {@link JsonCache} keeps requested from its subscription 
+     *         to {@link CacheFunctionInstance}s - all functions pending when the {@link JsonCache} next applies 
+     *         changes are applied together as a batch
+     */
+    int getIngestionBatchSize();
+
+    /**
+     * @return {@code true} if this {@link JsonCache} outputs a single merged {@link CacheChangeSet} for each batch of
+     *         {@link CacheFunctionInstance}s applied (where the last "put" or "remove" for an object id in the batch wins); 
+     *         {@code false} if it outputs the {@link CacheChangeSet} of each {@link CacheFunctionInstance} in turn
+     * @see #getIngestionBatchSize()
+     */
+    boolean isMergingBatchChangeSets();
+
+    /**
+     * @return {@code true} if this {@link JsonCache} writes each {@link CacheChangeSet} once into a buffer shared by all 
+     *         its subscribers, each subscriber reading from the buffer at its own pace - the backlog of a subscriber
+     *         being how far behind it is in the buffer; {@code false} if this {@link JsonCache} outputs each 
+     *         {@link CacheChangeSet} to a buffer per subscriber
+     */
+    boolean isUsingSharedFanOut();
+
+    /**
+     * @return the optional features of this {@link JsonCache} - e.g. whether it appends each {@link CacheChangeSet} it 
+     *         outputs to a journal, or keeps its {@link Cache} within a memory budget
+     */
+    JsonCacheOptions getOptions();
+
     
     /**
      * Adds the given {@code cacheFunctionInstance} to the sequence of pending functions to be applied in due course.<br>
@@ -58,7 +114,9 @@ public interface JsonCache extends CacheImageSender, Subscriber<CacheFunctionIns
      * A {@link JsonCache} does not output a {@link CacheChangeSet} to its subscribers if a {@link CacheFunction} does not
      * provide a new {@link Cache}.
      * <p>
-     * A {@link JsonCache} immediately requests another {@link CacheFunctionInstance} if subscribed.
+     * A {@link JsonCache} applies all the {@link CacheFunctionInstance}s pending at a time as a batch - see
+     * {@link #isMergingBatchChangeSets()} for the {@link CacheChangeSet}s output for a batch.<br>
+     * A {@link JsonCache} immediately requests as many {@link CacheFunctionInstance}s as it applied if subscribed.
      * 
      * @param cacheFunctionInstance defines a function that can access and may change the contents of this {@link JsonCache}.
      * @throws NullPointerException if {@code cacheFunctionInstance} is {@code null}
@@ -67,7 +125,8 @@ public interface JsonCache extends CacheImageSender, Subscriber<CacheFunctionIns
     void onNext(CacheFunctionInstance cacheFunctionInstance);
 
     /**
-     * A {@link JsonCache} once subscribed immediately requests a {@link CacheFunctionInstance} be published. 
+     * A {@link JsonCache} once subscribed immediately requests {@link #getIngestionBatchSize()} 
+     * {@link CacheFunctionInstance}s be published. 
      * 
      * @param subscription {@link Subscription} that allows requesting data via {@link Subscription#request(long)}
      * @throws NullPointerException if {@code subscription} is {@code null}
@@ -107,8 +166,8 @@ public interface JsonCache extends CacheImageSender, Subscriber<CacheFunctionIns
      * The initial {@link CacheChangeSet} is followed by {@link CacheChangeSet}s detailing subsequent changes made to the 
      * {@link JsonCache} thereafter. These {@link CacheChangeSet}s have {@link CacheChangeSet#isCacheImage()} as {@code false}.<br>
      * A {@link JsonCache} calls {@link Subscriber#onComplete()} if a subscription is cancelled via {@link Subscription#cancel()}.<br>
-     * A {@link JsonCache} stops publishing to a subscriber and calls {@link Subscriber#onError(Throwable)} if the backlog of 
-     * change sets published to a subscriber exceeds {@link #getSubscriberBacklogLimit()}.
+     * If the backlog of change sets published to a subscriber exceeds {@link #getSubscriberBacklogLimit()}, a 
+     * {@link JsonCache} acts according to its {@link #getSubscriberBacklogPolicy()}.
      * 
      * @param subscriber the {@link Subscriber} that will consume {@link CacheChangeSet}s from this {@link JsonCache}.
      * @throws NullPointerException if {@code subscriber} is {@code null}
@@ -116,6 +175,45 @@ public interface JsonCache extends CacheImageSender, Subscriber<CacheFunctionIns
     @Override
     void subscribe(Subscriber<? super CacheChangeSet> subscriber);
 
+    /**
+     * Register a {@link Subscriber} to receive {@link CacheChangeSet}s from this JsonCache, scoped to the 
+     * {@link CacheObject}s with any of the given {@code cacheObjectTypes}.
+     * <p>
+     * Publication is as for {@link #subscribe(Subscriber)}, except that:
+     * <ul>
+     * <li>the initial cache image, and any image requested via {@link #sendImageToSubscriber(Subscriber)}, contains a 
+     * "put" only for each object in the cache with one of the {@code cacheObjectTypes}</li>
+     * <li>subsequent {@link CacheChangeSet}s contain only the "puts" of objects with one of the {@code cacheObjectTypes},
+     * and the "removes" of objects that had one of the {@code cacheObjectTypes} - a "put" that changes the type of an 
+     * object from one of the {@code cacheObjectTypes} to some other type is published as a "remove"</li>
+     * <li>a {@link CacheChangeSet} that has no effect on objects with one of the {@code cacheObjectTypes} is not 
+     * published to the {@code subscriber}</li>
+     * </ul>
+     * 
+     * @param subscriber the {@link Subscriber} that will consume {@link CacheChangeSet}s from this {@link JsonCache}.
+     * @param cacheObjectTypes the {@link CacheObject#getType()}s of the objects the {@code subscriber} is interested in.
+     * @throws NullPointerException if {@code subscriber} or {@code cacheObjectTypes} is {@code null}
+     */
+    void subscribe(Subscriber<? super CacheChangeSet> subscriber, Set<String> cacheObjectTypes);
+
+    /**
+     * Register a {@link Subscriber} to receive {@link CacheChangeSet}s from this JsonCache, resuming a previous 
+     * subscription from the {@link CacheChangeSet} with the given sequence number.
+     * <p>
+     * The {@link CacheChangeSet}s published by a {@link JsonCache} (other than a sharded one) are 
+     * {@link SequencedCacheChangeSet}s, and a {@link JsonCache} retains the most recent 
+     * {@link #getSubscriberBacklogLimit()} of them.<br>
+     * If all those from {@code fromSequence} on are retained, the {@code subscriber} is not sent an initial cache image, 
+     * but those retained from {@code fromSequence} on, followed by those published thereafter.<br>
+     * Otherwise, publication is as for {@link #subscribe(Subscriber)}.
+     * 
+     * @param subscriber the {@link Subscriber} that will consume {@link CacheChangeSet}s from this {@link JsonCache}.
+     * @param fromSequence the {@link SequencedCacheChangeSet#getSequence()} of the first {@link CacheChangeSet} the 
+     *                     {@code subscriber} has not received - one more than that of the last it received.
+     * @throws NullPointerException if {@code subscriber} is {@code null}
+     */
+    void subscribe(Subscriber<? super CacheChangeSet> subscriber, long fromSequence);
+
     /**
      * Requests that a {@link CacheChangeSet} representing the contents of this {@link JsonCache}
      * (i.e. containing a "put" for each {@link CacheObject} in the cache, and {@link CacheChangeSet#isCacheImage()} 
@@ -0,0 +1,49 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache;
+
+/**
+ * A {@link JsonCacheMetrics} is told of the work done by a {@link JsonCache} - see
+ * {@link JsonCacheModule#instrumentJsonCache(JsonCache, JsonCacheMetrics)} - or by the processors of a client of a
+ * {@link JsonCache}, so that it can be recorded as counters, gauges and histograms.
+ * <p>
+ * Each method is called on the path every change takes through the {@link JsonCache}, so must be quick, and should
+ * not allocate. The methods of a {@link JsonCacheMetrics} may be called from several threads at once.
+ */
+public interface JsonCacheMetrics {
+
+    /**
+     * @param nanos the time taken to apply a {@link CacheFunctionInstance} to the {@link Cache} of a {@link JsonCache}
+     */
+    void recordFunctionApplied(long nanos);
+
+    /**
+     * @param numPuts the number of puts in a {@link CacheChangeSet} output by a {@link JsonCache}
+     * @param numRemoves the number of removes in the {@link CacheChangeSet}
+     */
+    void recordChangeSetPublished(int numPuts, int numRemoves);
+
+    /**
+     * @param numPuts the number of objects in an image of the {@link Cache} of a {@link JsonCache}
+     * @param nanos the time taken to build the image
+     */
+    void recordImageBuilt(int numPuts, long nanos);
+
+    /**
+     * @param backlog the number of {@link CacheChangeSet}s a {@link JsonCache} has output to a subscriber, but which
+     *                the subscriber has not yet taken - including the one just output
+     * @see JsonCache#getSubscriberBacklogLimit()
+     */
+    void recordSubscriberBacklog(int backlog);
+
+    /**
+     * @param subscribers the number of subscribers a {@link JsonCache} now has
+     */
+    void recordSubscribers(int subscribers);
+
+    /**
+     * @param numPuts the number of puts of a {@link CacheChangeSet} to which a selector of a client was applied
+     * @param nanos the time taken to apply the selector to all the puts
+     */
+    void recordSelectorEvaluated(int numPuts, long nanos);
+}
@@ -4,6 +4,11 @@ package com.modelcoding.opensource.jsoncache;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -37,6 +42,37 @@ public interface JsonCacheModule {
      */
     CacheObject getCacheObject(JsonNode json);
     
+    /**
+     * As {@link #getCacheObject(String, String, JsonNode)}, but the returned {@link CacheObject} holds its content 
+     * serialized, rather than as a tree of {@link JsonNode}s - taking a fraction of the memory.
+     * <p>
+     * {@link CacheObject#getContent()} parses the content each time it is called. A {@link JsonCache} writing the 
+     * {@link CacheObject} to a journal or snapshot copies the serialized content as it is.
+     * 
+     * @throws NullPointerException if:
+     *         <ul>
+     *             <li>{@code cacheObjectId} is {@code null}</li>
+     *             <li>{@code cacheObjectType} is {@code null}</li>
+     *             <li>{@code cacheObjectContent} is {@code null}</li>
+     *         </ul>     
+     */
+    CacheObject getCompactCacheObject(String cacheObjectId, String cacheObjectType, JsonNode cacheObjectContent);
+
+    /**
+     * As {@link #getCompactCacheObject(String, String, JsonNode)}, but taking the content already serialized - as 
+     * received, say - so that no tree of {@link JsonNode}s need be built for it.
+     * 
+     * @param serializedContent the content for the {@link CacheObject}, as UTF-8 encoded JSON - cannot be {@code null}
+     * @throws NullPointerException if:
+     *         <ul>
+     *             <li>{@code cacheObjectId} is {@code null}</li>
+     *             <li>{@code cacheObjectType} is {@code null}</li>
+     *             <li>{@code serializedContent} is {@code null}</li>
+     *         </ul>     
+     * @throws IllegalArgumentException if {@code serializedContent} is not a single JSON value
+     */
+    CacheObject getCompactCacheObject(String cacheObjectId, String cacheObjectType, byte[] serializedContent);
+
     /**
      * @param cacheObjectId an id for the {@link CacheRemove} - cannot be {@code null}
      * @return an instance of a {@link CacheRemove} with the given {@code cacheObjectId}
@@ -52,6 +88,22 @@ public interface JsonCacheModule {
      */
     CacheRemove getCacheRemove(JsonNode json);
 
+    /**
+     * @param cacheObjectId the id of the {@link CacheObject} to be patched - cannot be {@code null}
+     * @param patch a JSON merge patch for the content of the {@link CacheObject} - cannot be {@code null}
+     * @return an instance of a {@link CacheObjectPatch} with the given {@code cacheObjectId} and {@code patch}
+     * @throws NullPointerException if {@code cacheObjectId} is {@code null}, or {@code patch} is {@code null}
+     */
+    CacheObjectPatch getCacheObjectPatch(String cacheObjectId, JsonNode patch);
+
+    /**
+     * @param json JSON representation of a {@link CacheObjectPatch} in the form given by {@link CacheObjectPatch#asJsonNode()}
+     * @return an instance of a {@link CacheObjectPatch} as defined by the given {@code json}
+     * @throws NullPointerException if {@code json} is {@code null}
+     * @throws IllegalArgumentException if {@code json} is not in the form given by {@link CacheObjectPatch#asJsonNode()}
+     */
+    CacheObjectPatch getCacheObjectPatch(JsonNode json);
+
     /**
      * @param id a tracking id
      * @param puts put operations on a {@link JsonCache} - cannot be {@code null}
@@ -77,6 +129,109 @@ public interface JsonCacheModule {
      */
     Cache getCache(Set<? extends CacheObject> cacheObjects);
 
+    /**
+     * Restores a {@link Cache} from a snapshot written by {@link #writeCacheSnapshot(Cache, Path)}.
+     * <p>
+     * The snapshot file is memory-mapped and its index used to locate each object, so that a large {@link Cache}
+     * can be restored at close to the speed the file can be read.
+     * 
+     * @param snapshotFile a snapshot file - cannot be {@code null}
+     * @return an instance of a {@link Cache} containing the objects in the given {@code snapshotFile}
+     * @throws NullPointerException if {@code snapshotFile} is {@code null}
+     * @throws IllegalArgumentException if {@code snapshotFile} is not a snapshot written by 
+     *                                  {@link #writeCacheSnapshot(Cache, Path)}
+     * @throws IOException if {@code snapshotFile} cannot be read
+     */
+    Cache getCacheFromSnapshot(Path snapshotFile) throws IOException;
+
+    /**
+     * Writes a snapshot of the objects in a {@link Cache} - the id, type and content of each - to a file, from which 
+     * the {@link Cache} can be restored by {@link #getCacheFromSnapshot(Path)}.
+     * <p>
+     * The snapshot is written to a temporary file in the same directory, which then replaces {@code snapshotFile}:
+     * {@code snapshotFile} always holds a complete snapshot.
+     * 
+     * @param cache the {@link Cache} to write - cannot be {@code null}
+     * @param snapshotFile the file to write - cannot be {@code null}
+     * @throws NullPointerException if {@code cache} is {@code null}, or {@code snapshotFile} is {@code null}
+     * @throws IOException if the snapshot cannot be written
+     */
+    void writeCacheSnapshot(Cache cache, Path snapshotFile) throws IOException;
+
+    /**
+     * Periodically writes a snapshot of the {@link Cache} held by a running {@link JsonCache}, as by 
+     * {@link #writeCacheSnapshot(Cache, Path)}.
+     * <p>
+     * At each interval, a {@link CacheFunctionInstance} is passed to {@link JsonCache#onNext(CacheFunctionInstance)}
+     * which makes no change, but captures the {@link Cache} it is applied to. The snapshot of that {@link Cache} is 
+     * written in the background, so the {@link JsonCache} is not held up by the writing. No snapshot is taken while 
+     * the previous one is still being written.
+     * 
+     * @param jsonCache the {@link JsonCache} to take snapshots of - cannot be {@code null}, and cannot be a sharded
+     *                  {@link JsonCache}
+     * @param snapshotFile the file to write - cannot be {@code null}
+     * @param interval the interval between snapshots - cannot be {@code null}, negative or zero
+     * @return a {@link Closeable} which stops the snapshots when closed
+     * @throws NullPointerException if {@code jsonCache} is {@code null}, {@code snapshotFile} is {@code null}, or 
+     *                              {@code interval} is {@code null}
+     * @throws IllegalArgumentException if {@code jsonCache} is a sharded {@link JsonCache}, or {@code interval} is 
+     *                                  negative or zero
+     * @see #getShardedJsonCache(String, int, int, int, Cache)                                  
+     */
+    Closeable writeCacheSnapshots(JsonCache jsonCache, Path snapshotFile, Duration interval);
+
+    /**
+     * @param timeToLiveByType the time to live of the {@link CacheObject}s of each {@link CacheObject#getType()} 
+     *                         that expire - cannot be {@code null}, or hold {@code null} types or times to live
+     * @return a {@link CacheObjectExpiry} under which an object of a type in {@code timeToLiveByType} expires after 
+     *         the time to live given for the type, and objects of other types do not expire
+     * @throws NullPointerException if {@code timeToLiveByType} is {@code null}, or holds a {@code null} type or time 
+     *                              to live
+     * @throws IllegalArgumentException if a time to live in {@code timeToLiveByType} is negative or zero
+     */
+    CacheObjectExpiry getCacheObjectExpiry(Map<String, Duration> timeToLiveByType);
+
+    /**
+     * Removes each {@link CacheObject} from a running {@link JsonCache} once its time to live, as decided by the 
+     * given {@code expiry} when it was last put, has passed.
+     * <p>
+     * The {@link JsonCache} keeps a hashed timer wheel of the objects that expire: putting or removing an object 
+     * schedules or cancels its expiry at a fixed cost, however many objects are in the {@link JsonCache}. A put that 
+     * leaves an object unchanged still restarts its time to live. As the wheel turns, a {@link CacheFunctionInstance} 
+     * is passed to {@link JsonCache#onNext(CacheFunctionInstance)} which removes the objects whose time to live has 
+     * passed - all those expiring together are removed by a single {@link CacheChangeSet}.<br>
+     * Objects already in the {@link JsonCache} are given their time to live from when this is called.
+     * 
+     * @param jsonCache the {@link JsonCache} to expire objects from - cannot be {@code null}, and cannot be a sharded
+     *                  {@link JsonCache}
+     * @param expiry decides the time to live of each object - cannot be {@code null}
+     * @return a {@link Closeable} which stops the expiry of objects when closed
+     * @throws NullPointerException if {@code jsonCache} is {@code null}, or {@code expiry} is {@code null}
+     * @throws IllegalArgumentException if {@code jsonCache} is a sharded {@link JsonCache}
+     * @see #getShardedJsonCache(String, int, int, int, Cache)
+     */
+    Closeable expireCacheObjects(JsonCache jsonCache, CacheObjectExpiry expiry);
+
+    /**
+     * Tells the given {@code metrics} of the work done by a running {@link JsonCache}: the time taken to apply each 
+     * {@link CacheFunctionInstance}, the size of each {@link CacheChangeSet} output, the time taken to build each
+     * image, the backlog of each subscriber as it is sent a {@link CacheChangeSet}, and the number of subscribers.
+     * <p>
+     * A {@link JsonCache} has one {@link JsonCacheMetrics} at a time: instrumenting it again replaces the 
+     * {@link JsonCacheMetrics} it had. When the {@link JsonCache} uses shared fan-out, images are built, and 
+     * subscribers served, by the subscribers' threads - so only the time taken to apply each 
+     * {@link CacheFunctionInstance}, and the size of each {@link CacheChangeSet} output, are recorded.
+     * 
+     * @param jsonCache the {@link JsonCache} to instrument - cannot be {@code null}, and cannot be a sharded 
+     *                  {@link JsonCache}
+     * @param metrics told of the work done - cannot be {@code null}
+     * @return a {@link Closeable} which stops the {@code metrics} being told of the work done when closed
+     * @throws NullPointerException if {@code jsonCache} is {@code null}, or {@code metrics} is {@code null}
+     * @throws IllegalArgumentException if {@code jsonCache} is a sharded {@link JsonCache}
+     * @see #getShardedJsonCache(String, int, int, int, Cache)
+     */
+    Closeable instrumentJsonCache(JsonCache jsonCache, JsonCacheMetrics metrics);
+
     /**
      * @param cacheChangeSet changes to be applied to a {@link JsonCache} - cannot be {@code null}
      * @return a {@link CacheFunctionInstance} whose {@link CacheFunctionInstance#getCode()}  will simply apply all the 
@@ -95,9 +250,174 @@ public interface JsonCacheModule {
      *                               - cannot be negative or 0
      * @param cache initial set of objects for the {@link JsonCache} - cannot be {@code null}
      * @return an instance of a {@link JsonCache} with the given {@code cacheId}, {@code subscriberBacklogLimit} and
-     *         initially containing the given {@code cache}
+     *         initially containing the given {@code cache}, using {@link JsonCache.SubscriberBacklogPolicy#FAIL}
      * @throws NullPointerException if {@code cacheId} is {@code null}, or {@code cache} is {@code null}       
      * @throws IllegalArgumentException if {@code subscriberBacklogLimit} is negative or 0
      */
     JsonCache getJsonCache(String cacheId, int subscriberBacklogLimit, Cache cache);
+
+    /**
+     * @param cacheId an id for the {@link JsonCache} - cannot be {@code null}
+     * @param subscriberBacklogLimit limit of buffered notifications beyond which the {@code subscriberBacklogPolicy}
+     *                               is applied to a slow subscriber - cannot be negative or 0
+     * @param subscriberBacklogPolicy what to do with a subscriber whose backlog exceeds {@code subscriberBacklogLimit}
+     *                                - cannot be {@code null}
+     * @param cache initial set of objects for the {@link JsonCache} - cannot be {@code null}
+     * @return an instance of a {@link JsonCache} with the given {@code cacheId}, {@code subscriberBacklogLimit},
+     *         {@code subscriberBacklogPolicy} and initially containing the given {@code cache}, with an ingestion
+     *         batch size of 1 and no merging of batch change sets
+     * @throws NullPointerException if {@code cacheId} is {@code null}, {@code subscriberBacklogPolicy} is {@code null}, 
+     *                              or {@code cache} is {@code null}       
+     * @throws IllegalArgumentException if {@code subscriberBacklogLimit} is negative or 0
+     */
+    JsonCache getJsonCache(
+        String cacheId, 
+        int subscriberBacklogLimit, 
+        JsonCache.SubscriberBacklogPolicy subscriberBacklogPolicy, 
+        Cache cache
+    );
+
+    /**
+     * @param cacheId an id for the {@link JsonCache} - cannot be {@code null}
+     * @param subscriberBacklogLimit limit of buffered notifications beyond which the {@code subscriberBacklogPolicy}
+     *                               is applied to a slow subscriber - cannot be negative or 0
+     * @param subscriberBacklogPolicy what to do with a subscriber whose backlog exceeds {@code subscriberBacklogLimit}
+     *                                - cannot be {@code null}
+     * @param ingestionBatchSize number of {@link CacheFunctionInstance}s kept requested by the {@link JsonCache} 
+     *                           - cannot be negative or 0
+     * @param mergeBatchChangeSets {@code true} to output a single merged {@link CacheChangeSet} for each batch of
+     *                             {@link CacheFunctionInstance}s applied
+     * @param cache initial set of objects for the {@link JsonCache} - cannot be {@code null}
+     * @return an instance of a {@link JsonCache} with the given {@code cacheId}, {@code subscriberBacklogLimit},
+     *         {@code subscriberBacklogPolicy}, {@code ingestionBatchSize}, {@code mergeBatchChangeSets} and initially 
+     *         containing the given {@code cache}, without shared fan-out
+     * @throws NullPointerException if {@code cacheId} is {@code null}, {@code subscriberBacklogPolicy} is {@code null}, 
+     *                              or {@code cache} is {@code null}       
+     * @throws IllegalArgumentException if {@code subscriberBacklogLimit} or {@code ingestionBatchSize} is negative or 0
+     * @see JsonCache#getIngestionBatchSize()
+     * @see JsonCache#isMergingBatchChangeSets()
+     */
+    JsonCache getJsonCache(
+        String cacheId, 
+        int subscriberBacklogLimit, 
+        JsonCache.SubscriberBacklogPolicy subscriberBacklogPolicy, 
+        int ingestionBatchSize,
+        boolean mergeBatchChangeSets,
+        Cache cache
+    );
+
+    /**
+     * @param cacheId an id for the {@link JsonCache} - cannot be {@code null}
+     * @param subscriberBacklogLimit limit of buffered notifications beyond which the {@code subscriberBacklogPolicy}
+     *                               is applied to a slow subscriber - cannot be negative or 0
+     * @param subscriberBacklogPolicy what to do with a subscriber whose backlog exceeds {@code subscriberBacklogLimit}
+     *                                - cannot be {@code null}
+     * @param ingestionBatchSize number of {@link CacheFunctionInstance}s kept requested by the {@link JsonCache} 
+     *                           - cannot be negative or 0
+     * @param mergeBatchChangeSets {@code true} to output a single merged {@link CacheChangeSet} for each batch of
+     *                             {@link CacheFunctionInstance}s applied
+     * @param sharedFanOut {@code true} to output {@link CacheChangeSet}s to a single buffer shared by all subscribers                             
+     * @param cache initial set of objects for the {@link JsonCache} - cannot be {@code null}
+     * @return an instance of a {@link JsonCache} with the given {@code cacheId}, {@code subscriberBacklogLimit},
+     *         {@code subscriberBacklogPolicy}, {@code ingestionBatchSize}, {@code mergeBatchChangeSets}, 
+     *         {@code sharedFanOut} and initially containing the given {@code cache}
+     * @throws NullPointerException if {@code cacheId} is {@code null}, {@code subscriberBacklogPolicy} is {@code null}, 
+     *                              or {@code cache} is {@code null}       
+     * @throws IllegalArgumentException if {@code subscriberBacklogLimit} or {@code ingestionBatchSize} is negative or 0
+     * @see JsonCache#isUsingSharedFanOut()
+     */
+    JsonCache getJsonCache(
+        String cacheId, 
+        int subscriberBacklogLimit, 
+        JsonCache.SubscriberBacklogPolicy subscriberBacklogPolicy, 
+        int ingestionBatchSize,
+        boolean mergeBatchChangeSets,
+        boolean sharedFanOut,
+        Cache cache
+    );
+
+    /**
+     * @return {@link JsonCacheOptions} with no optional features, to which features are added by its {@code with} 
+     *         methods
+     */
+    JsonCacheOptions getJsonCacheOptions();
+
+    /**
+     * As {@link #getJsonCache(String, int, JsonCache.SubscriberBacklogPolicy, int, boolean, boolean, Cache)}, but 
+     * the returned {@link JsonCache} also has the optional features given by {@code options}.
+     * 
+     * @param options the optional features of the {@link JsonCache} - cannot be {@code null}
+     * @return an instance of a {@link JsonCache} with the given {@code options}
+     * @throws NullPointerException if {@code cacheId} is {@code null}, {@code subscriberBacklogPolicy} is {@code null}, 
+     *                              {@code options} is {@code null}, or {@code cache} is {@code null}       
+     * @throws IllegalArgumentException if {@code subscriberBacklogLimit} or {@code ingestionBatchSize} is negative or 0,
+     *                                  or a segment of a journal in {@link JsonCacheOptions#getJournalDirectory()} 
+     *                                  before the last is incomplete
+     * @throws IOException if a journal in {@link JsonCacheOptions#getJournalDirectory()} cannot be opened
+     * @see JsonCache#getOptions()
+     * @see JsonCacheOptions#withJournal(Path)
+     * @see JsonCacheOptions#withMemoryBudget(long)
+     */
+    JsonCache getJsonCache(
+        String cacheId, 
+        int subscriberBacklogLimit, 
+        JsonCache.SubscriberBacklogPolicy subscriberBacklogPolicy, 
+        int ingestionBatchSize,
+        boolean mergeBatchChangeSets,
+        boolean sharedFanOut,
+        JsonCacheOptions options,
+        Cache cache
+    ) throws IOException;
+
+    /**
+     * Rebuilds a {@link Cache} by applying the {@link CacheChangeSet}s recorded in a journal, in order, to a 
+     * {@link Cache} - typically, one restored by {@link #getCacheFromSnapshot(Path)}.
+     * <p>
+     * The journal may hold changes already in the given {@code cache}: as each put holds the whole of an object,
+     * applying those changes again leaves the {@link Cache} as it would be had they been skipped, once the changes 
+     * which follow them have been applied. A record left incomplete at the end of the journal by a crash is ignored.
+     * 
+     * @param cache the {@link Cache} to apply the journal to - cannot be {@code null}
+     * @param journalDirectory the directory holding the journal - cannot be {@code null}
+     * @return an instance of a {@link Cache} with the changes in the journal applied to {@code cache}
+     * @throws NullPointerException if {@code cache} is {@code null}, or {@code journalDirectory} is {@code null}
+     * @throws IllegalArgumentException if a segment of the journal before the last is incomplete
+     * @throws IOException if the journal cannot be read
+     */
+    Cache replayJournal(Cache cache, Path journalDirectory) throws IOException;
+
+    /**
+     * A sharded {@link JsonCache} partitions its objects by {@link CacheObject#getId()} across a number of shards, 
+     * each holding its own {@link Cache}, so that the parts of a change falling in different shards are applied in
+     * parallel.
+     * <p>
+     * A sharded {@link JsonCache} publishes to each subscriber an image assembled from all shards, followed by the 
+     * {@link CacheChangeSet}s of each shard in turn - a {@link CacheChangeSet} published contains only the puts and 
+     * removes falling in one shard. Changes are published in the order applied for the objects of any one shard.
+     * <p>
+     * A sharded {@link JsonCache} uses {@link JsonCache.SubscriberBacklogPolicy#FAIL}, does not merge batch 
+     * change sets, and does not use shared fan-out. It can only apply {@link CacheFunctionInstance}s from {@link #getCacheChangeCalculator(CacheChangeSet)}
+     * - given any other, it cancels its subscription to its supplier, and its subscribers are sent an 
+     * {@link IllegalArgumentException}.
+     * 
+     * @param cacheId an id for the {@link JsonCache} - cannot be {@code null}
+     * @param subscriberBacklogLimit limit of buffered notifications beyond which a slow subscriber is completed and dropped
+     *                               - cannot be negative or 0
+     * @param ingestionBatchSize number of {@link CacheFunctionInstance}s kept requested by the {@link JsonCache} 
+     *                           - cannot be negative or 0
+     * @param shardCount number of shards - cannot be negative or 0
+     * @param cache initial set of objects for the {@link JsonCache} - cannot be {@code null}
+     * @return an instance of a sharded {@link JsonCache} with the given {@code cacheId}, {@code subscriberBacklogLimit},
+     *         {@code ingestionBatchSize}, {@code shardCount} and initially containing the given {@code cache}
+     * @throws NullPointerException if {@code cacheId} is {@code null}, or {@code cache} is {@code null}       
+     * @throws IllegalArgumentException if {@code subscriberBacklogLimit}, {@code ingestionBatchSize} or 
+     *                                  {@code shardCount} is negative or 0
+     */
+    JsonCache getShardedJsonCache(
+        String cacheId, 
+        int subscriberBacklogLimit, 
+        int ingestionBatchSize,
+        int shardCount,
+        Cache cache
+    );
 }
@@ -0,0 +1,72 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache;
+
+import java.nio.file.Path;
+import java.util.Optional;
+import java.util.OptionalLong;
+
+/**
+ * The optional features of a {@link JsonCache} - see
+ * {@link JsonCacheModule#getJsonCache(String, int, JsonCache.SubscriberBacklogPolicy, int, boolean, boolean, JsonCacheOptions, Cache)}.
+ * <p>
+ * {@link JsonCacheOptions} are immutable: each {@code with} method returns a new {@link JsonCacheOptions} with the
+ * feature added, starting from those with no features given by {@link JsonCacheModule#getJsonCacheOptions()}.
+ */
+public interface JsonCacheOptions {
+
+    /**
+     * @return the directory holding the journal to which the {@link JsonCache} appends each {@link CacheChangeSet} it
+     *         outputs, or empty if it keeps no journal
+     * @see #withJournal(Path)
+     */
+    Optional<Path> getJournalDirectory();
+
+    /**
+     * The {@link JsonCache} appends each {@link CacheChangeSet} it outputs to a journal in the given
+     * {@code journalDirectory}, from which its {@link Cache} can be rebuilt by
+     * {@link JsonCacheModule#replayJournal(Cache, Path)}.
+     * <p>
+     * The journal is a sequence of segment files, each holding a length-prefixed, checksummed record of each
+     * {@link CacheChangeSet}. Records are written by a thread of the journal's own, and forced to disk once for each
+     * batch of records waiting to be written (group commit), so that the {@link JsonCache} is not held up by the
+     * writing. A journal found in {@code journalDirectory} is appended to: a record left incomplete by a crash is
+     * dropped.
+     * <p>
+     * If the journal cannot be written, the {@link JsonCache} cancels its subscription to its supplier of
+     * {@link CacheFunctionInstance}s, and its subscribers are sent the error: changes which are not journalled are not
+     * published.
+     * <p>
+     * Once a snapshot written by {@link JsonCacheModule#writeCacheSnapshots(JsonCache, Path, java.time.Duration)} for
+     * the {@link JsonCache} is complete, the segments holding only changes already in the snapshot are deleted.
+     *
+     * @param journalDirectory the directory holding the journal - cannot be {@code null}
+     * @return these {@link JsonCacheOptions}, with the journal in {@code journalDirectory}
+     * @throws NullPointerException if {@code journalDirectory} is {@code null}
+     */
+    JsonCacheOptions withJournal(Path journalDirectory);
+
+    /**
+     * @return the most, in bytes, that the estimated size of the objects in the {@link Cache} of the {@link JsonCache} 
+     *         may come to, before the objects put least recently are removed, or empty if unbounded
+     * @see #withMemoryBudget(long)
+     */
+    OptionalLong getMemoryBudget();
+
+    /**
+     * The {@link JsonCache} keeps the estimated size of the objects in its {@link Cache} within the given 
+     * {@code memoryBudget}.
+     * <p>
+     * The size of an object is estimated from its id, type and content. When a {@link CacheFunctionInstance} applied
+     * takes the {@link Cache} over budget, the objects put least recently are removed until it is back within budget 
+     * - the removal being output as a {@link CacheChangeSet} of {@link CacheRemove}s like any other (and journalled, 
+     * if the {@link JsonCache} keeps a journal), so that subscribers remain consistent with the {@link Cache}. A put 
+     * of an object leaving it unchanged still counts as a put.
+     *
+     * @param memoryBudget the most, in bytes, that the estimated size of the objects in the {@link Cache} may come to
+     *                     - cannot be negative or 0
+     * @return these {@link JsonCacheOptions}, with the {@code memoryBudget}
+     * @throws IllegalArgumentException if {@code memoryBudget} is negative or 0
+     */
+    JsonCacheOptions withMemoryBudget(long memoryBudget);
+}
@@ -0,0 +1,21 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache;
+
+/**
+ * A {@link SequencedCacheChangeSet} is a {@link CacheChangeSet} published by a {@link JsonCache}, stamped with its
+ * place in the sequence of {@link CacheChangeSet}s published by the {@link JsonCache}.
+ * <p>
+ * Each {@link CacheChangeSet} published with {@link CacheChangeSet#isCacheImage()} as {@code false} has a sequence 
+ * number one greater than the last; a cache image has the sequence number of the last such {@link CacheChangeSet} it 
+ * reflects.<br>
+ * A subscriber can resume from where it left off with {@link JsonCache#subscribe(org.reactivestreams.Subscriber, long)},
+ * passing one more than the sequence number of the last {@link SequencedCacheChangeSet} it received.
+ */
+public interface SequencedCacheChangeSet extends CacheChangeSet {
+
+    /**
+     * @return the sequence number of this {@link CacheChangeSet} in the {@link JsonCache} that published it.
+     */
+    long getSequence();
+}
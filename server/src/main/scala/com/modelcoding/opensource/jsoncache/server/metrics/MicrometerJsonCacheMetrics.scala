@@ -0,0 +1,92 @@
+// Author: Richard Bradford
+
+package com.modelcoding.opensource.jsoncache.server.metrics
+
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+import com.modelcoding.opensource.jsoncache.JsonCacheMetrics
+import io.micrometer.core.instrument.{DistributionSummary, MeterRegistry, Tags, Timer}
+
+/**
+ * Records the work done by a JsonCache, or the processors of its clients, as meters of the registry the actuator
+ * publishes - each tagged with the given name.
+ * <p>
+ * Times and sizes are recorded into the histograms held by the meters, so recording allocates nothing.
+ */
+class MicrometerJsonCacheMetrics(registry: MeterRegistry, name: String) extends JsonCacheMetrics {
+
+  private val tags: Tags = Tags.of("cache", name)
+
+  private val functionApplied: Timer =
+    Timer.builder("jsoncache.function.applied").tags(tags)
+      .description("Time taken to apply a function to the Cache")
+      .publishPercentileHistogram()
+      .register(registry)
+
+  private val changeSetPuts: DistributionSummary =
+    DistributionSummary.builder("jsoncache.changeset.puts").tags(tags)
+      .description("Puts in each change set output")
+      .publishPercentileHistogram()
+      .register(registry)
+
+  private val changeSetRemoves: DistributionSummary =
+    DistributionSummary.builder("jsoncache.changeset.removes").tags(tags)
+      .description("Removes in each change set output")
+      .publishPercentileHistogram()
+      .register(registry)
+
+  private val imageBuilt: Timer =
+    Timer.builder("jsoncache.image.built").tags(tags)
+      .description("Time taken to build an image of the Cache")
+      .publishPercentileHistogram()
+      .register(registry)
+
+  private val imagePuts: DistributionSummary =
+    DistributionSummary.builder("jsoncache.image.puts").tags(tags)
+      .description("Objects in each image of the Cache")
+      .register(registry)
+
+  private val subscriberBacklog: DistributionSummary =
+    DistributionSummary.builder("jsoncache.subscriber.backlog").tags(tags)
+      .description("Change sets output to a subscriber but not yet taken, as each is output")
+      .publishPercentileHistogram()
+      .register(registry)
+
+  private val subscribers: AtomicInteger = registry.gauge("jsoncache.subscribers", tags, new AtomicInteger())
+
+  private val selectorEvaluated: Timer =
+    Timer.builder("jsoncache.selector.evaluated").tags(tags)
+      .description("Time taken to apply a client's selector to the puts of a change set")
+      .publishPercentileHistogram()
+      .register(registry)
+
+  private val selectorPuts: DistributionSummary =
+    DistributionSummary.builder("jsoncache.selector.puts").tags(tags)
+      .description("Puts of each change set a client's selector is applied to")
+      .register(registry)
+
+  override def recordFunctionApplied(nanos: Long): Unit = functionApplied.record(nanos, TimeUnit.NANOSECONDS)
+
+  override def recordChangeSetPublished(numPuts: Int, numRemoves: Int): Unit = {
+
+    changeSetPuts.record(numPuts)
+    changeSetRemoves.record(numRemoves)
+  }
+
+  override def recordImageBuilt(numPuts: Int, nanos: Long): Unit = {
+
+    imageBuilt.record(nanos, TimeUnit.NANOSECONDS)
+    imagePuts.record(numPuts)
+  }
+
+  override def recordSubscriberBacklog(backlog: Int): Unit = subscriberBacklog.record(backlog)
+
+  override def recordSubscribers(count: Int): Unit = subscribers.set(count)
+
+  override def recordSelectorEvaluated(numPuts: Int, nanos: Long): Unit = {
+
+    selectorEvaluated.record(nanos, TimeUnit.NANOSECONDS)
+    selectorPuts.record(numPuts)
+  }
+}